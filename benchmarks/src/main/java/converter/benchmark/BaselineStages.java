@@ -0,0 +1,397 @@
+package converter.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import movement.schedule.RouteSchedule;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+import converter.BoundaryIndex;
+import converter.CompactStopTimes;
+import converter.Converter;
+import converter.Converter.Weekday;
+import converter.FeedIndex;
+import converter.RouteWithTripList;
+import converter.ServiceCalendarIndex;
+import converter.TripWithStopTimeList;
+
+/**
+ * the stages of Converter.main() replaced by faster ones, kept as they were
+ * to be measured against them by ConverterStagesBenchmark
+ *
+ * @author linzhiqi
+ *
+ */
+public class BaselineStages {
+
+	private static class NumOfTripsOfService {
+		int numOfTrips;
+		ServiceCalendar service;
+		
+		public NumOfTripsOfService(ServiceCalendar service){
+			this.service = service;
+			this.numOfTrips = 0;
+		}
+	}
+
+	public static void fillOptimisedServiceMap(
+			HashMap<Route, HashMap<Weekday, ServiceCalendar>> optimisedServiceMap,
+			Collection<Trip> allTrips,
+			Map<AgencyAndId, ServiceCalendar> calendarMap) {
+		HashMap<Route, HashMap<Weekday, ArrayList<NumOfTripsOfService>>> tempMap = new HashMap<Route, 
+				HashMap<Weekday, ArrayList<NumOfTripsOfService>>>();
+		for(Trip t : allTrips){
+			Route r = t.getRoute();
+			ServiceCalendar serviceOfTheTrip = calendarMap.get(t.getServiceId());
+			int weekdayMask = ServiceCalendarIndex.getWeekdayMask(serviceOfTheTrip);
+			if(tempMap.containsKey(r)){
+				HashMap<Weekday, ArrayList<NumOfTripsOfService>> mapOfRoute = tempMap.get(r);			
+				
+				for (Weekday day : Weekday.values()) {
+					if (ServiceCalendarIndex.hasWeekday(weekdayMask, day)) {
+						if(mapOfRoute.containsKey(day)){
+							ArrayList<NumOfTripsOfService> list = mapOfRoute.get(day);
+							boolean isContained = false;
+							for(NumOfTripsOfService s : list){
+								if(s.service.equals(serviceOfTheTrip)){
+									s.numOfTrips ++;
+									isContained = true;
+									break;
+								}
+							}
+							if(!isContained){
+								NumOfTripsOfService newService = new NumOfTripsOfService(serviceOfTheTrip);
+								newService.numOfTrips = 1;
+								list.add(newService);
+							}
+						}else{
+							ArrayList<NumOfTripsOfService> newList = new ArrayList<NumOfTripsOfService>();
+							mapOfRoute.put(day, newList);
+						}
+					}
+				}
+				
+			}else{
+				HashMap<Weekday, ArrayList<NumOfTripsOfService>> newSubMap = new HashMap<Weekday, ArrayList<NumOfTripsOfService>>();
+				tempMap.put(r, newSubMap);
+			}
+		}
+		
+		Collection<Entry<Route, HashMap<Weekday, ArrayList<NumOfTripsOfService>>>> mapValues = tempMap.entrySet();
+		for(Entry<Route, HashMap<Weekday, ArrayList<NumOfTripsOfService>>> map : mapValues){
+			HashMap<Weekday, ServiceCalendar> subMap = new HashMap<Weekday, ServiceCalendar>();
+			optimisedServiceMap.put(map.getKey(), subMap);
+			Collection<Entry<Weekday, ArrayList<NumOfTripsOfService>>> lists = map.getValue().entrySet();
+			for(Entry<Weekday, ArrayList<NumOfTripsOfService>> list : lists){
+				int maxNum = 0;
+				NumOfTripsOfService bestService = null;
+				for(NumOfTripsOfService service : list.getValue()){
+					if(service.numOfTrips>maxNum){
+						maxNum = service.numOfTrips;
+						bestService = service;
+					}
+				}
+
+				if(bestService!=null){
+					subMap.put(list.getKey(), bestService.service);
+				}
+				
+			}
+		}
+	}
+
+	/**
+	 * if in the trip, there is a sequence of stops within boundaries, and the
+	 * number of them >= the half of the total number of stops of this trip, we
+	 * shorten this trip to this stop sequence, with any other stops removed.
+	 * 
+	 * @param boundaryIndex
+	 *            tells which stops are within the boundaries
+	 * @param routeSchedules
+	 */
+	public static void constrainOutOfBound(BoundaryIndex boundaryIndex,
+			ArrayList<RouteSchedule> routeSchedules) {
+		Converter.BoundStats stats = new Converter.BoundStats();
+		int routeDeleted = 0;
+		Iterator<RouteSchedule> routeIt = routeSchedules.iterator();
+		while (routeIt.hasNext()) {
+			// remove this route if it has no vehicle
+			if (!Converter.constrainOutOfBound(boundaryIndex, routeIt.next(),
+					stats)) {
+				routeIt.remove();
+				routeDeleted ++;
+			}
+		}
+		// the deleted routes are counted by Converter itself now
+		stats.print();
+		System.out.println("routeDeleted=" + routeDeleted);
+	}
+
+	/**
+	 * construct RouteSchedule objects and populate the list
+	 * 
+	 * @param routesWithTripList
+	 * @param route2IntIdMap
+	 * @param routeSchedules
+	 *            the structure to populate
+	 */
+	public static void populateRouteScheduleList(
+			ArrayList<RouteWithTripList> routesWithTripList,
+			HashMap<Route, Integer> route2IntIdMap,
+			ArrayList<RouteSchedule> routeSchedules) {
+		for (RouteWithTripList route : routesWithTripList) {
+			RouteSchedule routeSchedule = new RouteSchedule();
+			routeSchedule.layer_id = Converter.getLayerId(route.getRoute()
+					.getType());
+			routeSchedule.route_id = route2IntIdMap.get(route.getRoute());
+			routeSchedule.stops = route.getStopList();
+			routeSchedule.vehicles = route.getVehicleList();
+			routeSchedules.add(routeSchedule);
+		}
+	}
+
+	/**
+	 * make up an instance of each trip for every week day of its service. The
+	 * instances share the CompactStopTimes of the trip and only differ in
+	 * their time offset. The stop times of each trip are sorted by stop
+	 * sequence here.
+	 * 
+	 * @param top2BottomStructure
+	 * @param tripInstances
+	 *            the trip instances of each route, to populate
+	 * @param calendarMap
+	 * @return the number of trip instances after split
+	 */
+	public static int splitTrips4MultipleWeekDay(
+			HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure,
+			HashMap<Route, ArrayList<TripWithStopTimeList>> tripInstances,
+			Map<AgencyAndId, ServiceCalendar> calendarMap) {
+		int numOfTripsAfterMadeUp = 0;
+		for (Entry<Route, HashMap<Trip, ArrayList<StopTime>>> entry : top2BottomStructure
+				.entrySet()) {
+			HashMap<Trip, ArrayList<StopTime>> trips = entry.getValue();
+			ArrayList<TripWithStopTimeList> instances = new ArrayList<TripWithStopTimeList>();
+			for (Entry<Trip, ArrayList<StopTime>> trip : trips.entrySet()) {
+				ArrayList<StopTime> stopTimeList = trip.getValue();
+				// sort the stop time elements of the trip
+				Collections.sort(stopTimeList);
+				CompactStopTimes stopTimes = CompactStopTimes
+						.create(stopTimeList);
+
+				ServiceCalendar calendar = calendarMap.get(trip.getKey()
+						.getServiceId());
+				int weekdayMask = ServiceCalendarIndex.getWeekdayMask(calendar);
+				assert (weekdayMask != 0) : "invalide calendar element:"
+						+ calendar.getServiceId().getAgencyId();
+				for (Weekday day : Weekday.values()) {
+					if (ServiceCalendarIndex.hasWeekday(weekdayMask, day)) {
+						instances.add(new TripWithStopTimeList(trip.getKey(),
+								stopTimes, 86400 * day.ordinal()));
+					}
+				}
+			}
+			tripInstances.put(entry.getKey(), instances);
+
+			if (instances.size() > trips.size()) {
+				System.out.println((instances.size() - trips.size())
+						+ " trips are made up for route-"
+						+ entry.getKey().getId().getId());
+			}
+			numOfTripsAfterMadeUp += instances.size();
+		}
+		System.out.println(numOfTripsAfterMadeUp + " trips after make up.");
+		return numOfTripsAfterMadeUp;
+	}
+
+	/**
+	 * traverse useful StopTime objects and map them to corresponding Trip
+	 * objects and Route objects
+	 * 
+	 * @param top2BottomStructure
+	 *            the structure to populate
+	 * @param stopTimes
+	 *            all useful StopTime objects
+	 */
+	public static void obtainTop2BottomStructure(
+			HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure,
+			Collection<StopTime> stopTimes) {
+		Iterator<StopTime> it2 = stopTimes.iterator();
+		while (it2.hasNext()) {
+			StopTime st = it2.next();
+			Trip trip = st.getTrip();
+			Route route = st.getTrip().getRoute();
+			ArrayList<StopTime> stopTimeList = null;
+			HashMap<Trip, ArrayList<StopTime>> tripStopTimeMap = null;
+
+			if (!top2BottomStructure.containsKey(route)) {
+				tripStopTimeMap = new HashMap<Trip, ArrayList<StopTime>>();
+				top2BottomStructure.put(route, tripStopTimeMap);
+			} else {
+				tripStopTimeMap = top2BottomStructure.get(route);
+			}
+
+			if (!tripStopTimeMap.containsKey(trip)) {
+				stopTimeList = new ArrayList<StopTime>();
+				top2BottomStructure.get(route).put(trip, stopTimeList);
+			} else {
+				stopTimeList = tripStopTimeMap.get(trip);
+			}
+
+			stopTimeList.add(st);
+		}
+	}
+
+	/**
+	 * remove the StopTime objects of useless Trip objects
+	 * 
+	 * @param stopTimes
+	 * @param usefulTrips
+	 */
+	public static void removeUselessStopTime(Collection<StopTime> stopTimes,
+			HashSet<Trip> usefulTrips) {
+		Iterator<StopTime> it = stopTimes.iterator();
+		Trip bufTrip = null;
+		boolean shouldRemove = false;
+		int numOfOptimized = 0;
+		while (it.hasNext()) {
+			StopTime st = it.next();
+			Trip thisTrip = st.getTrip();
+			if (bufTrip == null || !bufTrip.equals(thisTrip)) {
+				bufTrip = thisTrip;
+				shouldRemove = !usefulTrips.contains(bufTrip);
+			} else {
+				numOfOptimized++;
+			}
+			if (shouldRemove) {
+				it.remove();
+			}
+		}
+		System.out.println("\nnum of optimized =" + numOfOptimized
+				+ "\tnum of stoptime = " + stopTimes.size());
+	}
+
+	public static void obtainUsefulTrips2(Collection<Route> allRoutes,
+			Collection<Trip> allTrips,
+			Map<AgencyAndId, ServiceCalendar> calendarMap,
+			HashSet<Trip> usefulTrips, HashMap<Route, HashMap<Weekday, ServiceCalendar>> targetedServiceMap) {
+
+		int numOfTrips = allTrips.size();
+
+		// only select trips of selected services
+		Iterator<Trip> it = allTrips.iterator();
+		while (it.hasNext()) {
+			Trip trip = it.next();
+			ServiceCalendar service = calendarMap.get(trip
+					.getServiceId());
+			Route r = trip.getRoute();		
+			HashMap<Weekday, ServiceCalendar> serviceMap = targetedServiceMap.get(r);
+					
+			int weekdayMask = ServiceCalendarIndex.getWeekdayMask(service);
+
+			for (Weekday day : Weekday.values()) {
+				if (ServiceCalendarIndex.hasWeekday(weekdayMask, day)) {
+					ServiceCalendar targetedService = serviceMap.get(day);
+					if(targetedService!=null && targetedService.equals(service)){
+						usefulTrips.add(trip);
+						break;
+					}
+				}
+			}
+
+		}
+
+		System.out.println("\nafter obtainUsefulTrips2" + "\ttrips:" + usefulTrips.size() + "/"
+				+ numOfTrips);
+	}
+
+	/**
+	 * same as obtainUsefulTrips2(), but on the indices of the feed. The
+	 * targeted services are resolved into a [route][week day] table of
+	 * service indices once, then every trip is checked with a few array
+	 * lookups.
+	 *
+	 * @param index
+	 * @param targetedServiceMap
+	 * @return the trip indices of the useful trips
+	 */
+	public static BitSet selectUsefulTrips(FeedIndex index,
+			HashMap<Route, HashMap<Weekday, ServiceCalendar>> targetedServiceMap) {
+		Weekday[] days = Weekday.values();
+		int[][] targetedServices = new int[index.getNumOfRoutes()][days.length];
+		for (int[] servicesOfRoute : targetedServices) {
+			Arrays.fill(servicesOfRoute, -1);
+		}
+		for (Entry<Route, HashMap<Weekday, ServiceCalendar>> entry : targetedServiceMap
+				.entrySet()) {
+			int r = index.getRouteIndex(entry.getKey());
+			if (r < 0) {
+				continue;
+			}
+			for (Entry<Weekday, ServiceCalendar> service : entry.getValue()
+					.entrySet()) {
+				targetedServices[r][service.getKey().ordinal()] = index
+						.getServiceIndex(service.getValue().getServiceId());
+			}
+		}
+
+		BitSet usefulTrips = new BitSet(index.getNumOfTrips());
+		for (int t = 0; t < index.getNumOfTrips(); t++) {
+			int r = index.getRouteOfTrip(t);
+			int s = index.getServiceOfTrip(t);
+			if (r < 0 || s < 0) {
+				continue;
+			}
+			for (Weekday day : days) {
+				if (index.runsOn(s, day)
+						&& targetedServices[r][day.ordinal()] == s) {
+					usefulTrips.set(t);
+					break;
+				}
+			}
+		}
+
+		System.out.println("\nafter selectUsefulTrips" + "\ttrips:"
+				+ usefulTrips.cardinality() + "/" + index.getNumOfTrips());
+		return usefulTrips;
+	}
+
+	/**
+	 * remove the StopTime objects of useless trips, given as trip indices
+	 * 
+	 * @param stopTimes
+	 * @param index
+	 * @param usefulTrips
+	 */
+	public static void removeUselessStopTime(Collection<StopTime> stopTimes,
+			FeedIndex index, BitSet usefulTrips) {
+		Iterator<StopTime> it = stopTimes.iterator();
+		Trip bufTrip = null;
+		boolean shouldRemove = false;
+		while (it.hasNext()) {
+			StopTime st = it.next();
+			// stop times of a trip are usually consecutive
+			if (st.getTrip() != bufTrip) {
+				bufTrip = st.getTrip();
+				int t = index.getTripIndex(bufTrip);
+				shouldRemove = t < 0 || !usefulTrips.get(t);
+			}
+			if (shouldRemove) {
+				it.remove();
+			}
+		}
+		System.out.println("\nnum of stoptime = " + stopTimes.size());
+	}
+}
@@ -0,0 +1,38 @@
+package converter.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * runs the benchmarks and writes the results as JSON, so runs can be
+ * compared. Takes the usual JMH options, e.g. "-p numOfRoutes=500" or
+ * "-rff other.json".
+ *
+ * @author linzhiqi
+ *
+ */
+public class BenchmarkRunner {
+	public static final String RESULT_FILE_NAME = "benchmark-result.json";
+
+	public static void main(String[] args) throws RunnerException,
+			CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty()) {
+			options.include(ConverterStagesBenchmark.class.getName());
+		}
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!commandLine.getResult().hasValue()) {
+			options.result(RESULT_FILE_NAME);
+		}
+		new Runner(options.build()).run();
+	}
+}
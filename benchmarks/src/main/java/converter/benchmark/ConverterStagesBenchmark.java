@@ -0,0 +1,358 @@
+package converter.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+import movement.schedule.RouteSchedule;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import util.IOUtil;
+import util.PatternScheduleWriter;
+import converter.BoundaryIndex;
+import converter.Converter;
+import converter.Converter.Weekday;
+import converter.DateRangeExpander;
+import converter.FeedIndex;
+import converter.MappedStopTimesLoader;
+import converter.RouteExecutor;
+import converter.RouteWithTripList;
+import converter.ServiceCalendarIndex;
+import converter.StopGeometry;
+import converter.StopTimeTable;
+import converter.TripWithStopTimeList;
+
+/**
+ * one benchmark per stage of Converter.main(), each fed with the output of
+ * the previous stages on a FeedFixture. Stages modifying their input get a
+ * fresh copy before every invocation, the copying is not measured. The
+ * stages Converter no longer runs are measured on their BaselineStages.
+ *
+ * @author linzhiqi
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ConverterStagesBenchmark {
+	/** a Wednesday in the winter services of the FeedFixture */
+	private static final ServiceDate WEEK = new ServiceDate(2015, 3, 4);
+	/** 90 days of the winter services */
+	private static final ServiceDate RANGE_FROM = new ServiceDate(2015, 3, 2);
+	private static final ServiceDate RANGE_TO = new ServiceDate(2015, 5, 30);
+
+	@Param({ "10", "100" })
+	public int numOfRoutes;
+
+	@Param({ "70", "700" })
+	public int tripsPerRoute;
+
+	FeedFixture feed;
+	HashMap<Route, HashMap<Weekday, ServiceCalendar>> optimisedServiceMap;
+	HashSet<Trip> usefulTrips;
+	FeedIndex index;
+	ServiceCalendarIndex calendarIndex;
+	DateRangeExpander dateRangeExpander;
+	BitSet usefulTripIndices;
+	ArrayList<StopTime> usefulStopTimes;
+	HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure;
+	ArrayList<ArrayList<StopTime>> stopTimesOfTrips;
+	ArrayList<RouteWithTripList> routesWithTripList;
+	HashMap<Route, Integer> route2IntIdMap;
+	StopGeometry stops;
+	double[] boundaries;
+	BoundaryIndex boundaryIndex;
+	ArrayList<RouteSchedule> routeSchedules;
+	File scheduleFile;
+	File feedFolder;
+	RouteExecutor executor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		feed = new FeedFixture(numOfRoutes, tripsPerRoute, 42);
+
+		route2IntIdMap = new HashMap<Route, Integer>();
+		Converter.removeUninterestedRoutes(null,
+				new ArrayList<Route>(feed.routes), route2IntIdMap);
+
+		optimisedServiceMap = new HashMap<Route, HashMap<Weekday, ServiceCalendar>>();
+		BaselineStages.fillOptimisedServiceMap(optimisedServiceMap,
+				feed.trips, feed.calendarMap);
+		usefulTrips = new HashSet<Trip>();
+		BaselineStages.obtainUsefulTrips2(feed.routes, feed.trips,
+				feed.calendarMap, usefulTrips, optimisedServiceMap);
+		usefulStopTimes = new ArrayList<StopTime>(feed.stopTimes);
+		BaselineStages.removeUselessStopTime(usefulStopTimes, usefulTrips);
+		index = new FeedIndex(feed.routes, feed.trips, feed.calendars,
+				feed.stops);
+		usefulTripIndices = BaselineStages.selectUsefulTrips(index,
+				optimisedServiceMap);
+		calendarIndex = new ServiceCalendarIndex(feed.calendarMap, true);
+		dateRangeExpander = new DateRangeExpander(calendarIndex, RANGE_FROM,
+				RANGE_TO);
+
+		top2BottomStructure = obtainTop2BottomStructure();
+		stopTimesOfTrips = groupStopTimesByTrip();
+		routesWithTripList = feed.createRoutesWithTripList(usefulStopTimes);
+		Converter.populateVehicleList(routesWithTripList, Converter.SPEED_MAX,
+				Converter.DISTANCE_MAX);
+		routeSchedules = new ArrayList<RouteSchedule>();
+		BaselineStages.populateRouteScheduleList(routesWithTripList,
+				route2IntIdMap, routeSchedules);
+
+		stops = feed.createStopGeometry();
+		boundaries = feed.getHalfBoundaries();
+		boundaryIndex = new BoundaryIndex(stops, boundaries);
+		scheduleFile = File.createTempFile("schedules", ".json");
+		feedFolder = File.createTempFile("feed", "");
+		feedFolder.delete();
+		feedFolder.mkdir();
+		feed.writeStopTimes(feedFolder);
+		executor = new RouteExecutor(Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executor.close();
+		scheduleFile.delete();
+		new File(feedFolder, "stop_times.txt").delete();
+		feedFolder.delete();
+	}
+
+	@Benchmark
+	public HashMap<Route, HashMap<Weekday, ServiceCalendar>> fillOptimisedServiceMap() {
+		HashMap<Route, HashMap<Weekday, ServiceCalendar>> serviceMap = new HashMap<Route, HashMap<Weekday, ServiceCalendar>>();
+		BaselineStages.fillOptimisedServiceMap(serviceMap, feed.trips,
+				feed.calendarMap);
+		return serviceMap;
+	}
+
+	@Benchmark
+	public HashSet<Trip> obtainUsefulTrips2() {
+		HashSet<Trip> trips = new HashSet<Trip>();
+		BaselineStages.obtainUsefulTrips2(feed.routes, feed.trips,
+				feed.calendarMap, trips, optimisedServiceMap);
+		return trips;
+	}
+
+	@Benchmark
+	public Collection<StopTime> removeUselessStopTime(StopTimesOfStore input) {
+		BaselineStages.removeUselessStopTime(input.stopTimes, usefulTrips);
+		return input.stopTimes;
+	}
+
+	@Benchmark
+	public FeedIndex createFeedIndex() {
+		return new FeedIndex(feed.routes, feed.trips, feed.calendars,
+				feed.stops);
+	}
+
+	@Benchmark
+	public ServiceCalendarIndex createServiceCalendarIndex() {
+		return new ServiceCalendarIndex(feed.calendarMap, true);
+	}
+
+	/**
+	 * the week days of every service in the week of WEEK
+	 */
+	@Benchmark
+	public int selectWeek() {
+		return calendarIndex.selectWeek(WEEK);
+	}
+
+	/**
+	 * the instances of the trips of every route over 90 days, one route at a
+	 * time as when blocking
+	 */
+	@Benchmark
+	public int expandDateRange() {
+		int numOfInstances = 0;
+		for (RouteWithTripList route : routesWithTripList) {
+			numOfInstances += dateRangeExpander.expand(route.getTripList())
+					.size();
+		}
+		return numOfInstances;
+	}
+
+	/**
+	 * stop_times.txt of the fixture parsed in chunks on all cores
+	 */
+	@Benchmark
+	public StopTimeTable loadMappedStopTimes() throws IOException {
+		return new MappedStopTimesLoader(new File(feedFolder,
+				"stop_times.txt"), index, usefulTripIndices).load(executor);
+	}
+
+	@Benchmark
+	public BitSet selectUsefulTrips() {
+		return BaselineStages.selectUsefulTrips(index, optimisedServiceMap);
+	}
+
+	/**
+	 * fillOptimisedServiceMap() and selectUsefulTrips() in one counting pass
+	 */
+	@Benchmark
+	public BitSet selectUsefulTripsByCounting() {
+		return Converter.selectUsefulTrips(index);
+	}
+
+	@Benchmark
+	public Collection<StopTime> removeUselessStopTimeByIndex(
+			StopTimesOfStore input) {
+		BaselineStages.removeUselessStopTime(input.stopTimes, index,
+				usefulTripIndices);
+		return input.stopTimes;
+	}
+
+	@Benchmark
+	public HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> obtainTop2BottomStructure() {
+		HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure = new HashMap<Route, HashMap<Trip, ArrayList<StopTime>>>();
+		BaselineStages.obtainTop2BottomStructure(top2BottomStructure,
+				usefulStopTimes);
+		return top2BottomStructure;
+	}
+
+	/**
+	 * the split only refers to the stop times, so the same structure is split
+	 * again on every invocation
+	 */
+	@Benchmark
+	public HashMap<Route, ArrayList<TripWithStopTimeList>> splitTrips4MultipleWeekDay() {
+		HashMap<Route, ArrayList<TripWithStopTimeList>> tripInstances = new HashMap<Route, ArrayList<TripWithStopTimeList>>();
+		BaselineStages.splitTrips4MultipleWeekDay(top2BottomStructure,
+				tripInstances, feed.calendarMap);
+		return tripInstances;
+	}
+
+	@Benchmark
+	public ArrayList<ArrayList<StopTime>> groupStopTimesByTrip() {
+		return Converter.groupStopTimesByTrip(index, feed.stopTimes,
+				usefulTripIndices);
+	}
+
+	/**
+	 * like splitTrips4MultipleWeekDay(), on the stop times grouped by trip
+	 * index. The lists of the trips are released by the split, so it gets a
+	 * copy of the list of lists.
+	 */
+	@Benchmark
+	public HashMap<Route, ArrayList<TripWithStopTimeList>> splitTrips4MultipleWeekDayByIndex() {
+		HashMap<Route, ArrayList<TripWithStopTimeList>> tripInstances = new HashMap<Route, ArrayList<TripWithStopTimeList>>();
+		Converter.splitTrips4MultipleWeekDay(index,
+				new ArrayList<ArrayList<StopTime>>(stopTimesOfTrips),
+				tripInstances);
+		return tripInstances;
+	}
+
+	/**
+	 * blocking leaves the trip lists untouched, so the same routes are
+	 * blocked again on every invocation
+	 */
+	@Benchmark
+	public int populateVehicleList() {
+		return Converter.populateVehicleList(routesWithTripList,
+				Converter.SPEED_MAX, Converter.DISTANCE_MAX);
+	}
+
+	@Benchmark
+	public BoundaryIndex createBoundaryIndex() {
+		return new BoundaryIndex(stops, boundaries);
+	}
+
+	@Benchmark
+	public ArrayList<RouteSchedule> constrainOutOfBound(
+			RouteSchedulesToClip input) {
+		BaselineStages.constrainOutOfBound(boundaryIndex, input.routeSchedules);
+		return input.routeSchedules;
+	}
+
+	@Benchmark
+	public long writeToJSONFile() {
+		IOUtil.writeToJSONFile(routeSchedules, scheduleFile.getPath());
+		return scheduleFile.length();
+	}
+
+	@Benchmark
+	public long writePatternFile() throws IOException {
+		PatternScheduleWriter writer = new PatternScheduleWriter(scheduleFile,
+				false);
+		try {
+			for (RouteSchedule route : routeSchedules) {
+				writer.writeRoute(route);
+			}
+		} finally {
+			writer.close();
+		}
+		return scheduleFile.length();
+	}
+
+	/**
+	 * the stop times of the store before removeUselessStopTime(), in a
+	 * collection whose iterator supports remove() like the one of GtfsDaoImpl
+	 */
+	@State(Scope.Thread)
+	public static class StopTimesOfStore {
+		Collection<StopTime> stopTimes;
+
+		@Setup(Level.Invocation)
+		public void setUp(ConverterStagesBenchmark stages) {
+			LinkedHashMap<Integer, StopTime> entities = new LinkedHashMap<Integer, StopTime>();
+			for (StopTime st : stages.feed.stopTimes) {
+				entities.put(st.getId(), st);
+			}
+			stopTimes = entities.values();
+		}
+	}
+
+	/**
+	 * constrainOutOfBound() shortens trips and removes vehicles and stops of
+	 * the schedules, so they are rebuilt from the blocked routes
+	 */
+	@State(Scope.Thread)
+	public static class RouteSchedulesToClip {
+		ArrayList<RouteSchedule> routeSchedules;
+
+		@Setup(Level.Invocation)
+		public void setUp(ConverterStagesBenchmark stages) {
+			ArrayList<RouteWithTripList> routes = new ArrayList<RouteWithTripList>();
+			for (RouteWithTripList route : stages.routesWithTripList) {
+				routes.add(new RouteWithTripList(route.getRoute(), route
+						.getTripList(), new HashSet<String>(route
+						.getStopList())));
+			}
+			Converter.populateVehicleList(routes, Converter.SPEED_MAX,
+					Converter.DISTANCE_MAX);
+			routeSchedules = new ArrayList<RouteSchedule>();
+			BaselineStages.populateRouteScheduleList(routes,
+					stages.route2IntIdMap, routeSchedules);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package converter.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import converter.Converter;
+import converter.RouteWithTripList;
+import converter.StopGeometry;
+import converter.TripWithStopTimeList;
+
+/**
+ * an in-memory feed of a given size, built the way GtfsReader would leave
+ * it in GtfsDaoImpl. Every route has its own line of stops and runs its
+ * trips back and forth over the week. Weekdays, Saturdays and Sundays each
+ * have a winter and a summer service, so the service selection has something
+ * to choose from, and the weekday trips are split into five instances.
+ *
+ * @author linzhiqi
+ *
+ */
+public class FeedFixture {
+	public static final String AGENCY_ID = "bench";
+	public static final int STOPS_PER_TRIP = 20;
+	/** distance between two stops of a route, in meters */
+	public static final double STOP_SPACING = 400;
+	/** distance between the lines of two routes, in meters */
+	public static final double ROUTE_SPACING = 1000;
+
+	private static final int[] ROUTE_TYPES = { Converter.BUS_TYPE,
+			Converter.TRAM_TYPE, Converter.METRO_TYPE, Converter.RAIL_TYPE };
+
+	public final List<Route> routes = new ArrayList<Route>();
+	public final List<Stop> stops = new ArrayList<Stop>();
+	public final List<Trip> trips = new ArrayList<Trip>();
+	/** grouped by trip, like stop_times.txt usually is */
+	public final List<StopTime> stopTimes = new ArrayList<StopTime>();
+	public final List<ServiceCalendar> calendars = new ArrayList<ServiceCalendar>();
+	public final Map<AgencyAndId, ServiceCalendar> calendarMap;
+
+	private final int numOfRoutes;
+
+	/**
+	 * @param numOfRoutes
+	 * @param tripsPerRoute
+	 *            trips of each route over the whole week
+	 * @param seed
+	 */
+	public FeedFixture(int numOfRoutes, int tripsPerRoute, long seed) {
+		this.numOfRoutes = numOfRoutes;
+		Random random = new Random(seed);
+
+		// first and last day of weekday, Saturday and Sunday services
+		int[][] days = { { 0, 4 }, { 5, 5 }, { 6, 6 } };
+		ServiceCalendar[] winter = new ServiceCalendar[days.length];
+		ServiceCalendar[] summer = new ServiceCalendar[days.length];
+		for (int d = 0; d < days.length; d++) {
+			winter[d] = createCalendar("winter_" + d, days[d][0], days[d][1],
+					new ServiceDate(2015, 1, 1), new ServiceDate(2015, 5, 31));
+			summer[d] = createCalendar("summer_" + d, days[d][0], days[d][1],
+					new ServiceDate(2015, 6, 1), new ServiceDate(2015, 8, 31));
+		}
+		calendarMap = Converter.getCalendarMap(calendars);
+
+		int tripsPerService = (tripsPerRoute + days.length - 1) / days.length;
+		int headway = 18 * 3600 / Math.max(tripsPerService, 1);
+		int stopTimeId = 0;
+		for (int r = 0; r < numOfRoutes; r++) {
+			Route route = new Route();
+			route.setId(new AgencyAndId(AGENCY_ID, "route_" + r));
+			route.setType(ROUTE_TYPES[r % ROUTE_TYPES.length]);
+			routes.add(route);
+
+			Stop[] line = new Stop[STOPS_PER_TRIP];
+			for (int s = 0; s < STOPS_PER_TRIP; s++) {
+				Stop stop = new Stop();
+				stop.setId(new AgencyAndId(AGENCY_ID, "stop_" + r + "_" + s));
+				stop.setLon(getRouteX(r));
+				stop.setLat(s * STOP_SPACING);
+				line[s] = stop;
+				stops.add(stop);
+			}
+
+			for (int k = 0; k < tripsPerRoute; k++) {
+				int service = k % days.length;
+				int nthOfDay = k / days.length;
+				Trip trip = new Trip();
+				trip.setId(new AgencyAndId(AGENCY_ID, "trip_" + r + "_" + k));
+				trip.setRoute(route);
+				// two thirds of the trips belong to the winter services
+				ServiceCalendar calendar = (nthOfDay % 3 == 0) ? summer[service]
+						: winter[service];
+				trip.setServiceId(calendar.getServiceId());
+				trips.add(trip);
+
+				int time = 5 * 3600 + nthOfDay * headway + random.nextInt(60);
+				boolean backwards = nthOfDay % 2 == 1;
+				for (int s = 0; s < STOPS_PER_TRIP; s++) {
+					StopTime st = new StopTime();
+					st.setId(stopTimeId++);
+					st.setTrip(trip);
+					st.setStop(line[backwards ? STOPS_PER_TRIP - 1 - s : s]);
+					st.setStopSequence(s + 1);
+					st.setArrivalTime(time);
+					st.setDepartureTime(time + 20);
+					stopTimes.add(st);
+					time += 60 + random.nextInt(60);
+				}
+			}
+		}
+	}
+
+	/**
+	 * a service running on the days from firstDay to lastDay, 0 is Monday
+	 */
+	private ServiceCalendar createCalendar(String id, int firstDay,
+			int lastDay, ServiceDate startDate, ServiceDate endDate) {
+		ServiceCalendar calendar = new ServiceCalendar();
+		calendar.setServiceId(new AgencyAndId(AGENCY_ID, id));
+		calendar.setMonday(firstDay <= 0 && 0 <= lastDay ? 1 : 0);
+		calendar.setTuesday(firstDay <= 1 && 1 <= lastDay ? 1 : 0);
+		calendar.setWednesday(firstDay <= 2 && 2 <= lastDay ? 1 : 0);
+		calendar.setThursday(firstDay <= 3 && 3 <= lastDay ? 1 : 0);
+		calendar.setFriday(firstDay <= 4 && 4 <= lastDay ? 1 : 0);
+		calendar.setSaturday(firstDay <= 5 && 5 <= lastDay ? 1 : 0);
+		calendar.setSunday(firstDay <= 6 && 6 <= lastDay ? 1 : 0);
+		calendar.setStartDate(startDate);
+		calendar.setEndDate(endDate);
+		calendars.add(calendar);
+		return calendar;
+	}
+
+	private static double getRouteX(int r) {
+		return r * ROUTE_SPACING;
+	}
+
+	/**
+	 * @return a boundary keeping the first half of the routes and the first
+	 *         half of the stops of each route, so every kind of clipping
+	 *         happens
+	 */
+	public double[] getHalfBoundaries() {
+		return new double[] { -1, -1, getRouteX((numOfRoutes + 1) / 2) - 1,
+				STOP_SPACING * STOPS_PER_TRIP / 2 };
+	}
+
+	/**
+	 * write the stop times as stop_times.txt into the folder
+	 */
+	public File writeStopTimes(File folder) throws IOException {
+		File file = new File(folder, "stop_times.txt");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				"UTF-8");
+		try {
+			writer.write("trip_id,arrival_time,departure_time,stop_id,"
+					+ "stop_sequence\n");
+			for (StopTime st : stopTimes) {
+				writer.write(st.getTrip().getId().getId() + ","
+						+ formatTime(st.getArrivalTime()) + ","
+						+ formatTime(st.getDepartureTime()) + ","
+						+ st.getStop().getId().getId() + ","
+						+ st.getStopSequence() + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static String formatTime(int seconds) {
+		return String.format("%02d:%02d:%02d", seconds / 3600,
+				seconds / 60 % 60, seconds % 60);
+	}
+
+	public StopGeometry createStopGeometry() {
+		return new StopGeometry(stops);
+	}
+
+	/**
+	 * run the stages from obtainTop2BottomStructure to
+	 * sortTripsAndGetStopList
+	 */
+	public ArrayList<RouteWithTripList> createRoutesWithTripList(
+			Collection<StopTime> usefulStopTimes) {
+		HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure = new HashMap<Route, HashMap<Trip, ArrayList<StopTime>>>();
+		BaselineStages.obtainTop2BottomStructure(top2BottomStructure,
+				usefulStopTimes);
+		HashMap<Route, ArrayList<TripWithStopTimeList>> tripInstances = new HashMap<Route, ArrayList<TripWithStopTimeList>>();
+		BaselineStages.splitTrips4MultipleWeekDay(top2BottomStructure,
+				tripInstances, calendarMap);
+		ArrayList<RouteWithTripList> routesWithTripList = new ArrayList<RouteWithTripList>();
+		Converter.sortTripsAndGetStopList(tripInstances, routesWithTripList);
+		return routesWithTripList;
+	}
+}
@@ -0,0 +1,88 @@
+package converter;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * which stops are inside a region, decided once for all stops with a
+ * StopGrid. Clipping then asks a bit per stop, and a whole route can be kept
+ * or dropped without looking at its trips when its stops are all on the same
+ * side.
+ *
+ * @author linzhiqi
+ *
+ */
+public class BoundaryIndex {
+	public enum Coverage {
+		INSIDE, OUTSIDE, MIXED
+	}
+
+	private StopGeometry stops;
+	private BitSet inside;
+
+	/**
+	 * @param grid
+	 *            the grid over the stops
+	 * @param region
+	 *            the area to clip to
+	 */
+	public BoundaryIndex(StopGrid grid, Region region) {
+		this.stops = grid.getStops();
+		this.inside = grid.selectInside(region);
+	}
+
+	public BoundaryIndex(StopGeometry stops, Region region) {
+		this(new StopGrid(stops), region);
+	}
+
+	/**
+	 * @param stops
+	 * @param boundaries
+	 *            a double array of length 4: [xmin][ymin][xmax][ymax]
+	 */
+	public BoundaryIndex(StopGeometry stops, double[] boundaries) {
+		this(stops, new RectangleRegion(boundaries));
+	}
+
+	public StopGeometry getStops() {
+		return stops;
+	}
+
+	public boolean isInside(int stop) {
+		return inside.get(stop);
+	}
+
+	/**
+	 * @param stopId
+	 *            id of a stop of the geometry
+	 */
+	public boolean isInside(String stopId) {
+		return inside.get(stops.indexOf(stopId));
+	}
+
+	public int getNumOfInside() {
+		return inside.cardinality();
+	}
+
+	/**
+	 * @param stopIds
+	 *            the stops of a route
+	 * @return INSIDE or OUTSIDE if all the stops are on that side, an empty
+	 *         route is INSIDE
+	 */
+	public Coverage getCoverage(Collection<String> stopIds) {
+		boolean hasInside = false;
+		boolean hasOutside = false;
+		for (String stopId : stopIds) {
+			if (isInside(stopId)) {
+				hasInside = true;
+			} else {
+				hasOutside = true;
+			}
+			if (hasInside && hasOutside) {
+				return Coverage.MIXED;
+			}
+		}
+		return hasOutside ? Coverage.OUTSIDE : Coverage.INSIDE;
+	}
+}
@@ -0,0 +1,145 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Trip;
+
+import converter.Converter.Weekday;
+
+/**
+ * the stages of Converter working on a StopTimeTable instead of StopTime
+ * objects. Trips refer to their rows in the table, so no stop time is ever
+ * copied.
+ *
+ * @author linzhiqi
+ *
+ */
+public class ColumnarConverter {
+
+	/**
+	 * group the rows of the table by trip and by route. The rows of each trip
+	 * are collected with a counting sort on the trip index, and then ordered
+	 * by stop sequence.
+	 *
+	 * @param top2BottomStructure
+	 *            the structure to populate
+	 * @param stopTimeTable
+	 *            stop times of all useful trips
+	 */
+	public static void obtainTop2BottomStructure(
+			HashMap<Route, ArrayList<TripWithStopTimeList>> top2BottomStructure,
+			StopTimeTable stopTimeTable) {
+		int numOfTrips = stopTimeTable.getNumOfTrips();
+		int numOfRows = stopTimeTable.size();
+
+		// first row of each trip in the grouped order
+		int[] tripStart = new int[numOfTrips + 1];
+		for (int row = 0; row < numOfRows; row++) {
+			tripStart[stopTimeTable.getTripIndex(row) + 1]++;
+		}
+		for (int t = 0; t < numOfTrips; t++) {
+			tripStart[t + 1] += tripStart[t];
+		}
+		int[] grouped = new int[numOfRows];
+		int[] next = Arrays.copyOf(tripStart, numOfTrips);
+		for (int row = 0; row < numOfRows; row++) {
+			grouped[next[stopTimeTable.getTripIndex(row)]++] = row;
+		}
+
+		for (int t = 0; t < numOfTrips; t++) {
+			if (tripStart[t] == tripStart[t + 1]) {
+				continue;
+			}
+			int[] rows = Arrays.copyOfRange(grouped, tripStart[t],
+					tripStart[t + 1]);
+			sortRowsBySequence(rows, stopTimeTable);
+
+			Trip trip = stopTimeTable.getTrip(t);
+			Route route = trip.getRoute();
+			ArrayList<TripWithStopTimeList> tripList = top2BottomStructure
+					.get(route);
+			if (tripList == null) {
+				tripList = new ArrayList<TripWithStopTimeList>();
+				top2BottomStructure.put(route, tripList);
+			}
+			tripList.add(new TripWithStopTimeList(trip, stopTimeTable
+					.getStopTimes(rows), 0));
+		}
+	}
+
+	/**
+	 * rows are usually already in sequence order in stop_times.txt, so
+	 * insertion sort is linear in practice
+	 */
+	private static void sortRowsBySequence(int[] rows,
+			StopTimeTable stopTimeTable) {
+		for (int i = 1; i < rows.length; i++) {
+			int row = rows[i];
+			int sequence = stopTimeTable.getStopSequence(row);
+			int j = i - 1;
+			while (j >= 0 && stopTimeTable.getStopSequence(rows[j]) > sequence) {
+				rows[j + 1] = rows[j];
+				j--;
+			}
+			rows[j + 1] = row;
+		}
+	}
+
+	/**
+	 * create one instance of each trip for every week day of its service. The
+	 * instances share the rows of the trip and only differ in their time
+	 * offset.
+	 *
+	 * @param top2BottomStructure
+	 * @param calendars
+	 * @return the number of trip instances after split
+	 */
+	public static int splitTrips4MultipleWeekDay(
+			HashMap<Route, ArrayList<TripWithStopTimeList>> top2BottomStructure,
+			ServiceCalendarIndex calendars) {
+		int numOfTripsAfterMadeUp = 0;
+		for (Map.Entry<Route, ArrayList<TripWithStopTimeList>> entry : top2BottomStructure
+				.entrySet()) {
+			ArrayList<TripWithStopTimeList> prototypes = entry.getValue();
+			ArrayList<TripWithStopTimeList> instances = splitTrips(prototypes,
+					calendars);
+			entry.setValue(instances);
+
+			if (instances.size() > prototypes.size()) {
+				System.out.println((instances.size() - prototypes.size())
+						+ " trips are made up for route-"
+						+ entry.getKey().getId().getId());
+			}
+			numOfTripsAfterMadeUp += instances.size();
+		}
+		System.out.println(numOfTripsAfterMadeUp + " trips after make up.");
+		return numOfTripsAfterMadeUp;
+	}
+
+	/**
+	 * @param prototypes
+	 *            the trips of a route
+	 * @param calendars
+	 * @return the instances of the trips for every week day of their service
+	 */
+	public static ArrayList<TripWithStopTimeList> splitTrips(
+			List<TripWithStopTimeList> prototypes,
+			ServiceCalendarIndex calendars) {
+		ArrayList<TripWithStopTimeList> instances = new ArrayList<TripWithStopTimeList>();
+		for (TripWithStopTimeList proto : prototypes) {
+			int weekdayMask = calendars.getWeekdayMask(calendars.indexOf(proto
+					.getTrip().getServiceId()));
+			for (Weekday day : Weekday.values()) {
+				if (ServiceCalendarIndex.hasWeekday(weekdayMask, day)) {
+					instances.add(proto.withTimeOffset(86400 * day.ordinal()));
+				}
+			}
+		}
+		return instances;
+	}
+}
@@ -0,0 +1,199 @@
+package converter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+
+import org.onebusaway.csv_entities.CSVLibrary;
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.serialization.mappings.StopTimeFieldMappingFactory;
+
+/**
+ * loads a gtfs feed without creating StopTime objects. All the other entities
+ * are read by a FilteringGtfsReader, while stop_times.txt is streamed line by
+ * line into a StopTimeTable, or parsed in chunks on several threads by a
+ * MappedStopTimesLoader when it is a file of a folder.
+ *
+ * @author linzhiqi
+ *
+ */
+public class ColumnarGtfsLoader {
+
+	public static final String STOP_TIMES_FILE_NAME = "stop_times.txt";
+
+	private File inputLocation;
+
+	/**
+	 * @param inputLocation
+	 *            the path of decompressed folder or of the ZIP file
+	 */
+	public ColumnarGtfsLoader(File inputLocation) {
+		this.inputLocation = inputLocation;
+	}
+
+	/**
+	 * read every gtfs entity except StopTime into the store, trips of
+	 * uninterested routes are left out
+	 *
+	 * @param store
+	 * @param routesInterested
+	 *            null or empty for all routes
+	 * @throws IOException
+	 */
+	public void readEntities(GtfsDaoImpl store,
+			Set<String> routesInterested) throws IOException {
+		FilteringGtfsReader reader = new FilteringGtfsReader(inputLocation,
+				routesInterested);
+		reader.run(store, false);
+	}
+
+	/**
+	 * same as readStopTimes() below, except that stop_times.txt of a folder
+	 * is memory mapped and parsed in chunks on the threads of the executor
+	 *
+	 * @param index
+	 * @param usefulTrips
+	 * @param executor
+	 * @return the populated table, its rows in the order of the file
+	 * @throws IOException
+	 */
+	public StopTimeTable readStopTimes(FeedIndex index, BitSet usefulTrips,
+			RouteExecutor executor) throws IOException {
+		File file = new File(inputLocation, STOP_TIMES_FILE_NAME);
+		if (!inputLocation.isDirectory() || !file.isFile()) {
+			return readStopTimes(index, usefulTrips);
+		}
+		MappedStopTimesLoader loader = new MappedStopTimesLoader(file, index,
+				usefulTrips);
+		StopTimeTable table = loader.load(executor);
+
+		System.out.println("\nnum of stoptime = " + table.size()
+				+ "\tskipped stoptime = " + loader.getNumOfSkipped()
+				+ "\tstoptime of unknown stop = "
+				+ loader.getNumOfUnknownStop());
+		return table;
+	}
+
+	/**
+	 * stream stop_times.txt into a StopTimeTable. Rows of trips not in the
+	 * given set are skipped, so they never take any memory.
+	 *
+	 * @param index
+	 *            indices of the trips and stops, which are also the trip and
+	 *            stop tables of the StopTimeTable
+	 * @param usefulTrips
+	 *            indices of the trips whose stop times are wanted
+	 * @return the populated table
+	 * @throws IOException
+	 */
+	public StopTimeTable readStopTimes(FeedIndex index, BitSet usefulTrips)
+			throws IOException {
+		StopTimeTable table = new StopTimeTable(index.getTrips(),
+				index.getStops());
+		readStopTimes(index, usefulTrips, table);
+		table.trimToSize();
+		return table;
+	}
+
+	/**
+	 * same as readStopTimes() above, into the given table
+	 *
+	 * @param index
+	 * @param usefulTrips
+	 * @param table
+	 *            the rows are added to it
+	 * @throws IOException
+	 */
+	public void readStopTimes(FeedIndex index, BitSet usefulTrips,
+			StopTimeTable table) throws IOException {
+		CSVLibrary csv = new CSVLibrary();
+		csv.setTrimInitialWhitespace(true);
+		CsvInputSource source = FilteringGtfsReader.openInputSource(
+				inputLocation, STOP_TIMES_FILE_NAME);
+		BufferedReader reader = null;
+		int numOfRows = 0;
+		int numOfSkipped = 0;
+		int numOfUnknownStop = 0;
+		try {
+			reader = new BufferedReader(new InputStreamReader(
+					source.getResource(STOP_TIMES_FILE_NAME), "UTF-8"));
+			String line = reader.readLine();
+			if (line == null) {
+				throw new IOException(STOP_TIMES_FILE_NAME + " is empty");
+			}
+			List<String> header = csv.parse(stripByteOrderMark(line));
+			int tripCol = getColumn(header, "trip_id");
+			int arrivalCol = getColumn(header, "arrival_time");
+			int departureCol = getColumn(header, "departure_time");
+			int stopCol = getColumn(header, "stop_id");
+			int sequenceCol = getColumn(header, "stop_sequence");
+
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0) {
+					continue;
+				}
+				List<String> values = csv.parse(line);
+				int tripIndex = index.getTripIndex(values.get(tripCol).trim());
+				if (tripIndex < 0 || !usefulTrips.get(tripIndex)) {
+					numOfSkipped++;
+					continue;
+				}
+				int stopIndex = index.getStopIndex(values.get(stopCol).trim());
+				if (stopIndex < 0) {
+					numOfUnknownStop++;
+					continue;
+				}
+				table.add(tripIndex, stopIndex,
+						parseTime(values.get(arrivalCol)),
+						parseTime(values.get(departureCol)),
+						Integer.parseInt(values.get(sequenceCol).trim()));
+				numOfRows++;
+			}
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+			source.close();
+		}
+
+		System.out.println("\nnum of stoptime = " + numOfRows
+				+ "\tskipped stoptime = " + numOfSkipped
+				+ "\tstoptime of unknown stop = " + numOfUnknownStop);
+	}
+
+	private static int getColumn(List<String> header, String name)
+			throws IOException {
+		for (int i = 0; i < header.size(); i++) {
+			if (header.get(i).trim().equals(name)) {
+				return i;
+			}
+		}
+		throw new IOException("column " + name + " is missing in "
+				+ STOP_TIMES_FILE_NAME);
+	}
+
+	private static String stripByteOrderMark(String line) {
+		if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
+			return line.substring(1);
+		}
+		return line;
+	}
+
+	/**
+	 * parse HH:MM:SS into seconds, an empty value is kept as missing the same
+	 * way GtfsReader does
+	 */
+	private static int parseTime(String value) {
+		value = value.trim();
+		if (value.length() == 0) {
+			return StopTime.MISSING_VALUE;
+		}
+		return StopTimeFieldMappingFactory.getStringAsSeconds(value);
+	}
+}
@@ -0,0 +1,105 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+
+/**
+ * the stop times of one trip as three int arrays: stop index, arrival and
+ * departure time, in stop sequence order. That is 12 bytes a stop time,
+ * where a StopTime object with its fields takes about 100. The stops are
+ * referred by their index in a stop table shared by all trips.
+ *
+ * @author linzhiqi
+ *
+ */
+public class CompactStopTimes implements StopTimes {
+	private List<Stop> stops;
+	private int[] stopIndex;
+	private int[] arrivalTime;
+	private int[] departureTime;
+
+	/**
+	 * @param stops
+	 *            the stop table
+	 * @param stopIndex
+	 *            index in the stop table of the stop of each stop time
+	 * @param arrivalTime
+	 * @param departureTime
+	 */
+	public CompactStopTimes(List<Stop> stops, int[] stopIndex,
+			int[] arrivalTime, int[] departureTime) {
+		this.stops = stops;
+		this.stopIndex = stopIndex;
+		this.arrivalTime = arrivalTime;
+		this.departureTime = departureTime;
+	}
+
+	/**
+	 * @param stopTimeList
+	 *            stop times of a trip, sorted by stop sequence
+	 * @param index
+	 *            its stop table is the one of the result
+	 * @return the same stop times, without the StopTime objects
+	 */
+	public static CompactStopTimes create(List<StopTime> stopTimeList,
+			FeedIndex index) {
+		int n = stopTimeList.size();
+		int[] stopIndex = new int[n];
+		int[] arrivalTime = new int[n];
+		int[] departureTime = new int[n];
+		for (int i = 0; i < n; i++) {
+			StopTime st = stopTimeList.get(i);
+			stopIndex[i] = index.getStopIndex(st.getStop().getId().getId());
+			arrivalTime[i] = st.getArrivalTime();
+			departureTime[i] = st.getDepartureTime();
+		}
+		return new CompactStopTimes(index.getStops(), stopIndex, arrivalTime,
+				departureTime);
+	}
+
+	/**
+	 * @param stopTimeList
+	 *            stop times of a trip, sorted by stop sequence
+	 * @return the same stop times, without the StopTime objects, with a stop
+	 *         table of their own
+	 */
+	public static CompactStopTimes create(List<StopTime> stopTimeList) {
+		int n = stopTimeList.size();
+		ArrayList<Stop> stops = new ArrayList<Stop>(n);
+		int[] stopIndex = new int[n];
+		int[] arrivalTime = new int[n];
+		int[] departureTime = new int[n];
+		for (int i = 0; i < n; i++) {
+			StopTime st = stopTimeList.get(i);
+			stops.add(st.getStop());
+			stopIndex[i] = i;
+			arrivalTime[i] = st.getArrivalTime();
+			departureTime[i] = st.getDepartureTime();
+		}
+		return new CompactStopTimes(stops, stopIndex, arrivalTime,
+				departureTime);
+	}
+
+	public int size() {
+		return stopIndex.length;
+	}
+
+	public int getStopIndex(int i) {
+		return stopIndex[i];
+	}
+
+	public Stop getStop(int i) {
+		return stops.get(stopIndex[i]);
+	}
+
+	public int getArrivalTime(int i) {
+		return arrivalTime[i];
+	}
+
+	public int getDepartureTime(int i) {
+		return departureTime[i];
+	}
+}
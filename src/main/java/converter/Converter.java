@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,12 +28,16 @@ import org.onebusaway.gtfs.model.ServiceCalendar;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
-import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
 
 import core.DTNHost;
 
 import util.Coord;
+import util.BinaryScheduleWriter;
 import util.IOUtil;
+import util.JsonScheduleWriter;
+import util.PatternScheduleWriter;
+import util.ScheduleWriter;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
@@ -61,6 +67,9 @@ public class Converter {
 	public static double DISTANCE_MAX = 500;
 
 	public static final String SCHEDULE_FILE_NAME = "schedules.json";
+	public static final String BINARY_SCHEDULE_FILE_NAME = "schedules.bin";
+	public static final String PATTERN_SCHEDULE_FILE_NAME = "schedules_patterns.json";
+	public static final String FREQUENCY_SCHEDULE_FILE_NAME = "schedules_frequencies.json";
 	public static final String STOP_FILE_NAME = "stops.json";
 	private static final String WKT_STOP_FILE_NAME = "stops.wkt";
 	private static final String ROUTE_ID_MAPPING_FILE_NAME = "route_id_mapping.json";
@@ -69,17 +78,57 @@ public class Converter {
 		Mon, Tue, Wed, Thu, Fri, Sat, Sun
 	};
 
+	/**
+	 * how trips are linked into vehicles: GREEDY chains each vehicle with the
+	 * earliest possible next trip, OPTIMAL uses the fewest vehicles
+	 */
+	public enum BlockingMode {
+		GREEDY, OPTIMAL
+	};
+
+	/**
+	 * format of the schedules: JSON writes schedules.json, BINARY writes
+	 * schedules.bin to be read by BinaryScheduleReader, PATTERNS writes
+	 * schedules_patterns.json to be read by PatternScheduleReader,
+	 * FREQUENCIES writes schedules_frequencies.json, the same with the trips
+	 * at a constant headway in frequency blocks
+	 */
+	public enum ScheduleFormat {
+		JSON, BINARY, PATTERNS, FREQUENCIES
+	};
+
 	public static void main(String[] args) throws IOException {
 		// parsing input options
-		String usageStr = "usage: <-i gtfs_path> [-b xmin,ymin,xmax,ymax] " +
-				"[-s max_speed] [-d max_distance] [-v x_offset,y_offset] [-r route_file]";
+		String usageStr = "usage: <-i gtfs_path> [-b xmin,ymin,xmax,ymax|wkt_file] " +
+				"[-s max_speed] [-d max_distance] [-v x_offset,y_offset] [-r route_file] " +
+				"[--columnar] [--blocking=greedy|optimal] [--threads N] [--compact] [--format=json|binary|patterns|frequencies] [--cache cache_dir] " +
+				"[--week YYYY-MM-DD | --from YYYY-MM-DD --to YYYY-MM-DD] [--max-heap-mb MB [--spill-dir dir]]";
 		String inputPath = null;
-		double[] boundaries = null;
+		Region region = null;
 		double x_offset = 0.0;
 		double y_offset = 0.0;
 		String route_file = null;
 		HashSet<String> routesInterested = null;
 		OptionParser parser = new OptionParser("i:b:s:d:v:r:h");
+		// load stop_times.txt into a StopTimeTable instead of StopTime objects
+		parser.accepts("columnar");
+		parser.accepts("blocking").withRequiredArg();
+		// number of threads processing routes in parallel
+		parser.accepts("threads").withRequiredArg();
+		// write schedules.json without indentation
+		parser.accepts("compact");
+		parser.accepts("format").withRequiredArg();
+		// folder of the parsed feed snapshots
+		parser.accepts("cache").withRequiredArg();
+		// convert the services running in the week of this date
+		parser.accepts("week").withRequiredArg();
+		// convert every date of this range, both included
+		parser.accepts("from").withRequiredArg();
+		parser.accepts("to").withRequiredArg();
+		// sort the stop times on disk, within this many MB of memory
+		parser.accepts("max-heap-mb").withRequiredArg();
+		// folder of the sorted runs of --max-heap-mb
+		parser.accepts("spill-dir").withRequiredArg();
 		OptionSet options = parser.parse(args);
 		
 		if (!options.has("i")) {
@@ -92,14 +141,18 @@ public class Converter {
 		if (options.has("b")) {
 			String boundStr = (String) options.valueOf("b");
 			String[] bounds = boundStr.split(",");
-			if (bounds.length != 4) {
+			if (new File(boundStr).isFile()) {
+				// a POLYGON or MULTIPOLYGON in WKT
+				region = PolygonRegion.read(new File(boundStr));
+			} else if (bounds.length != 4) {
 				System.out.print(usageStr);
 				System.exit(-1);
 			} else {
-				boundaries = new double[4];
+				double[] boundaries = new double[4];
 				for (int i = 0; i < 4; i++) {
 					boundaries[i] = Double.valueOf(bounds[i]);
 				}
+				region = new RectangleRegion(boundaries);
 			}
 		}
 		
@@ -121,6 +174,85 @@ public class Converter {
 		if (options.has("d")) {
 			DISTANCE_MAX = Double.parseDouble((String) options.valueOf("d"));
 		}
+		BlockingMode blockingMode = BlockingMode.GREEDY;
+		if (options.has("blocking")) {
+			try {
+				blockingMode = BlockingMode.valueOf(((String) options
+						.valueOf("blocking")).toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+		}
+		ScheduleFormat scheduleFormat = ScheduleFormat.JSON;
+		if (options.has("format")) {
+			try {
+				scheduleFormat = ScheduleFormat.valueOf(((String) options
+						.valueOf("format")).toUpperCase());
+			} catch (IllegalArgumentException e) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+		}
+		ServiceDate week = null;
+		if (options.has("week")) {
+			week = parseDate((String) options.valueOf("week"));
+			if (week == null) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+		}
+		ServiceDate from = null;
+		ServiceDate to = null;
+		if (options.has("from") || options.has("to")) {
+			if (!options.has("from") || !options.has("to") || week != null) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+			from = parseDate((String) options.valueOf("from"));
+			to = parseDate((String) options.valueOf("to"));
+			if (from == null || to == null || to.compareTo(from) < 0) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+		}
+		int maxHeapMb = 0;
+		if (options.has("max-heap-mb")) {
+			try {
+				maxHeapMb = Integer.parseInt((String) options
+						.valueOf("max-heap-mb"));
+			} catch (NumberFormatException e) {
+				maxHeapMb = 0;
+			}
+			if (maxHeapMb <= 0) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+		}
+		// next to the schedules by default, as the temporary folder is often
+		// in memory
+		File spillFolder = new File(System.getProperty("user.dir"));
+		if (options.has("spill-dir")) {
+			spillFolder = new File((String) options.valueOf("spill-dir"));
+			if (maxHeapMb == 0 || !spillFolder.isDirectory()) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+		}
+		int numOfThreads = 1;
+		if (options.has("threads")) {
+			try {
+				numOfThreads = Integer.parseInt((String) options
+						.valueOf("threads"));
+			} catch (NumberFormatException e) {
+				numOfThreads = 0;
+			}
+			if (numOfThreads <= 0) {
+				System.out.print(usageStr);
+				System.exit(-1);
+			}
+		}
+		RouteExecutor executor = new RouteExecutor(numOfThreads);
 		if (options.has("r")) {
 			route_file = (String) options.valueOf("r");
 			routesInterested = new HashSet<String>();
@@ -131,201 +263,374 @@ public class Converter {
 			System.exit(0);
 		}
 
-		// read gtfs
-		GtfsReader reader = new GtfsReader();
-		// the inputPath can be the path of decompressed folder or of the ZIP
-		// file
-		reader.setInputLocation(new File(inputPath));
-
-		/**
-		 * the internal entity store, which has references to all the loaded
-		 * entities
-		 */
-		GtfsDaoImpl store = new GtfsDaoImpl();
-		reader.setEntityStore(store);
-
-		reader.run();
-
-		// build a HashSet usefulTrips having refers to all the useful trips
-		// build a HashMap of int id <-> Route object
-		Collection<Route> allRoutes = store.getAllRoutes();
-		Collection<Trip> allTrips = store.getAllTrips();
-		Collection<ServiceCalendar> calendars = store.getAllCalendars();
-		Map<AgencyAndId, ServiceCalendar> calendarMap = getCalendarMap(calendars);
-		
-		HashSet<Trip> usefulTrips = new HashSet<Trip>();
-		
-		HashMap<Route, Integer> route2IntIdMap = new HashMap<Route, Integer>();
-		removeUninterestedRoutes(routesInterested, allRoutes, route2IntIdMap);
+		boolean columnar = options.has("columnar");
+
+		// the feed is parsed and filtered unless a snapshot of this feed,
+		// route set and week is in the cache
+		FeedSnapshot feed = null;
+		OutOfCoreFeed outOfCoreFeed = null;
+		File snapshotFile = null;
+		if (options.has("cache") && maxHeapMb > 0) {
+			// the routes of a feed sorted on disk are never all in memory
+			System.out.println("--cache is ignored with --max-heap-mb");
+		} else if (options.has("cache") && from != null) {
+			// a snapshot keeps trip instances, not the dates to expand them
+			// over
+			System.out.println("--cache is ignored with --from and --to");
+		} else if (options.has("cache")) {
+			snapshotFile = new File((String) options.valueOf("cache"),
+					FeedSnapshot.computeKey(new File(inputPath),
+							routesInterested, week) + ".snapshot");
+			if (snapshotFile.isFile()) {
+				feed = FeedSnapshot.load(snapshotFile);
+				System.out.println("feed snapshot loaded from " + snapshotFile);
+			}
+		}
+		if (maxHeapMb > 0) {
+			outOfCoreFeed = loadFeedOutOfCore(inputPath, routesInterested,
+					week, from, to, maxHeapMb, spillFolder);
+		} else if (feed == null) {
+			feed = loadFeed(inputPath, routesInterested, columnar, week, from,
+					to, executor);
+			if (snapshotFile != null) {
+				feed.save(snapshotFile);
+				System.out.println("feed snapshot saved to " + snapshotFile);
+			}
+		}
+		HashMap<Route, Integer> route2IntIdMap;
+		List<Stop> feedStops;
+		int numOfTripsAfterMadeUp = 0;
+		if (outOfCoreFeed != null) {
+			route2IntIdMap = outOfCoreFeed.getRoute2IntIdMap();
+			feedStops = outOfCoreFeed.getStops();
+		} else {
+			route2IntIdMap = feed.getRoute2IntIdMap();
+			feedStops = feed.getStops();
+			numOfTripsAfterMadeUp = feed.getNumOfTrips();
+		}
 		//output file containing mapping from real route-id to numeric id
 		IOUtil.outputRouteIdMapping(route2IntIdMap, ROUTE_ID_MAPPING_FILE_NAME);
-		
-		removeTripsOfUninterestedRoutes(routesInterested, allTrips);
-		
-		// build a map that can answer question "what are the services that has most trips for route n on each week day?"
-		HashMap<Route, HashMap<Weekday, ServiceCalendar>> optimisedServiceMap = new HashMap<Route, HashMap<Weekday, ServiceCalendar>>();
-		fillOptimisedServiceMap(optimisedServiceMap, allTrips, calendarMap);
-		
-		obtainUsefulTrips2(allRoutes, allTrips, calendarMap, usefulTrips, optimisedServiceMap);
-		//obtainUsefulTrips(allRoutes, allTrips, calendarMap, usefulTrips);
-		
-		// remove StopTime objects belongs to useless trips
-		Collection<StopTime> stopTimes = store.getAllStopTimes();
-		removeUselessStopTime(stopTimes, usefulTrips);
-
-		// arrange Route, Trip and StopTime elements in a top to bottom manner
-		HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure = new HashMap<Route, HashMap<Trip, ArrayList<StopTime>>>();
-		obtainTop2BottomStructure(top2BottomStructure, stopTimes);
 
-		// make up trips and their stop times for each service week day
-		int numOfTripsAfterMadeUp = splitTrips4MultipleWeekDay(
-				top2BottomStructure, calendarMap);
+		// index the stop locations
+		StopGeometry stops = new StopGeometry(feedStops);
+		
+		if(options.has("v")){
+			// offset all the stops
+			stops.translate(x_offset, y_offset);
+		}
 
-		// sort stop times in each trip
-		// sort the trips of each route
-		// obtain the stop ids of each route
-		ArrayList<RouteWithTripList> routesWithTripList = new ArrayList<RouteWithTripList>();
-		sortTripsAndGetStopList(top2BottomStructure, routesWithTripList);
+		// decide once which stops are within the boundaries
+		BoundaryIndex boundaryIndex = null;
+		if (region != null) {
+			boundaryIndex = new BoundaryIndex(stops, region);
+		}
 
-		// create vehicles to consume trips for each route, and set them into
-		// the corresponding RouteWithTripList object
-		int numberOfVehicles = populateVehicleList(routesWithTripList,
-				Converter.SPEED_MAX, Converter.DISTANCE_MAX);
+		if (blockingMode == BlockingMode.OPTIMAL) {
+			System.out.println("numVehicle of greedy blocking="
+					+ countVehicles(outOfCoreFeed != null ? outOfCoreFeed
+							.getRoutes() : feed.getRoutesWithTripList()
+							.iterator(), Converter.SPEED_MAX,
+							Converter.DISTANCE_MAX, BlockingMode.GREEDY,
+							executor));
+		}
+		// create vehicles to consume trips for each route, deal with
+		// schedules out of the given location boundaries, and write the
+		// schedule of each route to the file as soon as it is ready
+		ScheduleWriter scheduleWriter;
+		if (scheduleFormat == ScheduleFormat.BINARY) {
+			scheduleWriter = new BinaryScheduleWriter(new File(
+					BINARY_SCHEDULE_FILE_NAME));
+		} else if (scheduleFormat == ScheduleFormat.PATTERNS) {
+			scheduleWriter = new PatternScheduleWriter(new File(
+					PATTERN_SCHEDULE_FILE_NAME), !options.has("compact"));
+		} else if (scheduleFormat == ScheduleFormat.FREQUENCIES) {
+			scheduleWriter = new PatternScheduleWriter(new File(
+					FREQUENCY_SCHEDULE_FILE_NAME), !options.has("compact"),
+					true);
+		} else {
+			scheduleWriter = new JsonScheduleWriter(new File(
+					SCHEDULE_FILE_NAME), !options.has("compact"));
+		}
+		int numberOfVehicles;
+		try {
+			if (outOfCoreFeed != null) {
+				// the routes are made from the sorted runs one window at a
+				// time
+				numberOfVehicles = writeRouteSchedules(
+						outOfCoreFeed.getRoutes(), route2IntIdMap,
+						Converter.SPEED_MAX, Converter.DISTANCE_MAX,
+						blockingMode, executor, boundaryIndex, scheduleWriter);
+				numOfTripsAfterMadeUp = outOfCoreFeed.getNumOfTrips();
+			} else {
+				numberOfVehicles = writeRouteSchedules(
+						feed.getRoutesWithTripList(), route2IntIdMap,
+						Converter.SPEED_MAX, Converter.DISTANCE_MAX,
+						blockingMode, executor, boundaryIndex, scheduleWriter);
+			}
+		} finally {
+			scheduleWriter.close();
+			if (outOfCoreFeed != null) {
+				outOfCoreFeed.delete();
+			}
+			executor.close();
+		}
+		System.out.println("numVehicle of " + blockingMode.name().toLowerCase()
+				+ " blocking=" + numberOfVehicles);
 
 		System.out.println("numVehicle/numTrips=" + numberOfVehicles + "/"
 				+ numOfTripsAfterMadeUp);
-
-		// build RouteSchedule objects
-		ArrayList<RouteSchedule> routeSchedules = new ArrayList<RouteSchedule>();
-		populateRouteScheduleList(routesWithTripList, route2IntIdMap,
-				routeSchedules);
+		if (scheduleWriter instanceof PatternScheduleWriter) {
+			PatternScheduleWriter patternWriter = (PatternScheduleWriter) scheduleWriter;
+			System.out.println("numPatterns/numTrips="
+					+ patternWriter.getNumOfPatterns() + "/"
+					+ patternWriter.getNumOfTrips());
+			if (scheduleFormat == ScheduleFormat.FREQUENCIES) {
+				System.out.println("numFrequencies/numTripsInFrequencies="
+						+ patternWriter.getNumOfFrequencies() + "/"
+						+ patternWriter.getNumOfTripsInFrequencies());
+			}
+		}
 
 		// build stopId -> stopLoc HashMap
-		Collection<Stop> stops = store.getAllStops();
-		HashMap<String, Coord> stopMap = new HashMap<String, Coord>();
-		buildStopMap(stops, stopMap);
-		
-		if(options.has("v")){
-			// offset all the stops
-			offsetCoordsInCollection(stopMap.values(), x_offset, y_offset);
-		}
-		
+		HashMap<String, Coord> stopMap = stops.toStopMap();
+
 		if (options.has("b")) {
-			// deal with schedules out of the given location boundaries
-			constrainOutOfBound(boundaries, stopMap, routeSchedules);
-		
 			// exclude stops out of boundaries
-			excludeOutBoundStop(boundaries, stopMap);
+			excludeOutBoundStop(boundaryIndex, stopMap);
 		}	
 		
-		// convert vehicle schedules to JSON file
-		IOUtil.writeToJSONFile(routeSchedules, SCHEDULE_FILE_NAME);
-		
 		// convert stop list to JSON file
 		IOUtil.writeToJSONFile(stopMap, STOP_FILE_NAME);
 		// extract coordinates from stop list to WKT file
 		IOUtil.writeToWKTPoint(stopMap, WKT_STOP_FILE_NAME);
 	}
 
-	static class NumOfTripsOfService {
-		int numOfTrips;
-		ServiceCalendar service;
-		
-		public NumOfTripsOfService(ServiceCalendar service){
-			this.service = service;
-			this.numOfTrips = 0;
-		}
+	/**
+	 * parse the feed, keep the useful trips of the interested routes, make up
+	 * their week day instances and sort them
+	 * 
+	 * @param inputPath
+	 *            the gtfs folder or ZIP file
+	 * @param routesInterested
+	 *            null or empty for all routes
+	 * @param columnar
+	 *            load stop_times.txt into a StopTimeTable
+	 * @param week
+	 *            a day of the week to convert the services of, null to keep
+	 *            the services having most trips on each week day
+	 * @param executor
+	 * @return the routes with their sorted trips, and all stops of the feed
+	 * @throws IOException
+	 */
+	public static FeedSnapshot loadFeed(String inputPath,
+			HashSet<String> routesInterested, boolean columnar,
+			ServiceDate week, RouteExecutor executor) throws IOException {
+		return loadFeed(inputPath, routesInterested, columnar, week, null,
+				null, executor);
 	}
-	
-	public static void fillOptimisedServiceMap(
-			HashMap<Route, HashMap<Weekday, ServiceCalendar>> optimisedServiceMap,
-			Collection<Trip> allTrips,
-			Map<AgencyAndId, ServiceCalendar> calendarMap) {
-		HashMap<Route, HashMap<Weekday, ArrayList<NumOfTripsOfService>>> tempMap = new HashMap<Route, 
-				HashMap<Weekday, ArrayList<NumOfTripsOfService>>>();
-		for(Trip t : allTrips){
-			Route r = t.getRoute();
-			ServiceCalendar serviceOfTheTrip = calendarMap.get(t.getServiceId());
-			Boolean[] flags = getWeekDayFlags(serviceOfTheTrip);
-			if(tempMap.containsKey(r)){
-				HashMap<Weekday, ArrayList<NumOfTripsOfService>> mapOfRoute = tempMap.get(r);			
-				
-				for (Weekday day : Weekday.values()) {
-					if (flags[day.ordinal()]) {
-						if(mapOfRoute.containsKey(day)){
-							ArrayList<NumOfTripsOfService> list = mapOfRoute.get(day);
-							boolean isContained = false;
-							for(NumOfTripsOfService s : list){
-								if(s.service.equals(serviceOfTheTrip)){
-									s.numOfTrips ++;
-									isContained = true;
-									break;
-								}
-							}
-							if(!isContained){
-								NumOfTripsOfService newService = new NumOfTripsOfService(serviceOfTheTrip);
-								newService.numOfTrips = 1;
-								list.add(newService);
-							}
-						}else{
-							ArrayList<NumOfTripsOfService> newList = new ArrayList<NumOfTripsOfService>();
-							mapOfRoute.put(day, newList);
-						}
-					}
-				}
-				
-			}else{
-				HashMap<Weekday, ArrayList<NumOfTripsOfService>> newSubMap = new HashMap<Weekday, ArrayList<NumOfTripsOfService>>();
-				tempMap.put(r, newSubMap);
+
+	/**
+	 * same as loadFeed() above, or if a date range is given, keep the trips
+	 * running on any date of the range once, and give every route a
+	 * DateRangeExpander making up their instances on each date when the
+	 * route is blocked
+	 *
+	 * @param from
+	 *            the first date to convert, null unless a range is converted
+	 * @param to
+	 *            the last date to convert, included
+	 */
+	public static FeedSnapshot loadFeed(String inputPath,
+			HashSet<String> routesInterested, boolean columnar,
+			ServiceDate week, ServiceDate from, ServiceDate to,
+			RouteExecutor executor) throws IOException {
+		/**
+		 * the internal entity store, which has references to all the loaded
+		 * entities
+		 */
+		GtfsDaoImpl store = new GtfsDaoImpl();
+		// trips and stop times of uninterested routes are skipped while
+		// reading
+		ColumnarGtfsLoader columnarLoader = null;
+		if (columnar) {
+			// stop_times.txt is streamed later, once the useful trips are known
+			columnarLoader = new ColumnarGtfsLoader(new File(inputPath));
+			columnarLoader.readEntities(store, routesInterested);
+		} else {
+			// read gtfs
+			// the inputPath can be the path of decompressed folder or of the
+			// ZIP file
+			FilteringGtfsReader reader = new FilteringGtfsReader(new File(
+					inputPath), routesInterested);
+			reader.run(store, true);
+		}
+
+		// build a BitSet usefulTrips having the indices of all the useful trips
+		// build a HashMap of int id <-> Route object
+		HashMap<Route, Integer> route2IntIdMap = new HashMap<Route, Integer>();
+		BitSet usefulTrips = new BitSet();
+		FeedIndex index = selectTrips(store, routesInterested, week, from, to,
+				route2IntIdMap, usefulTrips);
+		ServiceCalendarIndex calendarIndex = index.getCalendars();
+
+		ArrayList<RouteWithTripList> routesWithTripList = new ArrayList<RouteWithTripList>();
+		if (columnar) {
+			// only the stop times of useful trips are loaded
+			StopTimeTable stopTimeTable = columnarLoader.readStopTimes(index,
+					usefulTrips, executor);
+
+			// arrange Route, Trip and rows of the table in a top to bottom
+			// manner
+			HashMap<Route, ArrayList<TripWithStopTimeList>> top2BottomStructure = new HashMap<Route, ArrayList<TripWithStopTimeList>>();
+			ColumnarConverter.obtainTop2BottomStructure(top2BottomStructure,
+					stopTimeTable);
+
+			// make up trip instances for each service week day
+			ColumnarConverter.splitTrips4MultipleWeekDay(top2BottomStructure,
+							calendarIndex);
+
+			// sort the trips of each route and obtain the stop ids of each
+			// route
+			sortTripsAndGetStopList(top2BottomStructure, routesWithTripList,
+					executor);
+		} else {
+			// group the StopTime elements of useful trips by trip
+			ArrayList<ArrayList<StopTime>> stopTimesOfTrips = groupStopTimesByTrip(
+					index, store.getAllStopTimes(), usefulTrips);
+
+			// sort the stop times of each trip, and make up trip instances
+			// for each service week day
+			HashMap<Route, ArrayList<TripWithStopTimeList>> tripInstances = new HashMap<Route, ArrayList<TripWithStopTimeList>>();
+			splitTrips4MultipleWeekDay(index, stopTimesOfTrips, tripInstances);
+
+			// sort the trips of each route and obtain the stop ids of each
+			// route
+			sortTripsAndGetStopList(tripInstances, routesWithTripList,
+					executor);
+		}
+		if (from != null) {
+			DateRangeExpander expander = new DateRangeExpander(calendarIndex,
+					from, to);
+			for (RouteWithTripList route : routesWithTripList) {
+				route.setExpander(expander);
 			}
 		}
+		return new FeedSnapshot(routesWithTripList, route2IntIdMap,
+				store.getAllStops());
+	}
+
+	/**
+	 * give every route, trip, service and stop of the store a dense int
+	 * index, and select the trips to convert
+	 *
+	 * @param store
+	 *            the entities of the feed, stop times are not needed
+	 * @param routesInterested
+	 *            null or empty for all routes
+	 * @param week
+	 *            as for loadFeed()
+	 * @param from
+	 *            as for loadFeed()
+	 * @param to
+	 *            as for loadFeed()
+	 * @param route2IntIdMap
+	 *            the int id of every route kept, to populate
+	 * @param usefulTrips
+	 *            the indices of the trips to convert, to populate
+	 * @return the index, its ServiceCalendarIndex has the week days of the
+	 *         week or range converted
+	 */
+	public static FeedIndex selectTrips(GtfsDaoImpl store,
+			HashSet<String> routesInterested, ServiceDate week,
+			ServiceDate from, ServiceDate to,
+			HashMap<Route, Integer> route2IntIdMap, BitSet usefulTrips) {
+		Collection<Route> allRoutes = store.getAllRoutes();
+		Collection<Trip> allTrips = store.getAllTrips();
+		Collection<ServiceCalendar> calendars = store.getAllCalendars();
+		Map<AgencyAndId, ServiceCalendar> calendarMap = getCalendarMap(calendars);
 		
-		Collection<Entry<Route, HashMap<Weekday, ArrayList<NumOfTripsOfService>>>> mapValues = tempMap.entrySet();
-		for(Entry<Route, HashMap<Weekday, ArrayList<NumOfTripsOfService>>> map : mapValues){
-			HashMap<Weekday, ServiceCalendar> subMap = new HashMap<Weekday, ServiceCalendar>();
-			optimisedServiceMap.put(map.getKey(), subMap);
-			Collection<Entry<Weekday, ArrayList<NumOfTripsOfService>>> lists = map.getValue().entrySet();
-			for(Entry<Weekday, ArrayList<NumOfTripsOfService>> list : lists){
-				int maxNum = 0;
-				NumOfTripsOfService bestService = null;
-				for(NumOfTripsOfService service : list.getValue()){
-					if(service.numOfTrips>maxNum){
-						maxNum = service.numOfTrips;
-						bestService = service;
-					}
-				}
+		removeUninterestedRoutes(routesInterested, allRoutes, route2IntIdMap);
 
-				if(bestService!=null){
-					subMap.put(list.getKey(), bestService.service);
-				}
-				
-			}
+		// give every route, trip, service and stop a dense int index, and
+		// every service its week days as a bit mask
+		ServiceCalendarIndex calendarIndex;
+		if (from != null) {
+			// every service running in the range runs on Monday only, so
+			// that each of its trips is made up once, at offset 0
+			calendarIndex = new ServiceCalendarIndex(calendarMap,
+					store.getAllCalendarDates());
+			System.out.println(calendarIndex.selectDateRange(from, to) + "/"
+					+ calendarIndex.getNumOfServices()
+					+ " services run from " + from.getAsString() + " to "
+					+ to.getAsString());
+		} else if (week == null) {
+			calendarIndex = new ServiceCalendarIndex(calendarMap);
+		} else {
+			// the week days are the days the service runs on in that week,
+			// calendar_dates.txt included
+			calendarIndex = new ServiceCalendarIndex(calendarMap,
+					store.getAllCalendarDates());
+			System.out.println(calendarIndex.selectWeek(week) + "/"
+					+ calendarIndex.getNumOfServices()
+					+ " services run in the week of " + week.getAsString());
+		}
+		FeedIndex index = new FeedIndex(allRoutes, allTrips, calendarIndex,
+				store.getAllStops());
+		
+		if (week == null && from == null) {
+			// count the trips of the services of each route on each week
+			// day, and keep the trips of the services having most trips
+			usefulTrips.or(selectUsefulTrips(index));
+		} else {
+			usefulTrips.or(selectRunningTrips(index));
 		}
+		return index;
 	}
 
-	public static void removeTripsOfUninterestedRoutes(
-			HashSet<String> routesInterested, Collection<Trip> allTrips) {
-		int ct = 0;
-		Iterator<Trip> it = allTrips.iterator();
-		while(it.hasNext()){
-			Trip t = it.next();
-			String routeId = t.getRoute().getId().getId();
-			if(routesInterested!=null && !routesInterested.isEmpty() && !routesInterested.contains(routeId)) {
-				ct ++;
-				it.remove();
-				continue;
-			}
-			int routeType = t.getRoute().getType();
-			if(!(routeType==Converter.BUS_TYPE ||
-					routeType==Converter.METRO_TYPE ||
-					routeType==Converter.RAIL_TYPE ||
-					routeType==Converter.TRAM_TYPE)){
-				ct ++;
-				it.remove();
-				continue;
-			}
+	/**
+	 * same as loadFeed(), except that the stop times are sorted on disk by
+	 * an OutOfCoreFeed, which makes the routes one at a time when they are
+	 * blocked
+	 *
+	 * @param inputPath
+	 *            the gtfs folder or ZIP file
+	 * @param routesInterested
+	 *            null or empty for all routes
+	 * @param week
+	 *            as for loadFeed()
+	 * @param from
+	 *            as for loadFeed()
+	 * @param to
+	 *            as for loadFeed()
+	 * @param maxHeapMb
+	 *            the memory the stop times may take, in MB
+	 * @param spillFolder
+	 *            where the sorted runs are written, null for the temporary
+	 *            folder
+	 * @return the feed with its stop times sorted
+	 * @throws IOException
+	 */
+	public static OutOfCoreFeed loadFeedOutOfCore(String inputPath,
+			HashSet<String> routesInterested, ServiceDate week,
+			ServiceDate from, ServiceDate to, int maxHeapMb,
+			File spillFolder) throws IOException {
+		GtfsDaoImpl store = new GtfsDaoImpl();
+		ColumnarGtfsLoader loader = new ColumnarGtfsLoader(new File(inputPath));
+		loader.readEntities(store, routesInterested);
+
+		HashMap<Route, Integer> route2IntIdMap = new HashMap<Route, Integer>();
+		BitSet usefulTrips = new BitSet();
+		FeedIndex index = selectTrips(store, routesInterested, week, from, to,
+				route2IntIdMap, usefulTrips);
+
+		OutOfCoreFeed feed = new OutOfCoreFeed(index, usefulTrips,
+				route2IntIdMap, maxHeapMb, spillFolder);
+		if (from != null) {
+			feed.setExpander(new DateRangeExpander(index.getCalendars(), from,
+					to));
 		}
-		System.out.println(ct + " trips of uninterested routes are deleted.");
+		feed.sortStopTimes(loader);
+		return feed;
 	}
 
 	public static void removeUninterestedRoutes(Set<String> routesInterested,
@@ -343,11 +648,7 @@ public class Converter {
 				it.remove();
 				continue;
 			}
-			int routeType = r.getType();
-			if (!(routeType==Converter.BUS_TYPE ||
-					routeType==Converter.METRO_TYPE ||
-					routeType==Converter.RAIL_TYPE ||
-					routeType==Converter.TRAM_TYPE)) {
+			if (!isTypeInterested(r.getType())) {
 				ct1 ++;
 				it.remove();
 				continue;
@@ -360,6 +661,55 @@ public class Converter {
 		System.out.println("numOfRoutes (before/after): " +  numOfRoutesBefore + "/" + routeIntId);
 	}
 
+	/**
+	 * @return true for the route types converted: bus, metro, rail and tram
+	 */
+	public static boolean isTypeInterested(int routeType) {
+		return routeType == Converter.BUS_TYPE
+				|| routeType == Converter.METRO_TYPE
+				|| routeType == Converter.RAIL_TYPE
+				|| routeType == Converter.TRAM_TYPE;
+	}
+
+	/**
+	 * @param route
+	 * @param routesInterested
+	 *            null or empty for all routes
+	 * @return true if the route is kept by removeUninterestedRoutes()
+	 */
+	public static boolean isRouteInterested(Route route,
+			Set<String> routesInterested) {
+		if (routesInterested != null && !routesInterested.isEmpty()
+				&& !routesInterested.contains(route.getId().getId())) {
+			return false;
+		}
+		return isTypeInterested(route.getType());
+	}
+
+	/**
+	 * @param value
+	 *            a date as YYYY-MM-DD
+	 * @return the date, or null if the value is not a valid date
+	 */
+	public static ServiceDate parseDate(String value) {
+		String[] fields = value.trim().split("-");
+		if (fields.length != 3) {
+			return null;
+		}
+		try {
+			ServiceDate date = new ServiceDate(Integer.parseInt(fields[0]),
+					Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+			if (date.getMonth() < 1 || date.getMonth() > 12
+					|| date.getDay() < 1 || date.getDay() > 31
+					|| !date.equals(date.shift(0))) {
+				return null;
+			}
+			return date;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
 	private static void fillSetFromFile(File file, Set<String> set) throws IOException {
 		BufferedReader reader = new BufferedReader(new FileReader(file));
 		String line = null;
@@ -369,23 +719,13 @@ public class Converter {
 		reader.close();
 	}
 
-	public static void offsetCoordsInCollection(Collection<Coord> values, double x_offset, double y_offset) {
-		Iterator<Coord> it = values.iterator();
-		while (it.hasNext()) {
-			Coord c = it.next();
-			c.translate(x_offset, y_offset);
-		}
-	}
-
-	public static void excludeOutBoundStop(double[] boundaries,
+	public static void excludeOutBoundStop(BoundaryIndex boundaryIndex,
 			HashMap<String, Coord> stopMap) {
 		Set<String> stopIds = stopMap.keySet();
 		Iterator<String> it = stopIds.iterator();
 		int num = stopIds.size();	
 		while (it.hasNext()) {
-			String id = it.next();
-			Coord c = stopMap.get(id);
-			if (!isCoordInBound(c.getX(), c.getY(), boundaries)){
+			if (!boundaryIndex.isInside(it.next())){
 				it.remove();
 			}
 		}
@@ -394,172 +734,151 @@ public class Converter {
 	}
 
 	/**
-	 * build the stopMap so given a stop id, the stop location can be returned.
-	 * 
-	 * @param stops
-	 *            all stops's info
-	 * @param stopMap
-	 *            the map to build
+	 * counts of what constrainOutOfBound() deleted
 	 */
-	public static void buildStopMap(Collection<Stop> stops,
-			HashMap<String, Coord> stopMap) {
-		Iterator<Stop> it = stops.iterator();
-		while (it.hasNext()) {
-			Stop stop = it.next();
-			Coord loc = new Coord(stop.getLon(), stop.getLat());
-			stopMap.put(stop.getId().getId(), loc);
+	public static class BoundStats {
+		int stopsDeleted, tripsDeleted, vehicleDeleted, routeDeleted;
+
+		void add(BoundStats other) {
+			stopsDeleted += other.stopsDeleted;
+			tripsDeleted += other.tripsDeleted;
+			vehicleDeleted += other.vehicleDeleted;
+			routeDeleted += other.routeDeleted;
+		}
+
+		public void print() {
+			System.out.println("\nstopsDeleted="+stopsDeleted+"\ttripsDeleted="+tripsDeleted+"\tvehicleDeleted="+vehicleDeleted+"\trouteDeleted"+routeDeleted);
 		}
 	}
 
 	/**
-	 * if in the trip, there is a sequence of stops within boundaries, and the
-	 * number of them >= the half of the total number of stops of this trip, we
-	 * shorten this trip to this stop sequence, with any other stops removed.
+	 * constrainOutOfBound() of a single route
 	 * 
-	 * @param boundaries
-	 *            a double array of length 4: [xmin][ymin][xmax][ymax]
-	 * @param stopMap
-	 *            the map provides stop coordinates when stop id is given
-	 * @param routeSchedules
+	 * @param boundaryIndex
+	 * @param route
+	 * @param stats
+	 *            counts the deleted stops, trips and vehicles
+	 * @return false if the route has no vehicle left
 	 */
-	public static void constrainOutOfBound(double[] boundaries,
-			HashMap<String, Coord> stopMap,
-			ArrayList<RouteSchedule> routeSchedules) {
-		
-		int stopsDeleted = 0, tripsDeleted = 0, vehicleDeleted = 0, routeDeleted = 0;
-		
-		Iterator<RouteSchedule> routeIt = routeSchedules.iterator();
-		while (routeIt.hasNext()) {
-			RouteSchedule route = routeIt.next();
-
-			// if all stops of the route are within boundaries, no need to dig
-			// in
-			if (areStopsInBound(route.stops, stopMap, boundaries)) {
-				continue;
+	public static boolean constrainOutOfBound(BoundaryIndex boundaryIndex,
+			RouteSchedule route, BoundStats stats) {
+		BoundaryIndex.Coverage coverage = boundaryIndex
+				.getCoverage(route.stops);
+		// if all stops of the route are within boundaries, no need to dig
+		// in
+		if (coverage == BoundaryIndex.Coverage.INSIDE) {
+			return !route.vehicles.isEmpty();
+		}
+		// if none is, every trip is deleted
+		if (coverage == BoundaryIndex.Coverage.OUTSIDE) {
+			for (VehicleSchedule vehicle : route.vehicles) {
+				for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+					stats.stopsDeleted += trip.size();
+				}
+				stats.tripsDeleted += vehicle.trips.size();
 			}
+			stats.vehicleDeleted += route.vehicles.size();
+			route.vehicles.clear();
+			route.stops.clear();
+			return false;
+		}
 
-			Iterator<VehicleSchedule> vehicleIt = route.vehicles.iterator();
-			while (vehicleIt.hasNext()) {
-				VehicleSchedule vehicle = vehicleIt.next();
-
-				Iterator<ArrayList<StopDataUnit>> tripIt = vehicle.trips
-						.iterator();
-				while (tripIt.hasNext()) {
-					ArrayList<StopDataUnit> trip = tripIt.next();
-
-					Iterator<StopDataUnit> stopIt = trip.iterator();
-					int stopIndex = 0;
-					int numOfStop = trip.size();
-
-					// record the in bound stop sequence, and update the stop
-					// list of the route
-					int numOfInBoundStop = 0;
-					int firstInBoundIndex = -1;
-					boolean isFirstInBoundStop = true;
-					boolean answerIsFound = false;
-					while (stopIt.hasNext()) {
-						StopDataUnit stop = stopIt.next();
-						if (isStopInBound(stop.stop_id, stopMap, boundaries)) {
-							if (answerIsFound) {
-								continue;
-							}
-							if (isFirstInBoundStop) {
-								firstInBoundIndex = stopIndex;
-								isFirstInBoundStop = false;
-							}
-							numOfInBoundStop++;
-						} else {
-							// always update the stop list of the route
-							if (route.stops.contains(stop.stop_id)) {
-								route.stops.remove(stop.stop_id);
-							}
-							// when answer is found, do nothing extra, just
-							// traverse later stops and update stop list of the
-							// route.
-							if (answerIsFound) {
-								continue;
-							}
-							// this is when it determine that the trip can be
-							// shorten rather than be deleted
-							if (numOfInBoundStop >= numOfStop / 2) {
-								answerIsFound = true;
-							} else {
-								numOfInBoundStop = 0;
-								firstInBoundIndex = -1;
-								isFirstInBoundStop = true;
-							}
+		Iterator<VehicleSchedule> vehicleIt = route.vehicles.iterator();
+		while (vehicleIt.hasNext()) {
+			VehicleSchedule vehicle = vehicleIt.next();
 
+			Iterator<ArrayList<StopDataUnit>> tripIt = vehicle.trips
+					.iterator();
+			while (tripIt.hasNext()) {
+				ArrayList<StopDataUnit> trip = tripIt.next();
+
+				Iterator<StopDataUnit> stopIt = trip.iterator();
+				int stopIndex = 0;
+				int numOfStop = trip.size();
+
+				// record the in bound stop sequence, and update the stop
+				// list of the route
+				int numOfInBoundStop = 0;
+				int firstInBoundIndex = -1;
+				boolean isFirstInBoundStop = true;
+				boolean answerIsFound = false;
+				while (stopIt.hasNext()) {
+					StopDataUnit stop = stopIt.next();
+					if (boundaryIndex.isInside(stop.stop_id)) {
+						if (answerIsFound) {
+							continue;
 						}
-						stopIndex++;
-					}
-
-					// for the case that the trip is ended at stops within
-					// boundaries
-					if (numOfInBoundStop >= numOfStop / 2) {
-						answerIsFound = true;
-					}
-
-					// remove all the other stops
-					stopIt = trip.iterator();
-					int i = 0;
-					while (stopIt.hasNext()) {
-						stopIt.next();
-						if (!answerIsFound) {
-							stopIt.remove();
-							stopsDeleted ++;
+						if (isFirstInBoundStop) {
+							firstInBoundIndex = stopIndex;
+							isFirstInBoundStop = false;
+						}
+						numOfInBoundStop++;
+					} else {
+						// always update the stop list of the route
+						if (route.stops.contains(stop.stop_id)) {
+							route.stops.remove(stop.stop_id);
+						}
+						// when answer is found, do nothing extra, just
+						// traverse later stops and update stop list of the
+						// route.
+						if (answerIsFound) {
 							continue;
 						}
-						if (i < firstInBoundIndex || i > firstInBoundIndex + numOfInBoundStop -1) {
-							stopIt.remove();
-							stopsDeleted ++;
+						// this is when it determine that the trip can be
+						// shorten rather than be deleted
+						if (numOfInBoundStop >= numOfStop / 2) {
+							answerIsFound = true;
 						} else {
-							// is within boundaries, do nothing
+							numOfInBoundStop = 0;
+							firstInBoundIndex = -1;
+							isFirstInBoundStop = true;
 						}
-						i++;
+
 					}
+					stopIndex++;
+				}
+
+				// for the case that the trip is ended at stops within
+				// boundaries
+				if (numOfInBoundStop >= numOfStop / 2) {
+					answerIsFound = true;
+				}
 
-					// remove this trip from the vehicle if it's empty now
-					if (trip.isEmpty()) {
-						tripIt.remove();
-						tripsDeleted ++;
+				// remove all the other stops
+				stopIt = trip.iterator();
+				int i = 0;
+				while (stopIt.hasNext()) {
+					stopIt.next();
+					if (!answerIsFound) {
+						stopIt.remove();
+						stats.stopsDeleted ++;
+						continue;
 					}
+					if (i < firstInBoundIndex || i > firstInBoundIndex + numOfInBoundStop -1) {
+						stopIt.remove();
+						stats.stopsDeleted ++;
+					} else {
+						// is within boundaries, do nothing
+					}
+					i++;
 				}
 
-				// remove this vehicle from the route if it's empty now
-				if (vehicle.trips.isEmpty()) {
-					vehicleIt.remove();
-					vehicleDeleted ++;
+				// remove this trip from the vehicle if it's empty now
+				if (trip.isEmpty()) {
+					tripIt.remove();
+					stats.tripsDeleted ++;
 				}
 			}
-			// remove this route if it has no vehicle
-			if (route.vehicles.isEmpty()) {
-				routeIt.remove();
-				routeDeleted ++;
-			}
-		}
-		System.out.println("\nstopsDeleted="+stopsDeleted+"\ttripsDeleted="+tripsDeleted+"\tvehicleDeleted="+vehicleDeleted+"\trouteDeleted"+routeDeleted);
-	}
 
-	public static boolean areStopsInBound(Set<String> stopsOfRoute,
-			HashMap<String, Coord> stopMap, double[] boundaries) {
-		Iterator<String> it = stopsOfRoute.iterator();
-		while (it.hasNext()) {
-			String id = it.next();
-			if (!isStopInBound(id, stopMap, boundaries)) {
-				return false;
+			// remove this vehicle from the route if it's empty now
+			if (vehicle.trips.isEmpty()) {
+				vehicleIt.remove();
+				stats.vehicleDeleted ++;
 			}
 		}
-		return false;
+		return !route.vehicles.isEmpty();
 	}
 
-	public static boolean isStopInBound(String stopId,
-			HashMap<String, Coord> stopMap, double[] boundaries) {
-		Coord c = stopMap.get(stopId);
-		double x = c.getX();
-		double y = c.getY();
-		return isCoordInBound(x, y, boundaries);
-	}
-	
 	public static boolean isCoordInBound(double x, double y, double[] boundaries) {
 		double xmin = boundaries[0];
 		double ymin = boundaries[1];
@@ -573,26 +892,14 @@ public class Converter {
 		}
 	}
 
-	/**
-	 * construct RouteSchedule objects and populate the list
-	 * 
-	 * @param routesWithTripList
-	 * @param route2IntIdMap
-	 * @param routeSchedules
-	 *            the structure to populate
-	 */
-	public static void populateRouteScheduleList(
-			ArrayList<RouteWithTripList> routesWithTripList,
-			HashMap<Route, Integer> route2IntIdMap,
-			ArrayList<RouteSchedule> routeSchedules) {
-		for (RouteWithTripList route : routesWithTripList) {
-			RouteSchedule routeSchedule = new RouteSchedule();
-			routeSchedule.layer_id = getLayerId(route.getRoute().getType());
-			routeSchedule.route_id = route2IntIdMap.get(route.getRoute());
-			routeSchedule.stops = route.getStopList();
-			routeSchedule.vehicles = route.getVehicleList();
-			routeSchedules.add(routeSchedule);
-		}
+	private static RouteSchedule createRouteSchedule(RouteWithTripList route,
+			HashMap<Route, Integer> route2IntIdMap) {
+		RouteSchedule routeSchedule = new RouteSchedule();
+		routeSchedule.layer_id = getLayerId(route.getRoute().getType());
+		routeSchedule.route_id = route2IntIdMap.get(route.getRoute());
+		routeSchedule.stops = route.getStopList();
+		routeSchedule.vehicles = route.getVehicleList();
+		return routeSchedule;
 	}
 
 	/**
@@ -600,7 +907,8 @@ public class Converter {
 	 * first trip; step3:consume the next trip that is OK to be its next trip,
 	 * and repeat until the end of the trip list; step4: do step1 again unless
 	 * the trip list is exhausted. method isNextStrip() is the method decide if
-	 * the trip is OK to be the next trip.
+	 * the trip is OK to be the next trip. The linking is done by
+	 * GreedyBlockingEngine, the trip list of the route is left untouched.
 	 * 
 	 * @param routesWithTripList
 	 * @param maxSpeed
@@ -610,373 +918,636 @@ public class Converter {
 	public static int populateVehicleList(
 			ArrayList<RouteWithTripList> routesWithTripList, double maxSpeed,
 			double maxDistance) {
+		return populateVehicleList(routesWithTripList, maxSpeed, maxDistance,
+				BlockingMode.GREEDY);
+	}
 
-		int numberOfVehicles = 0;
-		for (RouteWithTripList route : routesWithTripList) {
-			List<VehicleSchedule> vehicleScheduleList = new ArrayList<VehicleSchedule>();
-			List<TripWithStopTimeList> tripList = route.getTripList();
-			int transportType = route.getRoute().getType();
-			while (!tripList.isEmpty()) {
-				VehicleSchedule vehicle = new VehicleSchedule();
-				vehicle.trips = new ArrayList<ArrayList<StopDataUnit>>();
-				vehicle.vehicle_id = numberOfVehicles;
-				Iterator<TripWithStopTimeList> it1 = tripList.iterator();
-				int lastEndTime = 0;
-				int lastStartTime = 0;
-				Coord lastEndLocation = null;
-				while (it1.hasNext()) {
-					TripWithStopTimeList trip = it1.next();
-					ArrayList<StopTime> stopTimeList = trip.getStopTimeList();
-
-					if (vehicle.trips.isEmpty()) {
-						// the first trip for the vehicle
-						ArrayList<StopDataUnit> stopDataUniteList = stopTimeList2DataUniteList(stopTimeList);
-						vehicle.trips.add(stopDataUniteList);
-						lastEndTime = trip.getEndTime();
-						lastStartTime = trip.getStartTime();
-						Stop lastEndStop = stopTimeList.get(
-								stopTimeList.size() - 1).getStop();
-						lastEndLocation = new Coord(lastEndStop.getLon(),
-								lastEndStop.getLat());
-						it1.remove();
+	/**
+	 * same as populateVehicleList(), with OPTIMAL the trips of each route are
+	 * linked into the fewest vehicles by OptimalBlockingEngine
+	 * 
+	 * @param routesWithTripList
+	 * @param maxSpeed
+	 * @param maxDistance
+	 * @param blockingMode
+	 * @return the number of VehicleSchedule objects created
+	 */
+	public static int populateVehicleList(
+			ArrayList<RouteWithTripList> routesWithTripList, double maxSpeed,
+			double maxDistance, BlockingMode blockingMode) {
+		return populateVehicleList(routesWithTripList, maxSpeed, maxDistance,
+				blockingMode, new RouteExecutor(1));
+	}
 
-					} else {
-						// if is not the first trip, check if it is valid to be
-						// the next trip
-						int thisStartTime = trip.getStartTime();
-						if(thisStartTime<lastStartTime) {
-							assert false:"trip sorting error!";
-						}
-						Stop thisStartStop = stopTimeList.get(0).getStop();
-						Coord thisStartLocation = new Coord(
-								thisStartStop.getLon(), thisStartStop.getLat());
-						if (isNextStrip(lastEndTime, lastEndLocation,
-								thisStartTime, thisStartLocation, maxSpeed,
-								maxDistance, transportType)) {
-							ArrayList<StopDataUnit> stopDataUniteList = stopTimeList2DataUniteList(stopTimeList);
-							vehicle.trips.add(stopDataUniteList);
-							lastEndTime = trip.getEndTime();
-							lastStartTime = trip.getStartTime();
-							Stop lastEndStop = stopTimeList.get(
-									stopTimeList.size() - 1).getStop();
-							lastEndLocation = new Coord(lastEndStop.getLon(),
-									lastEndStop.getLat());
-							it1.remove();
+	/**
+	 * routes are blocked in parallel by the executor. Vehicle ids are given
+	 * afterwards in the order of the route list, so they are the same for
+	 * any number of threads.
+	 * 
+	 * @param routesWithTripList
+	 * @param maxSpeed
+	 * @param maxDistance
+	 * @param blockingMode
+	 * @param executor
+	 * @return the number of VehicleSchedule objects created
+	 */
+	public static int populateVehicleList(
+			ArrayList<RouteWithTripList> routesWithTripList,
+			final double maxSpeed, final double maxDistance,
+			final BlockingMode blockingMode, RouteExecutor executor) {
+		return populateVehicleList(routesWithTripList, maxSpeed, maxDistance,
+				blockingMode, executor, 0);
+	}
 
-						} else {
-	
+	/**
+	 * @param firstVehicleId
+	 *            the id of the first vehicle created
+	 * @return the number of VehicleSchedule objects created
+	 */
+	private static int populateVehicleList(
+			List<RouteWithTripList> routesWithTripList,
+			final double maxSpeed, final double maxDistance,
+			final BlockingMode blockingMode, RouteExecutor executor,
+			int firstVehicleId) {
+		List<List<VehicleSchedule>> vehiclesOfRoutes = executor.map(
+				routesWithTripList, getTripCounts(routesWithTripList),
+				new RouteExecutor.RouteTask<RouteWithTripList, List<VehicleSchedule>>() {
+					public List<VehicleSchedule> run(RouteWithTripList route) {
+						List<VehicleSchedule> vehicleScheduleList = new ArrayList<VehicleSchedule>();
+						for (List<TripWithStopTimeList> block : block(route,
+								maxSpeed, maxDistance, blockingMode)) {
+							vehicleScheduleList.add(createVehicleSchedule(
+									block, -1));
 						}
+						return vehicleScheduleList;
 					}
-				}
-				vehicleScheduleList.add(vehicle);
-				numberOfVehicles++;
+				});
+
+		int vehicleId = firstVehicleId;
+		for (int i = 0; i < routesWithTripList.size(); i++) {
+			List<VehicleSchedule> vehicleScheduleList = vehiclesOfRoutes.get(i);
+			for (VehicleSchedule vehicle : vehicleScheduleList) {
+				vehicle.vehicle_id = vehicleId;
+				vehicleId++;
 			}
-			route.setVehicleList(vehicleScheduleList);
+			routesWithTripList.get(i).setVehicleList(vehicleScheduleList);
 		}
-		return numberOfVehicles;
+		return vehicleId - firstVehicleId;
 	}
 
 	/**
-	 * This method sort StopTime objects of each Trip object, and sort Trip
-	 * objects of each Route object. Sorting is based on the sequence id of
-	 * StopTime objects, and start time of Trip objects. It also populate the
-	 * stop list of each route
+	 * block the routes and write the schedule of each route as soon as it and
+	 * the routes before it are ready, instead of building the RouteSchedule
+	 * objects of all routes. A route releases its trips once blocked. With
+	 * more than one thread, the biggest routes are blocked first and the
+	 * routes are written while the next ones are blocked; at most a few
+	 * routes per thread are blocked or wait to be written at a time, so only
+	 * their schedules are in memory together.
 	 * 
-	 * @param top2BottomStructure
 	 * @param routesWithTripList
+	 * @param route2IntIdMap
+	 * @param maxSpeed
+	 * @param maxDistance
+	 * @param blockingMode
+	 * @param executor
+	 * @param boundaryIndex
+	 *            the schedules are constrained to its boundaries like by
+	 *            constrainOutOfBound(), null to keep everything
+	 * @param writer
+	 * @return the number of VehicleSchedule objects created
+	 * @throws IOException
 	 */
-	public static void sortTripsAndGetStopList(
-			HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure,
-			ArrayList<RouteWithTripList> routesWithTripList) {
-		for (HashMap<Trip, ArrayList<StopTime>> trips : top2BottomStructure
-				.values()) {
-			// create route element, and add it to the List
-			Iterator<Entry<Trip, ArrayList<StopTime>>> it1 = trips.entrySet()
-					.iterator();
-			Entry<Trip, ArrayList<StopTime>> entry = it1.next();
-			Route thisRoute = entry.getKey().getRoute();
-			ArrayList<TripWithStopTimeList> tripsWithTime = new ArrayList<TripWithStopTimeList>();
-			HashSet<String> stopList = new HashSet<String>();
-			RouteWithTripList thisRoute2 = new RouteWithTripList(thisRoute,
-					tripsWithTime, stopList);
-
-			routesWithTripList.add(thisRoute2);
-
-			for (ArrayList<StopTime> stopTimeList : trips.values()) {
-				// sort the stop time elements of each trip of each route
-				Collections.sort(stopTimeList);
-
-				// build trip element and add to the trip list
-				int startTime = stopTimeList.get(0).getDepartureTime();
-				int endTime = stopTimeList.get(stopTimeList.size() - 1)
-						.getArrivalTime();
-				TripWithStopTimeList tripWithTime = new TripWithStopTimeList(
-						stopTimeList.get(0).getTrip(), startTime, endTime,
-						stopTimeList);
-				tripsWithTime.add(tripWithTime);
-
-				// populate stop list of the route
-				for (StopTime st : stopTimeList) {
-					String id = st.getStop().getId().getId();
-					if (!stopList.contains(id)) {
-						stopList.add(id);
-					}
+	public static int writeRouteSchedules(
+			ArrayList<RouteWithTripList> routesWithTripList,
+			HashMap<Route, Integer> route2IntIdMap, double maxSpeed,
+			double maxDistance, BlockingMode blockingMode,
+			RouteExecutor executor, BoundaryIndex boundaryIndex,
+			ScheduleWriter writer)
+			throws IOException {
+		// the routes are all in memory, any of them can be blocked first
+		return writeRouteSchedules(routesWithTripList.iterator(),
+				Integer.MAX_VALUE, route2IntIdMap, maxSpeed, maxDistance,
+				blockingMode, executor, boundaryIndex, writer);
+	}
+
+	/**
+	 * same as writeRouteSchedules() above, for routes made one at a time,
+	 * e.g. by an OutOfCoreFeed. Only the routes blocked or waiting to be
+	 * written are made ahead.
+	 */
+	public static int writeRouteSchedules(Iterator<RouteWithTripList> routes,
+			HashMap<Route, Integer> route2IntIdMap, double maxSpeed,
+			double maxDistance, BlockingMode blockingMode,
+			RouteExecutor executor, BoundaryIndex boundaryIndex,
+			ScheduleWriter writer)
+			throws IOException {
+		return writeRouteSchedules(routes,
+				4 * executor.getNumOfThreads(), route2IntIdMap, maxSpeed,
+				maxDistance, blockingMode, executor, boundaryIndex, writer);
+	}
+
+	/**
+	 * @param maxAhead
+	 *            the most routes taken from the iterator and not written yet
+	 */
+	private static int writeRouteSchedules(Iterator<RouteWithTripList> routes,
+			int maxAhead, final HashMap<Route, Integer> route2IntIdMap,
+			final double maxSpeed, final double maxDistance,
+			final BlockingMode blockingMode, RouteExecutor executor,
+			final BoundaryIndex boundaryIndex, ScheduleWriter writer)
+			throws IOException {
+		RouteScheduleSink sink = new RouteScheduleSink(writer);
+		executor.stream(routes, new RouteExecutor.Weigher<RouteWithTripList>() {
+			public int weigh(RouteWithTripList route) {
+				return route.getNumOfTripInstances();
+			}
+		}, new RouteExecutor.RouteTask<RouteWithTripList, BlockedRoute>() {
+			public BlockedRoute run(RouteWithTripList route) {
+				List<VehicleSchedule> vehicleScheduleList = new ArrayList<VehicleSchedule>();
+				for (List<TripWithStopTimeList> block : block(route, maxSpeed,
+						maxDistance, blockingMode)) {
+					// numbered within the route until it is written
+					vehicleScheduleList.add(createVehicleSchedule(block,
+							vehicleScheduleList.size()));
 				}
+				route.setVehicleList(vehicleScheduleList);
+				BlockedRoute blocked = new BlockedRoute();
+				blocked.numOfVehicles = vehicleScheduleList.size();
+				blocked.schedule = createRouteSchedule(route, route2IntIdMap);
+				route.setVehicleList(null);
+				route.setTripList(null);
+				if (boundaryIndex != null) {
+					blocked.stats = new BoundStats();
+					blocked.kept = constrainOutOfBound(boundaryIndex,
+							blocked.schedule, blocked.stats);
+				}
+				return blocked;
 			}
-			// sort trips based on their start time
-			Collections.sort(tripsWithTime);
+		}, 4 * executor.getNumOfThreads(), maxAhead, sink);
+		if (boundaryIndex != null) {
+			sink.stats.print();
 		}
+		return sink.numberOfVehicles;
 	}
 
 	/**
-	 * if a trip is for multiple(n) week days, it will create clone n-1 copies
-	 * of the trip along with its StopTime objects. It also assign unique trip
-	 * names for these copies, also update the trip field in StopTime objects
-	 * 
-	 * @param top2BottomStructure
-	 *            where to get elements conveniently
-	 * @param calendarMap
-	 *            where the
-	 * @return the number of Trip objects after split
+	 * the schedule of a route blocked and constrained by a thread
 	 */
-	public static int splitTrips4MultipleWeekDay(
-			HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure,
-			Map<AgencyAndId, ServiceCalendar> calendarMap) {
-		int numOfTripsAfterMadeUp = 0;
-		for (HashMap<Trip, ArrayList<StopTime>> trips : top2BottomStructure
-				.values()) {
-
-			HashMap<Trip, ArrayList<StopTime>> tripsToAdd = new HashMap<Trip, ArrayList<StopTime>>();
-			Iterator<Trip> it1 = trips.keySet().iterator();
-			Route route = it1.next().getRoute();
-			for (ArrayList<StopTime> stopTimeList : trips.values()) {
-				// make up trips and their stop times for each service week day
-				Trip thisTrip = stopTimeList.get(0).getTrip();
-				ServiceCalendar calendar = calendarMap.get(thisTrip
-						.getServiceId());
-				Boolean[] weekdayFlags = getWeekDayFlags(calendar);
-
-				int numOfDays = numOfSet(weekdayFlags);
-				assert (numOfDays >= 1 && numOfDays < 8) : "invalide calendar element:"
-						+ calendar.getServiceId().getAgencyId();
-				if (numOfDays == 1) {
-					for (Weekday day : Weekday.values()) {
-						if (weekdayFlags[day.ordinal()]) {
-							int offset = 86400 * day.ordinal();
-							offSetStopTimes(stopTimeList, offset);
-						}
-					}
-				} else {
-					boolean isFirstDay = true;
-					ArrayList<ArrayList<StopTime>> prototypes = createTripListFromProto(
-							stopTimeList, numOfDays - 1);
-					int i = 0;
-					for (Weekday day : Weekday.values()) {
-						if (weekdayFlags[day.ordinal()]) {
-							int offset = 86400 * day.ordinal();
-							if (isFirstDay) {
-								offSetStopTimes(stopTimeList, offset);
-								isFirstDay = false;
-							} else {
-								offSetStopTimesAndTrip(prototypes.get(i),
-										offset, day.ordinal());
-							}
-						}
-						i++;
-						if (i >= numOfDays) {
-							break;
-						}
-					}
-					// add new trips
-					for (ArrayList<StopTime> list : prototypes) {
-						Trip trip = list.get(0).getTrip();
-						tripsToAdd.put(trip, list);
-					}
-				}
+	private static class BlockedRoute {
+		RouteSchedule schedule;
+		/** before the schedule is constrained */
+		int numOfVehicles;
+		BoundStats stats = null;
+		boolean kept = true;
+	}
 
-			}
-			// add tripsToAdd to the list of trips of the route
-			if (!tripsToAdd.isEmpty()) {
-				for (ArrayList<StopTime> stopTimeList : tripsToAdd.values()) {
-					Trip trip = stopTimeList.get(0).getTrip();
-					trips.put(trip, stopTimeList);
-				}
+	/**
+	 * gives the vehicles their ids in the order of the routes and writes the
+	 * routes kept
+	 */
+	private static class RouteScheduleSink implements
+			RouteExecutor.ResultConsumer<RouteWithTripList, BlockedRoute> {
+		ScheduleWriter writer;
+		BoundStats stats = new BoundStats();
+		int numberOfVehicles = 0;
 
-				System.out.println(tripsToAdd.size()
-						+ " trips are made up for route-"
-						+ route.getId().getId());
+		RouteScheduleSink(ScheduleWriter writer) {
+			this.writer = writer;
+		}
+
+		public void accept(RouteWithTripList route, BlockedRoute blocked)
+				throws IOException {
+			// the ids of the vehicles constrained away are skipped
+			for (VehicleSchedule vehicle : blocked.schedule.vehicles) {
+				vehicle.vehicle_id += numberOfVehicles;
+			}
+			numberOfVehicles += blocked.numOfVehicles;
+			if (blocked.stats != null) {
+				stats.add(blocked.stats);
+			}
+			if (blocked.kept) {
+				writer.writeRoute(blocked.schedule);
+			} else {
+				stats.routeDeleted++;
 			}
-			numOfTripsAfterMadeUp += trips.size();
 		}
-		System.out.println(numOfTripsAfterMadeUp + " trips after make up.");
-		return numOfTripsAfterMadeUp;
 	}
 
 	/**
-	 * traverse useful StopTime objects and map them to corresponding Trip
-	 * objects and Route objects
+	 * count the vehicles a blocking mode needs without building their
+	 * schedules
 	 * 
+	 * @param routesWithTripList
+	 * @param maxSpeed
+	 * @param maxDistance
+	 * @param blockingMode
+	 * @param executor
+	 * @return the number of vehicles of all routes
+	 */
+	public static int countVehicles(
+			ArrayList<RouteWithTripList> routesWithTripList,
+			final double maxSpeed, final double maxDistance,
+			final BlockingMode blockingMode, RouteExecutor executor) {
+		List<Integer> counts = executor.map(routesWithTripList,
+				getTripCounts(routesWithTripList),
+				new RouteExecutor.RouteTask<RouteWithTripList, Integer>() {
+					public Integer run(RouteWithTripList route) {
+						return block(route, maxSpeed, maxDistance,
+								blockingMode).size();
+					}
+				});
+		int numberOfVehicles = 0;
+		for (int count : counts) {
+			numberOfVehicles += count;
+		}
+		return numberOfVehicles;
+	}
+
+	/**
+	 * same as countVehicles() above, for routes made one window at a time
+	 */
+	public static int countVehicles(Iterator<RouteWithTripList> routes,
+			double maxSpeed, double maxDistance, BlockingMode blockingMode,
+			RouteExecutor executor) {
+		int windowSize = 4 * executor.getNumOfThreads();
+		int numberOfVehicles = 0;
+		while (routes.hasNext()) {
+			numberOfVehicles += countVehicles(nextWindow(routes, windowSize),
+					maxSpeed, maxDistance, blockingMode, executor);
+		}
+		return numberOfVehicles;
+	}
+
+	private static ArrayList<RouteWithTripList> nextWindow(
+			Iterator<RouteWithTripList> routes, int windowSize) {
+		ArrayList<RouteWithTripList> window = new ArrayList<RouteWithTripList>(
+				windowSize);
+		while (window.size() < windowSize && routes.hasNext()) {
+			window.add(routes.next());
+		}
+		return window;
+	}
+
+	public static int countVehicles(
+			ArrayList<RouteWithTripList> routesWithTripList, double maxSpeed,
+			double maxDistance, BlockingMode blockingMode) {
+		return countVehicles(routesWithTripList, maxSpeed, maxDistance,
+				blockingMode, new RouteExecutor(1));
+	}
+
+	private static int[] getTripCounts(
+			List<RouteWithTripList> routesWithTripList) {
+		int[] tripCounts = new int[routesWithTripList.size()];
+		for (int i = 0; i < tripCounts.length; i++) {
+			tripCounts[i] = routesWithTripList.get(i).getNumOfTripInstances();
+		}
+		return tripCounts;
+	}
+
+	private static List<List<TripWithStopTimeList>> block(
+			RouteWithTripList route, double maxSpeed, double maxDistance,
+			BlockingMode blockingMode) {
+		if (blockingMode == BlockingMode.OPTIMAL) {
+			return OptimalBlockingEngine.block(route.getTripInstances(), route
+					.getRoute().getType(), maxSpeed, maxDistance);
+		}
+		return GreedyBlockingEngine.block(route.getTripInstances(), route
+				.getRoute().getType(), maxSpeed, maxDistance);
+	}
+
+	/**
+	 * @param block
+	 *            the trips of the vehicle in driving order
+	 * @param vehicleId
+	 * @return the schedule of the vehicle
+	 */
+	public static VehicleSchedule createVehicleSchedule(
+			List<TripWithStopTimeList> block, int vehicleId) {
+		VehicleSchedule vehicle = new VehicleSchedule();
+		vehicle.trips = new ArrayList<ArrayList<StopDataUnit>>();
+		vehicle.vehicle_id = vehicleId;
+		for (TripWithStopTimeList trip : block) {
+			vehicle.trips.add(trip2DataUniteList(trip));
+		}
+		return vehicle;
+	}
+
+	/**
+	 * sort the trips of each route by start time and populate the stop list
+	 * of each route
+	 *
 	 * @param top2BottomStructure
-	 *            the structure to populate
-	 * @param stopTimes
-	 *            all useful StopTime objects
+	 *            the trip instances of each route
+	 * @param routesWithTripList
 	 */
-	public static void obtainTop2BottomStructure(
-			HashMap<Route, HashMap<Trip, ArrayList<StopTime>>> top2BottomStructure,
-			Collection<StopTime> stopTimes) {
-		Iterator<StopTime> it2 = stopTimes.iterator();
-		while (it2.hasNext()) {
-			StopTime st = it2.next();
-			Trip trip = st.getTrip();
-			Route route = st.getTrip().getRoute();
-			ArrayList<StopTime> stopTimeList = null;
-			HashMap<Trip, ArrayList<StopTime>> tripStopTimeMap = null;
-
-			if (!top2BottomStructure.containsKey(route)) {
-				tripStopTimeMap = new HashMap<Trip, ArrayList<StopTime>>();
-				top2BottomStructure.put(route, tripStopTimeMap);
-			} else {
-				tripStopTimeMap = top2BottomStructure.get(route);
-			}
+	public static void sortTripsAndGetStopList(
+			HashMap<Route, ArrayList<TripWithStopTimeList>> top2BottomStructure,
+			ArrayList<RouteWithTripList> routesWithTripList) {
+		sortTripsAndGetStopList(top2BottomStructure, routesWithTripList,
+				new RouteExecutor(1));
+	}
 
-			if (!tripStopTimeMap.containsKey(trip)) {
-				stopTimeList = new ArrayList<StopTime>();
-				top2BottomStructure.get(route).put(trip, stopTimeList);
-			} else {
-				stopTimeList = tripStopTimeMap.get(trip);
-			}
+	/**
+	 * same as sortTripsAndGetStopList(), routes are processed in parallel by
+	 * the executor
+	 *
+	 * @param top2BottomStructure
+	 * @param routesWithTripList
+	 * @param executor
+	 */
+	public static void sortTripsAndGetStopList(
+			HashMap<Route, ArrayList<TripWithStopTimeList>> top2BottomStructure,
+			ArrayList<RouteWithTripList> routesWithTripList,
+			RouteExecutor executor) {
+		List<Map.Entry<Route, ArrayList<TripWithStopTimeList>>> routes = new ArrayList<Map.Entry<Route, ArrayList<TripWithStopTimeList>>>(
+				top2BottomStructure.entrySet());
+		int[] weights = new int[routes.size()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = routes.get(i).getValue().size();
+		}
+		routesWithTripList.addAll(executor.map(routes, weights,
+				new RouteExecutor.RouteTask<Map.Entry<Route, ArrayList<TripWithStopTimeList>>, RouteWithTripList>() {
+					public RouteWithTripList run(
+							Map.Entry<Route, ArrayList<TripWithStopTimeList>> entry) {
+						return createRouteWithTripList(entry.getKey(),
+								entry.getValue());
+					}
+				}));
+	}
 
-			stopTimeList.add(st);
+	/**
+	 * sort the trips of a route and obtain its stop ids
+	 *
+	 * @param route
+	 * @param tripsWithTime
+	 *            the trip instances of the route, sorted in place
+	 * @return the route with its sorted trips
+	 */
+	public static RouteWithTripList createRouteWithTripList(Route route,
+			ArrayList<TripWithStopTimeList> tripsWithTime) {
+		HashSet<String> stopList = new HashSet<String>();
+		for (TripWithStopTimeList trip : tripsWithTime) {
+			for (int i = 0; i < trip.getNumOfStops(); i++) {
+				stopList.add(trip.getStop(i).getId().getId());
+			}
 		}
+		// sort trips based on their start time
+		Collections.sort(tripsWithTime);
+		return new RouteWithTripList(route, tripsWithTime, stopList);
 	}
 
 	/**
-	 * remove the StopTime objects of useless Trip objects
+	 * select the trips whose service runs on any week day of the index, for
+	 * week days taken from the actual dates of a week
 	 * 
-	 * @param stopTimes
-	 * @param usefulTrips
+	 * @param index
+	 * @return the trip indices of the running trips
 	 */
-	public static void removeUselessStopTime(Collection<StopTime> stopTimes,
-			HashSet<Trip> usefulTrips) {
-		Iterator<StopTime> it = stopTimes.iterator();
-		Trip bufTrip = null;
-		boolean shouldRemove = false;
-		int numOfOptimized = 0;
-		while (it.hasNext()) {
-			StopTime st = it.next();
-			Trip thisTrip = st.getTrip();
-			if (bufTrip == null || !bufTrip.equals(thisTrip)) {
-				bufTrip = thisTrip;
-				shouldRemove = !usefulTrips.contains(bufTrip);
-			} else {
-				numOfOptimized++;
-			}
-			if (shouldRemove) {
-				it.remove();
+	public static BitSet selectRunningTrips(FeedIndex index) {
+		BitSet runningTrips = new BitSet(index.getNumOfTrips());
+		for (int t = 0; t < index.getNumOfTrips(); t++) {
+			int s = index.getServiceOfTrip(t);
+			if (index.getRouteOfTrip(t) >= 0 && s >= 0
+					&& index.getWeekdayMask(s) != 0) {
+				runningTrips.set(t);
 			}
 		}
-		System.out.println("\nnum of optimized =" + numOfOptimized
-				+ "\tnum of stoptime = " + stopTimes.size());
+
+		System.out.println("\nafter selectRunningTrips" + "\ttrips:"
+				+ runningTrips.cardinality() + "/" + index.getNumOfTrips());
+		return runningTrips;
 	}
 
 	/**
+	 * select the trips of the service with most trips of each route on each
+	 * week day in one go, where the former stages built a map of the services
+	 * first (BaselineStages of the benchmarks). The trips are grouped by
+	 * route with a counting sort, keeping the order of the index, then each
+	 * route is counted in one pass over its trips into a [service][week day]
+	 * table of ints, and its useful trips are picked in a second pass. The services of a route get consecutive slots of the
+	 * table, so it is never larger than the services of one route.
 	 * 
-	 * There can be trips for the same route, for the same week day but for
-	 * different calendar service duration. As ONE needs schedule of one week at
-	 * most, we only need one version of schedules for each valid week day. This
-	 * method builds a HashSet usefulTrips having refers to all the useful
-	 * trips, and a HashMap of int id <-> Route object because ONE supports
-	 * integer id for routes.
+	 * The result is the same as the two stages: the first trip of a route is
+	 * not counted, neither is the first trip of a route on each week day, and
+	 * of the services with most trips on a day the first one counted wins.
 	 * 
-	 * @param allRoutes
-	 * @param allTrips
-	 * @param calendarMap
-	 * @param route2IntIdMap
-	 * @param usefulTrips
+	 * @param index
+	 * @return the trip indices of the useful trips
 	 */
-	public static void obtainUsefulTrips(Collection<Route> allRoutes,
-			Collection<Trip> allTrips,
-			Map<AgencyAndId, ServiceCalendar> calendarMap,
-			HashSet<Trip> usefulTrips) {
+	public static BitSet selectUsefulTrips(FeedIndex index) {
+		int numOfRoutes = index.getNumOfRoutes();
+		int numOfServices = index.getNumOfServices();
+		Weekday[] days = Weekday.values();
+
+		// trips grouped by route, trips without route or service are left out
+		int[] tripStart = new int[numOfRoutes + 1];
+		for (int t = 0; t < index.getNumOfTrips(); t++) {
+			if (index.getRouteOfTrip(t) >= 0 && index.getServiceOfTrip(t) >= 0) {
+				tripStart[index.getRouteOfTrip(t) + 1]++;
+			}
+		}
+		for (int r = 0; r < numOfRoutes; r++) {
+			tripStart[r + 1] += tripStart[r];
+		}
+		int[] tripsOfRoutes = new int[tripStart[numOfRoutes]];
+		int[] next = Arrays.copyOf(tripStart, numOfRoutes);
+		for (int t = 0; t < index.getNumOfTrips(); t++) {
+			if (index.getRouteOfTrip(t) >= 0 && index.getServiceOfTrip(t) >= 0) {
+				tripsOfRoutes[next[index.getRouteOfTrip(t)]++] = t;
+			}
+		}
 
-		int numOfRoutes = allRoutes.size();
-		int numOfTrips = allTrips.size();
-		int routeIntId = 0;
-		for (Route route : allRoutes) {
+		// slot of each service in the route being counted, -1 if none
+		int[] slotOfService = new int[numOfServices];
+		Arrays.fill(slotOfService, -1);
+		int[] serviceOfSlot = new int[numOfServices];
+		// [slot][day] number of trips and position of the first one counted
+		int[] counts = new int[numOfServices * days.length];
+		int[] firstCounted = new int[numOfServices * days.length];
+		// days each slot is the targeted service of
+		int[] targetedDays = new int[numOfServices];
+
+		BitSet usefulTrips = new BitSet(index.getNumOfTrips());
+		for (int r = 0; r < numOfRoutes; r++) {
+			if (tripStart[r] == tripStart[r + 1]) {
+				continue;
+			}
+			int numOfSlots = 0;
+			int startedDays = 0;
+			for (int i = tripStart[r] + 1; i < tripStart[r + 1]; i++) {
+				int s = index.getServiceOfTrip(tripsOfRoutes[i]);
+				int weekdayMask = index.getWeekdayMask(s);
+				// days this trip is the first one of are not counted
+				int countedDays = weekdayMask & startedDays;
+				startedDays |= weekdayMask;
+				if (countedDays == 0) {
+					continue;
+				}
+				if (slotOfService[s] < 0) {
+					slotOfService[s] = numOfSlots;
+					serviceOfSlot[numOfSlots] = s;
+					targetedDays[numOfSlots] = 0;
+					Arrays.fill(counts, numOfSlots * days.length,
+							(numOfSlots + 1) * days.length, 0);
+					numOfSlots++;
+				}
+				for (; countedDays != 0; countedDays &= countedDays - 1) {
+					int cell = slotOfService[s] * days.length
+							+ Integer.numberOfTrailingZeros(countedDays);
+					if (counts[cell] == 0) {
+						firstCounted[cell] = i;
+					}
+					counts[cell]++;
+				}
+			}
 
-			routeIntId++;
-			// exclude trips for the same week day but belongs to calendar
-			// service of different duration
-			HashMap<Weekday, String> records = new HashMap<Weekday, String>();
-			Iterator<Trip> it = allTrips.iterator();
-			while (it.hasNext()) {
-				Trip trip = it.next();
-				if (trip.getRoute().equals(route)) {
-					if(trip.getId().getId().equals("1009_20141226_Ma_1_0600")){
-						System.out.println("");
+			for (Weekday day : days) {
+				int best = -1;
+				for (int slot = 0; slot < numOfSlots; slot++) {
+					int cell = slot * days.length + day.ordinal();
+					if (counts[cell] == 0) {
+						continue;
 					}
-					ServiceCalendar calendar = calendarMap.get(trip
-							.getServiceId());
-					String record = calendar.getStartDate().getAsString()
-							+ calendar.getEndDate().getAsString();
-					Boolean[] flags = getWeekDayFlags(calendar);
-
-					for (Weekday day : Weekday.values()) {
-						if (flags[day.ordinal()]) {
-							if (records.containsKey(day)) {
-								if (records.get(day).equals(record)) {
-									usefulTrips.add(trip);
-									continue;
-								}
-							} else {
-								records.put(day, record);
-								usefulTrips.add(trip);
-								continue;
-							}
-						}
+					int bestCell = best * days.length + day.ordinal();
+					if (best < 0
+							|| counts[cell] > counts[bestCell]
+							|| (counts[cell] == counts[bestCell] && firstCounted[cell] < firstCounted[bestCell])) {
+						best = slot;
 					}
+				}
+				if (best >= 0) {
+					targetedDays[best] |= 1 << day.ordinal();
+				}
+			}
 
+			// a trip is useful if its service is targeted on any of its days
+			for (int i = tripStart[r]; i < tripStart[r + 1]; i++) {
+				int s = index.getServiceOfTrip(tripsOfRoutes[i]);
+				if (slotOfService[s] >= 0
+						&& (index.getWeekdayMask(s) & targetedDays[slotOfService[s]]) != 0) {
+					usefulTrips.set(tripsOfRoutes[i]);
 				}
 			}
 
+			for (int slot = 0; slot < numOfSlots; slot++) {
+				slotOfService[serviceOfSlot[slot]] = -1;
+			}
 		}
-		System.out.println("\nafter clearup" + "\troutes:" + routeIntId + "/"
-				+ numOfRoutes + "\ttrips:" + usefulTrips.size() + "/"
-				+ numOfTrips);
-	}
-	
-	public static void obtainUsefulTrips2(Collection<Route> allRoutes,
-			Collection<Trip> allTrips,
-			Map<AgencyAndId, ServiceCalendar> calendarMap,
-			HashSet<Trip> usefulTrips, HashMap<Route, HashMap<Weekday, ServiceCalendar>> targetedServiceMap) {
 
-		int numOfTrips = allTrips.size();
+		System.out.println("\nafter selectUsefulTrips" + "\ttrips:"
+				+ usefulTrips.cardinality() + "/" + index.getNumOfTrips());
+		return usefulTrips;
+	}
 
-		// only select trips of selected services
-		Iterator<Trip> it = allTrips.iterator();
-		while (it.hasNext()) {
-			Trip trip = it.next();
-			ServiceCalendar service = calendarMap.get(trip
-					.getServiceId());
-			Route r = trip.getRoute();		
-			HashMap<Weekday, ServiceCalendar> serviceMap = targetedServiceMap.get(r);
-					
-			Boolean[] flags = getWeekDayFlags(service);
+	/**
+	 * group the StopTime objects of useful trips by the index of their trip,
+	 * the others are skipped instead of being removed from the collection
+	 * first
+	 * 
+	 * @param index
+	 * @param stopTimes
+	 * @param usefulTrips
+	 *            indices of the trips to keep the stop times of
+	 * @return the stop times of each trip, null for trips without any
+	 */
+	public static ArrayList<ArrayList<StopTime>> groupStopTimesByTrip(
+			FeedIndex index, Collection<StopTime> stopTimes,
+			BitSet usefulTrips) {
+		ArrayList<ArrayList<StopTime>> stopTimesOfTrips = new ArrayList<ArrayList<StopTime>>(
+				Collections.<ArrayList<StopTime>> nCopies(
+						index.getNumOfTrips(), null));
+		Trip bufTrip = null;
+		ArrayList<StopTime> stopTimeList = null;
+		int numOfStopTimes = 0;
+		for (StopTime st : stopTimes) {
+			if (st.getTrip() != bufTrip) {
+				bufTrip = st.getTrip();
+				int t = index.getTripIndex(bufTrip);
+				if (t < 0 || !usefulTrips.get(t)) {
+					stopTimeList = null;
+					continue;
+				}
+				stopTimeList = stopTimesOfTrips.get(t);
+				if (stopTimeList == null) {
+					stopTimeList = new ArrayList<StopTime>();
+					stopTimesOfTrips.set(t, stopTimeList);
+				}
+			}
+			if (stopTimeList != null) {
+				stopTimeList.add(st);
+				numOfStopTimes++;
+			}
+		}
+		System.out.println("\nnum of stoptime = " + numOfStopTimes);
+		return stopTimesOfTrips;
+	}
 
+	/**
+	 * same as splitTrips4MultipleWeekDay() on the stop times grouped by
+	 * groupStopTimesByTrip(). The instances of each route are in the order of
+	 * the trip indices. The stop times of each trip are turned into
+	 * CompactStopTimes, and its list is released.
+	 * 
+	 * @param index
+	 * @param stopTimesOfTrips
+	 * @param tripInstances
+	 *            the trip instances of each route, to populate
+	 * @return the number of trip instances after split
+	 */
+	public static int splitTrips4MultipleWeekDay(FeedIndex index,
+			ArrayList<ArrayList<StopTime>> stopTimesOfTrips,
+			HashMap<Route, ArrayList<TripWithStopTimeList>> tripInstances) {
+		ArrayList<ArrayList<TripWithStopTimeList>> instancesOfRoutes = new ArrayList<ArrayList<TripWithStopTimeList>>(
+				Collections.<ArrayList<TripWithStopTimeList>> nCopies(
+						index.getNumOfRoutes(), null));
+		int[] numOfTrips = new int[index.getNumOfRoutes()];
+		for (int t = 0; t < stopTimesOfTrips.size(); t++) {
+			ArrayList<StopTime> stopTimeList = stopTimesOfTrips.get(t);
+			int r = index.getRouteOfTrip(t);
+			int s = index.getServiceOfTrip(t);
+			if (stopTimeList == null || r < 0 || s < 0) {
+				continue;
+			}
+			// sort the stop time elements of the trip
+			Collections.sort(stopTimeList);
+			CompactStopTimes stopTimes = CompactStopTimes.create(stopTimeList,
+					index);
+			stopTimesOfTrips.set(t, null);
+
+			ArrayList<TripWithStopTimeList> instances = instancesOfRoutes
+					.get(r);
+			if (instances == null) {
+				instances = new ArrayList<TripWithStopTimeList>();
+				instancesOfRoutes.set(r, instances);
+			}
+			numOfTrips[r]++;
+			int weekdayMask = index.getWeekdayMask(s);
 			for (Weekday day : Weekday.values()) {
-				if (flags[day.ordinal()]) {
-					ServiceCalendar targetedService = serviceMap.get(day);
-					if(targetedService!=null && targetedService.equals(service)){
-						usefulTrips.add(trip);
-						break;
-					}
+				if (ServiceCalendarIndex.hasWeekday(weekdayMask, day)) {
+					instances.add(new TripWithStopTimeList(index.getTrip(t),
+							stopTimes, 86400 * day.ordinal()));
 				}
 			}
-
 		}
 
-		System.out.println("\nafter obtainUsefulTrips2" + "\ttrips:" + usefulTrips.size() + "/"
-				+ numOfTrips);
+		int numOfTripsAfterMadeUp = 0;
+		for (int r = 0; r < instancesOfRoutes.size(); r++) {
+			ArrayList<TripWithStopTimeList> instances = instancesOfRoutes
+					.get(r);
+			if (instances == null) {
+				continue;
+			}
+			Route route = index.getRoute(r);
+			tripInstances.put(route, instances);
+			if (instances.size() > numOfTrips[r]) {
+				System.out.println((instances.size() - numOfTrips[r])
+						+ " trips are made up for route-"
+						+ route.getId().getId());
+			}
+			numOfTripsAfterMadeUp += instances.size();
+		}
+		System.out.println(numOfTripsAfterMadeUp + " trips after make up.");
+		return numOfTripsAfterMadeUp;
 	}
 
 	/**
@@ -1015,12 +1586,30 @@ public class Converter {
 	public static boolean isNextStrip(int lastEndTime, Coord lastEndLocation,
 			int thisStartTime, Coord thisStartLocation, double maxSpeed,
 			double maxDistance, int transportType) {
+		return isNextStrip(lastEndTime, thisStartTime,
+				lastEndLocation.distance(thisStartLocation), maxSpeed,
+				maxDistance, transportType);
+	}
+
+	/**
+	 * same as the other isNextStrip(), with the distance between the last stop
+	 * of the first trip and the starting stop of the second trip given
+	 * 
+	 * @param lastEndTime
+	 * @param thisStartTime
+	 * @param distance
+	 * @param maxSpeed
+	 * @param maxDistance
+	 * @param transportType
+	 * @return two trips can be linked or not
+	 */
+	public static boolean isNextStrip(int lastEndTime, int thisStartTime,
+			double distance, double maxSpeed, double maxDistance,
+			int transportType) {
 		if (lastEndTime > thisStartTime) {
 			return false;
 		}
 
-		double distance = lastEndLocation.distance(thisStartLocation);
-
 		if (transportType == Converter.METRO_TYPE
 				|| transportType == Converter.RAIL_TYPE
 				|| transportType == Converter.TRAM_TYPE) {
@@ -1036,127 +1625,24 @@ public class Converter {
 		}
 	}
 
-	public static ArrayList<StopDataUnit> stopTimeList2DataUniteList(
-			ArrayList<StopTime> stopTimeList) {
-		ArrayList<StopDataUnit> sduList = new ArrayList<StopDataUnit>();
-		for (StopTime st : stopTimeList) {
-			StopDataUnit sdu = stopTime2DataUnit(st);
+	/**
+	 * @param trip
+	 * @return one StopDataUnit for each stop of the trip
+	 */
+	public static ArrayList<StopDataUnit> trip2DataUniteList(
+			TripWithStopTimeList trip) {
+		int numOfStops = trip.getNumOfStops();
+		ArrayList<StopDataUnit> sduList = new ArrayList<StopDataUnit>(numOfStops);
+		for (int i = 0; i < numOfStops; i++) {
+			StopDataUnit sdu = new StopDataUnit();
+			sdu.stop_id = trip.getStop(i).getId().getId();
+			sdu.arrT = trip.getArrivalTime(i);
+			sdu.depT = trip.getDepartureTime(i);
 			sduList.add(sdu);
 		}
 		return sduList;
 	}
 
-	public static StopDataUnit stopTime2DataUnit(StopTime st) {
-		StopDataUnit sdu = new StopDataUnit();
-		sdu.stop_id = st.getStop().getId().getId();
-		sdu.arrT = st.getArrivalTime();
-		sdu.depT = st.getDepartureTime();
-		return sdu;
-	}
-
-	public static ArrayList<ArrayList<StopTime>> createTripListFromProto(
-			ArrayList<StopTime> stopTimeList, int n) {
-		ArrayList<ArrayList<StopTime>> ret = new ArrayList<ArrayList<StopTime>>();
-		for (int i = 0; i < n; i++) {
-			ret.add(deepCopystopTimeList(stopTimeList));
-		}
-		return ret;
-	}
-
-	public static int numOfSet(Boolean[] array) {
-		int sum = 0;
-		for (Boolean el : array) {
-			if (el) {
-				sum++;
-			}
-		}
-		return sum;
-	}
-
-	public static ArrayList<StopTime> deepCopystopTimeList(
-			ArrayList<StopTime> stopTimeList) {
-		ArrayList<StopTime> ret = new ArrayList<StopTime>();
-		for (StopTime st : stopTimeList) {
-			ret.add(new StopTime(st));
-		}
-		return ret;
-	}
-
-	public static void offSetStopTimes(ArrayList<StopTime> stopTimeList,
-			int offset) {
-		for (StopTime st : stopTimeList) {
-			int arrT = st.getArrivalTime();
-			int depT = st.getDepartureTime();
-			st.setArrivalTime(arrT + offset);
-			st.setDepartureTime(depT + offset);
-		}
-	}
-
-	public static void offSetStopTimesAndTrip(ArrayList<StopTime> stopTimeList,
-			int offset, int weekday) {
-		Trip origTrip = stopTimeList.get(0).getTrip();
-		Trip newTrip = new Trip(origTrip);
-		AgencyAndId origAAI = origTrip.getId();
-		newTrip.setId(AgencyAndId.convertFromString(origAAI.getAgencyId()
-				+ AgencyAndId.ID_SEPARATOR + origAAI.getId() + "weekday_"
-				+ weekday));
-		System.out.println("new trip:" + newTrip.toString() + " is created.");
-		for (StopTime st : stopTimeList) {
-			int arrT = st.getArrivalTime();
-			int depT = st.getDepartureTime();
-			st.setArrivalTime(arrT + offset);
-			st.setDepartureTime(depT + offset);
-			st.setTrip(newTrip);
-		}
-	}
-
-	public static Boolean[] getWeekDayFlags(ServiceCalendar calendar) {
-		Boolean[] weekdayFlags = new Boolean[7];
-		if (calendar.getMonday() != 0) {
-			weekdayFlags[0] = true;
-		} else {
-			weekdayFlags[0] = false;
-		}
-
-		if (calendar.getTuesday() != 0) {
-			weekdayFlags[1] = true;
-		} else {
-			weekdayFlags[1] = false;
-		}
-
-		if (calendar.getWednesday() != 0) {
-			weekdayFlags[2] = true;
-		} else {
-			weekdayFlags[2] = false;
-		}
-
-		if (calendar.getThursday() != 0) {
-			weekdayFlags[3] = true;
-		} else {
-			weekdayFlags[3] = false;
-		}
-
-		if (calendar.getFriday() != 0) {
-			weekdayFlags[4] = true;
-		} else {
-			weekdayFlags[4] = false;
-		}
-
-		if (calendar.getSaturday() != 0) {
-			weekdayFlags[5] = true;
-		} else {
-			weekdayFlags[5] = false;
-		}
-
-		if (calendar.getSunday() != 0) {
-			weekdayFlags[6] = true;
-		} else {
-			weekdayFlags[6] = false;
-		}
-
-		return weekdayFlags;
-	}
-
 	public static Map<AgencyAndId, ServiceCalendar> getCalendarMap(
 			Collection<ServiceCalendar> calendars) {
 		HashMap<AgencyAndId, ServiceCalendar> ret = new HashMap<AgencyAndId, ServiceCalendar>();
@@ -0,0 +1,148 @@
+package converter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+
+import org.onebusaway.csv_entities.CSVLibrary;
+
+/**
+ * a csv file with only the rows a subclass accepts. The header and empty lines
+ * always pass, the other lines are handed to accept() one by one and the
+ * accepted ones are read out unchanged, so the reader behind never sees the
+ * rest.
+ *
+ * @author linzhiqi
+ *
+ */
+public abstract class CsvRowFilterInputStream extends InputStream {
+	/** accepted lines are buffered up to about this many chars */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private BufferedReader reader;
+	private CSVLibrary csv = new CSVLibrary();
+	private boolean headerRead = false;
+	private boolean endReached = false;
+	private byte[] buffer = new byte[0];
+	private int position = 0;
+	private int numOfSkipped = 0;
+
+	public CsvRowFilterInputStream(InputStream in) throws IOException {
+		reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		csv.setTrimInitialWhitespace(true);
+	}
+
+	/**
+	 * called with the column names before any row
+	 *
+	 * @throws IOException
+	 *             if a column needed is missing
+	 */
+	protected abstract void readHeader(List<String> header) throws IOException;
+
+	/**
+	 * @param line
+	 *            a row of the file, without line terminator
+	 * @return true to keep the row
+	 */
+	protected abstract boolean accept(String line);
+
+	/**
+	 * @return the number of rows not accepted so far
+	 */
+	public int getNumOfSkipped() {
+		return numOfSkipped;
+	}
+
+	/**
+	 * @return the trimmed value of a column of a row, or an empty string if
+	 *         the row is shorter
+	 */
+	protected String getValue(String line, int column) {
+		if (line.indexOf('"') >= 0) {
+			List<String> values = csv.parse(line);
+			return column < values.size() ? values.get(column).trim() : "";
+		}
+		// without quotes the values are just what is between the commas
+		int start = 0;
+		for (int i = 0; i < column; i++) {
+			start = line.indexOf(',', start) + 1;
+			if (start == 0) {
+				return "";
+			}
+		}
+		int end = line.indexOf(',', start);
+		return line.substring(start, end < 0 ? line.length() : end).trim();
+	}
+
+	/**
+	 * @return the column of the given name
+	 * @throws IOException
+	 *             if there is no such column
+	 */
+	protected static int getColumn(List<String> header, String name)
+			throws IOException {
+		for (int i = 0; i < header.size(); i++) {
+			if (header.get(i).trim().equals(name)) {
+				return i;
+			}
+		}
+		throw new IOException("column " + name + " is missing");
+	}
+
+	private boolean fill() throws IOException {
+		StringBuilder lines = new StringBuilder();
+		String line;
+		while (lines.length() < BUFFER_SIZE
+				&& (line = reader.readLine()) != null) {
+			if (!headerRead) {
+				headerRead = true;
+				String names = line;
+				if (names.length() > 0 && names.charAt(0) == '\uFEFF') {
+					names = names.substring(1);
+				}
+				readHeader(csv.parse(names));
+			} else if (line.length() > 0 && !accept(line)) {
+				numOfSkipped++;
+				continue;
+			}
+			lines.append(line).append('\n');
+		}
+		if (lines.length() == 0) {
+			endReached = true;
+			return false;
+		}
+		buffer = lines.toString().getBytes("UTF-8");
+		position = 0;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == buffer.length && (endReached || !fill())) {
+			return -1;
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position == buffer.length && (endReached || !fill())) {
+			return -1;
+		}
+		int n = Math.min(len, buffer.length - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
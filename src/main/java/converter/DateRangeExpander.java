@@ -0,0 +1,94 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+/**
+ * makes up the instances of trips over a range of dates. Trips are kept once,
+ * at offset 0, and a route is only expanded when it is blocked, so a long
+ * range never holds the instances of more than the routes being blocked. The
+ * instance of a trip on the k-th day of the range has the offset 86400 * k,
+ * and is only made if the service of the trip runs on that date.
+ *
+ * @author linzhiqi
+ *
+ */
+public class DateRangeExpander {
+	private ServiceCalendarIndex calendars;
+	/** epoch day of the first date */
+	private int firstDay;
+	private int numOfDays;
+
+	/**
+	 * @param calendars
+	 *            with the dates of the services indexed
+	 * @param from
+	 *            the first date
+	 * @param to
+	 *            the last date, included
+	 */
+	public DateRangeExpander(ServiceCalendarIndex calendars, ServiceDate from,
+			ServiceDate to) {
+		this.calendars = calendars;
+		this.firstDay = ServiceCalendarIndex.getEpochDay(from);
+		this.numOfDays = ServiceCalendarIndex.getEpochDay(to) - firstDay + 1;
+	}
+
+	public int getNumOfDays() {
+		return numOfDays;
+	}
+
+	/**
+	 * @param prototypes
+	 *            the trips of a route, sorted by start time, all at offset 0
+	 * @return the instances of the trips on every date their service runs,
+	 *         sorted by start time. Instances starting at the same time are
+	 *         in the order of their day, then of their prototype.
+	 */
+	public List<TripWithStopTimeList> expand(
+			List<TripWithStopTimeList> prototypes) {
+		int[] services = getServices(prototypes);
+		ArrayList<TripWithStopTimeList> instances = new ArrayList<TripWithStopTimeList>();
+		for (int day = 0; day < numOfDays; day++) {
+			for (int i = 0; i < prototypes.size(); i++) {
+				if (services[i] >= 0
+						&& calendars.runsOn(services[i], firstDay + day)) {
+					instances.add(prototypes.get(i).withTimeOffset(
+							86400 * day));
+				}
+			}
+		}
+		// every day is a sorted run, trips after midnight make runs overlap,
+		// which a merge sort handles in one pass
+		Collections.sort(instances);
+		return instances;
+	}
+
+	/**
+	 * @param prototypes
+	 * @return the number of instances expand() makes
+	 */
+	public int countInstances(List<TripWithStopTimeList> prototypes) {
+		int[] services = getServices(prototypes);
+		int numOfInstances = 0;
+		for (int i = 0; i < prototypes.size(); i++) {
+			if (services[i] >= 0) {
+				numOfInstances += calendars.countDates(services[i], firstDay,
+						firstDay + numOfDays - 1);
+			}
+		}
+		return numOfInstances;
+	}
+
+	private int[] getServices(List<TripWithStopTimeList> prototypes) {
+		int[] services = new int[prototypes.size()];
+		for (int i = 0; i < services.length; i++) {
+			services[i] = calendars.indexOf(prototypes.get(i).getTrip()
+					.getServiceId());
+		}
+		return services;
+	}
+}
@@ -0,0 +1,190 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+
+import converter.Converter.Weekday;
+
+/**
+ * dense int indices of the routes, trips, services and stops of a loaded
+ * feed. Routes, trips and stops are interned by the id used in the gtfs
+ * files, services by their AgencyAndId in a ServiceCalendarIndex. The route
+ * and service of every trip are resolved once here, so the stages working on
+ * the index only deal with ints.
+ *
+ * @author linzhiqi
+ *
+ */
+public class FeedIndex {
+	private IdInterner<String> routeIds = new IdInterner<String>();
+	private IdInterner<String> tripIds = new IdInterner<String>();
+	private IdInterner<String> stopIds = new IdInterner<String>();
+
+	private ArrayList<Route> routes = new ArrayList<Route>();
+	private ArrayList<Trip> trips = new ArrayList<Trip>();
+	private ServiceCalendarIndex calendars;
+	private ArrayList<Stop> stops = new ArrayList<Stop>();
+
+	/** route index of each trip, -1 if the route is not indexed */
+	private int[] routeOfTrip;
+	/** service index of each trip, -1 if the service has no calendar */
+	private int[] serviceOfTrip;
+
+	/**
+	 * @param allRoutes
+	 *            the routes to index
+	 * @param allTrips
+	 *            the trips to index, trips of routes not given are indexed
+	 *            without route
+	 * @param calendars
+	 * @param allStops
+	 */
+	public FeedIndex(Collection<Route> allRoutes, Collection<Trip> allTrips,
+			Collection<ServiceCalendar> calendars, Collection<Stop> allStops) {
+		this(allRoutes, allTrips, new ServiceCalendarIndex(
+				Converter.getCalendarMap(calendars)), allStops);
+	}
+
+	/**
+	 * @param allRoutes
+	 *            the routes to index
+	 * @param allTrips
+	 *            the trips to index, trips of routes not given are indexed
+	 *            without route
+	 * @param calendars
+	 *            the services, indexed already
+	 * @param allStops
+	 */
+	public FeedIndex(Collection<Route> allRoutes, Collection<Trip> allTrips,
+			ServiceCalendarIndex calendars, Collection<Stop> allStops) {
+		this.calendars = calendars;
+		for (Route route : allRoutes) {
+			if (routeIds.intern(route.getId().getId()) == routes.size()) {
+				routes.add(route);
+			}
+		}
+		for (Stop stop : allStops) {
+			if (stopIds.intern(stop.getId().getId()) == stops.size()) {
+				stops.add(stop);
+			}
+		}
+
+		routeOfTrip = new int[allTrips.size()];
+		serviceOfTrip = new int[allTrips.size()];
+		for (Trip trip : allTrips) {
+			int t = tripIds.intern(trip.getId().getId());
+			if (t < trips.size()) {
+				continue;
+			}
+			trips.add(trip);
+			routeOfTrip[t] = routeIds.indexOf(trip.getRoute().getId().getId());
+			serviceOfTrip[t] = calendars.indexOf(trip.getServiceId());
+		}
+		routeOfTrip = Arrays.copyOf(routeOfTrip, trips.size());
+		serviceOfTrip = Arrays.copyOf(serviceOfTrip, trips.size());
+	}
+
+	public int getNumOfRoutes() {
+		return routes.size();
+	}
+
+	public int getNumOfTrips() {
+		return trips.size();
+	}
+
+	public int getNumOfServices() {
+		return calendars.getNumOfServices();
+	}
+
+	public int getNumOfStops() {
+		return stops.size();
+	}
+
+	public int getRouteIndex(Route route) {
+		return routeIds.indexOf(route.getId().getId());
+	}
+
+	public int getTripIndex(Trip trip) {
+		return tripIds.indexOf(trip.getId().getId());
+	}
+
+	/**
+	 * @param tripId
+	 *            trip_id as in the gtfs files
+	 */
+	public int getTripIndex(String tripId) {
+		return tripIds.indexOf(tripId);
+	}
+
+	public int getServiceIndex(AgencyAndId serviceId) {
+		return calendars.indexOf(serviceId);
+	}
+
+	/**
+	 * @param stopId
+	 *            stop_id as in the gtfs files
+	 */
+	public int getStopIndex(String stopId) {
+		return stopIds.indexOf(stopId);
+	}
+
+	public Route getRoute(int r) {
+		return routes.get(r);
+	}
+
+	public Trip getTrip(int t) {
+		return trips.get(t);
+	}
+
+	public ServiceCalendar getService(int s) {
+		return calendars.getService(s);
+	}
+
+	public Stop getStop(int s) {
+		return stops.get(s);
+	}
+
+	public String getStopId(int s) {
+		return stopIds.getId(s);
+	}
+
+	public List<Trip> getTrips() {
+		return trips;
+	}
+
+	public List<Stop> getStops() {
+		return stops;
+	}
+
+	public int getRouteOfTrip(int t) {
+		return routeOfTrip[t];
+	}
+
+	public int getServiceOfTrip(int t) {
+		return serviceOfTrip[t];
+	}
+
+	public ServiceCalendarIndex getCalendars() {
+		return calendars;
+	}
+
+	/**
+	 * @return the week days of the service as a mask, see
+	 *         ServiceCalendarIndex
+	 */
+	public int getWeekdayMask(int service) {
+		return calendars.getWeekdayMask(service);
+	}
+
+	public boolean runsOn(int service, Weekday day) {
+		return calendars.runsOn(service, day);
+	}
+}
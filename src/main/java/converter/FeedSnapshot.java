@@ -0,0 +1,411 @@
+package converter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+/**
+ * the state of the conversion once the feed is parsed and filtered: the
+ * interested routes with their sorted week day trip instances, and all stops
+ * of the feed. This is everything the stages after
+ * sortTripsAndGetStopList() need, so it can be saved and loaded again
+ * instead of parsing the same feed on every run.
+ *
+ * A snapshot is loaded in columnar form. The stop times of a trip are saved
+ * once, its week day instances only save their time offset. All routes of
+ * the id map are saved, also the interested routes without useful trips,
+ * so route_id_mapping.json is the same as without the cache.
+ *
+ * @author linzhiqi
+ *
+ */
+public class FeedSnapshot {
+	private static final int MAGIC = 0x47534E50;
+	/** part of the cache key, so snapshots of an older layout are not used */
+	private static final int VERSION = 2;
+
+	private ArrayList<RouteWithTripList> routesWithTripList;
+	private HashMap<Route, Integer> route2IntIdMap;
+	private List<Stop> stops;
+
+	/**
+	 * @param routesWithTripList
+	 *            routes with their sorted trips and stop lists
+	 * @param route2IntIdMap
+	 * @param stops
+	 *            all stops of the feed
+	 */
+	public FeedSnapshot(ArrayList<RouteWithTripList> routesWithTripList,
+			HashMap<Route, Integer> route2IntIdMap, Collection<Stop> stops) {
+		this.routesWithTripList = routesWithTripList;
+		this.route2IntIdMap = route2IntIdMap;
+		this.stops = new ArrayList<Stop>(stops);
+	}
+
+	public ArrayList<RouteWithTripList> getRoutesWithTripList() {
+		return routesWithTripList;
+	}
+
+	public HashMap<Route, Integer> getRoute2IntIdMap() {
+		return route2IntIdMap;
+	}
+
+	public List<Stop> getStops() {
+		return stops;
+	}
+
+	/**
+	 * @return the number of trip instances of all routes
+	 */
+	public int getNumOfTrips() {
+		int numOfTrips = 0;
+		for (RouteWithTripList route : routesWithTripList) {
+			numOfTrips += route.getNumOfTripInstances();
+		}
+		return numOfTrips;
+	}
+
+	/**
+	 * the cache key of a feed: a hash of the content of the feed files, of
+	 * the interested routes and of the week converted
+	 *
+	 * @param feed
+	 *            the gtfs folder or ZIP file
+	 * @param routesInterested
+	 *            null or empty for all routes
+	 * @param week
+	 *            null if no week is given
+	 * @return the key as hex string
+	 * @throws IOException
+	 */
+	public static String computeKey(File feed, Set<String> routesInterested,
+			ServiceDate week) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		digest.update(("snapshot-" + VERSION + "\n").getBytes("UTF-8"));
+		File[] files;
+		if (feed.isDirectory()) {
+			files = feed.listFiles();
+			Arrays.sort(files);
+		} else {
+			files = new File[] { feed };
+		}
+		byte[] buffer = new byte[1 << 16];
+		for (File file : files) {
+			if (!file.isFile()) {
+				continue;
+			}
+			digest.update((file.getName() + "\n").getBytes("UTF-8"));
+			InputStream in = new FileInputStream(file);
+			try {
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					digest.update(buffer, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (routesInterested != null) {
+			String[] routes = routesInterested.toArray(new String[0]);
+			Arrays.sort(routes);
+			for (String route : routes) {
+				digest.update(("route " + route + "\n").getBytes("UTF-8"));
+			}
+		}
+		if (week != null) {
+			digest.update(("week " + week.getAsString() + "\n")
+					.getBytes("UTF-8"));
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(
+					Character.forDigit(b & 0xf, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * the file is written under a temporary name first, so an interrupted run
+	 * leaves no broken snapshot behind
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		IdentityHashMap<Stop, Integer> stopIndex = new IdentityHashMap<Stop, Integer>();
+		for (Stop stop : stops) {
+			stopIndex.put(stop, stopIndex.size());
+		}
+
+		// the trips, each with the instance its stop times are saved from
+		ArrayList<TripWithStopTimeList> prototypes = new ArrayList<TripWithStopTimeList>();
+		IdentityHashMap<Trip, List<Integer>> prototypesOfTrip = new IdentityHashMap<Trip, List<Integer>>();
+		int[][] prototypeOfInstance = new int[routesWithTripList.size()][];
+		int[][] offsetOfInstance = new int[routesWithTripList.size()][];
+		long numOfRows = 0;
+		for (int r = 0; r < routesWithTripList.size(); r++) {
+			List<TripWithStopTimeList> tripList = routesWithTripList.get(r)
+					.getTripList();
+			prototypeOfInstance[r] = new int[tripList.size()];
+			offsetOfInstance[r] = new int[tripList.size()];
+			for (int k = 0; k < tripList.size(); k++) {
+				TripWithStopTimeList instance = tripList.get(k);
+				List<Integer> candidates = prototypesOfTrip.get(instance
+						.getTrip());
+				if (candidates == null) {
+					candidates = new ArrayList<Integer>();
+					prototypesOfTrip.put(instance.getTrip(), candidates);
+				}
+				int prototype = -1;
+				for (int p : candidates) {
+					if (isShifted(prototypes.get(p), instance)) {
+						prototype = p;
+						break;
+					}
+				}
+				if (prototype < 0) {
+					prototype = prototypes.size();
+					prototypes.add(instance);
+					candidates.add(prototype);
+					numOfRows += instance.getNumOfStops();
+				}
+				prototypeOfInstance[r][k] = prototype;
+				offsetOfInstance[r][k] = instance.getArrivalTime(0)
+						- prototypes.get(prototype).getArrivalTime(0);
+			}
+		}
+		if (numOfRows > Integer.MAX_VALUE) {
+			throw new IOException("too many stop times for a snapshot");
+		}
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		File folder = file.getAbsoluteFile().getParentFile();
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("can not create folder " + folder);
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tmpFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(stops.size());
+			for (Stop stop : stops) {
+				writeId(out, stop.getId());
+				out.writeDouble(stop.getLat());
+				out.writeDouble(stop.getLon());
+			}
+
+			// every route having an int id, also those without useful trips,
+			// in the order of their int id
+			ArrayList<Route> routes = new ArrayList<Route>(
+					route2IntIdMap.keySet());
+			Collections.sort(routes, new Comparator<Route>() {
+				public int compare(Route a, Route b) {
+					return route2IntIdMap.get(a).compareTo(
+							route2IntIdMap.get(b));
+				}
+			});
+			HashMap<Route, Integer> routeIndex = new HashMap<Route, Integer>();
+			out.writeInt(routes.size());
+			for (Route route : routes) {
+				routeIndex.put(route, routeIndex.size());
+				writeId(out, route.getId());
+				out.writeInt(route.getType());
+				out.writeInt(route2IntIdMap.get(route));
+			}
+			out.writeInt(routesWithTripList.size());
+			for (RouteWithTripList route : routesWithTripList) {
+				out.writeInt(routeIndex.get(route.getRoute()));
+			}
+
+			out.writeInt(prototypes.size());
+			out.writeInt((int) numOfRows);
+			for (TripWithStopTimeList prototype : prototypes) {
+				Trip trip = prototype.getTrip();
+				out.writeInt(routeIndex.get(trip.getRoute()));
+				writeId(out, trip.getId());
+				writeId(out, trip.getServiceId());
+				out.writeInt(prototype.getNumOfStops());
+				for (int i = 0; i < prototype.getNumOfStops(); i++) {
+					Integer stop = stopIndex.get(prototype.getStop(i));
+					if (stop == null) {
+						throw new IOException("stop "
+								+ prototype.getStop(i).getId()
+								+ " is not a stop of the feed");
+					}
+					out.writeInt(stop);
+					out.writeInt(prototype.getArrivalTime(i));
+					out.writeInt(prototype.getDepartureTime(i));
+				}
+			}
+
+			for (int r = 0; r < routesWithTripList.size(); r++) {
+				RouteWithTripList route = routesWithTripList.get(r);
+				out.writeInt(route.getStopList().size());
+				for (String stopId : route.getStopList()) {
+					out.writeUTF(stopId);
+				}
+				out.writeInt(prototypeOfInstance[r].length);
+				for (int k = 0; k < prototypeOfInstance[r].length; k++) {
+					out.writeInt(prototypeOfInstance[r][k]);
+					out.writeInt(offsetOfInstance[r][k]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete() || !tmpFile.renameTo(file)) {
+			throw new IOException("can not write " + file);
+		}
+	}
+
+	/**
+	 * @return true if the instance has the stops of the prototype, at times
+	 *         shifted by a constant offset
+	 */
+	private static boolean isShifted(TripWithStopTimeList prototype,
+			TripWithStopTimeList instance) {
+		int numOfStops = prototype.getNumOfStops();
+		if (instance.getNumOfStops() != numOfStops) {
+			return false;
+		}
+		int offset = instance.getArrivalTime(0) - prototype.getArrivalTime(0);
+		for (int i = 0; i < numOfStops; i++) {
+			if (instance.getStop(i) != prototype.getStop(i)
+					|| instance.getArrivalTime(i) != prototype
+							.getArrivalTime(i) + offset
+					|| instance.getDepartureTime(i) != prototype
+							.getDepartureTime(i) + offset) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param file
+	 * @return the snapshot, with its trips in a StopTimeTable
+	 * @throws IOException
+	 */
+	public static FeedSnapshot load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a feed snapshot");
+			}
+
+			int numOfStops = in.readInt();
+			ArrayList<Stop> stops = new ArrayList<Stop>(numOfStops);
+			for (int i = 0; i < numOfStops; i++) {
+				Stop stop = new Stop();
+				stop.setId(readId(in));
+				stop.setLat(in.readDouble());
+				stop.setLon(in.readDouble());
+				stops.add(stop);
+			}
+
+			int numOfRoutes = in.readInt();
+			ArrayList<Route> routes = new ArrayList<Route>(numOfRoutes);
+			HashMap<Route, Integer> route2IntIdMap = new HashMap<Route, Integer>();
+			for (int r = 0; r < numOfRoutes; r++) {
+				Route route = new Route();
+				route.setId(readId(in));
+				route.setType(in.readInt());
+				route2IntIdMap.put(route, in.readInt());
+				routes.add(route);
+			}
+			int numOfRoutesWithTrips = in.readInt();
+			int[] routeWithTrips = new int[numOfRoutesWithTrips];
+			for (int r = 0; r < numOfRoutesWithTrips; r++) {
+				routeWithTrips[r] = in.readInt();
+			}
+
+			int numOfTrips = in.readInt();
+			int numOfRows = in.readInt();
+			ArrayList<Trip> trips = new ArrayList<Trip>(numOfTrips);
+			StopTimeTable stopTimeTable = new StopTimeTable(trips, stops,
+					numOfRows);
+			StopTimes[] stopTimesOfTrip = new StopTimes[numOfTrips];
+			for (int t = 0; t < numOfTrips; t++) {
+				Trip trip = new Trip();
+				trip.setRoute(routes.get(in.readInt()));
+				trip.setId(readId(in));
+				trip.setServiceId(readId(in));
+				trips.add(trip);
+				int[] rows = new int[in.readInt()];
+				for (int i = 0; i < rows.length; i++) {
+					int stop = in.readInt();
+					int arrival = in.readInt();
+					int departure = in.readInt();
+					rows[i] = stopTimeTable.add(t, stop, arrival, departure,
+							i + 1);
+				}
+				stopTimesOfTrip[t] = stopTimeTable.getStopTimes(rows);
+			}
+
+			ArrayList<RouteWithTripList> routesWithTripList = new ArrayList<RouteWithTripList>(
+					numOfRoutesWithTrips);
+			for (int r = 0; r < numOfRoutesWithTrips; r++) {
+				int numOfStopIds = in.readInt();
+				HashSet<String> stopList = new HashSet<String>();
+				for (int i = 0; i < numOfStopIds; i++) {
+					stopList.add(in.readUTF());
+				}
+				int numOfInstances = in.readInt();
+				ArrayList<TripWithStopTimeList> tripList = new ArrayList<TripWithStopTimeList>(
+						numOfInstances);
+				for (int k = 0; k < numOfInstances; k++) {
+					int t = in.readInt();
+					tripList.add(new TripWithStopTimeList(trips.get(t),
+							stopTimesOfTrip[t], in.readInt()));
+				}
+				routesWithTripList.add(new RouteWithTripList(routes
+						.get(routeWithTrips[r]), tripList, stopList));
+			}
+			return new FeedSnapshot(routesWithTripList, route2IntIdMap, stops);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeId(DataOutputStream out, AgencyAndId id)
+			throws IOException {
+		out.writeUTF(id.getAgencyId());
+		out.writeUTF(id.getId());
+	}
+
+	private static AgencyAndId readId(DataInputStream in) throws IOException {
+		return new AgencyAndId(in.readUTF(), in.readUTF());
+	}
+}
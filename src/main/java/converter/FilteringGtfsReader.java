@@ -0,0 +1,203 @@
+package converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.csv_entities.FileCsvInputSource;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+/**
+ * reads a gtfs feed with GtfsReader, leaving out the trips of uninterested
+ * routes and their stop times while the files are read. GtfsReader reads
+ * routes.txt before trips.txt and trips.txt before stop_times.txt, so the
+ * rows of trips.txt are filtered by the routes already in the store, and the
+ * rows of stop_times.txt by the trips kept. Neither Trip nor StopTime objects
+ * of the routes left out are ever created.
+ *
+ * The rows are filtered on threads of their own while GtfsReader parses the
+ * rows kept, and a ZIP file is read by a ParallelZipInputSource, which
+ * decompresses trips.txt and stop_times.txt in parallel too.
+ *
+ * @author linzhiqi
+ *
+ */
+public class FilteringGtfsReader {
+	public static final String TRIPS_FILE_NAME = "trips.txt";
+
+	private File inputLocation;
+	private Set<String> routesInterested;
+
+	private CsvRowFilterInputStream tripFilter = null;
+	private CsvRowFilterInputStream stopTimeFilter = null;
+
+	/**
+	 * @param inputLocation
+	 *            the path of decompressed folder or of the ZIP file
+	 * @param routesInterested
+	 *            null or empty for all routes
+	 */
+	public FilteringGtfsReader(File inputLocation, Set<String> routesInterested) {
+		this.inputLocation = inputLocation;
+		this.routesInterested = routesInterested;
+	}
+
+	/**
+	 * read the feed into the store
+	 *
+	 * @param store
+	 * @param readStopTimes
+	 *            false to leave out stop_times.txt
+	 * @throws IOException
+	 */
+	public void run(GtfsDaoImpl store, boolean readStopTimes)
+			throws IOException {
+		GtfsReader reader = new GtfsReader();
+		CsvInputSource source;
+		if (readStopTimes) {
+			source = openInputSource(inputLocation, TRIPS_FILE_NAME,
+					ColumnarGtfsLoader.STOP_TIMES_FILE_NAME);
+		} else {
+			source = openInputSource(inputLocation, TRIPS_FILE_NAME);
+		}
+		reader.setInputSource(new FilteringInputSource(source, store));
+		if (!readStopTimes) {
+			List<Class<?>> entityClasses = new ArrayList<Class<?>>(
+					reader.getEntityClasses());
+			entityClasses.remove(StopTime.class);
+			reader.setEntityClasses(entityClasses);
+		}
+		reader.setEntityStore(store);
+		try {
+			reader.run();
+		} finally {
+			reader.close();
+		}
+
+		System.out.println(getNumOfSkippedTrips()
+				+ " trips of uninterested routes are skipped.");
+		if (readStopTimes) {
+			System.out.println(getNumOfSkippedStopTimes()
+					+ " stop times of uninterested routes are skipped.");
+		}
+	}
+
+	public int getNumOfSkippedTrips() {
+		return tripFilter == null ? 0 : tripFilter.getNumOfSkipped();
+	}
+
+	public int getNumOfSkippedStopTimes() {
+		return stopTimeFilter == null ? 0 : stopTimeFilter.getNumOfSkipped();
+	}
+
+	/**
+	 * @param inputLocation
+	 *            the path of decompressed folder or of the ZIP file
+	 * @param bigEntries
+	 *            the files of a ZIP file to decompress in parallel
+	 */
+	static CsvInputSource openInputSource(File inputLocation,
+			String... bigEntries) throws IOException {
+		if (inputLocation.isDirectory()) {
+			return new FileCsvInputSource(inputLocation);
+		} else {
+			return new ParallelZipInputSource(inputLocation, bigEntries);
+		}
+	}
+
+	/**
+	 * hands out trips.txt and stop_times.txt with the rows of uninterested
+	 * routes removed, and every other file as it is
+	 */
+	private class FilteringInputSource implements CsvInputSource {
+		private CsvInputSource source;
+		private GtfsDaoImpl store;
+		/** ids of the trips kept, null if trips.txt was not filtered */
+		private HashSet<String> tripsKept = null;
+
+		FilteringInputSource(CsvInputSource source, GtfsDaoImpl store) {
+			this.source = source;
+			this.store = store;
+		}
+
+		public boolean hasResource(String name) throws IOException {
+			return source.hasResource(name);
+		}
+
+		public InputStream getResource(String name) throws IOException {
+			InputStream in = source.getResource(name);
+			if (name.equals(TRIPS_FILE_NAME)) {
+				return filterTrips(in);
+			}
+			if (name.equals(ColumnarGtfsLoader.STOP_TIMES_FILE_NAME)
+					&& tripsKept != null) {
+				return filterStopTimes(in);
+			}
+			return in;
+		}
+
+		public void close() throws IOException {
+			source.close();
+		}
+
+		private InputStream filterTrips(InputStream in) throws IOException {
+			final HashSet<String> routesKept = new HashSet<String>();
+			boolean allKept = true;
+			for (Route route : store.getAllRoutes()) {
+				if (Converter.isRouteInterested(route, routesInterested)) {
+					routesKept.add(route.getId().getId());
+				} else {
+					allKept = false;
+				}
+			}
+			if (allKept) {
+				return in;
+			}
+			tripsKept = new HashSet<String>();
+			tripFilter = new CsvRowFilterInputStream(in) {
+				private int routeCol;
+				private int tripCol;
+
+				protected void readHeader(List<String> header)
+						throws IOException {
+					routeCol = getColumn(header, "route_id");
+					tripCol = getColumn(header, "trip_id");
+				}
+
+				protected boolean accept(String line) {
+					if (!routesKept.contains(getValue(line, routeCol))) {
+						return false;
+					}
+					tripsKept.add(getValue(line, tripCol));
+					return true;
+				}
+			};
+			return new PipedChunkInputStream(tripFilter, TRIPS_FILE_NAME);
+		}
+
+		private InputStream filterStopTimes(InputStream in) throws IOException {
+			stopTimeFilter = new CsvRowFilterInputStream(in) {
+				private int tripCol;
+
+				protected void readHeader(List<String> header)
+						throws IOException {
+					tripCol = getColumn(header, "trip_id");
+				}
+
+				protected boolean accept(String line) {
+					return tripsKept.contains(getValue(line, tripCol));
+				}
+			};
+			return new PipedChunkInputStream(stopTimeFilter,
+					ColumnarGtfsLoader.STOP_TIMES_FILE_NAME);
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * links the trips of a route into vehicles with the greedy rule of
+ * populateVehicleList(): a vehicle takes the first unassigned trip, then
+ * repeatedly takes the first later unassigned trip accepted by isNextStrip().
+ *
+ * Instead of scanning the remaining trip list for every vehicle, trips are
+ * grouped by their starting stop. Within a group all trips start at the same
+ * location, so isNextStrip() only depends on the start time, and the trips it
+ * accepts form a suffix of the time-sorted group which is found by binary
+ * search. Assigned trips are skipped with a "next unassigned" union-find. The
+ * cost is O(n * g * log n) per route, g being the number of distinct starting
+ * stops of the route, which is a handful for real routes.
+ *
+ * @author linzhiqi
+ *
+ */
+public class GreedyBlockingEngine {
+
+	/**
+	 * @param tripList
+	 *            trips of one route, sorted by start time
+	 * @param transportType
+	 * @param maxSpeed
+	 * @param maxDistance
+	 * @return the trips of each vehicle, in the order the vehicles are created
+	 */
+	public static List<List<TripWithStopTimeList>> block(
+			List<TripWithStopTimeList> tripList, int transportType,
+			double maxSpeed, double maxDistance) {
+		StartStopGroups groups = new StartStopGroups(tripList);
+		int n = groups.size();
+		int[] nextFree = identity(n + 1);
+		int[][] nextFreeInGroup = new int[groups.numOfGroups][];
+		for (int g = 0; g < groups.numOfGroups; g++) {
+			nextFreeInGroup[g] = identity(groups.members[g].length + 1);
+		}
+
+		List<List<TripWithStopTimeList>> vehicles = new ArrayList<List<TripWithStopTimeList>>();
+		int first;
+		while ((first = find(nextFree, 0)) < n) {
+			List<TripWithStopTimeList> vehicle = new ArrayList<TripWithStopTimeList>();
+			int current = first;
+			while (current < n) {
+				vehicle.add(groups.trips[current]);
+				nextFree[current] = current + 1;
+				int slotOfCurrent = groups.slotOf[current];
+				nextFreeInGroup[groups.groupOf[current]][slotOfCurrent] = slotOfCurrent + 1;
+
+				int next = n;
+				for (int g = 0; g < groups.numOfGroups; g++) {
+					int slot = groups.firstAccepted(g, current, maxSpeed,
+							maxDistance, transportType);
+					slot = find(nextFreeInGroup[g], slot);
+					if (slot < groups.members[g].length
+							&& groups.members[g][slot] < next) {
+						next = groups.members[g][slot];
+					}
+				}
+				current = next;
+			}
+			vehicles.add(vehicle);
+		}
+		return vehicles;
+	}
+
+	private static int[] identity(int size) {
+		int[] parent = new int[size];
+		for (int i = 0; i < size; i++) {
+			parent[i] = i;
+		}
+		return parent;
+	}
+
+	/**
+	 * the first unassigned index >= i, the last index is a sentinel which is
+	 * never assigned
+	 */
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+}
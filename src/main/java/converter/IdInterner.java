@@ -0,0 +1,53 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * gives every distinct id a dense int index, in the order the ids are first
+ * seen. The index can be used for arrays and bitsets, the id is only looked
+ * up again when it is needed for output.
+ *
+ * @author linzhiqi
+ *
+ * @param <K>
+ *            type of the ids
+ */
+public class IdInterner<K> {
+	private HashMap<K, Integer> indexMap = new HashMap<K, Integer>();
+	private ArrayList<K> ids = new ArrayList<K>();
+
+	/**
+	 * @return the index of the id, a new one if the id is seen the first time
+	 */
+	public int intern(K id) {
+		Integer index = indexMap.get(id);
+		if (index == null) {
+			index = ids.size();
+			indexMap.put(id, index);
+			ids.add(id);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the index of the id, or -1 if it was never interned
+	 */
+	public int indexOf(K id) {
+		Integer index = indexMap.get(id);
+		return index == null ? -1 : index;
+	}
+
+	public K getId(int index) {
+		return ids.get(index);
+	}
+
+	public List<K> getIds() {
+		return ids;
+	}
+
+	public int size() {
+		return ids.size();
+	}
+}
@@ -0,0 +1,425 @@
+package converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.onebusaway.csv_entities.CSVLibrary;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.serialization.mappings.StopTimeFieldMappingFactory;
+
+import converter.RouteExecutor.RouteTask;
+
+/**
+ * parses stop_times.txt of a gtfs folder on several threads. The file is
+ * memory mapped and cut into chunks ending at line ends, each chunk is parsed
+ * from its bytes into a StopTimeTable of its own, and the tables are appended
+ * in the order of the chunks, so the rows are in the order of the file
+ * whatever the number of threads.
+ *
+ * Lines are parsed without making Strings of them: only the stop id is
+ * decoded, the trip id is looked up once for the consecutive rows of a trip,
+ * and times and sequences are read digit by digit. Lines with quotes are
+ * parsed by CSVLibrary.
+ *
+ * @author linzhiqi
+ *
+ */
+public class MappedStopTimesLoader {
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+	/** a mapping is at most Integer.MAX_VALUE bytes */
+	private static final long MAX_CHUNK_SIZE = 1 << 28;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private File file;
+	private FeedIndex index;
+	private BitSet usefulTrips;
+	private long minChunkSize;
+
+	private int tripCol;
+	private int arrivalCol;
+	private int departureCol;
+	private int stopCol;
+	private int sequenceCol;
+	private int numOfSkipped = 0;
+	private int numOfUnknownStop = 0;
+
+	/**
+	 * @param file
+	 *            stop_times.txt
+	 * @param index
+	 *            indices of the trips and stops
+	 * @param usefulTrips
+	 *            indices of the trips whose stop times are wanted
+	 */
+	public MappedStopTimesLoader(File file, FeedIndex index,
+			BitSet usefulTrips) {
+		this(file, index, usefulTrips, MIN_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param minChunkSize
+	 *            the file is cut in chunks of about this many bytes at least,
+	 *            so a small file is parsed by fewer threads
+	 */
+	MappedStopTimesLoader(File file, FeedIndex index, BitSet usefulTrips,
+			long minChunkSize) {
+		this.file = file;
+		this.index = index;
+		this.usefulTrips = usefulTrips;
+		this.minChunkSize = minChunkSize;
+	}
+
+	public int getNumOfSkipped() {
+		return numOfSkipped;
+	}
+
+	public int getNumOfUnknownStop() {
+		return numOfUnknownStop;
+	}
+
+	/**
+	 * @param executor
+	 *            the threads to parse the chunks on
+	 * @return the stop times of the useful trips of known stops
+	 * @throws IOException
+	 */
+	public StopTimeTable load(RouteExecutor executor) throws IOException {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			long fileSize = channel.size();
+			long dataStart = findLineEnd(channel, 0);
+			if (dataStart == 0) {
+				throw new IOException(ColumnarGtfsLoader.STOP_TIMES_FILE_NAME
+						+ " is empty");
+			}
+			readHeader(channel, dataStart);
+
+			long dataSize = fileSize - dataStart;
+			long numOfChunks = Math.min(executor.getNumOfThreads()
+					* CHUNKS_PER_THREAD, (dataSize + minChunkSize - 1)
+					/ minChunkSize);
+			numOfChunks = Math.max(numOfChunks,
+					(dataSize + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+			numOfChunks = Math.max(numOfChunks, 1);
+			long start = dataStart;
+			for (long k = 1; k <= numOfChunks && start < fileSize; k++) {
+				long end = k == numOfChunks ? fileSize : findLineEnd(channel,
+						Math.max(start, dataStart + dataSize * k / numOfChunks
+								- 1));
+				if (end - start > Integer.MAX_VALUE) {
+					throw new IOException("a line of "
+							+ ColumnarGtfsLoader.STOP_TIMES_FILE_NAME
+							+ " is too long");
+				}
+				chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY,
+						start, end - start)));
+				start = end;
+			}
+		} finally {
+			input.close();
+		}
+
+		int[] chunkSizes = new int[chunks.size()];
+		int numOfRows = 0;
+		for (int i = 0; i < chunkSizes.length; i++) {
+			chunkSizes[i] = chunks.get(i).buffer.capacity();
+		}
+		List<Chunk> parsed = executor.map(chunks, chunkSizes,
+				new RouteTask<Chunk, Chunk>() {
+					public Chunk run(Chunk chunk) {
+						chunk.parse();
+						return chunk;
+					}
+				});
+		for (Chunk chunk : parsed) {
+			numOfRows += chunk.rows.size();
+		}
+		StopTimeTable table = new StopTimeTable(index.getTrips(),
+				index.getStops(), numOfRows);
+		for (Chunk chunk : parsed) {
+			table.addAll(chunk.rows);
+			numOfSkipped += chunk.numOfSkipped;
+			numOfUnknownStop += chunk.numOfUnknownStop;
+			chunk.rows = null;
+		}
+		return table;
+	}
+
+	private void readHeader(FileChannel channel, long headerEnd)
+			throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate((int) headerEnd);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, bytes.position()) < 0) {
+				break;
+			}
+		}
+		String line = new String(bytes.array(), 0, bytes.position(), UTF_8);
+		line = line.replace("\n", "").replace("\r", "");
+		if (line.length() > 0 && line.charAt(0) == '\uFEFF') {
+			line = line.substring(1);
+		}
+		CSVLibrary csv = new CSVLibrary();
+		csv.setTrimInitialWhitespace(true);
+		List<String> header = csv.parse(line);
+		tripCol = getColumn(header, "trip_id");
+		arrivalCol = getColumn(header, "arrival_time");
+		departureCol = getColumn(header, "departure_time");
+		stopCol = getColumn(header, "stop_id");
+		sequenceCol = getColumn(header, "stop_sequence");
+	}
+
+	private static int getColumn(List<String> header, String name)
+			throws IOException {
+		for (int i = 0; i < header.size(); i++) {
+			if (header.get(i).trim().equals(name)) {
+				return i;
+			}
+		}
+		throw new IOException("column " + name + " is missing in "
+				+ ColumnarGtfsLoader.STOP_TIMES_FILE_NAME);
+	}
+
+	/**
+	 * @return the position after the first '\n' from the given position on,
+	 *         or the size of the file
+	 */
+	private static long findLineEnd(FileChannel channel, long position)
+			throws IOException {
+		ByteBuffer block = ByteBuffer.allocate(1 << 13);
+		while (true) {
+			block.clear();
+			int n = channel.read(block, position);
+			if (n < 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < n; i++) {
+				if (block.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += n;
+		}
+	}
+
+	/**
+	 * a part of the file and the rows parsed from it
+	 */
+	private class Chunk {
+		MappedByteBuffer buffer;
+		StopTimeTable rows;
+		int numOfSkipped = 0;
+		int numOfUnknownStop = 0;
+
+		/** the line being parsed */
+		private byte[] line = new byte[256];
+		private int[] fieldStart = new int[8];
+		private int[] fieldEnd = new int[8];
+		private int numOfFields;
+		/** trip id of the previous row and its index */
+		private byte[] lastTrip = new byte[64];
+		private int lastTripLength = -1;
+		private int lastTripIndex;
+		private CSVLibrary csv = null;
+
+		Chunk(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		void parse() {
+			rows = new StopTimeTable(index.getTrips(), index.getStops());
+			int limit = buffer.capacity();
+			int position = 0;
+			while (position < limit) {
+				int end = position;
+				boolean quoted = false;
+				byte b;
+				while (end < limit && (b = buffer.get(end)) != '\n') {
+					if (b == '"') {
+						quoted = true;
+					}
+					end++;
+				}
+				int length = end - position;
+				if (length > 0 && buffer.get(end - 1) == '\r') {
+					length--;
+				}
+				if (length > 0) {
+					if (line.length < length) {
+						line = new byte[Math.max(length, line.length * 2)];
+					}
+					buffer.position(position);
+					buffer.get(line, 0, length);
+					if (quoted) {
+						parseQuotedLine(new String(line, 0, length, UTF_8));
+					} else {
+						parseLine(length);
+					}
+				}
+				position = end + 1;
+			}
+			buffer = null;
+		}
+
+		private void parseLine(int length) {
+			numOfFields = 0;
+			int start = 0;
+			for (int i = 0; i <= length; i++) {
+				if (i == length || line[i] == ',') {
+					if (numOfFields == fieldStart.length) {
+						fieldStart = Arrays.copyOf(fieldStart,
+								numOfFields * 2);
+						fieldEnd = Arrays.copyOf(fieldEnd,
+								numOfFields * 2);
+					}
+					// trimmed
+					int s = start;
+					int e = i;
+					while (s < e && (line[s] & 0xff) <= ' ') {
+						s++;
+					}
+					while (e > s && (line[e - 1] & 0xff) <= ' ') {
+						e--;
+					}
+					fieldStart[numOfFields] = s;
+					fieldEnd[numOfFields] = e;
+					numOfFields++;
+					start = i + 1;
+				}
+			}
+
+			int tripIndex = getTripIndex();
+			if (tripIndex < 0 || !usefulTrips.get(tripIndex)) {
+				numOfSkipped++;
+				return;
+			}
+			int stopIndex = index.getStopIndex(getString(stopCol));
+			if (stopIndex < 0) {
+				numOfUnknownStop++;
+				return;
+			}
+			rows.add(tripIndex, stopIndex, parseTime(arrivalCol),
+					parseTime(departureCol), parseInt(sequenceCol));
+		}
+
+		private void parseQuotedLine(String text) {
+			if (csv == null) {
+				csv = new CSVLibrary();
+				csv.setTrimInitialWhitespace(true);
+			}
+			List<String> values = csv.parse(text);
+			lastTripLength = -1;
+			int tripIndex = index.getTripIndex(getValue(values, tripCol));
+			if (tripIndex < 0 || !usefulTrips.get(tripIndex)) {
+				numOfSkipped++;
+				return;
+			}
+			int stopIndex = index.getStopIndex(getValue(values, stopCol));
+			if (stopIndex < 0) {
+				numOfUnknownStop++;
+				return;
+			}
+			rows.add(tripIndex, stopIndex,
+					parseTime(getValue(values, arrivalCol)),
+					parseTime(getValue(values, departureCol)),
+					Integer.parseInt(getValue(values, sequenceCol)));
+		}
+
+		private String getValue(List<String> values, int col) {
+			return col < values.size() ? values.get(col).trim() : "";
+		}
+
+		private int getTripIndex() {
+			int length = getLength(tripCol);
+			int start = length == 0 ? 0 : fieldStart[tripCol];
+			if (length == lastTripLength) {
+				boolean same = true;
+				for (int i = 0; i < length && same; i++) {
+					same = line[start + i] == lastTrip[i];
+				}
+				if (same) {
+					return lastTripIndex;
+				}
+			}
+			if (lastTrip.length < length) {
+				lastTrip = new byte[length];
+			}
+			System.arraycopy(line, start, lastTrip, 0, length);
+			lastTripLength = length;
+			lastTripIndex = index.getTripIndex(getString(tripCol));
+			return lastTripIndex;
+		}
+
+		private int getLength(int col) {
+			return col < numOfFields ? fieldEnd[col] - fieldStart[col] : 0;
+		}
+
+		private String getString(int col) {
+			int length = getLength(col);
+			return length == 0 ? "" : new String(line, fieldStart[col],
+					length, UTF_8);
+		}
+
+		/**
+		 * HH:MM:SS into seconds, anything else as GtfsReader would
+		 */
+		private int parseTime(int col) {
+			int length = getLength(col);
+			if (length == 0) {
+				return StopTime.MISSING_VALUE;
+			}
+			int start = fieldStart[col];
+			int end = start + length;
+			int hours = 0;
+			int i = start;
+			while (i < end && line[i] >= '0' && line[i] <= '9') {
+				hours = hours * 10 + line[i++] - '0';
+			}
+			if (i > start && end - i == 6 && line[i] == ':'
+					&& line[i + 3] == ':' && isDigit(i + 1) && isDigit(i + 2)
+					&& isDigit(i + 4) && isDigit(i + 5)) {
+				int minutes = (line[i + 1] - '0') * 10 + line[i + 2] - '0';
+				int seconds = (line[i + 4] - '0') * 10 + line[i + 5] - '0';
+				return hours * 3600 + minutes * 60 + seconds;
+			}
+			return parseTime(getString(col));
+		}
+
+		private int parseTime(String value) {
+			if (value.length() == 0) {
+				return StopTime.MISSING_VALUE;
+			}
+			return StopTimeFieldMappingFactory.getStringAsSeconds(value);
+		}
+
+		private boolean isDigit(int i) {
+			return line[i] >= '0' && line[i] <= '9';
+		}
+
+		private int parseInt(int col) {
+			int length = getLength(col);
+			int start = length == 0 ? 0 : fieldStart[col];
+			int value = 0;
+			if (length > 0 && length < 10) {
+				for (int i = start; i < start + length && isDigit(i); i++) {
+					value = value * 10 + line[i] - '0';
+					if (i == start + length - 1) {
+						return value;
+					}
+				}
+			}
+			return Integer.parseInt(getString(col));
+		}
+	}
+}
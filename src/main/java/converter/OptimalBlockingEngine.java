@@ -0,0 +1,272 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * links the trips of a route into the minimum number of vehicles. Trip j may
+ * follow trip i when it comes later in the time-sorted trip list and
+ * isNextStrip() accepts it. The fewest vehicles is a minimum path cover of
+ * this graph, i.e. the number of trips minus a maximum matching between
+ * "trip i" on the left and "its next trip j" on the right.
+ *
+ * The candidates of trip i within a group of StartStopGroups are a suffix of
+ * the group, so instead of one edge per candidate, trip i gets one edge to
+ * the first candidate of every group, and the members of a group are linked
+ * into a chain which can carry any number of units to the later members.
+ * This keeps the graph at O(n * g) edges. The matching is found with
+ * Hopcroft-Karp phases: a BFS builds the level graph and augmenting paths
+ * are pushed along it until none is left.
+ *
+ * @author linzhiqi
+ *
+ */
+public class OptimalBlockingEngine {
+
+	/**
+	 * @param tripList
+	 *            trips of one route, sorted by start time
+	 * @param transportType
+	 * @param maxSpeed
+	 * @param maxDistance
+	 * @return the trips of each vehicle, vehicles are ordered by their first
+	 *         trip
+	 */
+	public static List<List<TripWithStopTimeList>> block(
+			List<TripWithStopTimeList> tripList, int transportType,
+			double maxSpeed, double maxDistance) {
+		StartStopGroups groups = new StartStopGroups(tripList);
+		int n = groups.size();
+
+		// node layout: source, sink, n left nodes, n chain nodes, n right
+		// nodes. The chain node of slot s in group g is chainBase[g] + s.
+		int source = 0;
+		int sink = 1;
+		int leftBase = 2;
+		int[] chainBase = new int[groups.numOfGroups];
+		int chainNodes = leftBase + n;
+		for (int g = 0; g < groups.numOfGroups; g++) {
+			chainBase[g] = chainNodes;
+			chainNodes += groups.members[g].length;
+		}
+		int rightBase = leftBase + 2 * n;
+		FlowNetwork network = new FlowNetwork(rightBase + n);
+
+		// the edge from each left node into each group, -1 if there is none
+		int[][] entryEdge = new int[n][groups.numOfGroups];
+		for (int i = 0; i < n; i++) {
+			network.addEdge(source, leftBase + i, 1);
+			for (int g = 0; g < groups.numOfGroups; g++) {
+				int slot = groups.firstAccepted(g, i, maxSpeed, maxDistance,
+						transportType);
+				if (slot < groups.members[g].length) {
+					entryEdge[i][g] = network.addEdge(leftBase + i,
+							chainBase[g] + slot, 1);
+				} else {
+					entryEdge[i][g] = -1;
+				}
+			}
+		}
+		int[] exitEdge = new int[n];
+		for (int g = 0; g < groups.numOfGroups; g++) {
+			int[] members = groups.members[g];
+			for (int slot = 0; slot < members.length; slot++) {
+				if (slot + 1 < members.length) {
+					network.addEdge(chainBase[g] + slot, chainBase[g] + slot
+							+ 1, n);
+				}
+				exitEdge[members[slot]] = network.addEdge(chainBase[g] + slot,
+						rightBase + members[slot], 1);
+			}
+		}
+		for (int j = 0; j < n; j++) {
+			network.addEdge(rightBase + j, sink, 1);
+		}
+
+		network.maxFlow(source, sink);
+
+		// decompose the flow of each chain: a unit entering at a slot may
+		// leave at that slot or any later one, so the units are paired in
+		// first-in first-out order
+		int[] successor = new int[n];
+		int[] predecessor = new int[n];
+		Arrays.fill(successor, -1);
+		Arrays.fill(predecessor, -1);
+		int[] queue = new int[n];
+		for (int g = 0; g < groups.numOfGroups; g++) {
+			int[] members = groups.members[g];
+			ArrayList<ArrayList<Integer>> entering = new ArrayList<ArrayList<Integer>>();
+			for (int slot = 0; slot < members.length; slot++) {
+				entering.add(null);
+			}
+			for (int i = 0; i < n; i++) {
+				int e = entryEdge[i][g];
+				if (e >= 0 && network.hasFlow(e)) {
+					int slot = network.getTarget(e) - chainBase[g];
+					if (entering.get(slot) == null) {
+						entering.set(slot, new ArrayList<Integer>());
+					}
+					entering.get(slot).add(i);
+				}
+			}
+			int head = 0;
+			int tail = 0;
+			for (int slot = 0; slot < members.length; slot++) {
+				if (entering.get(slot) != null) {
+					for (int i : entering.get(slot)) {
+						queue[tail++] = i;
+					}
+				}
+				int j = members[slot];
+				if (network.hasFlow(exitEdge[j])) {
+					int i = queue[head++];
+					successor[i] = j;
+					predecessor[j] = i;
+				}
+			}
+		}
+
+		List<List<TripWithStopTimeList>> vehicles = new ArrayList<List<TripWithStopTimeList>>();
+		for (int i = 0; i < n; i++) {
+			if (predecessor[i] >= 0) {
+				continue;
+			}
+			List<TripWithStopTimeList> vehicle = new ArrayList<TripWithStopTimeList>();
+			for (int t = i; t >= 0; t = successor[t]) {
+				vehicle.add(groups.trips[t]);
+			}
+			vehicles.add(vehicle);
+		}
+		return vehicles;
+	}
+
+	/**
+	 * integer capacity network with the phases of Hopcroft-Karp / Dinic.
+	 * Every augmenting path starts with a unit edge from the source, so paths
+	 * are pushed one unit at a time with an iterative search, which keeps
+	 * long chains off the call stack.
+	 */
+	static class FlowNetwork {
+		private int numOfNodes;
+		private int[] head;
+		private int[] next = new int[16];
+		private int[] target = new int[16];
+		private int[] capacity = new int[16];
+		private int numOfEdges;
+
+		FlowNetwork(int numOfNodes) {
+			this.numOfNodes = numOfNodes;
+			head = new int[numOfNodes];
+			Arrays.fill(head, -1);
+		}
+
+		/**
+		 * @return index of the forward edge, its reverse edge is index + 1
+		 */
+		int addEdge(int from, int to, int cap) {
+			int e = numOfEdges;
+			append(from, to, cap);
+			append(to, from, 0);
+			return e;
+		}
+
+		private void append(int from, int to, int cap) {
+			if (numOfEdges == target.length) {
+				next = Arrays.copyOf(next, numOfEdges * 2);
+				target = Arrays.copyOf(target, numOfEdges * 2);
+				capacity = Arrays.copyOf(capacity, numOfEdges * 2);
+			}
+			target[numOfEdges] = to;
+			capacity[numOfEdges] = cap;
+			next[numOfEdges] = head[from];
+			head[from] = numOfEdges;
+			numOfEdges++;
+		}
+
+		int getTarget(int e) {
+			return target[e];
+		}
+
+		/**
+		 * @return true if a unit edge carries flow
+		 */
+		boolean hasFlow(int e) {
+			return capacity[e ^ 1] > 0;
+		}
+
+		int maxFlow(int source, int sink) {
+			int flow = 0;
+			int[] level = new int[numOfNodes];
+			int[] current = new int[numOfNodes];
+			int[] queue = new int[numOfNodes];
+			int[] pathEdges = new int[numOfNodes];
+			while (buildLevels(source, sink, level, queue)) {
+				System.arraycopy(head, 0, current, 0, numOfNodes);
+				while (augment(source, sink, level, current, pathEdges)) {
+					flow++;
+				}
+			}
+			return flow;
+		}
+
+		private boolean buildLevels(int source, int sink, int[] level,
+				int[] queue) {
+			Arrays.fill(level, -1);
+			level[source] = 0;
+			int headOfQueue = 0;
+			int tailOfQueue = 0;
+			queue[tailOfQueue++] = source;
+			while (headOfQueue < tailOfQueue) {
+				int u = queue[headOfQueue++];
+				for (int e = head[u]; e >= 0; e = next[e]) {
+					int v = target[e];
+					if (capacity[e] > 0 && level[v] < 0) {
+						level[v] = level[u] + 1;
+						queue[tailOfQueue++] = v;
+					}
+				}
+			}
+			return level[sink] >= 0;
+		}
+
+		/**
+		 * push one unit along the level graph
+		 *
+		 * @return false when the level graph is blocked
+		 */
+		private boolean augment(int source, int sink, int[] level,
+				int[] current, int[] pathEdges) {
+			int depth = 0;
+			int u = source;
+			while (true) {
+				if (u == sink) {
+					for (int k = 0; k < depth; k++) {
+						capacity[pathEdges[k]]--;
+						capacity[pathEdges[k] ^ 1]++;
+					}
+					return true;
+				}
+				int e = current[u];
+				while (e >= 0
+						&& (capacity[e] <= 0 || level[target[e]] != level[u] + 1)) {
+					e = next[e];
+				}
+				current[u] = e;
+				if (e >= 0) {
+					pathEdges[depth++] = e;
+					u = target[e];
+				} else {
+					// dead end, drop the node from this phase and retreat
+					level[u] = -1;
+					if (depth == 0) {
+						return false;
+					}
+					depth--;
+					u = target[pathEdges[depth] ^ 1];
+					current[u] = next[current[u]];
+				}
+			}
+		}
+	}
+}
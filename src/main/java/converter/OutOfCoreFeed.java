@@ -0,0 +1,510 @@
+package converter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+
+/**
+ * the stop times of a feed sorted on disk by route, trip and stop sequence,
+ * for feeds whose stop times do not fit in memory. stop_times.txt is read
+ * into a buffer of a fixed number of rows, and every time the buffer is full
+ * its rows are sorted and spilled to a run file in the spill folder. While
+ * there are more runs than can be merged at once, groups of runs are merged
+ * into longer ones. The last runs are then merged and the routes are made
+ * one at a time, each with a StopTimeTable of its own
+ * rows only: their trips are split by week day and sorted as by loadFeed(),
+ * and are released once the route is blocked and written.
+ *
+ * The budget covers the buffer, the sort and the buffers of the merge. The
+ * entities other than stop times, and the trips of the routes being blocked,
+ * come on top of it.
+ *
+ * @author linzhiqi
+ *
+ */
+public class OutOfCoreFeed {
+	/**
+	 * five ints of a row in the buffer, its position and the position in the
+	 * merge sort
+	 */
+	private static final int BYTES_PER_ROW = 28;
+	private static final int MIN_ROWS_IN_MEMORY = 1 << 10;
+	private static final int RUN_BUFFER_SIZE = 1 << 16;
+	/** well below the usual limits of open files */
+	private static final int MAX_RUNS_PER_MERGE = 256;
+
+	private FeedIndex index;
+	private BitSet usefulTrips;
+	private HashMap<Route, Integer> route2IntIdMap;
+	private DateRangeExpander expander = null;
+	private int maxRowsInMemory;
+	private int maxRunsPerMerge;
+	private File spillFolder;
+
+	/** position of each useful trip when sorted by route */
+	private int[] rankOfTrip;
+	private int[] tripOfRank;
+	private ArrayList<File> runs = new ArrayList<File>();
+	private long numOfRows = 0;
+	private int numOfMergePasses = 0;
+	private int numOfTrips = 0;
+
+	/**
+	 * @param index
+	 * @param usefulTrips
+	 *            indices of the trips to convert
+	 * @param route2IntIdMap
+	 *            the int id of every route kept
+	 * @param maxHeapMb
+	 *            the memory the stop times may take, in MB
+	 * @param spillFolder
+	 *            where the runs are written, null for the temporary folder
+	 */
+	public OutOfCoreFeed(FeedIndex index, BitSet usefulTrips,
+			HashMap<Route, Integer> route2IntIdMap, int maxHeapMb,
+			File spillFolder) {
+		this.index = index;
+		this.usefulTrips = usefulTrips;
+		this.route2IntIdMap = route2IntIdMap;
+		this.spillFolder = spillFolder;
+		// half of the budget for the buffer, rounded down to a power of two
+		// so that the buffer is never grown past it
+		long rows = Math.max((long) maxHeapMb * (1 << 20) / 2 / BYTES_PER_ROW,
+				MIN_ROWS_IN_MEMORY);
+		maxRowsInMemory = Integer.highestOneBit((int) Math.min(rows,
+				1 << 30));
+		// the other half for the buffers of the runs merged and of the run
+		// written
+		long buffers = (long) maxHeapMb * (1 << 20) / 2 / RUN_BUFFER_SIZE - 1;
+		maxRunsPerMerge = (int) Math.max(Math.min(buffers, MAX_RUNS_PER_MERGE),
+				2);
+
+		// a counting sort of the useful trips by route, in index order
+		int numOfRoutes = index.getNumOfRoutes();
+		int[] routeStart = new int[numOfRoutes + 1];
+		for (int t = usefulTrips.nextSetBit(0); t >= 0; t = usefulTrips
+				.nextSetBit(t + 1)) {
+			routeStart[index.getRouteOfTrip(t) + 1]++;
+		}
+		for (int r = 0; r < numOfRoutes; r++) {
+			routeStart[r + 1] += routeStart[r];
+		}
+		rankOfTrip = new int[index.getNumOfTrips()];
+		tripOfRank = new int[routeStart[numOfRoutes]];
+		for (int t = usefulTrips.nextSetBit(0); t >= 0; t = usefulTrips
+				.nextSetBit(t + 1)) {
+			int rank = routeStart[index.getRouteOfTrip(t)]++;
+			rankOfTrip[t] = rank;
+			tripOfRank[rank] = t;
+		}
+	}
+
+	/**
+	 * @param expander
+	 *            given to every route made, null to block the trips as they
+	 *            are
+	 */
+	public void setExpander(DateRangeExpander expander) {
+		this.expander = expander;
+	}
+
+	public HashMap<Route, Integer> getRoute2IntIdMap() {
+		return route2IntIdMap;
+	}
+
+	public List<Stop> getStops() {
+		return index.getStops();
+	}
+
+	public int getNumOfRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * @return the number of passes merging groups of runs before the routes
+	 *         are made
+	 */
+	public int getNumOfMergePasses() {
+		return numOfMergePasses;
+	}
+
+	/**
+	 * @return the number of trip instances of the routes made so far
+	 */
+	public int getNumOfTrips() {
+		return numOfTrips;
+	}
+
+	/**
+	 * read the stop times of the useful trips and spill them in sorted runs
+	 *
+	 * @param loader
+	 *            of the feed
+	 * @throws IOException
+	 */
+	public void sortStopTimes(ColumnarGtfsLoader loader) throws IOException {
+		SpillingTable buffer = new SpillingTable();
+		loader.readStopTimes(index, usefulTrips, buffer);
+		buffer.spill();
+		System.out.println(numOfRows + " stop times sorted in " + runs.size()
+				+ " runs of at most " + maxRowsInMemory + " rows");
+		// the buffer is not needed by the merge
+		buffer = null;
+		if (runs.size() > maxRunsPerMerge) {
+			mergeRuns();
+			System.out.println("runs merged down to " + runs.size() + " in "
+					+ numOfMergePasses + " passes");
+		}
+	}
+
+	/**
+	 * merge groups of consecutive runs until they can be merged at once.
+	 * Each group is replaced by its merged run, so rows of the same trip and
+	 * stop sequence stay in the order of the file.
+	 */
+	private void mergeRuns() throws IOException {
+		while (runs.size() > maxRunsPerMerge) {
+			for (int first = 0; first < runs.size(); first++) {
+				List<File> group = runs.subList(first,
+						Math.min(first + maxRunsPerMerge, runs.size()));
+				if (group.size() == 1) {
+					break;
+				}
+				File merged = mergeRuns(group);
+				for (File run : group) {
+					run.delete();
+				}
+				group.clear();
+				runs.add(first, merged);
+			}
+			numOfMergePasses++;
+		}
+	}
+
+	/**
+	 * @return a new run of the rows of the runs
+	 */
+	private File mergeRuns(List<File> group) throws IOException {
+		PriorityQueue<RunReader> queue = openRuns(group);
+		int length = 0;
+		for (RunReader reader : queue) {
+			length += reader.remaining + 1;
+		}
+		File merged = createRun();
+		boolean done = false;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(merged), RUN_BUFFER_SIZE));
+		try {
+			out.writeInt(length);
+			while (!queue.isEmpty()) {
+				RunReader reader = queue.poll();
+				reader.write(out);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			done = true;
+		} finally {
+			out.close();
+			for (RunReader reader : queue) {
+				reader.in.close();
+			}
+			if (!done) {
+				merged.delete();
+			}
+		}
+		return merged;
+	}
+
+	private File createRun() throws IOException {
+		File run = File.createTempFile("stop_times", ".run", spillFolder);
+		run.deleteOnExit();
+		return run;
+	}
+
+	/**
+	 * @return a reader at the first row of each run that has rows, in the
+	 *         order of route, trip, stop sequence and run
+	 */
+	private static PriorityQueue<RunReader> openRuns(List<File> files)
+			throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(
+				Math.max(files.size(), 1), new Comparator<RunReader>() {
+					public int compare(RunReader a, RunReader b) {
+						if (a.rank != b.rank) {
+							return a.rank < b.rank ? -1 : 1;
+						}
+						if (a.sequence != b.sequence) {
+							return a.sequence < b.sequence ? -1 : 1;
+						}
+						return a.run < b.run ? -1 : (a.run == b.run ? 0 : 1);
+					}
+				});
+		try {
+			for (int i = 0; i < files.size(); i++) {
+				RunReader reader = new RunReader(i, files.get(i));
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+		} catch (IOException e) {
+			for (RunReader reader : queue) {
+				reader.in.close();
+			}
+			throw e;
+		}
+		return queue;
+	}
+
+	/**
+	 * delete the run files
+	 */
+	public void delete() {
+		for (File run : runs) {
+			run.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * @return the routes, made one at a time from the merged runs. Routes
+	 *         without stop times are left out.
+	 * @throws IOException
+	 */
+	public Iterator<RouteWithTripList> getRoutes() throws IOException {
+		numOfTrips = 0;
+		return new RouteIterator();
+	}
+
+	/**
+	 * the buffer of stop_times.txt, spilled to a run whenever full
+	 */
+	private class SpillingTable extends StopTimeTable {
+		SpillingTable() {
+			super(index.getTrips(), index.getStops());
+		}
+
+		@Override
+		public int add(int trip, int stop, int arrival, int departure,
+				int sequence) {
+			int row = super.add(trip, stop, arrival, departure, sequence);
+			if (size() == maxRowsInMemory) {
+				try {
+					spill();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return row;
+		}
+
+		void spill() throws IOException {
+			if (size() == 0) {
+				return;
+			}
+			int[] rows = sortRows();
+			File run = createRun();
+			runs.add(run);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(run),
+							RUN_BUFFER_SIZE));
+			try {
+				out.writeInt(rows.length);
+				for (int row : rows) {
+					out.writeInt(rankOfTrip[getTripIndex(row)]);
+					out.writeInt(getStopSequence(row));
+					out.writeInt(getStopIndex(row));
+					out.writeInt(getArrivalTime(row));
+					out.writeInt(getDepartureTime(row));
+				}
+			} finally {
+				out.close();
+			}
+			numOfRows += rows.length;
+			clear();
+		}
+
+		/**
+		 * @return the rows in the order of route, trip and stop sequence,
+		 *         rows of the same trip and sequence in the order of the file
+		 */
+		private int[] sortRows() {
+			int[] rows = new int[size()];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = i;
+			}
+			int[] merged = new int[rows.length];
+			// bottom up merge sort, which is stable
+			for (int width = 1; width < rows.length; width *= 2) {
+				for (int left = 0; left < rows.length; left += 2 * width) {
+					int middle = Math.min(left + width, rows.length);
+					int right = Math.min(left + 2 * width, rows.length);
+					int i = left;
+					int j = middle;
+					for (int k = left; k < right; k++) {
+						if (i < middle
+								&& (j == right || compare(rows[i], rows[j]) <= 0)) {
+							merged[k] = rows[i++];
+						} else {
+							merged[k] = rows[j++];
+						}
+					}
+				}
+				int[] swap = rows;
+				rows = merged;
+				merged = swap;
+			}
+			return rows;
+		}
+
+		private int compare(int a, int b) {
+			int rankA = rankOfTrip[getTripIndex(a)];
+			int rankB = rankOfTrip[getTripIndex(b)];
+			if (rankA != rankB) {
+				return rankA < rankB ? -1 : 1;
+			}
+			int sequenceA = getStopSequence(a);
+			int sequenceB = getStopSequence(b);
+			return sequenceA < sequenceB ? -1 : (sequenceA == sequenceB ? 0
+					: 1);
+		}
+	}
+
+	/**
+	 * the rows of a run file, read one at a time
+	 */
+	private static class RunReader {
+		int run;
+		DataInputStream in;
+		int remaining;
+		int rank;
+		int sequence;
+		int stop;
+		int arrival;
+		int departure;
+
+		RunReader(int run, File file) throws IOException {
+			this.run = run;
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file), RUN_BUFFER_SIZE));
+			remaining = in.readInt();
+		}
+
+		/**
+		 * @return false at the end of the run, which is then closed
+		 */
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				in.close();
+				return false;
+			}
+			remaining--;
+			rank = in.readInt();
+			sequence = in.readInt();
+			stop = in.readInt();
+			arrival = in.readInt();
+			departure = in.readInt();
+			return true;
+		}
+
+		/**
+		 * write the current row to a run
+		 */
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(rank);
+			out.writeInt(sequence);
+			out.writeInt(stop);
+			out.writeInt(arrival);
+			out.writeInt(departure);
+		}
+	}
+
+	/**
+	 * merges the runs and makes a route of the rows of each route
+	 */
+	private class RouteIterator implements Iterator<RouteWithTripList> {
+		private PriorityQueue<RunReader> queue;
+
+		RouteIterator() throws IOException {
+			queue = openRuns(runs);
+		}
+
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		public RouteWithTripList next() {
+			if (queue.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			int r = index.getRouteOfTrip(tripOfRank[queue.peek().rank]);
+			StopTimeTable table = new StopTimeTable(index.getTrips(),
+					index.getStops());
+			ArrayList<TripWithStopTimeList> prototypes = new ArrayList<TripWithStopTimeList>();
+			int tripStart = 0;
+			int lastRank = -1;
+			try {
+				while (!queue.isEmpty()) {
+					RunReader reader = queue.peek();
+					int trip = tripOfRank[reader.rank];
+					if (index.getRouteOfTrip(trip) != r) {
+						break;
+					}
+					if (reader.rank != lastRank && lastRank >= 0) {
+						prototypes.add(createTrip(table, lastRank, tripStart));
+						tripStart = table.size();
+					}
+					lastRank = reader.rank;
+					table.add(trip, reader.stop, reader.arrival,
+							reader.departure, reader.sequence);
+					queue.poll();
+					if (reader.next()) {
+						queue.add(reader);
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			prototypes.add(createTrip(table, lastRank, tripStart));
+			table.trimToSize();
+
+			RouteWithTripList route = Converter.createRouteWithTripList(
+					index.getRoute(r),
+					ColumnarConverter.splitTrips(prototypes,
+							index.getCalendars()));
+			route.setExpander(expander);
+			numOfTrips += route.getNumOfTripInstances();
+			return route;
+		}
+
+		private TripWithStopTimeList createTrip(StopTimeTable table, int rank,
+				int start) {
+			int[] rows = new int[table.size() - start];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = start + i;
+			}
+			return new TripWithStopTimeList(index.getTrip(tripOfRank[rank]),
+					table.getStopTimes(rows), 0);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
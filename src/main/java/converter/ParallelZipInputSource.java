@@ -0,0 +1,74 @@
+package converter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.csv_entities.CsvInputSource;
+
+/**
+ * the files of a gtfs ZIP file, read from the archive without extracting it.
+ * The big entries given are decompressed right away, each on a thread of its
+ * own, into a PipedChunkInputStream, so they are decompressed while the
+ * smaller files are parsed and while they are parsed themselves. Each of them
+ * is read ahead by PipedChunkInputStream.NUM_OF_CHUNKS chunks at most.
+ *
+ * @author linzhiqi
+ *
+ */
+public class ParallelZipInputSource implements CsvInputSource {
+	private ZipFile zipFile;
+	/** entries being decompressed, until they are handed out */
+	private HashMap<String, PipedChunkInputStream> prefetched = new HashMap<String, PipedChunkInputStream>();
+
+	/**
+	 * @param file
+	 *            the ZIP file
+	 * @param bigEntries
+	 *            names of the entries to decompress in parallel, those not in
+	 *            the archive are ignored
+	 * @throws IOException
+	 */
+	public ParallelZipInputSource(File file, String... bigEntries)
+			throws IOException {
+		zipFile = new ZipFile(file);
+		for (String name : bigEntries) {
+			ZipEntry entry = zipFile.getEntry(name);
+			if (entry != null && !prefetched.containsKey(name)) {
+				prefetched.put(name, new PipedChunkInputStream(
+						zipFile.getInputStream(entry), name));
+			}
+		}
+	}
+
+	public boolean hasResource(String name) throws IOException {
+		return zipFile.getEntry(name) != null;
+	}
+
+	/**
+	 * a big entry is handed out once as it is being decompressed, and read
+	 * again from the start if asked for another time
+	 */
+	public InputStream getResource(String name) throws IOException {
+		PipedChunkInputStream in = prefetched.remove(name);
+		if (in != null) {
+			return in;
+		}
+		ZipEntry entry = zipFile.getEntry(name);
+		if (entry == null) {
+			throw new IOException(name + " is missing in " + zipFile.getName());
+		}
+		return zipFile.getInputStream(entry);
+	}
+
+	public void close() throws IOException {
+		for (PipedChunkInputStream in : prefetched.values()) {
+			in.close();
+		}
+		prefetched.clear();
+		zipFile.close();
+	}
+}
@@ -0,0 +1,170 @@
+package converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * reads another stream ahead on a thread of its own. The bytes are handed
+ * over in chunks through a bounded queue, so the thread behind, decompressing
+ * or filtering, runs at most a few chunks ahead of the reader and the memory
+ * taken does not depend on the size of the stream. An exception of the
+ * stream behind is thrown to the reader once it has read everything before
+ * it.
+ *
+ * @author linzhiqi
+ *
+ */
+public class PipedChunkInputStream extends InputStream {
+	public static final int CHUNK_SIZE = 1 << 16;
+	public static final int NUM_OF_CHUNKS = 16;
+
+	/** put after the last chunk */
+	private static final byte[] END = new byte[0];
+
+	private InputStream source;
+	private ArrayBlockingQueue<byte[]> chunks;
+	private Thread producer;
+	private volatile Throwable error = null;
+	private volatile boolean closed = false;
+
+	private byte[] chunk = new byte[0];
+	private int position = 0;
+	private boolean endReached = false;
+
+	/**
+	 * start reading the source
+	 *
+	 * @param source
+	 *            closed by the thread once read
+	 * @param name
+	 *            of the source, to name the thread
+	 */
+	public PipedChunkInputStream(InputStream source, String name) {
+		this(source, name, NUM_OF_CHUNKS);
+	}
+
+	/**
+	 * @param source
+	 * @param name
+	 * @param numOfChunks
+	 *            the number of chunks the source may be read ahead
+	 */
+	public PipedChunkInputStream(InputStream source, String name,
+			int numOfChunks) {
+		this.source = source;
+		this.chunks = new ArrayBlockingQueue<byte[]>(numOfChunks);
+		producer = new Thread(new Runnable() {
+			public void run() {
+				copy();
+			}
+		}, "read " + name);
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	private void copy() {
+		try {
+			int n;
+			do {
+				byte[] buffer = new byte[CHUNK_SIZE];
+				n = 0;
+				int read;
+				try {
+					while (n < CHUNK_SIZE
+							&& (read = source.read(buffer, n, CHUNK_SIZE
+									- n)) >= 0) {
+						n += read;
+					}
+				} catch (Throwable e) {
+					// thrown after the bytes read before it
+					error = e;
+				}
+				if (n > 0) {
+					chunks.put(n == CHUNK_SIZE ? buffer : Arrays.copyOf(
+							buffer, n));
+				}
+			} while (n == CHUNK_SIZE && error == null && !closed);
+		} catch (InterruptedException e) {
+			// closed by the reader
+			closed = true;
+		} finally {
+			try {
+				source.close();
+			} catch (IOException e) {
+				// nothing more is read from it
+			}
+		}
+		if (!closed) {
+			try {
+				chunks.put(END);
+			} catch (InterruptedException e) {
+				// closed by the reader
+			}
+		}
+	}
+
+	private boolean next() throws IOException {
+		if (endReached) {
+			return false;
+		}
+		try {
+			chunk = chunks.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+		position = 0;
+		if (chunk == END) {
+			endReached = true;
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			} else if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			} else if (error != null) {
+				throw new IOException(error);
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == chunk.length && !next()) {
+			return -1;
+		}
+		return chunk[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position == chunk.length && !next()) {
+			return -1;
+		}
+		int n = Math.min(len, chunk.length - position);
+		System.arraycopy(chunk, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return chunk.length - position;
+	}
+
+	/**
+	 * stop the thread, the rest of the source is not read
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			producer.interrupt();
+		}
+	}
+}
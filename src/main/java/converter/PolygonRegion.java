@@ -0,0 +1,281 @@
+package converter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import converter.BoundaryIndex.Coverage;
+
+/**
+ * a polygon or multipolygon read from WKT, holes included. A point is inside
+ * when a ray from it crosses the rings an odd number of times, which is right
+ * for valid WKT where polygons do not overlap.
+ *
+ * The edges are indexed by horizontal slabs: every edge is listed in each slab
+ * its y range touches, so a point only tests the edges of its own slab and a
+ * box only the edges of the slabs it spans. Polygons with tens of thousands of
+ * vertices then cost a handful of edge tests per query.
+ *
+ * @author linzhiqi
+ *
+ */
+public class PolygonRegion implements Region {
+	/** edges per slab the index is sized for */
+	private static final int EDGES_PER_SLAB = 4;
+	private static final int MAX_SLABS = 1 << 16;
+
+	private int numOfEdges;
+	private double[] x1;
+	private double[] y1;
+	private double[] x2;
+	private double[] y2;
+	private double minX = Double.POSITIVE_INFINITY;
+	private double minY = Double.POSITIVE_INFINITY;
+	private double maxX = Double.NEGATIVE_INFINITY;
+	private double maxY = Double.NEGATIVE_INFINITY;
+
+	private int numOfSlabs;
+	private double slabHeight;
+	/** first position of each slab in slabEdges, plus the end */
+	private int[] slabStart;
+	/** edge indices, grouped by slab */
+	private int[] slabEdges;
+
+	/**
+	 * @param rings
+	 *            the rings of all polygons, each as x0,y0,x1,y1,... The last
+	 *            point may repeat the first one.
+	 */
+	public PolygonRegion(List<double[]> rings) {
+		for (double[] ring : rings) {
+			numOfEdges += getNumOfPoints(ring);
+		}
+		x1 = new double[numOfEdges];
+		y1 = new double[numOfEdges];
+		x2 = new double[numOfEdges];
+		y2 = new double[numOfEdges];
+		int e = 0;
+		for (double[] ring : rings) {
+			int n = getNumOfPoints(ring);
+			for (int i = 0; i < n; i++) {
+				int j = (i + 1) % n;
+				x1[e] = ring[2 * i];
+				y1[e] = ring[2 * i + 1];
+				x2[e] = ring[2 * j];
+				y2[e] = ring[2 * j + 1];
+				minX = Math.min(minX, x1[e]);
+				minY = Math.min(minY, y1[e]);
+				maxX = Math.max(maxX, x1[e]);
+				maxY = Math.max(maxY, y1[e]);
+				e++;
+			}
+		}
+
+		// slabs no thinner than the average edge, so that every edge is
+		// listed in about two slabs
+		double totalHeight = 0;
+		for (e = 0; e < numOfEdges; e++) {
+			totalHeight += Math.abs(y2[e] - y1[e]);
+		}
+		double slabs = numOfEdges / EDGES_PER_SLAB;
+		if (totalHeight > 0) {
+			slabs = Math.min(slabs, (maxY - minY) * numOfEdges / totalHeight);
+		}
+		numOfSlabs = (int) Math.max(1, Math.min(MAX_SLABS, slabs));
+		slabHeight = (maxY - minY) / numOfSlabs;
+		slabStart = new int[numOfSlabs + 1];
+		for (e = 0; e < numOfEdges; e++) {
+			for (int s = getSlab(Math.min(y1[e], y2[e])); s <= getSlab(Math
+					.max(y1[e], y2[e])); s++) {
+				slabStart[s + 1]++;
+			}
+		}
+		for (int s = 0; s < numOfSlabs; s++) {
+			slabStart[s + 1] += slabStart[s];
+		}
+		slabEdges = new int[slabStart[numOfSlabs]];
+		int[] next = new int[numOfSlabs];
+		System.arraycopy(slabStart, 0, next, 0, numOfSlabs);
+		for (e = 0; e < numOfEdges; e++) {
+			for (int s = getSlab(Math.min(y1[e], y2[e])); s <= getSlab(Math
+					.max(y1[e], y2[e])); s++) {
+				slabEdges[next[s]++] = e;
+			}
+		}
+	}
+
+	/**
+	 * a closing point equal to the first one is not counted
+	 */
+	private static int getNumOfPoints(double[] ring) {
+		int n = ring.length / 2;
+		if (n > 1 && ring[0] == ring[2 * n - 2] && ring[1] == ring[2 * n - 1]) {
+			n--;
+		}
+		return n;
+	}
+
+	private int getSlab(double y) {
+		if (!(slabHeight > 0)) {
+			return 0;
+		}
+		return Math.max(0,
+				Math.min(numOfSlabs - 1, (int) ((y - minY) / slabHeight)));
+	}
+
+	public int getNumOfEdges() {
+		return numOfEdges;
+	}
+
+	public boolean contains(double x, double y) {
+		if (x < minX || x > maxX || y < minY || y > maxY) {
+			return false;
+		}
+		boolean inside = false;
+		int s = getSlab(y);
+		for (int i = slabStart[s]; i < slabStart[s + 1]; i++) {
+			int e = slabEdges[i];
+			if ((y1[e] > y) != (y2[e] > y)) {
+				double crossing = x1[e] + (y - y1[e]) * (x2[e] - x1[e])
+						/ (y2[e] - y1[e]);
+				if (x < crossing) {
+					inside = !inside;
+				}
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * a box touched by no edge lies entirely on one side, which is the side
+	 * of any of its points
+	 */
+	public Coverage getCoverage(double boxMinX, double boxMinY,
+			double boxMaxX, double boxMaxY) {
+		if (boxMaxX < minX || boxMinX > maxX || boxMaxY < minY
+				|| boxMinY > maxY) {
+			return Coverage.OUTSIDE;
+		}
+		for (int i = slabStart[getSlab(boxMinY)]; i < slabStart[getSlab(boxMaxY) + 1]; i++) {
+			int e = slabEdges[i];
+			if (Math.max(x1[e], x2[e]) >= boxMinX
+					&& Math.min(x1[e], x2[e]) <= boxMaxX
+					&& Math.max(y1[e], y2[e]) >= boxMinY
+					&& Math.min(y1[e], y2[e]) <= boxMaxY) {
+				return Coverage.MIXED;
+			}
+		}
+		return contains(boxMinX, boxMinY) ? Coverage.INSIDE : Coverage.OUTSIDE;
+	}
+
+	/**
+	 * read a POLYGON or MULTIPOLYGON from a WKT file
+	 *
+	 * @param file
+	 * @return the region
+	 * @throws IOException
+	 *             if the file is not a WKT polygon or multipolygon
+	 */
+	public static PolygonRegion read(File file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8"));
+		try {
+			char[] buffer = new char[1 << 16];
+			int n;
+			while ((n = reader.read(buffer)) > 0) {
+				text.append(buffer, 0, n);
+			}
+		} finally {
+			reader.close();
+		}
+		try {
+			return parse(text.toString());
+		} catch (IOException e) {
+			throw new IOException(file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @param wkt
+	 *            a POLYGON or MULTIPOLYGON, z values are ignored
+	 * @return the region
+	 * @throws IOException
+	 *             if the text is not a WKT polygon or multipolygon
+	 */
+	public static PolygonRegion parse(String wkt) throws IOException {
+		int open = wkt.indexOf('(');
+		if (open < 0) {
+			throw new IOException("no polygon found");
+		}
+		String type = wkt.substring(0, open).trim().toUpperCase();
+		// the dimensions, as in POLYGON Z, do not matter
+		type = type.replaceFirst("\\s+(Z|M|ZM)$", "");
+		// the parenthesis depth of the coordinate lists
+		int ringDepth;
+		if (type.equals("POLYGON")) {
+			ringDepth = 2;
+		} else if (type.equals("MULTIPOLYGON")) {
+			ringDepth = 3;
+		} else {
+			throw new IOException("unsupported geometry " + type
+					+ ", POLYGON or MULTIPOLYGON expected");
+		}
+
+		ArrayList<double[]> rings = new ArrayList<double[]>();
+		int depth = 0;
+		int ringStart = -1;
+		for (int i = open; i < wkt.length(); i++) {
+			char c = wkt.charAt(i);
+			if (c == '(') {
+				depth++;
+				if (depth > ringDepth) {
+					throw new IOException("unexpected '(' at " + i);
+				}
+				ringStart = i + 1;
+			} else if (c == ')') {
+				if (depth == 0) {
+					throw new IOException("unexpected ')' at " + i);
+				}
+				if (depth == ringDepth) {
+					rings.add(parseRing(wkt.substring(ringStart, i)));
+				}
+				depth--;
+			}
+		}
+		if (depth != 0) {
+			throw new IOException("unbalanced parentheses");
+		}
+		if (rings.isEmpty()) {
+			throw new IOException("the polygon has no ring");
+		}
+		return new PolygonRegion(rings);
+	}
+
+	private static double[] parseRing(String text) throws IOException {
+		String[] points = text.split(",");
+		double[] ring = new double[2 * points.length];
+		for (int i = 0; i < points.length; i++) {
+			String[] values = points[i].trim().split("\\s+");
+			if (values.length < 2) {
+				throw new IOException("invalid point '" + points[i].trim()
+						+ "'");
+			}
+			try {
+				ring[2 * i] = Double.parseDouble(values[0]);
+				ring[2 * i + 1] = Double.parseDouble(values[1]);
+			} catch (NumberFormatException e) {
+				throw new IOException("invalid point '" + points[i].trim()
+						+ "'");
+			}
+		}
+		if (getNumOfPoints(ring) < 3) {
+			throw new IOException("a ring needs at least 3 points");
+		}
+		return ring;
+	}
+}
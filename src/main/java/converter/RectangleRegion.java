@@ -0,0 +1,45 @@
+package converter;
+
+import converter.BoundaryIndex.Coverage;
+
+/**
+ * the boundaries given as xmin,ymin,xmax,ymax. Points on the border are
+ * outside, like in Converter.isCoordInBound().
+ *
+ * @author linzhiqi
+ *
+ */
+public class RectangleRegion implements Region {
+	private double[] boundaries;
+
+	/**
+	 * @param boundaries
+	 *            a double array of length 4: [xmin][ymin][xmax][ymax]
+	 */
+	public RectangleRegion(double[] boundaries) {
+		this.boundaries = boundaries;
+	}
+
+	public double[] getBoundaries() {
+		return boundaries;
+	}
+
+	public boolean contains(double x, double y) {
+		return Converter.isCoordInBound(x, y, boundaries);
+	}
+
+	public Coverage getCoverage(double minX, double minY, double maxX,
+			double maxY) {
+		double xmin = boundaries[0];
+		double ymin = boundaries[1];
+		double xmax = boundaries[2];
+		double ymax = boundaries[3];
+		if (maxX <= xmin || minX >= xmax || maxY <= ymin || minY >= ymax) {
+			return Coverage.OUTSIDE;
+		}
+		if (minX > xmin && maxX < xmax && minY > ymin && maxY < ymax) {
+			return Coverage.INSIDE;
+		}
+		return Coverage.MIXED;
+	}
+}
@@ -0,0 +1,20 @@
+package converter;
+
+import converter.BoundaryIndex.Coverage;
+
+/**
+ * an area schedules are clipped to, in the coordinates of the stops
+ *
+ * @author linzhiqi
+ *
+ */
+public interface Region {
+
+	boolean contains(double x, double y);
+
+	/**
+	 * @return INSIDE or OUTSIDE if every point of the box is on that side,
+	 *         MIXED if not or if it is not known cheaply
+	 */
+	Coverage getCoverage(double minX, double minY, double maxX, double maxY);
+}
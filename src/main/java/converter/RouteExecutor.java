@@ -0,0 +1,261 @@
+package converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * runs independent per-route work on a work stealing ForkJoinPool. Items are
+ * submitted biggest first, so a big route is not started last and left
+ * running alone at the end. Results keep the order of the items, so the
+ * output does not depend on the number of threads. map() returns when every
+ * item is done, stream() hands each result on as soon as the results of the
+ * items before it are handed. The pool is made by the first call that needs
+ * it and kept for the later calls, until the executor is closed.
+ *
+ * @author linzhiqi
+ *
+ */
+public class RouteExecutor implements Closeable {
+
+	public interface RouteTask<T, R> {
+		R run(T item);
+	}
+
+	public interface Weigher<T> {
+		/**
+		 * @return the expected cost of the item, e.g. its number of trips
+		 */
+		int weigh(T item);
+	}
+
+	public interface ResultConsumer<T, R> {
+		void accept(T item, R result) throws IOException;
+	}
+
+	private int numOfThreads;
+	private ForkJoinPool pool = null;
+
+	/**
+	 * @param numOfThreads
+	 *            1 runs everything on the calling thread
+	 */
+	public RouteExecutor(int numOfThreads) {
+		this.numOfThreads = Math.max(numOfThreads, 1);
+	}
+
+	public int getNumOfThreads() {
+		return numOfThreads;
+	}
+
+	/**
+	 * @param items
+	 * @param weights
+	 *            the expected cost of each item, e.g. its number of trips
+	 * @param task
+	 * @return the result of each item, in the order of the items
+	 */
+	public <T, R> List<R> map(final List<T> items, final int[] weights,
+			final RouteTask<T, R> task) {
+		List<R> results = new ArrayList<R>(items.size());
+		if (numOfThreads == 1 || items.size() <= 1) {
+			for (T item : items) {
+				results.add(task.run(item));
+			}
+			return results;
+		}
+
+		Integer[] order = new Integer[items.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return weights[b] < weights[a] ? -1
+						: (weights[b] == weights[a] ? 0 : 1);
+			}
+		});
+
+		List<Callable<R>> callables = new ArrayList<Callable<R>>(order.length);
+		for (final Integer i : order) {
+			callables.add(new Callable<R>() {
+				public R call() {
+					return task.run(items.get(i));
+				}
+			});
+		}
+
+		try {
+			List<Future<R>> futures = getPool().invokeAll(callables);
+			Object[] ordered = new Object[items.size()];
+			for (int k = 0; k < order.length; k++) {
+				ordered[order[k]] = futures.get(k).get();
+			}
+			for (Object result : ordered) {
+				@SuppressWarnings("unchecked")
+				R r = (R) result;
+				results.add(r);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * run the task on the items of the iterator and hand the result of each
+	 * item to the consumer on the calling thread, in the order of the items.
+	 * The consumer runs while the threads go on with the later items. Of the
+	 * items taken from the iterator, the heaviest is started first.
+	 *
+	 * @param items
+	 * @param weigher
+	 * @param task
+	 * @param maxPending
+	 *            the most items running or done and waiting for the items
+	 *            before them. The next item to hand is started even past it,
+	 *            so a big item late in the order waits in memory, not the
+	 *            threads.
+	 * @param maxAhead
+	 *            the most items taken from the iterator and not handed yet
+	 * @param consumer
+	 * @throws IOException
+	 *             from the consumer
+	 */
+	public <T, R> void stream(Iterator<T> items, Weigher<T> weigher,
+			RouteTask<T, R> task, int maxPending, int maxAhead,
+			ResultConsumer<T, R> consumer) throws IOException {
+		if (numOfThreads == 1) {
+			while (items.hasNext()) {
+				T item = items.next();
+				consumer.accept(item, task.run(item));
+			}
+			return;
+		}
+
+		ArrayList<T> taken = new ArrayList<T>();
+		final ArrayList<Integer> weights = new ArrayList<Integer>();
+		// the items taken and not started, heaviest first
+		PriorityQueue<Integer> waiting = new PriorityQueue<Integer>(11,
+				new Comparator<Integer>() {
+					public int compare(Integer a, Integer b) {
+						int weightA = weights.get(a);
+						int weightB = weights.get(b);
+						if (weightA != weightB) {
+							return weightB < weightA ? -1 : 1;
+						}
+						return a.compareTo(b);
+					}
+				});
+		BlockingQueue<Outcome<R>> outcomes = new LinkedBlockingQueue<Outcome<R>>();
+		HashMap<Integer, R> done = new HashMap<Integer, R>();
+		// a few items queued per thread keep the threads busy while the
+		// consumer runs
+		int maxRunning = 2 * numOfThreads;
+		int running = 0;
+		int next = 0;
+		while (true) {
+			while (taken.size() - next < maxAhead && items.hasNext()) {
+				T item = items.next();
+				weights.add(weigher.weigh(item));
+				taken.add(item);
+				waiting.add(taken.size() - 1);
+			}
+			while (running < maxRunning) {
+				Integer i = null;
+				if (running + done.size() < maxPending) {
+					i = waiting.poll();
+				} else if (waiting.remove(next)) {
+					i = next;
+				}
+				if (i == null) {
+					break;
+				}
+				start(taken.get(i), i, task, outcomes);
+				running++;
+			}
+			if (next == taken.size()) {
+				return;
+			}
+
+			Outcome<R> outcome;
+			try {
+				outcome = outcomes.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+			running--;
+			if (outcome.error != null) {
+				throw new RuntimeException(outcome.error);
+			}
+			done.put(outcome.index, outcome.result);
+			while (done.containsKey(next)) {
+				R result = done.remove(next);
+				T item = taken.set(next, null);
+				next++;
+				consumer.accept(item, result);
+			}
+		}
+	}
+
+	private <T, R> void start(final T item, final int index,
+			final RouteTask<T, R> task, final BlockingQueue<Outcome<R>> outcomes) {
+		getPool().execute(new Runnable() {
+			public void run() {
+				Outcome<R> outcome = new Outcome<R>(index);
+				try {
+					outcome.result = task.run(item);
+				} catch (Throwable e) {
+					outcome.error = e;
+				}
+				outcomes.add(outcome);
+			}
+		});
+	}
+
+	/**
+	 * the result of an item of stream(), or what the task threw
+	 */
+	private static class Outcome<R> {
+		int index;
+		R result;
+		Throwable error;
+
+		Outcome(int index) {
+			this.index = index;
+		}
+	}
+
+	private synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(numOfThreads);
+		}
+		return pool;
+	}
+
+	/**
+	 * shut the threads down, a later map() starts new ones
+	 */
+	public synchronized void close() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+}
@@ -18,6 +18,7 @@ public class RouteWithTripList {
 	private List<TripWithStopTimeList> tripList;
 	private HashSet<String> stopList;
 	private List<VehicleSchedule> vehicleList;
+	private DateRangeExpander expander = null;
 
 	public RouteWithTripList(Route route, List<TripWithStopTimeList> tripList,
 			HashSet<String> stopList) {
@@ -42,6 +43,36 @@ public class RouteWithTripList {
 		this.tripList = tripList;
 	}
 
+	/**
+	 * @return the trips to block: the trip list itself, or its instances over
+	 *         the dates of the expander, made on every call
+	 */
+	public List<TripWithStopTimeList> getTripInstances() {
+		if (expander == null) {
+			return tripList;
+		}
+		return expander.expand(tripList);
+	}
+
+	public int getNumOfTripInstances() {
+		if (expander == null) {
+			return tripList.size();
+		}
+		return expander.countInstances(tripList);
+	}
+
+	public DateRangeExpander getExpander() {
+		return expander;
+	}
+
+	/**
+	 * @param expander
+	 *            null to block the trip list as it is
+	 */
+	public void setExpander(DateRangeExpander expander) {
+		this.expander = expander;
+	}
+
 	public HashSet<String> getStopList() {
 		return stopList;
 	}
@@ -0,0 +1,348 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import converter.Converter.Weekday;
+
+/**
+ * the week days of every service as a 7 bit mask, bit d standing for the
+ * Weekday of ordinal d. Asking whether a service runs on a day is then a
+ * shift and an and, and the days two services share are the and of their
+ * masks.
+ *
+ * Optionally the dates of every service are kept too, as a BitSet over the
+ * days from the start to the end date of its calendar, with the dates added
+ * and removed by calendar_dates.txt applied. The week days of a given week
+ * are then a slice of 7 bits of it. Dates are counted in days since
+ * 1970-01-01, so no time zone is involved.
+ *
+ * @author linzhiqi
+ *
+ */
+public class ServiceCalendarIndex {
+	private IdInterner<AgencyAndId> serviceIds = new IdInterner<AgencyAndId>();
+	private ArrayList<ServiceCalendar> services = new ArrayList<ServiceCalendar>();
+	private byte[] weekdayMasks;
+	/** epoch day of bit 0 of the dates of each service */
+	private int[] firstDayOfService;
+	/** dates of each service, null if not indexed */
+	private BitSet[] datesOfService;
+
+	/**
+	 * index the week days of the services
+	 *
+	 * @param calendarMap
+	 *            as returned by Converter.getCalendarMap()
+	 */
+	public ServiceCalendarIndex(Map<AgencyAndId, ServiceCalendar> calendarMap) {
+		this(calendarMap, false);
+	}
+
+	/**
+	 * @param calendarMap
+	 *            as returned by Converter.getCalendarMap()
+	 * @param withDates
+	 *            also index the dates of every service
+	 */
+	public ServiceCalendarIndex(
+			Map<AgencyAndId, ServiceCalendar> calendarMap, boolean withDates) {
+		this(calendarMap, withDates ? new ArrayList<ServiceCalendarDate>()
+				: null);
+	}
+
+	/**
+	 * index the week days and the dates of the services, with the
+	 * exceptions of calendar_dates.txt applied to the dates. Services only
+	 * given in calendar_dates.txt are indexed too, they have no ServiceCalendar
+	 * and no week days.
+	 *
+	 * @param calendarMap
+	 *            as returned by Converter.getCalendarMap()
+	 * @param calendarDates
+	 *            the added and removed dates, null to not index dates
+	 */
+	public ServiceCalendarIndex(
+			Map<AgencyAndId, ServiceCalendar> calendarMap,
+			Collection<ServiceCalendarDate> calendarDates) {
+		for (ServiceCalendar calendar : calendarMap.values()) {
+			serviceIds.intern(calendar.getServiceId());
+			services.add(calendar);
+		}
+		if (calendarDates != null) {
+			for (ServiceCalendarDate date : calendarDates) {
+				if (serviceIds.intern(date.getServiceId()) == services.size()) {
+					services.add(null);
+				}
+			}
+		}
+		weekdayMasks = new byte[services.size()];
+		for (int s = 0; s < services.size(); s++) {
+			if (services.get(s) != null) {
+				weekdayMasks[s] = (byte) getWeekdayMask(services.get(s));
+			}
+		}
+		if (calendarDates != null) {
+			indexDates(calendarDates);
+		}
+	}
+
+	private void indexDates(Collection<ServiceCalendarDate> calendarDates) {
+		int n = services.size();
+		// the range of each service, from its calendar and added dates
+		firstDayOfService = new int[n];
+		int[] lastDayOfService = new int[n];
+		Arrays.fill(firstDayOfService, Integer.MAX_VALUE);
+		Arrays.fill(lastDayOfService, Integer.MIN_VALUE);
+		for (int s = 0; s < n; s++) {
+			ServiceCalendar calendar = services.get(s);
+			if (calendar != null) {
+				firstDayOfService[s] = getEpochDay(calendar.getStartDate());
+				lastDayOfService[s] = getEpochDay(calendar.getEndDate());
+			}
+		}
+		for (ServiceCalendarDate date : calendarDates) {
+			if (date.getExceptionType() == ServiceCalendarDate.EXCEPTION_TYPE_ADD) {
+				int s = serviceIds.indexOf(date.getServiceId());
+				int day = getEpochDay(date.getDate());
+				firstDayOfService[s] = Math.min(firstDayOfService[s], day);
+				lastDayOfService[s] = Math.max(lastDayOfService[s], day);
+			}
+		}
+
+		datesOfService = new BitSet[n];
+		for (int s = 0; s < n; s++) {
+			if (firstDayOfService[s] > lastDayOfService[s]) {
+				firstDayOfService[s] = 0;
+				datesOfService[s] = new BitSet();
+				continue;
+			}
+			datesOfService[s] = new BitSet(lastDayOfService[s]
+					- firstDayOfService[s] + 1);
+			ServiceCalendar calendar = services.get(s);
+			if (calendar == null) {
+				continue;
+			}
+			int last = getEpochDay(calendar.getEndDate());
+			for (int day = getEpochDay(calendar.getStartDate()); day <= last; day++) {
+				if (hasWeekday(weekdayMasks[s], getWeekday(day))) {
+					datesOfService[s].set(day - firstDayOfService[s]);
+				}
+			}
+		}
+		for (ServiceCalendarDate date : calendarDates) {
+			int s = serviceIds.indexOf(date.getServiceId());
+			int offset = getEpochDay(date.getDate()) - firstDayOfService[s];
+			if (date.getExceptionType() == ServiceCalendarDate.EXCEPTION_TYPE_ADD) {
+				datesOfService[s].set(offset);
+			} else if (date.getExceptionType() == ServiceCalendarDate.EXCEPTION_TYPE_REMOVE
+					&& offset >= 0) {
+				datesOfService[s].clear(offset);
+			}
+		}
+	}
+
+	/**
+	 * replace the week days of every service by the days it runs on in the
+	 * week, Monday to Sunday, of the given date. The dates must be indexed.
+	 * 
+	 * @param date
+	 *            any day of the week
+	 * @return the number of services running in that week
+	 */
+	public int selectWeek(ServiceDate date) {
+		int day = getEpochDay(date);
+		int monday = day - getWeekday(day).ordinal();
+		int numOfRunning = 0;
+		for (int s = 0; s < services.size(); s++) {
+			weekdayMasks[s] = (byte) getWeekdayMask(s, monday);
+			if (weekdayMasks[s] != 0) {
+				numOfRunning++;
+			}
+		}
+		return numOfRunning;
+	}
+
+	/**
+	 * keep only the services running on some date of the range, each with
+	 * Monday as its only week day. The trips of the range then pass through
+	 * the week day stages once, at offset 0, as prototypes for a
+	 * DateRangeExpander. The dates must be indexed.
+	 *
+	 * @param from
+	 *            the first date
+	 * @param to
+	 *            the last date, included
+	 * @return the number of services running in the range
+	 */
+	public int selectDateRange(ServiceDate from, ServiceDate to) {
+		int firstDay = getEpochDay(from);
+		int lastDay = getEpochDay(to);
+		int numOfRunning = 0;
+		for (int s = 0; s < services.size(); s++) {
+			if (countDates(s, firstDay, lastDay) > 0) {
+				weekdayMasks[s] = (byte) (1 << Weekday.Mon.ordinal());
+				numOfRunning++;
+			} else {
+				weekdayMasks[s] = 0;
+			}
+		}
+		return numOfRunning;
+	}
+
+	/**
+	 * @param s
+	 * @param firstDay
+	 *            epoch day of the first date
+	 * @param lastDay
+	 *            epoch day of the last date, included
+	 * @return the number of dates of the range the service runs on
+	 */
+	public int countDates(int s, int firstDay, int lastDay) {
+		int from = Math.max(firstDay - firstDayOfService[s], 0);
+		int to = lastDay - firstDayOfService[s] + 1;
+		if (to <= from) {
+			return 0;
+		}
+		return datesOfService[s].get(from, to).cardinality();
+	}
+
+	/**
+	 * @param s
+	 * @param monday
+	 *            epoch day of the Monday of the week
+	 * @return the days of the week the service runs on according to its
+	 *         dates, bit d for the Weekday of ordinal d
+	 */
+	public int getWeekdayMask(int s, int monday) {
+		int offset = monday - firstDayOfService[s];
+		int numOfDays = Weekday.values().length;
+		if (offset + numOfDays <= 0) {
+			return 0;
+		}
+		long[] words = datesOfService[s].get(Math.max(offset, 0),
+				offset + numOfDays).toLongArray();
+		if (words.length == 0) {
+			return 0;
+		}
+		return (int) (offset < 0 ? words[0] << -offset : words[0]);
+	}
+
+	/**
+	 * @return the week days the calendar runs on, bit d for the Weekday of
+	 *         ordinal d
+	 */
+	public static int getWeekdayMask(ServiceCalendar calendar) {
+		int mask = 0;
+		if (calendar.getMonday() != 0) {
+			mask |= 1 << Weekday.Mon.ordinal();
+		}
+		if (calendar.getTuesday() != 0) {
+			mask |= 1 << Weekday.Tue.ordinal();
+		}
+		if (calendar.getWednesday() != 0) {
+			mask |= 1 << Weekday.Wed.ordinal();
+		}
+		if (calendar.getThursday() != 0) {
+			mask |= 1 << Weekday.Thu.ordinal();
+		}
+		if (calendar.getFriday() != 0) {
+			mask |= 1 << Weekday.Fri.ordinal();
+		}
+		if (calendar.getSaturday() != 0) {
+			mask |= 1 << Weekday.Sat.ordinal();
+		}
+		if (calendar.getSunday() != 0) {
+			mask |= 1 << Weekday.Sun.ordinal();
+		}
+		return mask;
+	}
+
+	public static boolean hasWeekday(int weekdayMask, Weekday day) {
+		return (weekdayMask & (1 << day.ordinal())) != 0;
+	}
+
+	/**
+	 * @return the number of days since 1970-01-01
+	 */
+	public static int getEpochDay(ServiceDate date) {
+		// days from civil, with years starting in March so that the leap
+		// day is the last one of its year
+		int year = date.getYear();
+		int month = date.getMonth();
+		if (month <= 2) {
+			year--;
+		}
+		int era = (year >= 0 ? year : year - 399) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5
+				+ date.getDay() - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * @param epochDay
+	 *            number of days since 1970-01-01, a Thursday
+	 */
+	public static Weekday getWeekday(int epochDay) {
+		int ordinal = (epochDay + Weekday.Thu.ordinal()) % 7;
+		return Weekday.values()[ordinal < 0 ? ordinal + 7 : ordinal];
+	}
+
+	public int getNumOfServices() {
+		return services.size();
+	}
+
+	/**
+	 * @return the index of the service, or -1 if it has no calendar
+	 */
+	public int indexOf(AgencyAndId serviceId) {
+		return serviceIds.indexOf(serviceId);
+	}
+
+	/**
+	 * @return the calendar of the service, null if it is only given in
+	 *         calendar_dates.txt
+	 */
+	public ServiceCalendar getService(int s) {
+		return services.get(s);
+	}
+
+	public int getWeekdayMask(int s) {
+		return weekdayMasks[s];
+	}
+
+	public boolean runsOn(int s, Weekday day) {
+		return hasWeekday(weekdayMasks[s], day);
+	}
+
+	public boolean hasDates() {
+		return datesOfService != null;
+	}
+
+	/**
+	 * @param s
+	 * @param epochDay
+	 *            number of days since 1970-01-01
+	 * @return true if the service runs on that date, the dates must be
+	 *         indexed
+	 */
+	public boolean runsOn(int s, int epochDay) {
+		int offset = epochDay - firstDayOfService[s];
+		return offset >= 0 && datesOfService[s].get(offset);
+	}
+
+	public boolean runsOn(int s, ServiceDate date) {
+		return runsOn(s, getEpochDay(date));
+	}
+}
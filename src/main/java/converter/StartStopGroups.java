@@ -0,0 +1,118 @@
+package converter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * the trips of a route grouped by their starting stop. Members of a group keep
+ * the order of the time-sorted trip list, so isNextStrip() from a given trip
+ * accepts a suffix of each group, which firstAccepted() finds by binary
+ * search. The start and end stops of the trips are kept in a StopGeometry of
+ * the route, so linking trips does not allocate.
+ *
+ * @author linzhiqi
+ *
+ */
+class StartStopGroups {
+	final TripWithStopTimeList[] trips;
+	final int numOfGroups;
+	/** group of each trip */
+	final int[] groupOf;
+	/** position of each trip within its group */
+	final int[] slotOf;
+	/** trip list positions of the members of each group */
+	final int[][] members;
+	final int[][] startTimes;
+	/** the start and end stops of the trips */
+	final StopGeometry stops;
+	/** start stop of each group */
+	final int[] stopOfGroup;
+	/** end stop of each trip */
+	final int[] endStopOf;
+
+	/**
+	 * @param tripList
+	 *            trips of one route, sorted by start time
+	 */
+	StartStopGroups(List<TripWithStopTimeList> tripList) {
+		int n = tripList.size();
+		trips = tripList.toArray(new TripWithStopTimeList[n]);
+
+		stops = new StopGeometry();
+		int[] startStopOf = new int[n];
+		endStopOf = new int[n];
+		for (int i = 0; i < n; i++) {
+			startStopOf[i] = stops.add(trips[i].getFirstStop());
+			endStopOf[i] = stops.add(trips[i].getLastStop());
+		}
+
+		int[] groupOfStop = new int[stops.size()];
+		Arrays.fill(groupOfStop, -1);
+		int[] groupStops = new int[n];
+		int groups = 0;
+		groupOf = new int[n];
+		int[] groupSize = new int[n];
+		for (int i = 0; i < n; i++) {
+			int g = groupOfStop[startStopOf[i]];
+			if (g < 0) {
+				g = groups++;
+				groupOfStop[startStopOf[i]] = g;
+				groupStops[g] = startStopOf[i];
+			}
+			groupOf[i] = g;
+			groupSize[g]++;
+		}
+		numOfGroups = groups;
+		stopOfGroup = Arrays.copyOf(groupStops, numOfGroups);
+		members = new int[numOfGroups][];
+		startTimes = new int[numOfGroups][];
+		for (int g = 0; g < numOfGroups; g++) {
+			members[g] = new int[groupSize[g]];
+			startTimes[g] = new int[groupSize[g]];
+		}
+		slotOf = new int[n];
+		int[] filled = new int[numOfGroups];
+		for (int i = 0; i < n; i++) {
+			int g = groupOf[i];
+			int slot = filled[g]++;
+			members[g][slot] = i;
+			startTimes[g][slot] = trips[i].getStartTime();
+			slotOf[i] = slot;
+		}
+	}
+
+	int size() {
+		return trips.length;
+	}
+
+	/**
+	 * binary search for the first slot of group g whose trip comes after trip
+	 * i and is accepted by isNextStrip() as the next trip of trip i. Both
+	 * conditions are monotone along the group, so their conjunction is as
+	 * well. All trips of the group start at the same stop, so the distance
+	 * from the end of trip i is the same for all of them.
+	 *
+	 * @return the slot, or the size of the group if there is none
+	 */
+	int firstAccepted(int g, int i, double maxSpeed, double maxDistance,
+			int transportType) {
+		int[] groupMembers = members[g];
+		int[] groupStartTimes = startTimes[g];
+		int lastEndTime = trips[i].getEndTime();
+		double distance = stops.distance(endStopOf[i], stopOfGroup[g]);
+		int low = 0;
+		int high = groupMembers.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (groupMembers[mid] > i
+					&& Converter.isNextStrip(lastEndTime,
+							groupStartTimes[mid], distance, maxSpeed,
+							maxDistance, transportType)) {
+				high = mid;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return low;
+	}
+}
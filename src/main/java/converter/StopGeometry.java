@@ -0,0 +1,114 @@
+package converter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+import org.onebusaway.gtfs.model.Stop;
+
+import util.Coord;
+
+/**
+ * locations of stops in parallel x and y arrays, addressed by the dense index
+ * each stop gets when it is added. Distances and bound checks take stop
+ * indices, so they neither allocate nor look anything up. The x of a stop is
+ * its longitude and the y its latitude, like in the stopMap.
+ *
+ * @author linzhiqi
+ *
+ */
+public class StopGeometry {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private IdInterner<String> stopIds = new IdInterner<String>();
+	private double[] x;
+	private double[] y;
+
+	public StopGeometry() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public StopGeometry(int capacity) {
+		capacity = Math.max(capacity, 1);
+		x = new double[capacity];
+		y = new double[capacity];
+	}
+
+	/**
+	 * @param stops
+	 *            the stops to add, in this order
+	 */
+	public StopGeometry(Collection<Stop> stops) {
+		this(stops.size());
+		for (Stop stop : stops) {
+			add(stop);
+		}
+	}
+
+	/**
+	 * add a stop, a stop of an id added before takes the index of that one
+	 * and replaces its location
+	 *
+	 * @return index of the stop
+	 */
+	public int add(Stop stop) {
+		int s = stopIds.intern(stop.getId().getId());
+		if (s == x.length) {
+			x = Arrays.copyOf(x, s * 2);
+			y = Arrays.copyOf(y, s * 2);
+		}
+		x[s] = stop.getLon();
+		y[s] = stop.getLat();
+		return s;
+	}
+
+	public int size() {
+		return stopIds.size();
+	}
+
+	/**
+	 * @return the index of the stop, or -1 if it was never added
+	 */
+	public int indexOf(String stopId) {
+		return stopIds.indexOf(stopId);
+	}
+
+	public String getStopId(int s) {
+		return stopIds.getId(s);
+	}
+
+	public double getX(int s) {
+		return x[s];
+	}
+
+	public double getY(int s) {
+		return y[s];
+	}
+
+	/**
+	 * move all stops by dx and dy
+	 */
+	public void translate(double dx, double dy) {
+		for (int s = 0; s < size(); s++) {
+			x[s] += dx;
+			y[s] += dy;
+		}
+	}
+
+	public double distance(int s1, int s2) {
+		double dx = x[s1] - x[s2];
+		double dy = y[s1] - y[s2];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * @return stop id -> location of every stop, for output
+	 */
+	public HashMap<String, Coord> toStopMap() {
+		HashMap<String, Coord> stopMap = new HashMap<String, Coord>();
+		for (int s = 0; s < size(); s++) {
+			stopMap.put(stopIds.getId(s), new Coord(x[s], y[s]));
+		}
+		return stopMap;
+	}
+}
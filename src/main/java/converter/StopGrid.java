@@ -0,0 +1,135 @@
+package converter;
+
+import java.util.BitSet;
+
+import converter.BoundaryIndex.Coverage;
+
+/**
+ * a uniform grid over the stops of a StopGeometry. The stops of each cell are
+ * stored contiguously, together with the bounding box of their locations, so
+ * a query can accept or reject a whole cell from its box and only tests the
+ * stops of the cells crossed by the border of the region one by one.
+ *
+ * @author linzhiqi
+ *
+ */
+public class StopGrid {
+	/** stops per cell the grid is sized for */
+	private static final int STOPS_PER_CELL = 4;
+
+	private StopGeometry stops;
+	private int numOfCells;
+	/** first position of each cell in cellStops, plus the end */
+	private int[] cellStart;
+	/** stop indices, grouped by cell */
+	private int[] cellStops;
+	private double[] cellMinX;
+	private double[] cellMinY;
+	private double[] cellMaxX;
+	private double[] cellMaxY;
+
+	public StopGrid(StopGeometry stops) {
+		this.stops = stops;
+		int n = stops.size();
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int s = 0; s < n; s++) {
+			minX = Math.min(minX, stops.getX(s));
+			minY = Math.min(minY, stops.getY(s));
+			maxX = Math.max(maxX, stops.getX(s));
+			maxY = Math.max(maxY, stops.getY(s));
+		}
+		int side = Math.max(1, (int) Math.sqrt(n / STOPS_PER_CELL));
+		numOfCells = side * side;
+		double cellWidth = (maxX - minX) / side;
+		double cellHeight = (maxY - minY) / side;
+
+		// counting sort of the stops by cell
+		int[] cellOf = new int[n];
+		cellStart = new int[numOfCells + 1];
+		for (int s = 0; s < n; s++) {
+			int column = getSlot(stops.getX(s), minX, cellWidth, side);
+			int row = getSlot(stops.getY(s), minY, cellHeight, side);
+			cellOf[s] = row * side + column;
+			cellStart[cellOf[s] + 1]++;
+		}
+		for (int c = 0; c < numOfCells; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		cellStops = new int[n];
+		int[] next = new int[numOfCells];
+		System.arraycopy(cellStart, 0, next, 0, numOfCells);
+		for (int s = 0; s < n; s++) {
+			cellStops[next[cellOf[s]]++] = s;
+		}
+
+		// the boxes are made of the stops themselves, so a region deciding a
+		// whole box gives exactly the answer of testing its stops
+		cellMinX = new double[numOfCells];
+		cellMinY = new double[numOfCells];
+		cellMaxX = new double[numOfCells];
+		cellMaxY = new double[numOfCells];
+		for (int c = 0; c < numOfCells; c++) {
+			cellMinX[c] = Double.POSITIVE_INFINITY;
+			cellMinY[c] = Double.POSITIVE_INFINITY;
+			cellMaxX[c] = Double.NEGATIVE_INFINITY;
+			cellMaxY[c] = Double.NEGATIVE_INFINITY;
+			for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+				int s = cellStops[i];
+				cellMinX[c] = Math.min(cellMinX[c], stops.getX(s));
+				cellMinY[c] = Math.min(cellMinY[c], stops.getY(s));
+				cellMaxX[c] = Math.max(cellMaxX[c], stops.getX(s));
+				cellMaxY[c] = Math.max(cellMaxY[c], stops.getY(s));
+			}
+		}
+	}
+
+	private static int getSlot(double value, double min, double size, int side) {
+		if (!(size > 0)) {
+			return 0;
+		}
+		return Math.max(0, Math.min(side - 1, (int) ((value - min) / size)));
+	}
+
+	public StopGeometry getStops() {
+		return stops;
+	}
+
+	/**
+	 * @param boundaries
+	 *            a double array of length 4: [xmin][ymin][xmax][ymax]
+	 * @return the indices of the stops inside the boundaries, as decided by
+	 *         Converter.isCoordInBound()
+	 */
+	public BitSet selectInside(double[] boundaries) {
+		return selectInside(new RectangleRegion(boundaries));
+	}
+
+	/**
+	 * @param region
+	 * @return the indices of the stops the region contains
+	 */
+	public BitSet selectInside(Region region) {
+		BitSet inside = new BitSet(stops.size());
+		for (int c = 0; c < numOfCells; c++) {
+			if (cellStart[c] == cellStart[c + 1]) {
+				continue;
+			}
+			Coverage coverage = region.getCoverage(cellMinX[c], cellMinY[c],
+					cellMaxX[c], cellMaxY[c]);
+			if (coverage == Coverage.OUTSIDE) {
+				continue;
+			}
+			for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+				int s = cellStops[i];
+				if (coverage == Coverage.INSIDE
+						|| region.contains(stops.getX(s), stops.getY(s))) {
+					inside.set(s);
+				}
+			}
+		}
+		return inside;
+	}
+}
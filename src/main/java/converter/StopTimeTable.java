@@ -0,0 +1,181 @@
+package converter;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * column oriented storage of stop_times.txt. Each row is kept as five ints
+ * (trip index, stop index, arrival, departure and sequence) instead of a
+ * StopTime object, trips and stops are referred by their index in the trip
+ * and stop tables given at construction.
+ *
+ * @author linzhiqi
+ *
+ */
+public class StopTimeTable {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private List<Trip> trips;
+	private List<Stop> stops;
+
+	private int size;
+	private int[] tripIndex;
+	private int[] stopIndex;
+	private int[] arrivalTime;
+	private int[] departureTime;
+	private int[] stopSequence;
+
+	public StopTimeTable(List<Trip> trips, List<Stop> stops) {
+		this(trips, stops, INITIAL_CAPACITY);
+	}
+
+	public StopTimeTable(List<Trip> trips, List<Stop> stops, int capacity) {
+		this.trips = trips;
+		this.stops = stops;
+		capacity = Math.max(capacity, 1);
+		tripIndex = new int[capacity];
+		stopIndex = new int[capacity];
+		arrivalTime = new int[capacity];
+		departureTime = new int[capacity];
+		stopSequence = new int[capacity];
+	}
+
+	/**
+	 * append a row
+	 *
+	 * @return index of the new row
+	 */
+	public int add(int trip, int stop, int arrival, int departure,
+			int sequence) {
+		if (size == tripIndex.length) {
+			grow(size * 2);
+		}
+		tripIndex[size] = trip;
+		stopIndex[size] = stop;
+		arrivalTime[size] = arrival;
+		departureTime[size] = departure;
+		stopSequence[size] = sequence;
+		return size++;
+	}
+
+	/**
+	 * append all rows of another table over the same trips and stops
+	 */
+	public void addAll(StopTimeTable rows) {
+		if (size + rows.size > tripIndex.length) {
+			grow(Math.max(size + rows.size, size * 2));
+		}
+		System.arraycopy(rows.tripIndex, 0, tripIndex, size, rows.size);
+		System.arraycopy(rows.stopIndex, 0, stopIndex, size, rows.size);
+		System.arraycopy(rows.arrivalTime, 0, arrivalTime, size, rows.size);
+		System.arraycopy(rows.departureTime, 0, departureTime, size,
+				rows.size);
+		System.arraycopy(rows.stopSequence, 0, stopSequence, size, rows.size);
+		size += rows.size;
+	}
+
+	/**
+	 * remove all rows, the capacity is kept
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * release the unused capacity once loading is finished
+	 */
+	public void trimToSize() {
+		if (size < tripIndex.length) {
+			grow(size);
+		}
+	}
+
+	private void grow(int capacity) {
+		capacity = Math.max(capacity, 1);
+		tripIndex = Arrays.copyOf(tripIndex, capacity);
+		stopIndex = Arrays.copyOf(stopIndex, capacity);
+		arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+		departureTime = Arrays.copyOf(departureTime, capacity);
+		stopSequence = Arrays.copyOf(stopSequence, capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getTripIndex(int row) {
+		return tripIndex[row];
+	}
+
+	public int getStopIndex(int row) {
+		return stopIndex[row];
+	}
+
+	public int getArrivalTime(int row) {
+		return arrivalTime[row];
+	}
+
+	public int getDepartureTime(int row) {
+		return departureTime[row];
+	}
+
+	public int getStopSequence(int row) {
+		return stopSequence[row];
+	}
+
+	public int getNumOfTrips() {
+		return trips.size();
+	}
+
+	public Trip getTrip(int tripIndex) {
+		return trips.get(tripIndex);
+	}
+
+	public Stop getStop(int stopIndex) {
+		return stops.get(stopIndex);
+	}
+
+	public Trip getTripOfRow(int row) {
+		return trips.get(tripIndex[row]);
+	}
+
+	public Stop getStopOfRow(int row) {
+		return stops.get(stopIndex[row]);
+	}
+
+	/**
+	 * @param rows
+	 *            rows of a trip, sorted by stop sequence
+	 * @return the stop times of the rows, read from the table
+	 */
+	public StopTimes getStopTimes(int[] rows) {
+		return new TripRows(rows);
+	}
+
+	private class TripRows implements StopTimes {
+		private int[] rows;
+
+		TripRows(int[] rows) {
+			this.rows = rows;
+		}
+
+		public int size() {
+			return rows.length;
+		}
+
+		public Stop getStop(int i) {
+			return getStopOfRow(rows[i]);
+		}
+
+		public int getArrivalTime(int i) {
+			return arrivalTime[rows[i]];
+		}
+
+		public int getDepartureTime(int i) {
+			return departureTime[rows[i]];
+		}
+	}
+}
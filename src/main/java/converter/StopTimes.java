@@ -0,0 +1,22 @@
+package converter;
+
+import org.onebusaway.gtfs.model.Stop;
+
+/**
+ * the stop times of one trip, in stop sequence order. CompactStopTimes holds
+ * them in arrays of their own, StopTimeTable.getStopTimes() reads them from
+ * rows of a table.
+ *
+ * @author linzhiqi
+ *
+ */
+public interface StopTimes {
+
+	int size();
+
+	Stop getStop(int i);
+
+	int getArrivalTime(int i);
+
+	int getDepartureTime(int i);
+}
@@ -2,10 +2,14 @@ package converter;
 
 import java.util.ArrayList;
 
+import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
 
 /**
+ * a trip with its StopTimes. The stop times are shared by all week day
+ * instances of the trip, each instance only has its own time offset, which is
+ * added when the times are read.
  * 
  * @author linzhiqi
  * 
@@ -20,18 +24,44 @@ public class TripWithStopTimeList implements Comparable<TripWithStopTimeList> {
 	private Trip trip;
 	private int startTime;
 	private int endTime;
-	private ArrayList<StopTime> stopTimeList;
+	private StopTimes stopTimes;
+	private int timeOffset;
 	
 	public TripWithStopTimeList() {
 		
 	}
 
+	/**
+	 * @param trip
+	 * @param stopTimes
+	 *            stop times of the trip
+	 * @param timeOffset
+	 *            seconds added to every arrival and departure time
+	 */
+	public TripWithStopTimeList(Trip trip, StopTimes stopTimes,
+			int timeOffset) {
+		this.trip = trip;
+		this.stopTimes = stopTimes;
+		this.timeOffset = timeOffset;
+		this.startTime = stopTimes.getDepartureTime(0) + timeOffset;
+		this.endTime = stopTimes.getArrivalTime(stopTimes.size() - 1)
+				+ timeOffset;
+	}
+
+	/**
+	 * @param trip
+	 * @param startTime
+	 * @param endTime
+	 * @param stopTimeList
+	 *            stop times of the trip, sorted by stop sequence, copied into
+	 *            CompactStopTimes
+	 */
 	public TripWithStopTimeList(Trip trip, int startTime, int endTime,
 			ArrayList<StopTime> stopTimeList) {
 		this.trip = trip;
 		this.startTime = startTime;
 		this.endTime = endTime;
-		this.setStopTimeList(stopTimeList);
+		this.stopTimes = CompactStopTimes.create(stopTimeList);
 	}
 
 	public int compareTo(TripWithStopTimeList o) {
@@ -62,11 +92,44 @@ public class TripWithStopTimeList implements Comparable<TripWithStopTimeList> {
 		this.endTime = endTime;
 	}
 
-	public ArrayList<StopTime> getStopTimeList() {
-		return stopTimeList;
+	public StopTimes getStopTimes() {
+		return stopTimes;
+	}
+
+	public int getTimeOffset() {
+		return timeOffset;
+	}
+
+	/**
+	 * @param timeOffset
+	 *            seconds added to every arrival and departure time
+	 * @return another instance of the same trip, sharing its stop times
+	 */
+	public TripWithStopTimeList withTimeOffset(int timeOffset) {
+		return new TripWithStopTimeList(trip, stopTimes, timeOffset);
+	}
+
+	public int getNumOfStops() {
+		return stopTimes.size();
+	}
+
+	public Stop getStop(int i) {
+		return stopTimes.getStop(i);
+	}
+
+	public int getArrivalTime(int i) {
+		return stopTimes.getArrivalTime(i) + timeOffset;
+	}
+
+	public int getDepartureTime(int i) {
+		return stopTimes.getDepartureTime(i) + timeOffset;
+	}
+
+	public Stop getFirstStop() {
+		return getStop(0);
 	}
 
-	public void setStopTimeList(ArrayList<StopTime> stopTimeList) {
-		this.stopTimeList = stopTimeList;
+	public Stop getLastStop() {
+		return getStop(getNumOfStops() - 1);
 	}
 }
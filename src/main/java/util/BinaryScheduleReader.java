@@ -0,0 +1,301 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import movement.schedule.RouteSchedule;
+import movement.schedule.StopDataUnit;
+import movement.schedule.VehicleSchedule;
+
+/**
+ * maps a file written by BinaryScheduleWriter into memory. Routes and
+ * vehicles are read through flyweight views on the mapped buffers, nothing
+ * is copied or parsed until it is asked for. Files bigger than 2 GB are
+ * mapped in several segments, each holding whole routes.
+ *
+ * @author linzhiqi
+ *
+ */
+public class BinaryScheduleReader implements Closeable {
+	private RandomAccessFile file;
+	private int numOfRoutes;
+	private long[] routeOffsets;
+	private MappedByteBuffer[] segments;
+	private long[] segmentStarts;
+	private int[] segmentOfRoute;
+	private MappedByteBuffer stringTable;
+	private int stringBytesStart;
+	/** stop ids decoded so far */
+	private String[] strings;
+
+	public BinaryScheduleReader(File path) throws IOException {
+		this(path, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param path
+	 * @param maxSegmentSize
+	 *            the most bytes of routes mapped in one segment, smaller
+	 *            than 2 GB to test the segments on small files
+	 * @throws IOException
+	 */
+	BinaryScheduleReader(File path, long maxSegmentSize) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		FileChannel channel = file.getChannel();
+		MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+				0, BinaryScheduleWriter.HEADER_SIZE);
+		if (header.getInt(0) != BinaryScheduleWriter.MAGIC) {
+			file.close();
+			throw new IOException(path + " is not a binary schedule file");
+		}
+		if (header.getInt(4) != BinaryScheduleWriter.VERSION) {
+			file.close();
+			throw new IOException("unsupported version " + header.getInt(4)
+					+ " of " + path);
+		}
+		numOfRoutes = header.getInt(8);
+		int numOfStrings = header.getInt(12);
+		long stringTableOffset = header.getLong(16);
+		long routeIndexOffset = header.getLong(24);
+
+		stringTable = channel.map(FileChannel.MapMode.READ_ONLY,
+				stringTableOffset, routeIndexOffset - stringTableOffset);
+		stringBytesStart = 4 * (numOfStrings + 1);
+		strings = new String[numOfStrings];
+
+		routeOffsets = new long[numOfRoutes];
+		channel.map(FileChannel.MapMode.READ_ONLY, routeIndexOffset,
+				8L * numOfRoutes).asLongBuffer().get(routeOffsets);
+
+		// pack consecutive routes into segments of at most maxSegmentSize bytes
+		ArrayList<Long> starts = new ArrayList<Long>();
+		ArrayList<Long> ends = new ArrayList<Long>();
+		segmentOfRoute = new int[numOfRoutes];
+		for (int r = 0; r < numOfRoutes; r++) {
+			long end = r + 1 < numOfRoutes ? routeOffsets[r + 1]
+					: stringTableOffset;
+			if (end - routeOffsets[r] > Integer.MAX_VALUE) {
+				file.close();
+				throw new IOException("route " + r + " of " + path
+						+ " is bigger than 2 GB");
+			}
+			if (starts.isEmpty()
+					|| end - starts.get(starts.size() - 1) > maxSegmentSize) {
+				starts.add(routeOffsets[r]);
+				ends.add(end);
+			} else {
+				ends.set(ends.size() - 1, end);
+			}
+			segmentOfRoute[r] = starts.size() - 1;
+		}
+		segments = new MappedByteBuffer[starts.size()];
+		segmentStarts = new long[starts.size()];
+		for (int s = 0; s < segments.length; s++) {
+			segmentStarts[s] = starts.get(s);
+			segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+					starts.get(s), ends.get(s) - starts.get(s));
+		}
+	}
+
+	public int getNumOfRoutes() {
+		return numOfRoutes;
+	}
+
+	int getNumOfSegments() {
+		return segments.length;
+	}
+
+	public RouteView getRoute(int r) {
+		int s = segmentOfRoute[r];
+		return new RouteView(this, segments[s],
+				(int) (routeOffsets[r] - segmentStarts[s]));
+	}
+
+	public int getNumOfStrings() {
+		return strings.length;
+	}
+
+	public String getString(int id) {
+		String s = strings[id];
+		if (s == null) {
+			int start = stringTable.getInt(4 * id);
+			int end = stringTable.getInt(4 * (id + 1));
+			byte[] bytes = new byte[end - start];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = stringTable.get(stringBytesStart + start + i);
+			}
+			s = new String(bytes, BinaryScheduleWriter.UTF8);
+			strings[id] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * @return the routes as the objects ONE reads from schedules.json
+	 */
+	public ArrayList<RouteSchedule> readAll() {
+		ArrayList<RouteSchedule> routeSchedules = new ArrayList<RouteSchedule>(
+				numOfRoutes);
+		for (int r = 0; r < numOfRoutes; r++) {
+			routeSchedules.add(getRoute(r).toRouteSchedule());
+		}
+		return routeSchedules;
+	}
+
+	/**
+	 * the views stay readable until the reader is closed
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * a route of the file, see BinaryScheduleWriter for the layout
+	 */
+	public static class RouteView {
+		private BinaryScheduleReader reader;
+		private ByteBuffer buffer;
+		private int base;
+
+		RouteView(BinaryScheduleReader reader, ByteBuffer buffer, int base) {
+			this.reader = reader;
+			this.buffer = buffer;
+			this.base = base;
+		}
+
+		public int getRouteId() {
+			return buffer.getInt(base);
+		}
+
+		public int getLayerId() {
+			return buffer.getInt(base + 4);
+		}
+
+		public int getNumOfStops() {
+			return buffer.getInt(base + 8);
+		}
+
+		public int getStopIndex(int i) {
+			return buffer.getInt(base + 12 + 4 * i);
+		}
+
+		public String getStopId(int i) {
+			return reader.getString(getStopIndex(i));
+		}
+
+		private int getVehicleTable() {
+			return base + 12 + 4 * getNumOfStops();
+		}
+
+		public int getNumOfVehicles() {
+			return buffer.getInt(getVehicleTable());
+		}
+
+		public VehicleView getVehicle(int v) {
+			int offset = buffer.getInt(getVehicleTable() + 4 + 4 * v);
+			return new VehicleView(reader, buffer, base + offset);
+		}
+
+		public RouteSchedule toRouteSchedule() {
+			RouteSchedule route = new RouteSchedule();
+			route.route_id = getRouteId();
+			route.layer_id = getLayerId();
+			route.stops = new HashSet<String>();
+			for (int i = 0; i < getNumOfStops(); i++) {
+				route.stops.add(getStopId(i));
+			}
+			int numOfVehicles = getNumOfVehicles();
+			route.vehicles = new ArrayList<VehicleSchedule>(numOfVehicles);
+			for (int v = 0; v < numOfVehicles; v++) {
+				route.vehicles.add(getVehicle(v).toVehicleSchedule());
+			}
+			return route;
+		}
+	}
+
+	/**
+	 * a vehicle of a route. Stops are numbered within their trip, times are
+	 * in seconds.
+	 */
+	public static class VehicleView {
+		private BinaryScheduleReader reader;
+		private ByteBuffer buffer;
+		private int base;
+
+		VehicleView(BinaryScheduleReader reader, ByteBuffer buffer, int base) {
+			this.reader = reader;
+			this.buffer = buffer;
+			this.base = base;
+		}
+
+		public int getVehicleId() {
+			return buffer.getInt(base);
+		}
+
+		public int getNumOfTrips() {
+			return buffer.getInt(base + 4);
+		}
+
+		private int getFirstStop(int trip) {
+			return buffer.getInt(base + 8 + 4 * trip);
+		}
+
+		public int getNumOfStops(int trip) {
+			return getFirstStop(trip + 1) - getFirstStop(trip);
+		}
+
+		/**
+		 * @return where the stop column of the vehicle starts, the arrival
+		 *         and departure columns follow it
+		 */
+		private int getColumn(int column) {
+			int numOfTrips = getNumOfTrips();
+			int numOfStops = getFirstStop(numOfTrips);
+			return base + 8 + 4 * (numOfTrips + 1) + column * 4 * numOfStops;
+		}
+
+		public int getStopIndex(int trip, int i) {
+			return buffer.getInt(getColumn(0) + 4 * (getFirstStop(trip) + i));
+		}
+
+		public String getStopId(int trip, int i) {
+			return reader.getString(getStopIndex(trip, i));
+		}
+
+		public int getArrivalTime(int trip, int i) {
+			return buffer.getInt(getColumn(1) + 4 * (getFirstStop(trip) + i));
+		}
+
+		public int getDepartureTime(int trip, int i) {
+			return buffer.getInt(getColumn(2) + 4 * (getFirstStop(trip) + i));
+		}
+
+		public VehicleSchedule toVehicleSchedule() {
+			VehicleSchedule vehicle = new VehicleSchedule();
+			vehicle.vehicle_id = getVehicleId();
+			int numOfTrips = getNumOfTrips();
+			vehicle.trips = new ArrayList<ArrayList<StopDataUnit>>(numOfTrips);
+			for (int t = 0; t < numOfTrips; t++) {
+				int numOfStops = getNumOfStops(t);
+				ArrayList<StopDataUnit> trip = new ArrayList<StopDataUnit>(
+						numOfStops);
+				for (int i = 0; i < numOfStops; i++) {
+					StopDataUnit sdu = new StopDataUnit();
+					sdu.stop_id = getStopId(t, i);
+					sdu.arrT = getArrivalTime(t, i);
+					sdu.depT = getDepartureTime(t, i);
+					trip.add(sdu);
+				}
+				vehicle.trips.add(trip);
+			}
+			return vehicle;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import movement.schedule.RouteSchedule;
+import movement.schedule.StopDataUnit;
+import movement.schedule.VehicleSchedule;
+
+/**
+ * writes the schedules in a compact binary format which
+ * BinaryScheduleReader maps into memory. All numbers are big-endian.
+ *
+ * <pre>
+ * header:       int magic, int version, int numOfRoutes, int numOfStrings,
+ *               long stringTableOffset, long routeIndexOffset
+ * route:        int route_id, int layer_id, int numOfStops,
+ *               int[numOfStops] stop string ids,
+ *               int numOfVehicles, int[numOfVehicles] vehicle offsets
+ *               (relative to the route), vehicles
+ * vehicle:      int vehicle_id, int numOfTrips,
+ *               int[numOfTrips + 1] first stop of each trip,
+ *               int[n] stop string ids, int[n] arrT, int[n] depT
+ *               (n stops of all trips of the vehicle)
+ * string table: int[numOfStrings + 1] offsets of the UTF-8 bytes
+ *               (relative to the end of the offsets), UTF-8 bytes
+ * route index:  long[numOfRoutes] route offsets
+ * </pre>
+ *
+ * Routes are written as they come, the string table and the route index
+ * follow at the end and the header is filled in by close().
+ *
+ * @author linzhiqi
+ *
+ */
+public class BinaryScheduleWriter implements ScheduleWriter {
+	/** "ONES" */
+	public static final int MAGIC = 0x4F4E4553;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File file;
+	private DataOutputStream out;
+	private long position;
+	private HashMap<String, Integer> stringIds = new HashMap<String, Integer>();
+	private ArrayList<String> strings = new ArrayList<String>();
+	private long[] routeOffsets = new long[64];
+	private int numOfRoutes;
+
+	public BinaryScheduleWriter(File file) throws IOException {
+		this.file = file;
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		// filled in by close()
+		out.write(new byte[HEADER_SIZE]);
+		position = HEADER_SIZE;
+	}
+
+	public void writeRoute(RouteSchedule route) throws IOException {
+		if (numOfRoutes == routeOffsets.length) {
+			routeOffsets = Arrays.copyOf(routeOffsets, numOfRoutes * 2);
+		}
+		routeOffsets[numOfRoutes++] = position;
+
+		int numOfVehicles = route.vehicles.size();
+		long size = 16 + 4L * route.stops.size() + 4L * numOfVehicles;
+		int[] vehicleOffsets = new int[numOfVehicles];
+		for (int v = 0; v < numOfVehicles; v++) {
+			vehicleOffsets[v] = (int) size;
+			size += getSize(route.vehicles.get(v));
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("route " + route.route_id
+						+ " is too big for the binary format");
+			}
+		}
+
+		writeInt(route.route_id);
+		writeInt(route.layer_id);
+		writeInt(route.stops.size());
+		for (String stop : route.stops) {
+			writeInt(getStringId(stop));
+		}
+		writeInt(numOfVehicles);
+		for (int offset : vehicleOffsets) {
+			writeInt(offset);
+		}
+		for (VehicleSchedule vehicle : route.vehicles) {
+			writeVehicle(vehicle);
+		}
+	}
+
+	private static long getSize(VehicleSchedule vehicle) {
+		long numOfStops = 0;
+		for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+			numOfStops += trip.size();
+		}
+		return 8 + 4L * (vehicle.trips.size() + 1) + 12 * numOfStops;
+	}
+
+	private void writeVehicle(VehicleSchedule vehicle) throws IOException {
+		writeInt(vehicle.vehicle_id);
+		writeInt(vehicle.trips.size());
+		int firstStop = 0;
+		for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+			writeInt(firstStop);
+			firstStop += trip.size();
+		}
+		writeInt(firstStop);
+		for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+			for (StopDataUnit stop : trip) {
+				writeInt(getStringId(stop.stop_id));
+			}
+		}
+		for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+			for (StopDataUnit stop : trip) {
+				writeInt(toSeconds(stop.arrT));
+			}
+		}
+		for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+			for (StopDataUnit stop : trip) {
+				writeInt(toSeconds(stop.depT));
+			}
+		}
+	}
+
+	/**
+	 * times of gtfs are whole seconds, anything else would be lost
+	 */
+	private static int toSeconds(double time) {
+		int seconds = (int) time;
+		if (seconds != time) {
+			throw new IllegalArgumentException("time " + time
+					+ " is not a whole number of seconds");
+		}
+		return seconds;
+	}
+
+	private int getStringId(String s) {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = strings.size();
+			stringIds.put(s, id);
+			strings.add(s);
+		}
+		return id;
+	}
+
+	private void writeInt(int value) throws IOException {
+		out.writeInt(value);
+		position += 4;
+	}
+
+	public void close() throws IOException {
+		long stringTableOffset = position;
+		byte[][] encoded = new byte[strings.size()][];
+		int offset = 0;
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = strings.get(i).getBytes(UTF8);
+			writeInt(offset);
+			offset += encoded[i].length;
+		}
+		writeInt(offset);
+		for (byte[] bytes : encoded) {
+			out.write(bytes);
+			position += bytes.length;
+		}
+
+		long routeIndexOffset = position;
+		for (int r = 0; r < numOfRoutes; r++) {
+			out.writeLong(routeOffsets[r]);
+		}
+		out.close();
+
+		RandomAccessFile header = new RandomAccessFile(file, "rw");
+		try {
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(numOfRoutes);
+			header.writeInt(strings.size());
+			header.writeLong(stringTableOffset);
+			header.writeLong(routeIndexOffset);
+		} finally {
+			header.close();
+		}
+	}
+}
@@ -120,11 +120,14 @@ public class Coord implements Cloneable, Comparable<Coord>{
 	}
 
 	/**
-	 * Returns a hash code for this coordinate
-	 * (actually a hash of the String made of the coordinates)
+	 * Returns a hash code for this coordinate, made of the bits of the
+	 * coordinates without allocating anything. Adding 0.0 turns -0.0 into
+	 * 0.0, which equals() does not tell apart.
 	 */
 	public int hashCode() {
-		return (x+","+y).hashCode();
+		long bits = Double.doubleToLongBits(x + 0.0d) * 31
+				+ Double.doubleToLongBits(y + 0.0d);
+		return (int) (bits ^ (bits >>> 32));
 	}
 
 	/**
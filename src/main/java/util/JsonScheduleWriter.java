@@ -0,0 +1,81 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import movement.schedule.RouteSchedule;
+import movement.schedule.StopDataUnit;
+import movement.schedule.VehicleSchedule;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * streams schedules.json with a JsonGenerator. The output is the same as
+ * IOUtil.writeToJSONFile() on the list of all RouteSchedule objects, but
+ * only the route being written has to be in memory.
+ * 
+ * @author linzhiqi
+ * 
+ */
+public class JsonScheduleWriter implements ScheduleWriter {
+	private JsonGenerator generator;
+
+	/**
+	 * @param file
+	 * @param pretty
+	 *            false writes everything on one line
+	 * @throws IOException
+	 */
+	public JsonScheduleWriter(File file, boolean pretty) throws IOException {
+		generator = new JsonFactory().createJsonGenerator(file,
+				JsonEncoding.UTF8);
+		if (pretty) {
+			generator.useDefaultPrettyPrinter();
+		}
+		generator.writeStartArray();
+	}
+
+	public void writeRoute(RouteSchedule route) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("route_id", route.route_id);
+		generator.writeNumberField("layer_id", route.layer_id);
+		generator.writeArrayFieldStart("stops");
+		for (String stop : route.stops) {
+			generator.writeString(stop);
+		}
+		generator.writeEndArray();
+		generator.writeArrayFieldStart("vehicles");
+		for (VehicleSchedule vehicle : route.vehicles) {
+			writeVehicle(vehicle);
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	private void writeVehicle(VehicleSchedule vehicle) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("vehicle_id", vehicle.vehicle_id);
+		generator.writeArrayFieldStart("trips");
+		for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+			generator.writeStartArray();
+			for (StopDataUnit stop : trip) {
+				generator.writeStartObject();
+				generator.writeStringField("stop_id", stop.stop_id);
+				generator.writeNumberField("arrT", stop.arrT);
+				generator.writeNumberField("depT", stop.depT);
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	public void close() throws IOException {
+		generator.writeEndArray();
+		generator.close();
+	}
+}
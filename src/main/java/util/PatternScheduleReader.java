@@ -0,0 +1,483 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import movement.schedule.RouteSchedule;
+import movement.schedule.StopDataUnit;
+import movement.schedule.VehicleSchedule;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * reads a file written by PatternScheduleWriter. The file is parsed once
+ * into arrays: the patterns of each route and the times of each trip. The
+ * StopDataUnit objects of a trip are only made when its vehicle is turned
+ * into a VehicleSchedule, so a route can be rebuilt when it is needed and
+ * dropped afterwards. The trips of the frequency blocks of a vehicle are
+ * numbered with its other trips in the order of their start, and are only
+ * expanded when their times are asked for.
+ *
+ * @author linzhiqi
+ *
+ */
+public class PatternScheduleReader {
+	private ArrayList<RouteView> routes = new ArrayList<RouteView>();
+
+	public PatternScheduleReader(File path) throws IOException {
+		JsonParser parser = new JsonFactory().createJsonParser(path);
+		try {
+			expect(parser, parser.nextToken(), JsonToken.START_ARRAY);
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				routes.add(readRoute(parser));
+			}
+			expect(parser, parser.getCurrentToken(), JsonToken.END_ARRAY);
+		} finally {
+			parser.close();
+		}
+	}
+
+	public int getNumOfRoutes() {
+		return routes.size();
+	}
+
+	public RouteView getRoute(int r) {
+		return routes.get(r);
+	}
+
+	/**
+	 * @return the routes as the objects ONE reads from schedules.json
+	 */
+	public ArrayList<RouteSchedule> readAll() {
+		ArrayList<RouteSchedule> routeSchedules = new ArrayList<RouteSchedule>(
+				routes.size());
+		for (RouteView route : routes) {
+			routeSchedules.add(route.toRouteSchedule());
+		}
+		return routeSchedules;
+	}
+
+	private static RouteView readRoute(JsonParser parser) throws IOException {
+		RouteView route = new RouteView();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			if ("route_id".equals(field)) {
+				route.routeId = parser.getIntValue();
+			} else if ("layer_id".equals(field)) {
+				route.layerId = parser.getIntValue();
+			} else if ("stops".equals(field)) {
+				expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+				ArrayList<String> stops = new ArrayList<String>();
+				while (parser.nextToken() != JsonToken.END_ARRAY) {
+					stops.add(parser.getText());
+				}
+				route.stops = stops.toArray(new String[stops.size()]);
+			} else if ("patterns".equals(field)) {
+				expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+				ArrayList<int[]> patterns = new ArrayList<int[]>();
+				while (parser.nextToken() == JsonToken.START_ARRAY) {
+					patterns.add(readInts(parser));
+				}
+				route.patterns = patterns.toArray(new int[patterns.size()][]);
+			} else if ("vehicles".equals(field)) {
+				expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					route.vehicles.add(readVehicle(parser, route));
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return route;
+	}
+
+	private static VehicleView readVehicle(JsonParser parser, RouteView route)
+			throws IOException {
+		VehicleView vehicle = new VehicleView(route);
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			if ("vehicle_id".equals(field)) {
+				vehicle.vehicleId = parser.getIntValue();
+			} else if ("trips".equals(field)) {
+				expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					readTrip(parser, vehicle);
+				}
+			} else if ("frequencies".equals(field)) {
+				expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+				while (parser.nextToken() == JsonToken.START_OBJECT) {
+					vehicle.frequencies.add(readFrequency(parser, vehicle));
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+		vehicle.mergeTrips();
+		return vehicle;
+	}
+
+	private static FrequencyView readFrequency(JsonParser parser,
+			VehicleView vehicle) throws IOException {
+		FrequencyView frequency = new FrequencyView(vehicle.route);
+		int pattern = -1;
+		double end = Double.NaN;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			if ("pattern".equals(field)) {
+				pattern = parser.getIntValue();
+			} else if ("start".equals(field)) {
+				frequency.start = parser.getDoubleValue();
+			} else if ("end".equals(field)) {
+				end = parser.getDoubleValue();
+			} else if ("headway".equals(field)) {
+				frequency.headway = parser.getDoubleValue();
+			} else if ("arrT".equals(field)) {
+				frequency.arrivalOffsets = readDoubles(parser);
+			} else if ("depT".equals(field)) {
+				frequency.departureOffsets = readDoubles(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (pattern < 0 || pattern >= vehicle.route.patterns.length
+				|| frequency.arrivalOffsets == null
+				|| frequency.departureOffsets == null
+				|| frequency.arrivalOffsets.length != vehicle.route.patterns[pattern].length
+				|| frequency.departureOffsets.length != frequency.arrivalOffsets.length
+				|| !(frequency.headway > 0) || !(end >= frequency.start)) {
+			throw new JsonParseException("invalid frequency of vehicle "
+					+ vehicle.vehicleId + " of route " + vehicle.route.routeId,
+					parser.getCurrentLocation());
+		}
+		frequency.pattern = pattern;
+		frequency.numOfTrips = (int) Math.round((end - frequency.start)
+				/ frequency.headway) + 1;
+		return frequency;
+	}
+
+	private static void readTrip(JsonParser parser, VehicleView vehicle)
+			throws IOException {
+		int pattern = -1;
+		double[] arrivalTimes = null;
+		double[] departureTimes = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			parser.nextToken();
+			if ("pattern".equals(field)) {
+				pattern = parser.getIntValue();
+			} else if ("arrT".equals(field)) {
+				arrivalTimes = readDoubles(parser);
+			} else if ("depT".equals(field)) {
+				departureTimes = readDoubles(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (pattern < 0 || arrivalTimes == null || departureTimes == null
+				|| pattern >= vehicle.route.patterns.length
+				|| arrivalTimes.length != vehicle.route.patterns[pattern].length
+				|| departureTimes.length != arrivalTimes.length) {
+			throw new JsonParseException("invalid trip of vehicle "
+					+ vehicle.vehicleId + " of route " + vehicle.route.routeId,
+					parser.getCurrentLocation());
+		}
+		vehicle.patternOfTrips.add(pattern);
+		vehicle.arrivalTimes.add(arrivalTimes);
+		vehicle.departureTimes.add(departureTimes);
+	}
+
+	private static int[] readInts(JsonParser parser) throws IOException {
+		int[] values = new int[16];
+		int n = 0;
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			if (n == values.length) {
+				values = Arrays.copyOf(values, n * 2);
+			}
+			values[n++] = parser.getIntValue();
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	private static double[] readDoubles(JsonParser parser) throws IOException {
+		expect(parser, parser.getCurrentToken(), JsonToken.START_ARRAY);
+		double[] values = new double[16];
+		int n = 0;
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			if (n == values.length) {
+				values = Arrays.copyOf(values, n * 2);
+			}
+			values[n++] = parser.getDoubleValue();
+		}
+		return Arrays.copyOf(values, n);
+	}
+
+	private static void expect(JsonParser parser, JsonToken token,
+			JsonToken expected) throws JsonParseException {
+		if (token != expected) {
+			throw new JsonParseException("expected " + expected + " but got "
+					+ token, parser.getCurrentLocation());
+		}
+	}
+
+	/**
+	 * a route of the file, with its stops and patterns
+	 */
+	public static class RouteView {
+		private int routeId;
+		private int layerId;
+		private String[] stops = new String[0];
+		private int[][] patterns = new int[0][];
+		private ArrayList<VehicleView> vehicles = new ArrayList<VehicleView>();
+
+		public int getRouteId() {
+			return routeId;
+		}
+
+		public int getLayerId() {
+			return layerId;
+		}
+
+		public int getNumOfStops() {
+			return stops.length;
+		}
+
+		public String getStopId(int i) {
+			return stops[i];
+		}
+
+		public int getNumOfPatterns() {
+			return patterns.length;
+		}
+
+		public int getPatternLength(int pattern) {
+			return patterns[pattern].length;
+		}
+
+		/**
+		 * @return the index in the stops of the route of the i-th stop of
+		 *         the pattern
+		 */
+		public int getStopIndex(int pattern, int i) {
+			return patterns[pattern][i];
+		}
+
+		public int getNumOfVehicles() {
+			return vehicles.size();
+		}
+
+		public VehicleView getVehicle(int v) {
+			return vehicles.get(v);
+		}
+
+		public RouteSchedule toRouteSchedule() {
+			RouteSchedule route = new RouteSchedule();
+			route.route_id = routeId;
+			route.layer_id = layerId;
+			route.stops = new HashSet<String>();
+			for (String stop : stops) {
+				route.stops.add(stop);
+			}
+			route.vehicles = new ArrayList<VehicleSchedule>(vehicles.size());
+			for (VehicleView vehicle : vehicles) {
+				route.vehicles.add(vehicle.toVehicleSchedule());
+			}
+			return route;
+		}
+	}
+
+	/**
+	 * a vehicle of a route. Stops are numbered within their trip, times are
+	 * in seconds. The trips of its frequency blocks are numbered with the
+	 * others.
+	 */
+	public static class VehicleView {
+		private RouteView route;
+		private int vehicleId;
+		private ArrayList<Integer> patternOfTrips = new ArrayList<Integer>();
+		private ArrayList<double[]> arrivalTimes = new ArrayList<double[]>();
+		private ArrayList<double[]> departureTimes = new ArrayList<double[]>();
+		private ArrayList<FrequencyView> frequencies = new ArrayList<FrequencyView>();
+		/**
+		 * frequency block of each trip, -1 for the trips of "trips", and its
+		 * index in the block or in "trips"
+		 */
+		private int[] frequencyOfTrip;
+		private int[] indexOfTrip;
+
+		VehicleView(RouteView route) {
+			this.route = route;
+		}
+
+		/**
+		 * number the trips of "trips" and of the frequency blocks in the
+		 * order of their start
+		 */
+		private void mergeTrips() {
+			int numOfTrips = patternOfTrips.size();
+			for (FrequencyView frequency : frequencies) {
+				numOfTrips += frequency.numOfTrips;
+			}
+			frequencyOfTrip = new int[numOfTrips];
+			indexOfTrip = new int[numOfTrips];
+			// next trip of "trips" and of each block
+			int next = 0;
+			int[] nextOfFrequency = new int[frequencies.size()];
+			for (int t = 0; t < numOfTrips; t++) {
+				int source = -1;
+				double start = next < patternOfTrips.size() ? getStart(next)
+						: Double.POSITIVE_INFINITY;
+				for (int f = 0; f < frequencies.size(); f++) {
+					FrequencyView frequency = frequencies.get(f);
+					if (nextOfFrequency[f] < frequency.numOfTrips
+							&& frequency.getStartTime(nextOfFrequency[f]) < start) {
+						source = f;
+						start = frequency.getStartTime(nextOfFrequency[f]);
+					}
+				}
+				frequencyOfTrip[t] = source;
+				indexOfTrip[t] = source < 0 ? next++ : nextOfFrequency[source]++;
+			}
+		}
+
+		private double getStart(int trip) {
+			double[] times = arrivalTimes.get(trip);
+			return times.length > 0 ? times[0] : Double.NEGATIVE_INFINITY;
+		}
+
+		public int getVehicleId() {
+			return vehicleId;
+		}
+
+		public int getNumOfTrips() {
+			return frequencyOfTrip.length;
+		}
+
+		public int getNumOfFrequencies() {
+			return frequencies.size();
+		}
+
+		public FrequencyView getFrequency(int f) {
+			return frequencies.get(f);
+		}
+
+		public int getPattern(int trip) {
+			int f = frequencyOfTrip[trip];
+			return f < 0 ? patternOfTrips.get(indexOfTrip[trip]) : frequencies
+					.get(f).pattern;
+		}
+
+		public int getNumOfStops(int trip) {
+			return route.getPatternLength(getPattern(trip));
+		}
+
+		public String getStopId(int trip, int i) {
+			return route.getStopId(route.getStopIndex(getPattern(trip), i));
+		}
+
+		public double getArrivalTime(int trip, int i) {
+			int f = frequencyOfTrip[trip];
+			return f < 0 ? arrivalTimes.get(indexOfTrip[trip])[i] : frequencies
+					.get(f).getArrivalTime(indexOfTrip[trip], i);
+		}
+
+		public double getDepartureTime(int trip, int i) {
+			int f = frequencyOfTrip[trip];
+			return f < 0 ? departureTimes.get(indexOfTrip[trip])[i]
+					: frequencies.get(f).getDepartureTime(indexOfTrip[trip], i);
+		}
+
+		public VehicleSchedule toVehicleSchedule() {
+			VehicleSchedule vehicle = new VehicleSchedule();
+			vehicle.vehicle_id = vehicleId;
+			int numOfTrips = getNumOfTrips();
+			vehicle.trips = new ArrayList<ArrayList<StopDataUnit>>(numOfTrips);
+			for (int t = 0; t < numOfTrips; t++) {
+				int numOfStops = getNumOfStops(t);
+				ArrayList<StopDataUnit> trip = new ArrayList<StopDataUnit>(
+						numOfStops);
+				for (int i = 0; i < numOfStops; i++) {
+					StopDataUnit sdu = new StopDataUnit();
+					sdu.stop_id = getStopId(t, i);
+					sdu.arrT = getArrivalTime(t, i);
+					sdu.depT = getDepartureTime(t, i);
+					trip.add(sdu);
+				}
+				vehicle.trips.add(trip);
+			}
+			return vehicle;
+		}
+	}
+
+	/**
+	 * trips of a vehicle with the same pattern and run times at a constant
+	 * headway. The k-th trip starts at start + k * headway.
+	 */
+	public static class FrequencyView {
+		private RouteView route;
+		private int pattern;
+		private double start;
+		private double headway;
+		private int numOfTrips;
+		/** relative to the start of each trip */
+		private double[] arrivalOffsets;
+		private double[] departureOffsets;
+
+		FrequencyView(RouteView route) {
+			this.route = route;
+		}
+
+		public int getPattern() {
+			return pattern;
+		}
+
+		public double getHeadway() {
+			return headway;
+		}
+
+		public int getNumOfTrips() {
+			return numOfTrips;
+		}
+
+		public double getStartTime(int k) {
+			return start + k * headway;
+		}
+
+		public double getArrivalTime(int k, int i) {
+			return getStartTime(k) + arrivalOffsets[i];
+		}
+
+		public double getDepartureTime(int k, int i) {
+			return getStartTime(k) + departureOffsets[i];
+		}
+
+		/**
+		 * @return the trips of the block, as in a VehicleSchedule
+		 */
+		public ArrayList<ArrayList<StopDataUnit>> expand() {
+			ArrayList<ArrayList<StopDataUnit>> trips = new ArrayList<ArrayList<StopDataUnit>>(
+					numOfTrips);
+			for (int k = 0; k < numOfTrips; k++) {
+				ArrayList<StopDataUnit> trip = new ArrayList<StopDataUnit>(
+						arrivalOffsets.length);
+				for (int i = 0; i < arrivalOffsets.length; i++) {
+					StopDataUnit sdu = new StopDataUnit();
+					sdu.stop_id = route.getStopId(route.getStopIndex(pattern, i));
+					sdu.arrT = getArrivalTime(k, i);
+					sdu.depT = getDepartureTime(k, i);
+					trip.add(sdu);
+				}
+				trips.add(trip);
+			}
+			return trips;
+		}
+	}
+}
@@ -0,0 +1,416 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import movement.schedule.RouteSchedule;
+import movement.schedule.StopDataUnit;
+import movement.schedule.VehicleSchedule;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * writes the schedules as JSON with the stop sequences of each route stored
+ * once. The trips of a route mostly follow a few journey patterns, the same
+ * stops in the same order, so each distinct sequence is written once as the
+ * indices of its stops in the "stops" array of the route, and a trip only
+ * keeps the index of its pattern and its arrival and departure times:
+ *
+ * <pre>
+ * [{"route_id":0, "layer_id":0, "stops":["S1","S2","S3"],
+ *   "patterns":[[0,1,2],[2,1,0]],
+ *   "vehicles":[{"vehicle_id":0,
+ *                "trips":[{"pattern":0, "arrT":[...], "depT":[...]}, ...]}]}]
+ * </pre>
+ *
+ * With compressFrequencies, the trips of a vehicle that follow the same
+ * pattern with the same run times at a constant headway, as metro and tram
+ * lines do, are written once as a frequency block instead:
+ *
+ * <pre>
+ *   "frequencies":[{"pattern":0, "start":21600.0, "end":25200.0,
+ *                   "headway":1200.0, "arrT":[0.0,...], "depT":[30.0,...]}]
+ * </pre>
+ *
+ * where arrT and depT are relative to the start of each trip, and the trips
+ * start at start, start + headway, ... up to end included. A block takes
+ * MIN_TRIPS_PER_FREQUENCY trips at least, the other trips stay in "trips".
+ * The trips of a vehicle are in the order of their start, so the reader
+ * gets the order of the vehicle back by merging both.
+ *
+ * PatternScheduleReader reads it back into the RouteSchedule objects.
+ *
+ * @author linzhiqi
+ *
+ */
+public class PatternScheduleWriter implements ScheduleWriter {
+	/** the least number of trips written as a frequency block */
+	public static final int MIN_TRIPS_PER_FREQUENCY = 3;
+
+	private JsonGenerator generator;
+	private boolean compressFrequencies;
+	private long numOfTrips = 0;
+	private long numOfPatterns = 0;
+	private long numOfFrequencies = 0;
+	private long numOfTripsInFrequencies = 0;
+
+	/**
+	 * @param file
+	 * @param pretty
+	 *            false writes everything on one line
+	 * @throws IOException
+	 */
+	public PatternScheduleWriter(File file, boolean pretty)
+			throws IOException {
+		this(file, pretty, false);
+	}
+
+	/**
+	 * @param file
+	 * @param pretty
+	 * @param compressFrequencies
+	 *            true writes the trips at a constant headway as frequency
+	 *            blocks
+	 * @throws IOException
+	 */
+	public PatternScheduleWriter(File file, boolean pretty,
+			boolean compressFrequencies) throws IOException {
+		this.compressFrequencies = compressFrequencies;
+		generator = new JsonFactory().createJsonGenerator(file,
+				JsonEncoding.UTF8);
+		if (pretty) {
+			generator.useDefaultPrettyPrinter();
+		}
+		generator.writeStartArray();
+	}
+
+	public void writeRoute(RouteSchedule route) throws IOException {
+		// index of the stops in the "stops" array, stops of trips that are
+		// not in route.stops are added after them
+		ArrayList<String> stops = new ArrayList<String>(route.stops);
+		HashMap<String, Integer> stopIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < stops.size(); i++) {
+			stopIndex.put(stops.get(i), i);
+		}
+		ArrayList<int[]> patterns = new ArrayList<int[]>();
+		HashMap<Pattern, Integer> patternIds = new HashMap<Pattern, Integer>();
+		// pattern of each trip, vehicle by vehicle
+		ArrayList<int[]> patternOfTrips = new ArrayList<int[]>(
+				route.vehicles.size());
+		for (VehicleSchedule vehicle : route.vehicles) {
+			int[] patternOfTrip = new int[vehicle.trips.size()];
+			for (int t = 0; t < patternOfTrip.length; t++) {
+				ArrayList<StopDataUnit> trip = vehicle.trips.get(t);
+				int[] sequence = new int[trip.size()];
+				for (int i = 0; i < sequence.length; i++) {
+					String stop = trip.get(i).stop_id;
+					Integer index = stopIndex.get(stop);
+					if (index == null) {
+						index = stops.size();
+						stops.add(stop);
+						stopIndex.put(stop, index);
+					}
+					sequence[i] = index;
+				}
+				Pattern pattern = new Pattern(sequence);
+				Integer id = patternIds.get(pattern);
+				if (id == null) {
+					id = patterns.size();
+					patterns.add(sequence);
+					patternIds.put(pattern, id);
+				}
+				patternOfTrip[t] = id;
+			}
+			patternOfTrips.add(patternOfTrip);
+			numOfTrips += patternOfTrip.length;
+		}
+		numOfPatterns += patterns.size();
+
+		generator.writeStartObject();
+		generator.writeNumberField("route_id", route.route_id);
+		generator.writeNumberField("layer_id", route.layer_id);
+		generator.writeArrayFieldStart("stops");
+		for (String stop : stops) {
+			generator.writeString(stop);
+		}
+		generator.writeEndArray();
+		generator.writeArrayFieldStart("patterns");
+		for (int[] sequence : patterns) {
+			generator.writeStartArray();
+			for (int index : sequence) {
+				generator.writeNumber(index);
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+		generator.writeArrayFieldStart("vehicles");
+		for (int v = 0; v < route.vehicles.size(); v++) {
+			writeVehicle(route.vehicles.get(v), patternOfTrips.get(v));
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	private void writeVehicle(VehicleSchedule vehicle, int[] patternOfTrip)
+			throws IOException {
+		ArrayList<Frequency> frequencies = compressFrequencies ? findFrequencies(
+				vehicle, patternOfTrip) : new ArrayList<Frequency>();
+		boolean[] inFrequency = new boolean[patternOfTrip.length];
+		for (Frequency frequency : frequencies) {
+			for (int t : frequency.trips) {
+				inFrequency[t] = true;
+			}
+			numOfTripsInFrequencies += frequency.trips.size();
+		}
+		numOfFrequencies += frequencies.size();
+
+		generator.writeStartObject();
+		generator.writeNumberField("vehicle_id", vehicle.vehicle_id);
+		generator.writeArrayFieldStart("trips");
+		for (int t = 0; t < patternOfTrip.length; t++) {
+			if (inFrequency[t]) {
+				continue;
+			}
+			ArrayList<StopDataUnit> trip = vehicle.trips.get(t);
+			generator.writeStartObject();
+			generator.writeNumberField("pattern", patternOfTrip[t]);
+			generator.writeArrayFieldStart("arrT");
+			for (StopDataUnit stop : trip) {
+				generator.writeNumber(stop.arrT);
+			}
+			generator.writeEndArray();
+			generator.writeArrayFieldStart("depT");
+			for (StopDataUnit stop : trip) {
+				generator.writeNumber(stop.depT);
+			}
+			generator.writeEndArray();
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		if (!frequencies.isEmpty()) {
+			generator.writeArrayFieldStart("frequencies");
+			for (Frequency frequency : frequencies) {
+				writeFrequency(frequency);
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+	}
+
+	private void writeFrequency(Frequency frequency) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("pattern", frequency.profile.pattern);
+		generator.writeNumberField("start", frequency.start);
+		generator.writeNumberField("end", frequency.start
+				+ (frequency.trips.size() - 1) * frequency.headway);
+		generator.writeNumberField("headway", frequency.headway);
+		generator.writeArrayFieldStart("arrT");
+		for (double offset : frequency.profile.arrivalOffsets) {
+			generator.writeNumber(offset);
+		}
+		generator.writeEndArray();
+		generator.writeArrayFieldStart("depT");
+		for (double offset : frequency.profile.departureOffsets) {
+			generator.writeNumber(offset);
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	/**
+	 * @return the runs of trips of the vehicle with the same profile at a
+	 *         constant headway, none if the trips are not in the strict order
+	 *         of their start
+	 */
+	private static ArrayList<Frequency> findFrequencies(
+			VehicleSchedule vehicle, int[] patternOfTrip) {
+		ArrayList<Frequency> frequencies = new ArrayList<Frequency>();
+		int numOfTrips = patternOfTrip.length;
+		double[] start = new double[numOfTrips];
+		for (int t = 0; t < numOfTrips; t++) {
+			ArrayList<StopDataUnit> trip = vehicle.trips.get(t);
+			if (trip.isEmpty()) {
+				return frequencies;
+			}
+			start[t] = trip.get(0).arrT;
+			if (t > 0 && !(start[t] > start[t - 1])) {
+				return frequencies;
+			}
+		}
+		// the trips of each profile, in the order of their start
+		LinkedHashMap<Profile, ArrayList<Integer>> tripsOfProfile = new LinkedHashMap<Profile, ArrayList<Integer>>();
+		for (int t = 0; t < numOfTrips; t++) {
+			Profile profile = Profile.create(patternOfTrip[t],
+					vehicle.trips.get(t), start[t]);
+			if (profile == null) {
+				continue;
+			}
+			ArrayList<Integer> trips = tripsOfProfile.get(profile);
+			if (trips == null) {
+				trips = new ArrayList<Integer>();
+				tripsOfProfile.put(profile, trips);
+			}
+			trips.add(t);
+		}
+		for (Map.Entry<Profile, ArrayList<Integer>> entry : tripsOfProfile
+				.entrySet()) {
+			ArrayList<Integer> trips = entry.getValue();
+			int first = 0;
+			while (first + MIN_TRIPS_PER_FREQUENCY <= trips.size()) {
+				double firstStart = start[trips.get(first)];
+				double headway = start[trips.get(first + 1)] - firstStart;
+				// the reader computes the starts the same way
+				int last = first;
+				while (last + 1 < trips.size()
+						&& firstStart + (last + 1 - first) * headway == start[trips
+								.get(last + 1)]) {
+					last++;
+				}
+				if (last - first + 1 >= MIN_TRIPS_PER_FREQUENCY) {
+					frequencies.add(new Frequency(entry.getKey(), firstStart,
+							headway, new ArrayList<Integer>(trips.subList(
+									first, last + 1))));
+					first = last + 1;
+				} else {
+					first++;
+				}
+			}
+		}
+		return frequencies;
+	}
+
+	/**
+	 * @return the number of trips written so far
+	 */
+	public long getNumOfTrips() {
+		return numOfTrips;
+	}
+
+	/**
+	 * @return the number of patterns written so far, summed over the routes
+	 */
+	public long getNumOfPatterns() {
+		return numOfPatterns;
+	}
+
+	/**
+	 * @return the number of frequency blocks written so far
+	 */
+	public long getNumOfFrequencies() {
+		return numOfFrequencies;
+	}
+
+	/**
+	 * @return the number of trips written in frequency blocks so far
+	 */
+	public long getNumOfTripsInFrequencies() {
+		return numOfTripsInFrequencies;
+	}
+
+	public void close() throws IOException {
+		generator.writeEndArray();
+		generator.close();
+	}
+
+	/**
+	 * a stop sequence as the key of a hash map
+	 */
+	private static class Pattern {
+		private int[] sequence;
+		private int hash;
+
+		Pattern(int[] sequence) {
+			this.sequence = sequence;
+			this.hash = Arrays.hashCode(sequence);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Pattern && ((Pattern) o).hash == hash
+					&& Arrays.equals(((Pattern) o).sequence, sequence);
+		}
+	}
+
+	/**
+	 * the pattern of a trip and its times relative to its start
+	 */
+	private static class Profile {
+		private int pattern;
+		private double[] arrivalOffsets;
+		private double[] departureOffsets;
+		private int hash;
+
+		/**
+		 * @return null if a time of the trip is not its start plus its
+		 *         offset, which rounding may cause for times that are not
+		 *         whole seconds
+		 */
+		static Profile create(int pattern, ArrayList<StopDataUnit> trip,
+				double start) {
+			Profile profile = new Profile();
+			profile.pattern = pattern;
+			profile.arrivalOffsets = new double[trip.size()];
+			profile.departureOffsets = new double[trip.size()];
+			for (int i = 0; i < trip.size(); i++) {
+				StopDataUnit stop = trip.get(i);
+				profile.arrivalOffsets[i] = stop.arrT - start;
+				profile.departureOffsets[i] = stop.depT - start;
+				if (start + profile.arrivalOffsets[i] != stop.arrT
+						|| start + profile.departureOffsets[i] != stop.depT) {
+					return null;
+				}
+			}
+			profile.hash = 31
+					* (31 * pattern + Arrays.hashCode(profile.arrivalOffsets))
+					+ Arrays.hashCode(profile.departureOffsets);
+			return profile;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Profile)) {
+				return false;
+			}
+			Profile other = (Profile) o;
+			return other.hash == hash && other.pattern == pattern
+					&& Arrays.equals(other.arrivalOffsets, arrivalOffsets)
+					&& Arrays.equals(other.departureOffsets, departureOffsets);
+		}
+	}
+
+	/**
+	 * trips of a vehicle with the same profile at a constant headway
+	 */
+	private static class Frequency {
+		private Profile profile;
+		private double start;
+		private double headway;
+		/** indices of the trips in the vehicle */
+		private ArrayList<Integer> trips;
+
+		Frequency(Profile profile, double start, double headway,
+				ArrayList<Integer> trips) {
+			this.profile = profile;
+			this.start = start;
+			this.headway = headway;
+			this.trips = trips;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import movement.schedule.RouteSchedule;
+
+/**
+ * writes the schedules of the routes one route at a time, so a route can be
+ * released as soon as it is written
+ * 
+ * @author linzhiqi
+ * 
+ */
+public interface ScheduleWriter extends Closeable {
+
+	void writeRoute(RouteSchedule route) throws IOException;
+}
@@ -0,0 +1,441 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+
+import converter.Converter;
+
+/**
+ * writes a synthetic GTFS feed with about the given number of stop times, to
+ * a folder or to a ZIP file. Stops lie on a grid with Cartesian coordinates,
+ * like a feed converted by gtfs_stops_crs_converter. Every route walks over
+ * the grid and runs its trips back and forth on a set of services. By
+ * default every service runs on a single week day, which every version of
+ * the converter handles. With multiDay the services have mixed week day
+ * flags, as real feeds do, and need a converter that splits such services
+ * into one trip instance per day.
+ *
+ * Rows are written as they are generated. The trips of a route are
+ * generated from a random seeded by the route, so trips.txt and
+ * stop_times.txt are written in two passes producing the same trips, and
+ * only the stops and route patterns are kept in memory.
+ *
+ * @author linzhiqi
+ *
+ */
+public class SyntheticFeedGenerator {
+
+	public static final String AGENCY_ID = "synthetic";
+	/** stop times of a route, the number of routes grows with the feed */
+	public static final int STOP_TIMES_PER_ROUTE = 20000;
+	public static final int MIN_STOPS_PER_TRIP = 10;
+	public static final int MAX_STOPS_PER_TRIP = 40;
+	/** distance between neighbouring stops of the grid, in meters */
+	public static final double STOP_SPACING = 300;
+	/** time a vehicle stands at a stop, in seconds */
+	public static final int DWELL_TIME = 20;
+	/** service hours of a day, trips start between 5:00 and 24:00 */
+	private static final int FIRST_START = 5 * 3600;
+	private static final int SERVICE_SPAN = 19 * 3600;
+
+	// buses are the most common routes
+	private static final int[] ROUTE_TYPES = { Converter.BUS_TYPE,
+			Converter.TRAM_TYPE, Converter.BUS_TYPE, Converter.METRO_TYPE,
+			Converter.BUS_TYPE, Converter.RAIL_TYPE };
+	/** meters per second, indexed by route type */
+	private static final double[] SPEEDS = { 7, 15, 20, 8 };
+
+	/** services running on one week day each, in winter and in summer */
+	private static final String[] SINGLE_DAY_SERVICE_IDS = { "monday",
+			"tuesday", "wednesday", "thursday", "friday", "saturday",
+			"sunday", "monday_summer", "tuesday_summer", "wednesday_summer",
+			"thursday_summer", "friday_summer", "saturday_summer",
+			"sunday_summer" };
+	private static final String[] SINGLE_DAY_SERVICE_DAYS = {
+			"1,0,0,0,0,0,0", "0,1,0,0,0,0,0", "0,0,1,0,0,0,0",
+			"0,0,0,1,0,0,0", "0,0,0,0,1,0,0", "0,0,0,0,0,1,0",
+			"0,0,0,0,0,0,1", "1,0,0,0,0,0,0", "0,1,0,0,0,0,0",
+			"0,0,1,0,0,0,0", "0,0,0,1,0,0,0", "0,0,0,0,1,0,0",
+			"0,0,0,0,0,1,0", "0,0,0,0,0,0,1" };
+	private static final String[] SINGLE_DAY_SERVICE_PERIODS = {
+			"20150105,20150531", "20150105,20150531", "20150105,20150531",
+			"20150105,20150531", "20150105,20150531", "20150105,20150531",
+			"20150105,20150531", "20150601,20150831", "20150601,20150831",
+			"20150601,20150831", "20150601,20150831", "20150601,20150831",
+			"20150601,20150831", "20150601,20150831" };
+	private static final int[][] SINGLE_DAY_SERVICE_PROFILES = {
+			{ 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 },
+			{ 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 },
+			{ 0, 1, 2, 3, 4, 5, 6 }, { 0, 2, 4, 5, 6 },
+			{ 0, 1, 2, 3, 4, 5, 6 } };
+
+	private static final String[] MULTI_DAY_SERVICE_IDS = { "weekday",
+			"saturday", "sunday", "weekend", "daily", "mon_wed_fri",
+			"weekday_summer", "daily_summer" };
+	/** flags Monday to Sunday of each service */
+	private static final String[] MULTI_DAY_SERVICE_DAYS = { "1,1,1,1,1,0,0",
+			"0,0,0,0,0,1,0", "0,0,0,0,0,0,1", "0,0,0,0,0,1,1",
+			"1,1,1,1,1,1,1", "1,0,1,0,1,0,0", "1,1,1,1,1,0,0", "1,1,1,1,1,1,1" };
+	private static final String[] MULTI_DAY_SERVICE_PERIODS = {
+			"20150105,20150531", "20150105,20150531", "20150105,20150531",
+			"20150105,20150531", "20150105,20150531", "20150105,20150531",
+			"20150601,20150831", "20150601,20150831" };
+	/** the services a route may run on, as indexes of the service ids */
+	private static final int[][] MULTI_DAY_SERVICE_PROFILES = { { 0, 1, 2, 6 },
+			{ 4, 7 }, { 0, 3 }, { 5, 3 }, { 0, 1, 2 } };
+
+	private long seed;
+	private String[] serviceIds;
+	private String[] serviceDays;
+	private String[] servicePeriods;
+	private int[][] serviceProfiles;
+	private int numOfRoutes;
+	private int stopTimesPerRoute;
+	private int gridSize;
+	private double[] stopX;
+	private double[] stopY;
+	private int[][] patterns;
+
+	/**
+	 * a feed of single day services
+	 *
+	 * @param numOfStopTimes
+	 *            the number of stop times to aim at
+	 * @param seed
+	 */
+	public SyntheticFeedGenerator(long numOfStopTimes, long seed) {
+		this(numOfStopTimes, seed, false);
+	}
+
+	/**
+	 * @param numOfStopTimes
+	 * @param seed
+	 * @param multiDay
+	 *            true for services running on several week days
+	 */
+	public SyntheticFeedGenerator(long numOfStopTimes, long seed,
+			boolean multiDay) {
+		this.seed = seed;
+		if (multiDay) {
+			serviceIds = MULTI_DAY_SERVICE_IDS;
+			serviceDays = MULTI_DAY_SERVICE_DAYS;
+			servicePeriods = MULTI_DAY_SERVICE_PERIODS;
+			serviceProfiles = MULTI_DAY_SERVICE_PROFILES;
+		} else {
+			serviceIds = SINGLE_DAY_SERVICE_IDS;
+			serviceDays = SINGLE_DAY_SERVICE_DAYS;
+			servicePeriods = SINGLE_DAY_SERVICE_PERIODS;
+			serviceProfiles = SINGLE_DAY_SERVICE_PROFILES;
+		}
+		numOfRoutes = (int) Math.max(4,
+				(numOfStopTimes + STOP_TIMES_PER_ROUTE - 1)
+						/ STOP_TIMES_PER_ROUTE);
+		stopTimesPerRoute = (int) (numOfStopTimes / numOfRoutes);
+		gridSize = Math.max(4, (int) Math.ceil(Math.sqrt(numOfRoutes * 8.0)));
+
+		Random random = new Random(seed);
+		int numOfStops = gridSize * gridSize;
+		stopX = new double[numOfStops];
+		stopY = new double[numOfStops];
+		for (int i = 0; i < numOfStops; i++) {
+			stopX[i] = (i % gridSize) * STOP_SPACING
+					+ (random.nextDouble() - 0.5) * STOP_SPACING / 3;
+			stopY[i] = (i / gridSize) * STOP_SPACING
+					+ (random.nextDouble() - 0.5) * STOP_SPACING / 3;
+		}
+
+		patterns = new int[numOfRoutes][];
+		for (int r = 0; r < numOfRoutes; r++) {
+			patterns[r] = walk(random, MIN_STOPS_PER_TRIP
+					+ random.nextInt(MAX_STOPS_PER_TRIP - MIN_STOPS_PER_TRIP
+							+ 1));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		String usageStr = "usage: <-o output_folder|output.zip> [-n num_of_stop_times] [--seed N] [--multi-day]";
+		OptionParser parser = new OptionParser("o:n:h");
+		parser.accepts("seed").withRequiredArg();
+		parser.accepts("multi-day");
+		OptionSet options = parser.parse(args);
+		if (options.has("h") || !options.has("o")) {
+			System.out.print(usageStr);
+			System.exit(options.has("h") ? 0 : -1);
+		}
+		long numOfStopTimes = 1000000;
+		if (options.has("n")) {
+			numOfStopTimes = parseSize((String) options.valueOf("n"));
+		}
+		long seed = 0;
+		if (options.has("seed")) {
+			seed = Long.parseLong((String) options.valueOf("seed"));
+		}
+		SyntheticFeedGenerator generator = new SyntheticFeedGenerator(
+				numOfStopTimes, seed, options.has("multi-day"));
+		long written = generator.write(new File((String) options.valueOf("o")));
+		System.out.println(written + " stop times written.");
+	}
+
+	/**
+	 * @param size
+	 *            a number, optionally followed by k or M, e.g. 100M
+	 */
+	public static long parseSize(String size) {
+		long unit = 1;
+		if (size.endsWith("k") || size.endsWith("K")) {
+			unit = 1000;
+		} else if (size.endsWith("m") || size.endsWith("M")) {
+			unit = 1000000;
+		}
+		if (unit > 1) {
+			size = size.substring(0, size.length() - 1);
+		}
+		return Long.parseLong(size) * unit;
+	}
+
+	public int getNumOfRoutes() {
+		return numOfRoutes;
+	}
+
+	/**
+	 * @param output
+	 *            a folder, or a ZIP file if the name ends with .zip
+	 * @return the number of stop times written
+	 * @throws IOException
+	 */
+	public long write(File output) throws IOException {
+		FeedOutput out = new FeedOutput(output);
+		try {
+			writeAgency(out.openFile("agency.txt"));
+			out.closeFile();
+			writeCalendars(out.openFile("calendar.txt"));
+			out.closeFile();
+			writeStops(out.openFile("stops.txt"));
+			out.closeFile();
+			writeRoutes(out.openFile("routes.txt"));
+			out.closeFile();
+			writeTrips(out.openFile("trips.txt"), false);
+			out.closeFile();
+			long numOfStopTimes = writeTrips(out.openFile("stop_times.txt"),
+					true);
+			out.closeFile();
+			return numOfStopTimes;
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeAgency(Writer writer) throws IOException {
+		writer.append("agency_id,agency_name,agency_url,agency_timezone\n");
+		writer.append(AGENCY_ID
+				+ ",Synthetic Transit,http://example.com,Europe/Helsinki\n");
+	}
+
+	private void writeCalendars(Writer writer) throws IOException {
+		writer.append("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n");
+		for (int s = 0; s < serviceIds.length; s++) {
+			writer.append(serviceIds[s] + "," + serviceDays[s] + ","
+					+ servicePeriods[s] + "\n");
+		}
+	}
+
+	/**
+	 * stop_lat and stop_lon hold the Cartesian y and x
+	 */
+	private void writeStops(Writer writer) throws IOException {
+		writer.append("stop_id,stop_name,stop_lat,stop_lon\n");
+		for (int i = 0; i < stopX.length; i++) {
+			writer.append("s" + i + ",Stop " + i + "," + stopY[i] + ","
+					+ stopX[i] + "\n");
+		}
+	}
+
+	private void writeRoutes(Writer writer) throws IOException {
+		writer.append("route_id,agency_id,route_short_name,route_long_name,route_type\n");
+		for (int r = 0; r < numOfRoutes; r++) {
+			writer.append("r" + r + "," + AGENCY_ID + "," + r + ",Route " + r
+					+ "," + getRouteType(r) + "\n");
+		}
+	}
+
+	/**
+	 * generate the trips of every route and write either their trips.txt or
+	 * their stop_times.txt rows
+	 *
+	 * @return the number of stop times
+	 */
+	private long writeTrips(Writer writer, boolean stopTimes)
+			throws IOException {
+		if (stopTimes) {
+			writer.append("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+		} else {
+			writer.append("route_id,service_id,trip_id,direction_id\n");
+		}
+		StringBuilder row = new StringBuilder(64);
+		long numOfStopTimes = 0;
+		for (int r = 0; r < numOfRoutes; r++) {
+			Random random = new Random(seed * 31 + r);
+			int[] pattern = patterns[r];
+			int[] profile = serviceProfiles[random
+					.nextInt(serviceProfiles.length)];
+			double speed = SPEEDS[getRouteType(r)];
+			int numOfTrips = Math.max(1, stopTimesPerRoute / pattern.length);
+			int tripsPerService = (numOfTrips + profile.length - 1)
+					/ profile.length;
+			int headway = SERVICE_SPAN / tripsPerService;
+
+			for (int k = 0; k < numOfTrips; k++) {
+				String serviceId = serviceIds[profile[k % profile.length]];
+				int nthOfService = k / profile.length;
+				int direction = nthOfService % 2;
+				int time = FIRST_START + nthOfService * headway
+						+ random.nextInt(Math.max(1, headway / 4));
+				String tripId = "r" + r + "_" + k;
+				if (!stopTimes) {
+					writer.append("r" + r + "," + serviceId + "," + tripId
+							+ "," + direction + "\n");
+					continue;
+				}
+				int previous = -1;
+				for (int i = 0; i < pattern.length; i++) {
+					int stop = pattern[direction == 0 ? i : pattern.length - 1
+							- i];
+					if (previous >= 0) {
+						double dx = stopX[stop] - stopX[previous];
+						double dy = stopY[stop] - stopY[previous];
+						time += (int) (Math.sqrt(dx * dx + dy * dy) / speed)
+								+ random.nextInt(30);
+					}
+					row.setLength(0);
+					row.append(tripId).append(',');
+					appendTime(row, time);
+					row.append(',');
+					appendTime(row, time + DWELL_TIME);
+					row.append(",s").append(stop).append(',').append(i + 1)
+							.append('\n');
+					writer.append(row);
+					time += DWELL_TIME;
+					previous = stop;
+				}
+				numOfStopTimes += pattern.length;
+			}
+		}
+		return numOfStopTimes;
+	}
+
+	private int getRouteType(int r) {
+		return ROUTE_TYPES[r % ROUTE_TYPES.length];
+	}
+
+	/**
+	 * a walk over the grid which mostly goes straight and turns now and then
+	 */
+	private int[] walk(Random random, int length) {
+		int[] stops = new int[length];
+		int col = random.nextInt(gridSize);
+		int row = random.nextInt(gridSize);
+		int direction = random.nextInt(4);
+		for (int i = 0; i < length; i++) {
+			stops[i] = row * gridSize + col;
+			if (random.nextInt(10) < 3) {
+				direction = (direction + (random.nextBoolean() ? 1 : 3)) % 4;
+			}
+			// turn back at the edge of the grid
+			int nextCol = col + (direction == 0 ? 1 : direction == 2 ? -1 : 0);
+			int nextRow = row + (direction == 1 ? 1 : direction == 3 ? -1 : 0);
+			if (nextCol < 0 || nextCol >= gridSize || nextRow < 0
+					|| nextRow >= gridSize) {
+				direction = (direction + 2) % 4;
+				nextCol = col + (direction == 0 ? 1 : direction == 2 ? -1 : 0);
+				nextRow = row + (direction == 1 ? 1 : direction == 3 ? -1 : 0);
+			}
+			col = nextCol;
+			row = nextRow;
+		}
+		return stops;
+	}
+
+	/**
+	 * HH:MM:SS, hours go beyond 24 for trips running past midnight
+	 */
+	private static void appendTime(StringBuilder sb, int seconds) {
+		int hours = seconds / 3600;
+		int minutes = seconds / 60 % 60;
+		seconds = seconds % 60;
+		if (hours < 10) {
+			sb.append('0');
+		}
+		sb.append(hours).append(':');
+		if (minutes < 10) {
+			sb.append('0');
+		}
+		sb.append(minutes).append(':');
+		if (seconds < 10) {
+			sb.append('0');
+		}
+		sb.append(seconds);
+	}
+
+	/**
+	 * the files of the feed, one after another, in a folder or in a ZIP file
+	 */
+	private static class FeedOutput {
+		private File folder;
+		private ZipOutputStream zip;
+		private Writer writer;
+
+		FeedOutput(File output) throws IOException {
+			if (output.getName().toLowerCase().endsWith(".zip")) {
+				zip = new ZipOutputStream(new FileOutputStream(output));
+			} else {
+				folder = output;
+				if (!folder.isDirectory() && !folder.mkdirs()) {
+					throw new IOException("can not create folder " + folder);
+				}
+			}
+		}
+
+		Writer openFile(String name) throws IOException {
+			if (zip != null) {
+				zip.putNextEntry(new ZipEntry(name));
+				writer = new BufferedWriter(new OutputStreamWriter(zip,
+						"UTF-8"), 1 << 16);
+			} else {
+				writer = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(new File(folder, name)), "UTF-8"),
+						1 << 16);
+			}
+			return writer;
+		}
+
+		void closeFile() throws IOException {
+			if (zip != null) {
+				// closing the writer would close the whole ZIP file
+				writer.flush();
+				zip.closeEntry();
+			} else {
+				writer.close();
+			}
+			writer = null;
+		}
+
+		void close() throws IOException {
+			if (writer != null && zip == null) {
+				writer.close();
+			}
+			if (zip != null) {
+				zip.close();
+			}
+		}
+	}
+}
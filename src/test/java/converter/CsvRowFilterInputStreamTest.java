@@ -0,0 +1,94 @@
+package converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class CsvRowFilterInputStreamTest extends TestCase {
+
+	/**
+	 * keeps the rows of route R1
+	 */
+	private static class RouteFilter extends CsvRowFilterInputStream {
+		private int routeCol;
+
+		RouteFilter(String csv) throws IOException {
+			super(new ByteArrayInputStream(csv.getBytes("UTF-8")));
+		}
+
+		protected void readHeader(List<String> header) throws IOException {
+			routeCol = getColumn(header, "route_id");
+		}
+
+		protected boolean accept(String line) {
+			return getValue(line, routeCol).equals("R1");
+		}
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		Reader reader = new InputStreamReader(in, "UTF-8");
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[7];
+		int n;
+		while ((n = reader.read(buffer)) != -1) {
+			text.append(buffer, 0, n);
+		}
+		reader.close();
+		return text.toString();
+	}
+
+	@Test
+	public void testFilter() throws IOException {
+		RouteFilter filter = new RouteFilter("trip_id,route_id,trip_headsign\n"
+				+ "T1,R1,Kamppi\n" + "T2,R2,Pasila\n" + "\n"
+				+ "T3, R1 ,Kamppi\r\n" + "T4,R11,Kamppi\n" + "T5,R1");
+		assertEquals("trip_id,route_id,trip_headsign\n" + "T1,R1,Kamppi\n"
+				+ "\n" + "T3, R1 ,Kamppi\n" + "T5,R1\n", readAll(filter));
+		assertEquals(2, filter.getNumOfSkipped());
+	}
+
+	@Test
+	public void testQuotedLine() throws IOException {
+		// the commas in quotes do not split the values
+		RouteFilter filter = new RouteFilter("trip_id,trip_headsign,route_id\n"
+				+ "T1,\"Kamppi, R2\",R1\n" + "T2,\"Pasila, R1\",R2\n"
+				+ "\"T3\",\"\",\"R1\"\n");
+		assertEquals("trip_id,trip_headsign,route_id\n"
+				+ "T1,\"Kamppi, R2\",R1\n" + "\"T3\",\"\",\"R1\"\n",
+				readAll(filter));
+		assertEquals(1, filter.getNumOfSkipped());
+	}
+
+	@Test
+	public void testBom() throws IOException {
+		// the header is passed on as it is, with its byte order mark
+		RouteFilter filter = new RouteFilter("\uFEFFroute_id,trip_id\n"
+				+ "R2,T1\n" + "R1,T2\n");
+		assertEquals("\uFEFFroute_id,trip_id\n" + "R1,T2\n", readAll(filter));
+		assertEquals(1, filter.getNumOfSkipped());
+	}
+
+	@Test
+	public void testMissingColumn() throws IOException {
+		RouteFilter filter = new RouteFilter("trip_id,service_id\n"
+				+ "T1,WK\n");
+		try {
+			readAll(filter);
+			fail("a missing column must be reported");
+		} catch (IOException e) {
+			assertEquals("column route_id is missing", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		assertEquals("", readAll(new RouteFilter("")));
+	}
+}
@@ -0,0 +1,178 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+public class DateRangeExpanderTest extends TestCase {
+
+	private List<Stop> stops = new ArrayList<Stop>();
+	private ServiceCalendarIndex calendars;
+	private List<TripWithStopTimeList> prototypes = new ArrayList<TripWithStopTimeList>();
+
+	@Override
+	protected void setUp() {
+		for (int i = 0; i < 2; i++) {
+			Stop stop = new Stop();
+			stop.setId(new AgencyAndId("HSL", "S" + i));
+			stops.add(stop);
+		}
+
+		ArrayList<ServiceCalendar> calendarList = new ArrayList<ServiceCalendar>();
+		calendarList.add(calendar("WK", true));
+		calendarList.add(calendar("SA", false));
+		ArrayList<ServiceCalendarDate> calendarDates = new ArrayList<ServiceCalendarDate>();
+		// WK does not run on Tuesday 2015-06-09, X only on Monday 2015-06-08
+		calendarDates.add(date("WK", new ServiceDate(2015, 6, 9),
+				ServiceCalendarDate.EXCEPTION_TYPE_REMOVE));
+		calendarDates.add(date("X", new ServiceDate(2015, 6, 8),
+				ServiceCalendarDate.EXCEPTION_TYPE_ADD));
+		calendars = new ServiceCalendarIndex(
+				Converter.getCalendarMap(calendarList), calendarDates);
+
+		// sorted by start time, as the trips of a route are
+		prototypes.add(trip("T1", "WK", 6 * 3600, 6 * 3600 + 1800));
+		prototypes.add(trip("T6", "WK", 6 * 3600, 6 * 3600 + 900));
+		prototypes.add(trip("T2", "SA", 7 * 3600, 8 * 3600));
+		prototypes.add(trip("T4", "X", 10 * 3600, 11 * 3600));
+		prototypes.add(trip("T5", "NONE", 12 * 3600, 13 * 3600));
+		prototypes.add(trip("T3", "WK", 23 * 3600 + 3000, 24 * 3600 + 1200));
+		prototypes.add(trip("T7", "WK", 30 * 3600, 31 * 3600));
+	}
+
+	/**
+	 * Monday to Friday or Saturday of June 2015
+	 */
+	private static ServiceCalendar calendar(String id, boolean weekdays) {
+		ServiceCalendar calendar = new ServiceCalendar();
+		calendar.setServiceId(new AgencyAndId("HSL", id));
+		int weekday = weekdays ? 1 : 0;
+		calendar.setMonday(weekday);
+		calendar.setTuesday(weekday);
+		calendar.setWednesday(weekday);
+		calendar.setThursday(weekday);
+		calendar.setFriday(weekday);
+		calendar.setSaturday(1 - weekday);
+		calendar.setStartDate(new ServiceDate(2015, 6, 1));
+		calendar.setEndDate(new ServiceDate(2015, 6, 30));
+		return calendar;
+	}
+
+	private static ServiceCalendarDate date(String id, ServiceDate date,
+			int exceptionType) {
+		ServiceCalendarDate calendarDate = new ServiceCalendarDate();
+		calendarDate.setServiceId(new AgencyAndId("HSL", id));
+		calendarDate.setDate(date);
+		calendarDate.setExceptionType(exceptionType);
+		return calendarDate;
+	}
+
+	private TripWithStopTimeList trip(String id, String serviceId, int start,
+			int end) {
+		Trip trip = new Trip();
+		trip.setId(new AgencyAndId("HSL", id));
+		trip.setServiceId(new AgencyAndId("HSL", serviceId));
+		CompactStopTimes stopTimes = new CompactStopTimes(stops, new int[] {
+				0, 1 }, new int[] { start - 30, end }, new int[] { start,
+				end + 30 });
+		return new TripWithStopTimeList(trip, stopTimes, 0);
+	}
+
+	private TripWithStopTimeList prototype(String id) {
+		for (TripWithStopTimeList trip : prototypes) {
+			if (trip.getTrip().getId().getId().equals(id)) {
+				return trip;
+			}
+		}
+		throw new IllegalArgumentException(id);
+	}
+
+	@Test
+	public void testExpand() {
+		// Friday 2015-06-05 to Tuesday 2015-06-09
+		DateRangeExpander expander = new DateRangeExpander(calendars,
+				new ServiceDate(2015, 6, 5), new ServiceDate(2015, 6, 9));
+		assertEquals(5, expander.getNumOfDays());
+
+		List<TripWithStopTimeList> instances = expander.expand(prototypes);
+		// trip id and day of each instance, by start time. T7 of Friday
+		// starts after midnight, between T3 of Friday and T2 of Saturday.
+		// T6 starts with T1 and comes after it.
+		List<String> expected = Arrays.asList("T1/0", "T6/0", "T3/0", "T7/0",
+				"T2/1", "T1/3", "T6/3", "T4/3", "T3/3", "T7/3");
+		List<String> actual = new ArrayList<String>();
+		for (TripWithStopTimeList instance : instances) {
+			actual.add(instance.getTrip().getId().getId() + "/"
+					+ instance.getTimeOffset() / 86400);
+		}
+		assertEquals(expected, actual);
+		assertEquals(instances.size(), expander.countInstances(prototypes));
+
+		for (int i = 0; i < instances.size(); i++) {
+			TripWithStopTimeList instance = instances.get(i);
+			TripWithStopTimeList prototype = prototype(instance.getTrip()
+					.getId().getId());
+			int offset = instance.getTimeOffset();
+			assertEquals(0, offset % 86400);
+			assertSame(prototype.getStopTimes(), instance.getStopTimes());
+			assertEquals(prototype.getStartTime() + offset,
+					instance.getStartTime());
+			assertEquals(prototype.getEndTime() + offset,
+					instance.getEndTime());
+			for (int s = 0; s < instance.getNumOfStops(); s++) {
+				assertSame(prototype.getStop(s), instance.getStop(s));
+				assertEquals(prototype.getArrivalTime(s) + offset,
+						instance.getArrivalTime(s));
+				assertEquals(prototype.getDepartureTime(s) + offset,
+						instance.getDepartureTime(s));
+			}
+			if (i > 0) {
+				assertTrue(instances.get(i - 1).getStartTime() <= instance
+						.getStartTime());
+			}
+		}
+		// the prototypes are left at offset 0
+		for (TripWithStopTimeList prototype : prototypes) {
+			assertEquals(0, prototype.getTimeOffset());
+		}
+	}
+
+	@Test
+	public void testRoute() {
+		RouteWithTripList route = new RouteWithTripList(new Route(),
+				prototypes, new HashSet<String>());
+		assertSame(prototypes, route.getTripInstances());
+		assertEquals(prototypes.size(), route.getNumOfTripInstances());
+
+		// a single Saturday
+		route.setExpander(new DateRangeExpander(calendars, new ServiceDate(
+				2015, 6, 6), new ServiceDate(2015, 6, 6)));
+		List<TripWithStopTimeList> instances = route.getTripInstances();
+		assertEquals(1, instances.size());
+		assertEquals("T2", instances.get(0).getTrip().getId().getId());
+		assertEquals(0, instances.get(0).getTimeOffset());
+		assertEquals(1, route.getNumOfTripInstances());
+	}
+
+	@Test
+	public void testNoDates() {
+		// before the calendars
+		DateRangeExpander expander = new DateRangeExpander(calendars,
+				new ServiceDate(2015, 5, 1), new ServiceDate(2015, 5, 31));
+		assertEquals(31, expander.getNumOfDays());
+		assertTrue(expander.expand(prototypes).isEmpty());
+		assertEquals(0, expander.countInstances(prototypes));
+	}
+}
@@ -0,0 +1,123 @@
+package converter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.onebusaway.gtfs.model.Route;
+
+/**
+ * writes GTFS files into temporary folders for the loader tests and compares
+ * the loaded routes field by field
+ *
+ * @author linzhiqi
+ *
+ */
+class FeedFixture {
+
+	/**
+	 * @return a new empty folder in the temporary folder
+	 */
+	static File createFolder() throws IOException {
+		File folder = File.createTempFile("feed", "");
+		folder.delete();
+		folder.mkdirs();
+		return folder;
+	}
+
+	/**
+	 * deletes the folder with the files and folders in it
+	 */
+	static void delete(File folder) {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				delete(file);
+			}
+		}
+		folder.delete();
+	}
+
+	/**
+	 * writes the content in UTF-8
+	 */
+	static void write(File folder, String name, String content)
+			throws IOException {
+		OutputStream out = new FileOutputStream(new File(folder, name));
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	static void writeAgency(File folder) throws IOException {
+		write(folder, "agency.txt",
+				"agency_id,agency_name,agency_url,agency_timezone\n"
+						+ "HSL,HSL,http://x,Europe/Helsinki\n");
+	}
+
+	/**
+	 * @return H:MM:SS, with one digit hours before 10 as some feeds have
+	 */
+	static String time(int seconds) {
+		return (seconds / 3600) + ":" + two(seconds / 60 % 60) + ":"
+				+ two(seconds % 60);
+	}
+
+	private static String two(int value) {
+		return (value < 10 ? "0" : "") + value;
+	}
+
+	/**
+	 * @return the int ids by the ids of the routes, as the Route objects of
+	 *         two loads are not equal
+	 */
+	static Map<String, Integer> toIdMap(HashMap<Route, Integer> route2IntIdMap) {
+		HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		for (Map.Entry<Route, Integer> entry : route2IntIdMap.entrySet()) {
+			ids.put(entry.getKey().getId().getId(), entry.getValue());
+		}
+		return ids;
+	}
+
+	static void assertSameRoute(RouteWithTripList expected,
+			RouteWithTripList actual) {
+		Assert.assertNotNull(expected);
+		Assert.assertEquals(expected.getRoute().getId(), actual.getRoute()
+				.getId());
+		Assert.assertEquals(expected.getRoute().getType(), actual.getRoute()
+				.getType());
+		Assert.assertEquals(expected.getStopList(), actual.getStopList());
+		Assert.assertEquals(expected.getNumOfTripInstances(),
+				actual.getNumOfTripInstances());
+		List<TripWithStopTimeList> expectedTrips = expected.getTripInstances();
+		List<TripWithStopTimeList> actualTrips = actual.getTripInstances();
+		Assert.assertEquals(expectedTrips.size(), actualTrips.size());
+		for (int t = 0; t < expectedTrips.size(); t++) {
+			assertSameTrip(expectedTrips.get(t), actualTrips.get(t));
+		}
+	}
+
+	static void assertSameTrip(TripWithStopTimeList expected,
+			TripWithStopTimeList actual) {
+		Assert.assertEquals(expected.getTrip().getId(), actual.getTrip()
+				.getId());
+		Assert.assertEquals(expected.getStartTime(), actual.getStartTime());
+		Assert.assertEquals(expected.getEndTime(), actual.getEndTime());
+		Assert.assertEquals(expected.getNumOfStops(), actual.getNumOfStops());
+		for (int i = 0; i < expected.getNumOfStops(); i++) {
+			Assert.assertEquals(expected.getStop(i).getId(), actual.getStop(i)
+					.getId());
+			Assert.assertEquals(expected.getArrivalTime(i),
+					actual.getArrivalTime(i));
+			Assert.assertEquals(expected.getDepartureTime(i),
+					actual.getDepartureTime(i));
+		}
+	}
+}
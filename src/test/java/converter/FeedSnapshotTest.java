@@ -0,0 +1,99 @@
+package converter;
+
+import static converter.FeedFixture.assertSameRoute;
+import static converter.FeedFixture.createFolder;
+import static converter.FeedFixture.delete;
+import static converter.FeedFixture.toIdMap;
+import static converter.FeedFixture.write;
+import static converter.FeedFixture.writeAgency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class FeedSnapshotTest extends TestCase {
+
+	private File folder;
+
+	@Override
+	protected void setUp() throws IOException {
+		folder = createFolder();
+		writeAgency(folder);
+		write(folder, "calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+						+ "WK,1,1,1,1,1,0,0,20150101,20151231\n"
+						+ "SU,0,0,0,0,0,0,1,20150101,20151231\n");
+		write(folder, "stops.txt", "stop_id,stop_name,stop_lat,stop_lon\n"
+				+ "S0,Stop 0,1.0,1.0\n" + "S1,Stop 1,1201.0,1.0\n"
+				+ "S2,Stop 2,2401.0,1.0\n" + "S3,Stop 3,1.0,1201.0\n");
+		// R3 has no trips and R4 is a ferry
+		write(folder, "routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type\n"
+						+ "R1,HSL,1,One,3\n" + "R2,HSL,2,Two,0\n"
+						+ "R3,HSL,3,Three,3\n" + "R4,HSL,4,Four,4\n");
+		// a route needs three trips of a service before the service is picked
+		write(folder, "trips.txt", "route_id,service_id,trip_id\n"
+				+ "R1,WK,T1\n" + "R1,WK,T2\n" + "R1,WK,T3\n" + "R1,WK,T4\n"
+				+ "R2,SU,T5\n" + "R2,SU,T6\n" + "R2,SU,T7\n" + "R4,WK,T8\n");
+		write(folder, "stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+						+ "T1,06:00:00,06:00:30,S0,1\n"
+						+ "T1,06:05:00,06:05:00,S1,2\n"
+						+ "T1,06:10:00,06:10:00,S2,3\n"
+						+ "T2,07:00:00,07:00:00,S2,1\n"
+						+ "T2,07:10:00,07:10:00,S0,2\n"
+						+ "T3,08:00:00,08:00:00,S0,1\n"
+						+ "T3,08:09:00,08:09:00,S2,2\n"
+						+ "T4,09:00:00,09:00:00,S0,1\n"
+						+ "T4,09:05:00,09:05:10,S1,2\n"
+						+ "T4,09:10:00,09:10:00,S2,3\n"
+						+ "T5,09:00:00,09:00:00,S3,1\n"
+						+ "T5,09:03:00,09:03:20,S0,2\n"
+						+ "T6,10:00:00,10:00:00,S0,1\n"
+						+ "T6,10:04:00,10:04:00,S3,2\n"
+						+ "T7,11:00:00,11:00:00,S3,1\n"
+						+ "T7,11:03:00,11:03:00,S0,2\n"
+						+ "T8,10:00:00,10:00:00,S1,1\n"
+						+ "T8,10:30:00,10:30:00,S3,2\n");
+	}
+
+	@Override
+	protected void tearDown() {
+		delete(folder);
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		File file = new File(folder, "feed.snapshot");
+		for (boolean columnar : new boolean[] { false, true }) {
+			FeedSnapshot expected = Converter.loadFeed(folder.getPath(), null,
+					columnar, null, new RouteExecutor(1));
+			expected.save(file);
+			FeedSnapshot actual = FeedSnapshot.load(file);
+
+			// the routes without useful trips keep their int id
+			Map<String, Integer> expectedIds = toIdMap(expected
+					.getRoute2IntIdMap());
+			assertEquals(3, expectedIds.size());
+			assertTrue(expectedIds.containsKey("R3"));
+			assertEquals(expectedIds, toIdMap(actual.getRoute2IntIdMap()));
+
+			assertEquals(expected.getStops().size(), actual.getStops().size());
+			List<RouteWithTripList> expectedRoutes = expected
+					.getRoutesWithTripList();
+			List<RouteWithTripList> actualRoutes = actual
+					.getRoutesWithTripList();
+			assertEquals(2, expectedRoutes.size());
+			assertEquals(expectedRoutes.size(), actualRoutes.size());
+			for (int r = 0; r < expectedRoutes.size(); r++) {
+				assertSameRoute(expectedRoutes.get(r), actualRoutes.get(r));
+			}
+			assertEquals(expected.getNumOfTrips(), actual.getNumOfTrips());
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package converter;
+
+import static converter.FeedFixture.createFolder;
+import static converter.FeedFixture.delete;
+import static converter.FeedFixture.write;
+import static converter.FeedFixture.writeAgency;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+public class FilteringGtfsReaderTest extends TestCase {
+
+	private File folder;
+
+	@Override
+	protected void setUp() throws IOException {
+		folder = createFolder();
+		writeAgency(folder);
+		write(folder, "calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+						+ "WK,1,1,1,1,1,0,0,20150101,20151231\n");
+		write(folder, "stops.txt", "stop_id,stop_name,stop_lat,stop_lon\n"
+				+ "S0,Stop 0,60.1,24.9\n" + "S1,Stop 1,60.2,24.9\n");
+		// R3 is a ferry, trips.txt starts with a byte order mark and has
+		// quoted values with commas
+		write(folder, "routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type\n"
+						+ "R1,HSL,1,One,3\n" + "R2,HSL,2,Two,3\n"
+						+ "R3,HSL,3,Three,4\n");
+		write(folder, "trips.txt",
+				"\uFEFFroute_id,service_id,trip_id,trip_headsign\n"
+						+ "R1,WK,T1,Kamppi\n" + "R2,WK,T2,Kamppi\n"
+						+ "\"R1\",WK,T3,\"Kamppi, R2\"\n"
+						+ "R2,WK,T4,\"Pasila, R1\"\n"
+						+ "R3,WK,T5,Suomenlinna\n");
+		write(folder, "stop_times.txt",
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+						+ "T1,06:00:00,06:00:00,S0,1\n"
+						+ "T1,06:05:00,06:05:00,S1,2\n"
+						+ "T2,07:00:00,07:00:00,S0,1\n"
+						+ "T2,07:05:00,07:05:00,S1,2\n"
+						+ "\"T3\",08:00:00,08:00:00,S0,1\n"
+						+ "T3,08:05:00,08:05:00,S1,2\n"
+						+ "T4,09:00:00,09:00:00,S1,1\n"
+						+ "T5,10:00:00,10:00:00,S1,1\n");
+	}
+
+	@Override
+	protected void tearDown() {
+		delete(folder);
+	}
+
+	private static TreeSet<String> tripIds(GtfsDaoImpl store) {
+		TreeSet<String> ids = new TreeSet<String>();
+		for (Trip trip : store.getAllTrips()) {
+			ids.add(trip.getId().getId());
+		}
+		return ids;
+	}
+
+	@Test
+	public void testRun() throws IOException {
+		FilteringGtfsReader reader = new FilteringGtfsReader(folder,
+				new HashSet<String>(Arrays.asList("R1", "R3")));
+		GtfsDaoImpl store = new GtfsDaoImpl();
+		reader.run(store, true);
+
+		assertEquals(new TreeSet<String>(Arrays.asList("T1", "T3")),
+				tripIds(store));
+		assertEquals("Kamppi, R2", store.getTripForId(new AgencyAndId("HSL", "T3"))
+				.getTripHeadsign());
+		assertEquals(4, store.getAllStopTimes().size());
+		for (StopTime stopTime : store.getAllStopTimes()) {
+			assertEquals("R1", stopTime.getTrip().getRoute().getId().getId());
+		}
+		assertEquals(3, reader.getNumOfSkippedTrips());
+		assertEquals(4, reader.getNumOfSkippedStopTimes());
+		// the other files are read as they are
+		assertEquals(3, store.getAllRoutes().size());
+		assertEquals(2, store.getAllStops().size());
+	}
+
+	@Test
+	public void testRunWithoutStopTimes() throws IOException {
+		FilteringGtfsReader reader = new FilteringGtfsReader(folder, null);
+		GtfsDaoImpl store = new GtfsDaoImpl();
+		reader.run(store, false);
+
+		// only the ferry is left out
+		assertEquals(new TreeSet<String>(Arrays.asList("T1", "T2", "T3", "T4")),
+				tripIds(store));
+		assertTrue(store.getAllStopTimes().isEmpty());
+		assertEquals(1, reader.getNumOfSkippedTrips());
+		assertEquals(0, reader.getNumOfSkippedStopTimes());
+	}
+
+	@Test
+	public void testMissingColumn() throws IOException {
+		write(folder, "trips.txt", "service_id,trip_id\n" + "WK,T1\n");
+		FilteringGtfsReader reader = new FilteringGtfsReader(folder,
+				new HashSet<String>(Arrays.asList("R1")));
+		try {
+			reader.run(new GtfsDaoImpl(), true);
+			fail("a missing column must be reported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(),
+					e.getMessage().contains("column route_id is missing"));
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package converter;
+
+import static converter.FeedFixture.createFolder;
+import static converter.FeedFixture.delete;
+import static converter.FeedFixture.time;
+import static converter.FeedFixture.write;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+public class MappedStopTimesLoaderTest extends TestCase {
+	private static final int NUM_OF_TRIPS = 40;
+	private static final int NUM_OF_STOPS = 10;
+
+	private File folder;
+	private FeedIndex index;
+	private BitSet usefulTrips;
+	/** rows of the file by kind */
+	private int numOfUseful = 0;
+	private int numOfSkipped = 0;
+	private int numOfUnknownStop = 0;
+
+	@Override
+	protected void setUp() throws IOException {
+		folder = createFolder();
+
+		Route route = new Route();
+		route.setId(new AgencyAndId("HSL", "R1"));
+		List<Trip> trips = new ArrayList<Trip>();
+		for (int t = 0; t < NUM_OF_TRIPS; t++) {
+			Trip trip = new Trip();
+			trip.setId(new AgencyAndId("HSL", "T" + t));
+			trip.setRoute(route);
+			trip.setServiceId(new AgencyAndId("HSL", "WK"));
+			trips.add(trip);
+		}
+		List<Stop> stops = new ArrayList<Stop>();
+		for (int s = 0; s < NUM_OF_STOPS; s++) {
+			Stop stop = new Stop();
+			stop.setId(new AgencyAndId("HSL", "S" + s));
+			stops.add(stop);
+		}
+		index = new FeedIndex(Collections.singletonList(route), trips,
+				Collections.<ServiceCalendar> emptyList(), stops);
+		// every third trip is not useful
+		usefulTrips = new BitSet();
+		for (int t = 0; t < NUM_OF_TRIPS; t++) {
+			if (t % 3 != 1) {
+				usefulTrips.set(t);
+			}
+		}
+
+		write(folder, ColumnarGtfsLoader.STOP_TIMES_FILE_NAME,
+				createStopTimes(new Random(42)));
+	}
+
+	@Override
+	protected void tearDown() {
+		delete(folder);
+	}
+
+	/**
+	 * rows of every kind the parsers meet: padded, quoted with commas and
+	 * non-ASCII text, CRLF ended, empty lines, missing times, hours over 24,
+	 * one digit hours, long lines, unknown trips and stops, and no line end
+	 * after the last row
+	 */
+	private String createStopTimes(Random random) {
+		StringBuilder text = new StringBuilder(
+				"\uFEFFtrip_id,arrival_time,departure_time,stop_id,stop_sequence,stop_headsign\n");
+		for (int t = 0; t <= NUM_OF_TRIPS; t++) {
+			// T40 is not in the feed
+			String trip = "T" + t;
+			int time = 5 * 3600 + random.nextInt(20 * 3600);
+			int numOfStops = 2 + random.nextInt(8);
+			for (int i = 1; i <= numOfStops; i++) {
+				String stop = "S" + random.nextInt(NUM_OF_STOPS + 1);
+				String arrival = time(time);
+				String departure = time(time + random.nextInt(60));
+				String headsign = "";
+				switch (random.nextInt(10)) {
+				case 0:
+					text.append(" " + trip + " , " + arrival + " ,"
+							+ departure + ", " + stop + " , " + i + " ,");
+					break;
+				case 1:
+					text.append("\"" + trip + "\",\"" + arrival + "\",\""
+							+ departure + "\",\"" + stop + "\"," + i
+							+ ",\"Kamppi, T\u00f6\u00f6l\u00f6\"");
+					break;
+				case 2:
+					// without the last column
+					text.append(trip + "," + arrival + "," + departure + ","
+							+ stop + "," + i + "\r");
+					break;
+				case 3:
+					// a time point only at the ends of the trip
+					if (i > 1 && i < numOfStops) {
+						arrival = "";
+						departure = "";
+					}
+					text.append(trip + "," + arrival + "," + departure + ","
+							+ stop + "," + i + ",");
+					break;
+				case 4:
+					for (int k = 0; k < 300; k++) {
+						headsign += (char) ('a' + random.nextInt(26));
+					}
+					text.append(trip + "," + arrival + "," + departure + ","
+							+ stop + "," + i + "," + headsign);
+					break;
+				case 5:
+					// after an empty line
+					text.append("\n" + trip + "," + arrival + "," + departure
+							+ "," + stop + "," + i + ",");
+					break;
+				default:
+					text.append(trip + "," + arrival + "," + departure + ","
+							+ stop + "," + i + ",");
+				}
+				text.append("\n");
+				time += 60 + random.nextInt(600);
+
+				if (t == NUM_OF_TRIPS || !usefulTrips.get(t)) {
+					numOfSkipped++;
+				} else if (stop.equals("S" + NUM_OF_STOPS)) {
+					numOfUnknownStop++;
+				} else {
+					numOfUseful++;
+				}
+			}
+		}
+		// the last row has no line end
+		text.setLength(text.length() - 1);
+		return text.toString();
+	}
+
+	private static void assertSameRows(StopTimeTable expected,
+			StopTimeTable actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int row = 0; row < expected.size(); row++) {
+			assertEquals(expected.getTripIndex(row), actual.getTripIndex(row));
+			assertEquals(expected.getStopIndex(row), actual.getStopIndex(row));
+			assertEquals(expected.getArrivalTime(row),
+					actual.getArrivalTime(row));
+			assertEquals(expected.getDepartureTime(row),
+					actual.getDepartureTime(row));
+			assertEquals(expected.getStopSequence(row),
+					actual.getStopSequence(row));
+		}
+	}
+
+	private StopTimeTable readSequentially(File inputLocation)
+			throws IOException {
+		return new ColumnarGtfsLoader(inputLocation).readStopTimes(index,
+				usefulTrips);
+	}
+
+	@Test
+	public void testSequential() throws IOException {
+		StopTimeTable table = readSequentially(folder);
+		assertEquals(numOfUseful, table.size());
+		boolean missing = false;
+		for (int row = 0; row < table.size(); row++) {
+			assertTrue(usefulTrips.get(table.getTripIndex(row)));
+			missing |= table.getArrivalTime(row) == StopTime.MISSING_VALUE;
+		}
+		assertTrue(missing);
+	}
+
+	@Test
+	public void testThreads() throws IOException {
+		StopTimeTable expected = readSequentially(folder);
+		File file = new File(folder, ColumnarGtfsLoader.STOP_TIMES_FILE_NAME);
+		// from one chunk to chunks shorter than the long lines, cut in the
+		// middle of lines
+		for (long minChunkSize : new long[] { 1 << 20, 1000, 1 }) {
+			for (int numOfThreads : new int[] { 1, 2, 3, 8, 64 }) {
+				RouteExecutor executor = new RouteExecutor(numOfThreads);
+				try {
+					MappedStopTimesLoader loader = new MappedStopTimesLoader(
+							file, index, usefulTrips, minChunkSize);
+					assertSameRows(expected, loader.load(executor));
+					assertEquals(numOfSkipped, loader.getNumOfSkipped());
+					assertEquals(numOfUnknownStop,
+							loader.getNumOfUnknownStop());
+				} finally {
+					executor.close();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testLastChunk() throws IOException {
+		// the last row ends with a line end or not, with a CR or not
+		File file = new File(folder, ColumnarGtfsLoader.STOP_TIMES_FILE_NAME);
+		String header = "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n";
+		String rows = "T0,06:00:00,06:00:00,S1,1\n" + "T0,06:10:00,06:10:00,S2,2";
+		RouteExecutor executor = new RouteExecutor(4);
+		try {
+			for (String end : new String[] { "", "\n", "\r\n", "\n\n" }) {
+				write(folder, ColumnarGtfsLoader.STOP_TIMES_FILE_NAME, header
+						+ rows + end);
+				StopTimeTable expected = readSequentially(folder);
+				assertEquals(2, expected.size());
+				assertEquals(6 * 3600 + 600, expected.getArrivalTime(1));
+				for (long minChunkSize : new long[] { 1, 10, 1 << 20 }) {
+					assertSameRows(expected, new MappedStopTimesLoader(file,
+							index, usefulTrips, minChunkSize).load(executor));
+				}
+			}
+
+			// only a header
+			write(folder, ColumnarGtfsLoader.STOP_TIMES_FILE_NAME, header);
+			assertEquals(0, new MappedStopTimesLoader(file, index,
+					usefulTrips, 1).load(executor).size());
+			write(folder, ColumnarGtfsLoader.STOP_TIMES_FILE_NAME, "");
+			try {
+				new MappedStopTimesLoader(file, index, usefulTrips, 1)
+						.load(executor);
+				fail("an empty file must be refused");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("empty"));
+			}
+		} finally {
+			executor.close();
+		}
+	}
+
+	@Test
+	public void testZip() throws IOException {
+		StopTimeTable expected = readSequentially(folder);
+		File zip = File.createTempFile("feed", ".zip");
+		try {
+			ZipOutputStream out = new ZipOutputStream(new FileOutputStream(
+					zip));
+			try {
+				out.putNextEntry(new ZipEntry(
+						ColumnarGtfsLoader.STOP_TIMES_FILE_NAME));
+				InputStream in = new FileInputStream(new File(folder,
+						ColumnarGtfsLoader.STOP_TIMES_FILE_NAME));
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) > 0) {
+					out.write(buffer, 0, n);
+				}
+				in.close();
+				out.closeEntry();
+			} finally {
+				out.close();
+			}
+
+			// a ZIP file is streamed by a ParallelZipInputSource, with or
+			// without executor
+			assertSameRows(expected, readSequentially(zip));
+			RouteExecutor executor = new RouteExecutor(4);
+			try {
+				assertSameRows(expected, new ColumnarGtfsLoader(zip)
+						.readStopTimes(index, usefulTrips, executor));
+			} finally {
+				executor.close();
+			}
+		} finally {
+			zip.delete();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package converter;
+
+import static converter.FeedFixture.assertSameRoute;
+import static converter.FeedFixture.createFolder;
+import static converter.FeedFixture.delete;
+import static converter.FeedFixture.time;
+import static converter.FeedFixture.toIdMap;
+import static converter.FeedFixture.write;
+import static converter.FeedFixture.writeAgency;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+public class OutOfCoreFeedTest extends TestCase {
+	private static final int NUM_OF_TRIPS = 240;
+	private static final int NUM_OF_STOPS = 20;
+
+	private File folder;
+	private File spillFolder;
+
+	@Override
+	protected void setUp() throws IOException {
+		folder = createFolder();
+		spillFolder = new File(folder, "spill");
+		spillFolder.mkdir();
+		Random random = new Random(7);
+
+		writeAgency(folder);
+		write(folder, "calendar.txt",
+				"service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date\n"
+						+ "WK,1,1,1,1,1,0,0,20150601,20150630\n"
+						+ "SA,0,0,0,0,0,1,0,20150601,20150630\n"
+						+ "SU,0,0,0,0,0,0,1,20150601,20150630\n");
+		write(folder, "calendar_dates.txt", "service_id,date,exception_type\n"
+				+ "WK,20150610,2\n" + "SU,20150610,1\n");
+		StringBuilder stops = new StringBuilder(
+				"stop_id,stop_name,stop_lat,stop_lon\n");
+		for (int s = 0; s < NUM_OF_STOPS; s++) {
+			stops.append("S" + s + ",Stop " + s + "," + (60 + s * 0.01)
+					+ "," + (24 + s * 0.01) + "\n");
+		}
+		write(folder, "stops.txt", stops.toString());
+		// R5 is a ferry
+		write(folder, "routes.txt",
+				"route_id,agency_id,route_short_name,route_long_name,route_type\n"
+						+ "R1,HSL,1,One,3\n" + "R2,HSL,2,Two,0\n"
+						+ "R3,HSL,3,Three,1\n" + "R4,HSL,4,Four,3\n"
+						+ "R5,HSL,5,Five,4\n");
+
+		String[] services = { "WK", "WK", "SA", "SU" };
+		StringBuilder trips = new StringBuilder("route_id,service_id,trip_id\n");
+		List<String> stopTimes = new ArrayList<String>();
+		for (int t = 0; t < NUM_OF_TRIPS; t++) {
+			trips.append("R" + (1 + random.nextInt(5)) + ","
+					+ services[random.nextInt(services.length)] + ",T" + t
+					+ "\n");
+			// every trip starts at a time of its own
+			int time = 5 * 3600 + 37 * t;
+			int numOfStops = 10 + random.nextInt(20);
+			for (int i = 1; i <= numOfStops; i++) {
+				stopTimes.add("T" + t + "," + time(time) + ","
+						+ time(time + 20) + ",S" + random.nextInt(NUM_OF_STOPS)
+						+ "," + i * 10 + "\n");
+				time += 60 + random.nextInt(120);
+			}
+		}
+		write(folder, "trips.txt", trips.toString());
+		// the rows of the trips are spread over the runs, in no order
+		Collections.shuffle(stopTimes, random);
+		StringBuilder text = new StringBuilder(
+				"trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+		for (String row : stopTimes) {
+			text.append(row);
+		}
+		write(folder, "stop_times.txt", text.toString());
+	}
+
+	@Override
+	protected void tearDown() {
+		delete(folder);
+	}
+
+	/**
+	 * @return the run files in the spill folder
+	 */
+	private List<String> listRuns() {
+		String[] names = spillFolder.list(new FilenameFilter() {
+			public boolean accept(File dir, String name) {
+				return name.startsWith("stop_times") && name.endsWith(".run");
+			}
+		});
+		return names == null ? new ArrayList<String>() : Arrays.asList(names);
+	}
+
+	@Test
+	public void testWeekDays() throws IOException {
+		assertSameRoutes(null, null);
+	}
+
+	@Test
+	public void testWeek() throws IOException {
+		assertSameRoutes(new ServiceDate(2015, 6, 10), null);
+	}
+
+	@Test
+	public void testDateRange() throws IOException {
+		assertSameRoutes(new ServiceDate(2015, 6, 5), new ServiceDate(2015,
+				6, 14));
+	}
+
+	/**
+	 * @param date
+	 *            the week, or the first date with to
+	 * @param to
+	 *            the last date of a range, or null
+	 */
+	private void assertSameRoutes(ServiceDate date, ServiceDate to)
+			throws IOException {
+		ServiceDate week = to == null ? date : null;
+		ServiceDate from = to == null ? null : date;
+		// a budget of 0 MB keeps the fewest rows in memory and merges two
+		// runs at once, so the runs are merged in passes before the routes
+		OutOfCoreFeed outOfCore = Converter.loadFeedOutOfCore(
+				folder.getPath(), null, week, from, to, 0, spillFolder);
+		try {
+			assertTrue(outOfCore.getNumOfMergePasses() > 0);
+			assertTrue(outOfCore.getNumOfRuns() <= 2);
+			assertEquals(outOfCore.getNumOfRuns(), listRuns().size());
+
+			for (boolean columnar : new boolean[] { false, true }) {
+				RouteExecutor executor = new RouteExecutor(2);
+				FeedSnapshot inMemory;
+				try {
+					inMemory = Converter.loadFeed(folder.getPath(), null,
+							columnar, week, from, to, executor);
+				} finally {
+					executor.close();
+				}
+				assertEquals(toIdMap(inMemory.getRoute2IntIdMap()),
+						toIdMap(outOfCore.getRoute2IntIdMap()));
+				assertEquals(inMemory.getStops().size(), outOfCore.getStops()
+						.size());
+
+				HashMap<String, RouteWithTripList> expected = new HashMap<String, RouteWithTripList>();
+				for (RouteWithTripList route : inMemory
+						.getRoutesWithTripList()) {
+					expected.put(route.getRoute().getId().getId(), route);
+				}
+				assertEquals(4, expected.size());
+				// the routes can be iterated more than once
+				for (int pass = 0; pass < 2; pass++) {
+					int numOfRoutes = 0;
+					int lastIntId = -1;
+					Iterator<RouteWithTripList> it = outOfCore.getRoutes();
+					while (it.hasNext()) {
+						RouteWithTripList route = it.next();
+						// in the order of their int ids
+						int intId = outOfCore.getRoute2IntIdMap().get(
+								route.getRoute());
+						assertTrue(intId > lastIntId);
+						lastIntId = intId;
+						assertSameRoute(
+								expected.get(route.getRoute().getId().getId()),
+								route);
+						numOfRoutes++;
+					}
+					assertEquals(expected.size(), numOfRoutes);
+					assertEquals(inMemory.getNumOfTrips(),
+							outOfCore.getNumOfTrips());
+				}
+			}
+		} finally {
+			outOfCore.delete();
+		}
+		assertEquals(0, outOfCore.getNumOfRuns());
+		assertTrue(listRuns().toString(), listRuns().isEmpty());
+	}
+}
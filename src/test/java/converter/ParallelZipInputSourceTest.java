@@ -0,0 +1,128 @@
+package converter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class ParallelZipInputSourceTest extends TestCase {
+	private static final String BIG = ColumnarGtfsLoader.STOP_TIMES_FILE_NAME;
+	private static final String SMALL = "trips.txt";
+
+	private File zip;
+	private byte[] big;
+	private byte[] small;
+
+	@Override
+	protected void setUp() throws IOException {
+		Random random = new Random(7);
+		// more chunks than read ahead
+		big = new byte[(PipedChunkInputStream.NUM_OF_CHUNKS + 3)
+				* PipedChunkInputStream.CHUNK_SIZE + 123];
+		random.nextBytes(big);
+		small = "trip_id,route_id,service_id\nT1,R1,WK\n".getBytes("UTF-8");
+
+		zip = File.createTempFile("feed", ".zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			out.putNextEntry(new ZipEntry(BIG));
+			out.write(big);
+			out.closeEntry();
+			out.putNextEntry(new ZipEntry(SMALL));
+			out.write(small);
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() {
+		zip.delete();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, n);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testResources() throws IOException {
+		ParallelZipInputSource source = new ParallelZipInputSource(zip, BIG,
+				"missing.txt");
+		try {
+			assertTrue(source.hasResource(BIG));
+			assertTrue(source.hasResource(SMALL));
+			assertFalse(source.hasResource("missing.txt"));
+			InputStream first = source.getResource(BIG);
+			assertTrue(first instanceof PipedChunkInputStream);
+			assertTrue(Arrays.equals(big, readAll(first)));
+			assertTrue(Arrays.equals(small, readAll(source.getResource(SMALL))));
+			try {
+				source.getResource("missing.txt");
+				fail("a missing entry must be refused");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(),
+						e.getMessage().contains("missing.txt"));
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	@Test
+	public void testSecondRequest() throws IOException {
+		ParallelZipInputSource source = new ParallelZipInputSource(zip, BIG);
+		try {
+			// the prefetched stream is read in part only
+			InputStream first = source.getResource(BIG);
+			byte[] start = new byte[1000];
+			assertEquals(start.length, first.read(start));
+			assertTrue(Arrays.equals(Arrays.copyOf(big, start.length), start));
+
+			// and read again from the start the second and third time
+			InputStream second = source.getResource(BIG);
+			assertNotSame(first, second);
+			assertFalse(second instanceof PipedChunkInputStream);
+			assertTrue(Arrays.equals(big, readAll(second)));
+			assertTrue(Arrays.equals(big, readAll(source.getResource(BIG))));
+			first.close();
+		} finally {
+			source.close();
+		}
+	}
+
+	@Test
+	public void testCloseUnread() throws Exception {
+		// the entry never handed out stops being decompressed
+		ParallelZipInputSource source = new ParallelZipInputSource(zip, BIG);
+		source.close();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("read " + BIG)) {
+				thread.join(5000);
+				assertFalse(thread.isAlive());
+			}
+		}
+		try {
+			source.getResource(BIG);
+			fail("a closed source must be refused");
+		} catch (IllegalStateException e) {
+			// the ZIP file is closed
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class PipedChunkInputStreamTest extends TestCase {
+	private static final int CHUNK_SIZE = PipedChunkInputStream.CHUNK_SIZE;
+
+	/**
+	 * the bytes of an array, then an exception, read a few bytes at a time
+	 * as a decompressing stream does
+	 */
+	private static class FailingStream extends InputStream {
+		private byte[] bytes;
+		private int position = 0;
+		private RuntimeException runtimeError;
+
+		FailingStream(byte[] bytes, RuntimeException runtimeError) {
+			this.bytes = bytes;
+			this.runtimeError = runtimeError;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position == bytes.length) {
+				if (runtimeError != null) {
+					throw runtimeError;
+				}
+				throw new IOException("broken");
+			}
+			int n = Math.min(Math.min(len, 1000), bytes.length - position);
+			System.arraycopy(bytes, position, b, off, n);
+			position += n;
+			return n;
+		}
+	}
+
+	/**
+	 * zeros without end, counting what is read
+	 */
+	private static class EndlessStream extends InputStream {
+		AtomicLong numOfBytes = new AtomicLong();
+		CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public int read() {
+			numOfBytes.incrementAndGet();
+			return 0;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			Arrays.fill(b, off, off + len, (byte) 0);
+			numOfBytes.addAndGet(len);
+			return len;
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+	}
+
+	private static byte[] randomBytes(int n) {
+		byte[] bytes = new byte[n];
+		new Random(n).nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return the bytes read until the end or an exception, which is kept
+	 *         in error[0]
+	 */
+	private static byte[] readAll(InputStream in, Throwable[] error) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[777];
+		try {
+			// one byte at a time now and then
+			int b;
+			while ((b = in.read()) >= 0) {
+				bytes.write(b);
+				int n = in.read(buffer, 0, buffer.length);
+				if (n < 0) {
+					break;
+				}
+				bytes.write(buffer, 0, n);
+			}
+		} catch (Throwable e) {
+			error[0] = e;
+		}
+		return bytes.toByteArray();
+	}
+
+	@Test
+	public void testCopy() throws IOException {
+		for (int size : new int[] { 0, 1, CHUNK_SIZE - 1, CHUNK_SIZE,
+				3 * CHUNK_SIZE + 123 }) {
+			byte[] bytes = randomBytes(size);
+			PipedChunkInputStream in = new PipedChunkInputStream(
+					new ByteArrayInputStream(bytes), "copy", 2);
+			Throwable[] error = new Throwable[1];
+			assertTrue(Arrays.equals(bytes, readAll(in, error)));
+			assertNull(error[0]);
+			assertEquals(-1, in.read());
+			in.close();
+		}
+	}
+
+	@Test
+	public void testError() {
+		// the error comes at the end of a chunk or within one
+		for (int size : new int[] { 0, 100, CHUNK_SIZE, 2 * CHUNK_SIZE + 100 }) {
+			byte[] bytes = randomBytes(size);
+			PipedChunkInputStream in = new PipedChunkInputStream(
+					new FailingStream(bytes, null), "error", 2);
+			Throwable[] error = new Throwable[1];
+			assertTrue(Arrays.equals(bytes, readAll(in, error)));
+			assertTrue(error[0] instanceof IOException);
+			assertEquals("broken", error[0].getMessage());
+			in.close();
+
+			in = new PipedChunkInputStream(new FailingStream(bytes,
+					new IllegalStateException("bad")), "error", 2);
+			assertTrue(Arrays.equals(bytes, readAll(in, error)));
+			assertTrue(error[0] instanceof IllegalStateException);
+			in.close();
+		}
+	}
+
+	@Test
+	public void testCloseWhenFull() throws Exception {
+		EndlessStream source = new EndlessStream();
+		PipedChunkInputStream in = new PipedChunkInputStream(source,
+				"endless", 2);
+		assertEquals(0, in.read());
+		// two chunks in the queue, one taken and one waiting to be put
+		long full = 4L * CHUNK_SIZE;
+		for (int i = 0; i < 500 && source.numOfBytes.get() < full; i++) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(50);
+		assertEquals(full, source.numOfBytes.get());
+
+		in.close();
+		assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("read endless")) {
+				thread.join(5000);
+				assertFalse(thread.isAlive());
+			}
+		}
+		assertEquals(full, source.numOfBytes.get());
+	}
+}
@@ -0,0 +1,174 @@
+package converter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import converter.BoundaryIndex.Coverage;
+
+public class PolygonRegionTest extends TestCase {
+
+	/** a 10 x 10 square with a 2 x 2 hole in the middle */
+	private static final String SQUARE_WITH_HOLE = "POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), "
+			+ "(4 4, 6 4, 6 6, 4 6, 4 4))";
+
+	/** a U opening upwards, the notch is 4 < x < 6, y > 2 */
+	private static final String U = "POLYGON ((0 0, 10 0, 10 10, 6 10, 6 2, 4 2, 4 10, 0 10))";
+
+	@Test
+	public void testContains() throws IOException {
+		PolygonRegion region = PolygonRegion.parse(SQUARE_WITH_HOLE);
+		assertEquals(8, region.getNumOfEdges());
+		assertTrue(region.contains(1, 1));
+		assertTrue(region.contains(9, 5));
+		assertTrue(region.contains(5, 3));
+		// outside, in and out of the bounding box
+		assertFalse(region.contains(20, 5));
+		assertFalse(region.contains(-1, 5));
+		assertFalse(region.contains(5, 11));
+		// in the hole
+		assertFalse(region.contains(5, 5));
+		assertFalse(region.contains(4.1, 5.9));
+	}
+
+	@Test
+	public void testCoverage() throws IOException {
+		PolygonRegion region = PolygonRegion.parse(SQUARE_WITH_HOLE);
+		assertEquals(Coverage.INSIDE, region.getCoverage(1, 1, 2, 2));
+		assertEquals(Coverage.INSIDE, region.getCoverage(7, 1, 9, 9));
+		assertEquals(Coverage.OUTSIDE, region.getCoverage(20, 20, 30, 30));
+		assertEquals(Coverage.OUTSIDE, region.getCoverage(-5, 2, -1, 8));
+		assertEquals(Coverage.OUTSIDE,
+				region.getCoverage(4.5, 4.5, 5.5, 5.5));
+		assertEquals(Coverage.MIXED, region.getCoverage(8, 8, 12, 12));
+		assertEquals(Coverage.MIXED, region.getCoverage(-1, -1, 11, 11));
+		// around the hole
+		assertEquals(Coverage.MIXED, region.getCoverage(3, 3, 7, 7));
+		assertEquals(Coverage.MIXED, region.getCoverage(5, 5, 7, 5.5));
+	}
+
+	@Test
+	public void testConcave() throws IOException {
+		PolygonRegion region = PolygonRegion.parse(U);
+		assertTrue(region.contains(2, 8));
+		assertTrue(region.contains(8, 8));
+		assertTrue(region.contains(5, 1));
+		assertFalse(region.contains(5, 8));
+		assertFalse(region.contains(5, 2.5));
+
+		// the notch is within the bounding box but not in the region
+		assertEquals(Coverage.OUTSIDE, region.getCoverage(4.5, 3, 5.5, 9));
+		assertEquals(Coverage.INSIDE, region.getCoverage(1, 3, 3, 9));
+		assertEquals(Coverage.INSIDE, region.getCoverage(1, 0.5, 9, 1.5));
+		assertEquals(Coverage.MIXED, region.getCoverage(3, 3, 7, 4));
+	}
+
+	@Test
+	public void testManyEdges() throws IOException {
+		// a star with 2000 points, so that the edges are spread over slabs
+		int n = 2000;
+		double[] ring = new double[2 * n];
+		for (int i = 0; i < n; i++) {
+			double angle = 2 * Math.PI * i / n;
+			double radius = i % 2 == 0 ? 100 : 60;
+			ring[2 * i] = radius * Math.cos(angle);
+			ring[2 * i + 1] = radius * Math.sin(angle);
+		}
+		List<double[]> rings = new ArrayList<double[]>();
+		rings.add(ring);
+		PolygonRegion region = new PolygonRegion(rings);
+		assertEquals(n, region.getNumOfEdges());
+
+		for (double x = -105; x <= 105; x += 3.7) {
+			for (double y = -105; y <= 105; y += 2.9) {
+				assertEquals("x=" + x + " y=" + y, crosses(ring, x, y),
+						region.contains(x, y));
+			}
+		}
+		assertEquals(Coverage.INSIDE, region.getCoverage(-40, -40, 40, 40));
+		assertEquals(Coverage.OUTSIDE, region.getCoverage(90, 90, 95, 95));
+		assertEquals(Coverage.MIXED, region.getCoverage(50, -5, 120, 5));
+	}
+
+	/**
+	 * the ray test over all edges, without any index
+	 */
+	private static boolean crosses(double[] ring, double x, double y) {
+		boolean inside = false;
+		int n = ring.length / 2;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			double xi = ring[2 * i], yi = ring[2 * i + 1];
+			double xj = ring[2 * j], yj = ring[2 * j + 1];
+			if ((yi > y) != (yj > y)
+					&& x < xi + (y - yi) * (xj - xi) / (yj - yi)) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	@Test
+	public void testMultiPolygon() throws IOException {
+		PolygonRegion region = PolygonRegion
+				.parse("multipolygon Z (((0 0 1, 2 0 1, 2 2 1, 0 2 1, 0 0 1)),"
+						+ " ((5 5 1, 7 5 1, 7 7 1, 5 7 1, 5 5 1)))");
+		assertEquals(8, region.getNumOfEdges());
+		assertTrue(region.contains(1, 1));
+		assertTrue(region.contains(6, 6));
+		assertFalse(region.contains(3.5, 3.5));
+		assertEquals(Coverage.OUTSIDE, region.getCoverage(3, 3, 4, 4));
+	}
+
+	@Test
+	public void testMalformed() {
+		assertMalformed("", "no polygon found");
+		assertMalformed("POLYGON EMPTY", "no polygon found");
+		assertMalformed("LINESTRING (0 0, 1 1)", "unsupported geometry");
+		assertMalformed("POLYGON ((0 0, 1 0, 1 1)", "unbalanced");
+		assertMalformed("POLYGON ((0 0, 1 0, 1 1)))", "unexpected ')'");
+		assertMalformed("POLYGON (((0 0, 1 0, 1 1)))", "unexpected '('");
+		assertMalformed("POLYGON ((0 0, 1 a, 1 1))", "invalid point '1 a'");
+		assertMalformed("POLYGON ((0 0, 1, 1 1))", "invalid point '1'");
+		assertMalformed("POLYGON ((0 0, 1 1, 0 0))", "at least 3 points");
+		assertMalformed("POLYGON ()", "no ring");
+	}
+
+	private static void assertMalformed(String wkt, String message) {
+		try {
+			PolygonRegion.parse(wkt);
+			fail(wkt + " must be refused");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		File file = File.createTempFile("region", ".wkt");
+		try {
+			Writer writer = new FileWriter(file);
+			writer.write(U + "\n");
+			writer.close();
+			assertTrue(PolygonRegion.read(file).contains(2, 8));
+
+			writer = new FileWriter(file);
+			writer.write("POINT (1 1)\n");
+			writer.close();
+			try {
+				PolygonRegion.read(file);
+				fail("a point must be refused");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith(file + ": "));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package converter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+public class RouteExecutorTest extends TestCase {
+
+	private static final RouteExecutor.Weigher<Integer> BY_VALUE = new RouteExecutor.Weigher<Integer>() {
+		public int weigh(Integer item) {
+			return item;
+		}
+	};
+
+	/**
+	 * sleeps a millisecond per 100 of the item
+	 */
+	private static class SlowSquare implements
+			RouteExecutor.RouteTask<Integer, Integer> {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+
+		public Integer run(Integer item) {
+			int now = running.incrementAndGet();
+			while (maxRunning.get() < now) {
+				maxRunning.compareAndSet(maxRunning.get(), now);
+			}
+			try {
+				Thread.sleep(item / 100);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			running.decrementAndGet();
+			return item * item;
+		}
+	}
+
+	/**
+	 * @return the items, counting how many were taken
+	 */
+	private static Iterator<Integer> count(final List<Integer> items,
+			final AtomicInteger taken) {
+		final Iterator<Integer> it = items.iterator();
+		return new Iterator<Integer>() {
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public Integer next() {
+				taken.incrementAndGet();
+				return it.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Test
+	public void testStream() throws IOException {
+		Random random = new Random(3);
+		final List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 200; i++) {
+			items.add(random.nextInt(500));
+		}
+		// a big item early and one late in the order
+		items.set(5, 2000);
+		items.set(190, 2000);
+		for (int numOfThreads : new int[] { 1, 2, 8 }) {
+			for (final int maxAhead : new int[] { 1, 10, Integer.MAX_VALUE }) {
+				final AtomicInteger taken = new AtomicInteger();
+				final List<Integer> results = new ArrayList<Integer>();
+				SlowSquare task = new SlowSquare();
+				RouteExecutor executor = new RouteExecutor(numOfThreads);
+				try {
+					executor.stream(count(items, taken), BY_VALUE, task,
+							4 * numOfThreads, maxAhead,
+							new RouteExecutor.ResultConsumer<Integer, Integer>() {
+								public void accept(Integer item, Integer result) {
+									assertEquals(items.get(results.size()),
+											item);
+									results.add(result);
+									// taken and not handed yet
+									assertTrue(taken.get() - results.size()
+											< maxAhead);
+								}
+							});
+				} finally {
+					executor.close();
+				}
+				assertEquals(items.size(), results.size());
+				for (int i = 0; i < items.size(); i++) {
+					assertEquals(items.get(i) * items.get(i),
+							(int) results.get(i));
+				}
+				assertTrue(task.maxRunning.get() <= numOfThreads);
+			}
+		}
+	}
+
+	@Test
+	public void testStreamError() throws IOException {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 50; i++) {
+			items.add(i);
+		}
+		final List<Integer> handed = new ArrayList<Integer>();
+		RouteExecutor executor = new RouteExecutor(4);
+		try {
+			executor.stream(items.iterator(), BY_VALUE,
+					new RouteExecutor.RouteTask<Integer, Integer>() {
+						public Integer run(Integer item) {
+							if (item == 20) {
+								throw new IllegalStateException("item 20");
+							}
+							return item;
+						}
+					}, 8, Integer.MAX_VALUE,
+					new RouteExecutor.ResultConsumer<Integer, Integer>() {
+						public void accept(Integer item, Integer result) {
+							handed.add(result);
+						}
+					});
+			fail("the error of the task must be thrown");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		} finally {
+			executor.close();
+		}
+		// never past the item that failed
+		assertTrue(handed.size() <= 20);
+		for (int i = 0; i < handed.size(); i++) {
+			assertEquals(i, (int) handed.get(i));
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import converter.Converter.Weekday;
+
+public class SelectUsefulTripsTest extends TestCase {
+
+	private List<Route> routes = new ArrayList<Route>();
+	private List<ServiceCalendar> calendars = new ArrayList<ServiceCalendar>();
+	private List<Trip> trips = new ArrayList<Trip>();
+
+	private Route addRoute(String id) {
+		Route route = new Route();
+		route.setId(new AgencyAndId("HSL", id));
+		routes.add(route);
+		return route;
+	}
+
+	/**
+	 * @param days
+	 *            the week days the service runs on, from Monday
+	 */
+	private ServiceCalendar addService(String id, int... days) {
+		ServiceCalendar calendar = new ServiceCalendar();
+		// the entities are equal by this id, as set by the gtfs reader
+		calendar.setId(calendars.size() + 1);
+		calendar.setServiceId(new AgencyAndId("HSL", id));
+		calendar.setMonday(days[0]);
+		calendar.setTuesday(days[1]);
+		calendar.setWednesday(days[2]);
+		calendar.setThursday(days[3]);
+		calendar.setFriday(days[4]);
+		calendar.setSaturday(days[5]);
+		calendar.setSunday(days[6]);
+		calendar.setStartDate(new ServiceDate(2015, 1, 1));
+		calendar.setEndDate(new ServiceDate(2015, 12, 31));
+		calendars.add(calendar);
+		return calendar;
+	}
+
+	private void addTrip(Route route, ServiceCalendar service) {
+		Trip trip = new Trip();
+		trip.setId(new AgencyAndId("HSL", "T" + trips.size()));
+		trip.setRoute(route);
+		trip.setServiceId(service.getServiceId());
+		trips.add(trip);
+	}
+
+	private FeedIndex createIndex() {
+		return new FeedIndex(routes, trips, calendars,
+				Collections.<Stop> emptyList());
+	}
+
+	/**
+	 * the services with most trips of each route on each week day, as the
+	 * stage selectUsefulTrips(FeedIndex) replaced counted them: the first
+	 * trip of a route and the first trip of a route on a week day are not
+	 * counted, and of the services with most trips the first counted wins
+	 */
+	private static HashMap<Route, HashMap<Weekday, ServiceCalendar>> countServices(
+			List<Trip> allTrips, Map<AgencyAndId, ServiceCalendar> calendarMap) {
+		HashMap<Route, HashMap<Weekday, List<ServiceCalendar>>> services = new HashMap<Route, HashMap<Weekday, List<ServiceCalendar>>>();
+		HashMap<Route, HashMap<Weekday, List<Integer>>> counts = new HashMap<Route, HashMap<Weekday, List<Integer>>>();
+		for (Trip trip : allTrips) {
+			Route route = trip.getRoute();
+			ServiceCalendar service = calendarMap.get(trip.getServiceId());
+			if (!services.containsKey(route)) {
+				services.put(route,
+						new HashMap<Weekday, List<ServiceCalendar>>());
+				counts.put(route, new HashMap<Weekday, List<Integer>>());
+				continue;
+			}
+			int weekdayMask = ServiceCalendarIndex.getWeekdayMask(service);
+			for (Weekday day : Weekday.values()) {
+				if (!ServiceCalendarIndex.hasWeekday(weekdayMask, day)) {
+					continue;
+				}
+				if (!services.get(route).containsKey(day)) {
+					services.get(route).put(day,
+							new ArrayList<ServiceCalendar>());
+					counts.get(route).put(day, new ArrayList<Integer>());
+					continue;
+				}
+				List<ServiceCalendar> servicesOfDay = services.get(route).get(
+						day);
+				List<Integer> countsOfDay = counts.get(route).get(day);
+				int i = servicesOfDay.indexOf(service);
+				if (i < 0) {
+					servicesOfDay.add(service);
+					countsOfDay.add(1);
+				} else {
+					countsOfDay.set(i, countsOfDay.get(i) + 1);
+				}
+			}
+		}
+
+		HashMap<Route, HashMap<Weekday, ServiceCalendar>> targeted = new HashMap<Route, HashMap<Weekday, ServiceCalendar>>();
+		for (Route route : services.keySet()) {
+			HashMap<Weekday, ServiceCalendar> servicesOfRoute = new HashMap<Weekday, ServiceCalendar>();
+			for (Weekday day : services.get(route).keySet()) {
+				List<Integer> countsOfDay = counts.get(route).get(day);
+				int best = -1;
+				for (int i = 0; i < countsOfDay.size(); i++) {
+					if (best < 0 || countsOfDay.get(i) > countsOfDay.get(best)) {
+						best = i;
+					}
+				}
+				if (best >= 0) {
+					servicesOfRoute.put(day,
+							services.get(route).get(day).get(best));
+				}
+			}
+			targeted.put(route, servicesOfRoute);
+		}
+		return targeted;
+	}
+
+	/**
+	 * the trips whose service is targeted on any week day it runs on
+	 */
+	private static BitSet selectTargeted(List<Trip> allTrips,
+			Map<AgencyAndId, ServiceCalendar> calendarMap,
+			HashMap<Route, HashMap<Weekday, ServiceCalendar>> targeted) {
+		BitSet usefulTrips = new BitSet();
+		for (int t = 0; t < allTrips.size(); t++) {
+			Trip trip = allTrips.get(t);
+			ServiceCalendar service = calendarMap.get(trip.getServiceId());
+			int weekdayMask = ServiceCalendarIndex.getWeekdayMask(service);
+			for (Weekday day : Weekday.values()) {
+				if (ServiceCalendarIndex.hasWeekday(weekdayMask, day)
+						&& service.equals(targeted.get(trip.getRoute()).get(
+								day))) {
+					usefulTrips.set(t);
+					break;
+				}
+			}
+		}
+		return usefulTrips;
+	}
+
+	private void assertSameAsTwoStages() {
+		Map<AgencyAndId, ServiceCalendar> calendarMap = Converter
+				.getCalendarMap(calendars);
+		BitSet expected = selectTargeted(trips, calendarMap,
+				countServices(trips, calendarMap));
+		assertEquals(expected, Converter.selectUsefulTrips(createIndex()));
+	}
+
+	@Test
+	public void testTie() {
+		Route route = addRoute("R1");
+		ServiceCalendar weekdays = addService("A", 1, 1, 1, 1, 1, 0, 0);
+		ServiceCalendar everyDay = addService("B", 1, 1, 1, 1, 1, 1, 1);
+		// the first A is not counted, neither is the second on each day
+		addTrip(route, weekdays);
+		addTrip(route, weekdays);
+		// from Monday to Friday, B and A have 2 trips counted each, and B is
+		// counted first
+		addTrip(route, everyDay);
+		addTrip(route, weekdays);
+		addTrip(route, everyDay);
+		addTrip(route, weekdays);
+
+		BitSet expected = new BitSet();
+		expected.set(2);
+		expected.set(4);
+		assertEquals(expected, Converter.selectUsefulTrips(createIndex()));
+		assertSameAsTwoStages();
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(17);
+		for (int k = 0; k < 200; k++) {
+			routes.clear();
+			calendars.clear();
+			trips.clear();
+			int numOfRoutes = 1 + random.nextInt(4);
+			for (int r = 0; r < numOfRoutes; r++) {
+				addRoute("R" + r);
+			}
+			// services of a few days each, overlapping on some
+			int numOfServices = 1 + random.nextInt(4);
+			for (int s = 0; s < numOfServices; s++) {
+				int[] days = new int[7];
+				days[random.nextInt(7)] = 1;
+				for (int d = 0; d < 7; d++) {
+					if (random.nextInt(3) == 0) {
+						days[d] = 1;
+					}
+				}
+				addService("S" + s, days);
+			}
+			// few trips, so that counts are often tied
+			int numOfTrips = random.nextInt(30);
+			for (int t = 0; t < numOfTrips; t++) {
+				addTrip(routes.get(random.nextInt(numOfRoutes)),
+						calendars.get(random.nextInt(numOfServices)));
+			}
+			assertSameAsTwoStages();
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package converter;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import converter.Converter.Weekday;
+
+public class ServiceCalendarIndexTest extends TestCase {
+
+	/** 2015-06-01 is a Monday */
+	private static final ServiceDate MONDAY = new ServiceDate(2015, 6, 1);
+
+	private ArrayList<ServiceCalendar> calendars = new ArrayList<ServiceCalendar>();
+	private ArrayList<ServiceCalendarDate> calendarDates = new ArrayList<ServiceCalendarDate>();
+	private ServiceCalendarIndex index;
+
+	@Override
+	protected void setUp() {
+		// every day of 2015 but 2015-06-02
+		addCalendar("ALL", 1, 1, 1, 1, 1, 1, 1, new ServiceDate(2015, 1, 1),
+				new ServiceDate(2015, 12, 31));
+		addDate("ALL", new ServiceDate(2015, 6, 2),
+				ServiceCalendarDate.EXCEPTION_TYPE_REMOVE);
+		// a removed date before the calendar is ignored
+		addDate("ALL", new ServiceDate(2014, 12, 1),
+				ServiceCalendarDate.EXCEPTION_TYPE_REMOVE);
+		// weekdays from a Wednesday
+		addCalendar("WK", 1, 1, 1, 1, 1, 0, 0, new ServiceDate(2015, 6, 3),
+				new ServiceDate(2015, 12, 31));
+		// weekends until a Saturday, with a Tuesday added
+		addCalendar("WE", 0, 0, 0, 0, 0, 1, 1, new ServiceDate(2015, 1, 1),
+				new ServiceDate(2015, 6, 6));
+		addDate("WE", new ServiceDate(2015, 6, 2),
+				ServiceCalendarDate.EXCEPTION_TYPE_ADD);
+		// only in calendar_dates.txt
+		addDate("X", new ServiceDate(2015, 6, 6),
+				ServiceCalendarDate.EXCEPTION_TYPE_ADD);
+		addDate("X", new ServiceDate(2015, 6, 10),
+				ServiceCalendarDate.EXCEPTION_TYPE_ADD);
+		index = new ServiceCalendarIndex(
+				Converter.getCalendarMap(calendars), calendarDates);
+	}
+
+	private void addCalendar(String id, int mon, int tue, int wed, int thu,
+			int fri, int sat, int sun, ServiceDate start, ServiceDate end) {
+		ServiceCalendar calendar = new ServiceCalendar();
+		calendar.setServiceId(new AgencyAndId("HSL", id));
+		calendar.setMonday(mon);
+		calendar.setTuesday(tue);
+		calendar.setWednesday(wed);
+		calendar.setThursday(thu);
+		calendar.setFriday(fri);
+		calendar.setSaturday(sat);
+		calendar.setSunday(sun);
+		calendar.setStartDate(start);
+		calendar.setEndDate(end);
+		calendars.add(calendar);
+	}
+
+	private void addDate(String id, ServiceDate date, int exceptionType) {
+		ServiceCalendarDate calendarDate = new ServiceCalendarDate();
+		calendarDate.setServiceId(new AgencyAndId("HSL", id));
+		calendarDate.setDate(date);
+		calendarDate.setExceptionType(exceptionType);
+		calendarDates.add(calendarDate);
+	}
+
+	private int indexOf(String id) {
+		return index.indexOf(new AgencyAndId("HSL", id));
+	}
+
+	private static int mask(Weekday... days) {
+		int mask = 0;
+		for (Weekday day : days) {
+			mask |= 1 << day.ordinal();
+		}
+		return mask;
+	}
+
+	/**
+	 * @return the mask of the service in the week of the Monday given, plus
+	 *         the number of weeks
+	 */
+	private int getWeekdayMask(String id, int weeks) {
+		return index.getWeekdayMask(indexOf(id),
+				ServiceCalendarIndex.getEpochDay(MONDAY) + 7 * weeks);
+	}
+
+	@Test
+	public void testServices() {
+		assertEquals(4, index.getNumOfServices());
+		assertTrue(index.hasDates());
+		assertEquals(-1, index.indexOf(new AgencyAndId("HSL", "NONE")));
+		assertNull(index.getService(indexOf("X")));
+		assertEquals("WK", index.getService(indexOf("WK")).getServiceId()
+				.getId());
+
+		// the week days of the calendars until a week is selected
+		assertEquals(mask(Weekday.values()), index.getWeekdayMask(indexOf("ALL")));
+		assertEquals(mask(Weekday.Mon, Weekday.Tue, Weekday.Wed, Weekday.Thu,
+				Weekday.Fri), index.getWeekdayMask(indexOf("WK")));
+		assertEquals(0, index.getWeekdayMask(indexOf("X")));
+	}
+
+	@Test
+	public void testRemovedDate() {
+		assertEquals(mask(Weekday.Mon, Weekday.Wed, Weekday.Thu, Weekday.Fri,
+				Weekday.Sat, Weekday.Sun), getWeekdayMask("ALL", 0));
+		assertEquals(mask(Weekday.values()), getWeekdayMask("ALL", 1));
+		assertFalse(index.runsOn(indexOf("ALL"), new ServiceDate(2015, 6, 2)));
+		assertTrue(index.runsOn(indexOf("ALL"), new ServiceDate(2015, 6, 3)));
+	}
+
+	@Test
+	public void testMidWeek() {
+		// starts on a Wednesday
+		assertEquals(0, getWeekdayMask("WK", -1));
+		assertEquals(mask(Weekday.Wed, Weekday.Thu, Weekday.Fri),
+				getWeekdayMask("WK", 0));
+		assertEquals(mask(Weekday.Mon, Weekday.Tue, Weekday.Wed, Weekday.Thu,
+				Weekday.Fri), getWeekdayMask("WK", 1));
+		// ends on a Saturday, with an added Tuesday
+		assertEquals(mask(Weekday.Sat, Weekday.Sun), getWeekdayMask("WE", -1));
+		assertEquals(mask(Weekday.Tue, Weekday.Sat), getWeekdayMask("WE", 0));
+		assertEquals(0, getWeekdayMask("WE", 1));
+	}
+
+	@Test
+	public void testOnlyCalendarDates() {
+		assertEquals(0, getWeekdayMask("X", -1));
+		assertEquals(mask(Weekday.Sat), getWeekdayMask("X", 0));
+		assertEquals(mask(Weekday.Wed), getWeekdayMask("X", 1));
+		assertEquals(0, getWeekdayMask("X", 2));
+	}
+
+	@Test
+	public void testOutsideOfCalendar() {
+		// wholly before and after every service
+		assertEquals(0, getWeekdayMask("ALL", -30));
+		assertEquals(0, getWeekdayMask("WK", -30));
+		assertEquals(0, getWeekdayMask("ALL", 40));
+		assertEquals(0, getWeekdayMask("WE", 40));
+		assertEquals(0, getWeekdayMask("X", -2000));
+		assertEquals(0, getWeekdayMask("X", 2000));
+		assertEquals(0, index.selectWeek(new ServiceDate(2014, 6, 4)));
+		assertEquals(0, index.selectWeek(new ServiceDate(2016, 1, 6)));
+		for (int s = 0; s < index.getNumOfServices(); s++) {
+			assertEquals(0, index.getWeekdayMask(s));
+		}
+	}
+
+	@Test
+	public void testSelectWeek() {
+		// any day of the week selects the same week
+		for (int day = 1; day <= 7; day++) {
+			assertEquals(4, index.selectWeek(new ServiceDate(2015, 6, day)));
+			assertEquals(getWeekdayMask("ALL", 0),
+					index.getWeekdayMask(indexOf("ALL")));
+			assertEquals(getWeekdayMask("WK", 0),
+					index.getWeekdayMask(indexOf("WK")));
+			assertEquals(getWeekdayMask("WE", 0),
+					index.getWeekdayMask(indexOf("WE")));
+			assertEquals(getWeekdayMask("X", 0),
+					index.getWeekdayMask(indexOf("X")));
+		}
+		assertTrue(index.runsOn(indexOf("X"), Weekday.Sat));
+		assertFalse(index.runsOn(indexOf("ALL"), Weekday.Tue));
+
+		// WE has ended by the next week, X still runs on Wednesday
+		assertEquals(3, index.selectWeek(new ServiceDate(2015, 6, 14)));
+		assertEquals(0, index.getWeekdayMask(indexOf("WE")));
+	}
+
+	@Test
+	public void testCountDates() {
+		int first = ServiceCalendarIndex.getEpochDay(MONDAY);
+		assertEquals(6, index.countDates(indexOf("ALL"), first, first + 6));
+		assertEquals(364, index.countDates(indexOf("ALL"), first - 1000,
+				first + 1000));
+		assertEquals(2, index.countDates(indexOf("X"), first, first + 9));
+		assertEquals(0, index.countDates(indexOf("X"), first + 10,
+				first + 20));
+	}
+
+	@Test
+	public void testEpochDay() {
+		GregorianCalendar calendar = new GregorianCalendar(
+				TimeZone.getTimeZone("UTC"));
+		List<ServiceDate> dates = new ArrayList<ServiceDate>();
+		dates.add(new ServiceDate(1970, 1, 1));
+		dates.add(new ServiceDate(1969, 12, 31));
+		dates.add(new ServiceDate(2000, 2, 29));
+		dates.add(new ServiceDate(2000, 3, 1));
+		dates.add(new ServiceDate(2100, 3, 1));
+		dates.add(new ServiceDate(2015, 12, 23));
+		for (ServiceDate date : dates) {
+			calendar.clear();
+			calendar.set(date.getYear(), date.getMonth() - 1, date.getDay());
+			int epochDay = (int) (calendar.getTimeInMillis() / 86400000L);
+			assertEquals(date.toString(), epochDay,
+					ServiceCalendarIndex.getEpochDay(date));
+		}
+		assertEquals(Weekday.Thu, ServiceCalendarIndex.getWeekday(0));
+		assertEquals(Weekday.Wed, ServiceCalendarIndex.getWeekday(-1));
+		assertEquals(Weekday.Mon, ServiceCalendarIndex
+				.getWeekday(ServiceCalendarIndex.getEpochDay(MONDAY)));
+	}
+}
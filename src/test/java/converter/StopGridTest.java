@@ -0,0 +1,179 @@
+package converter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+
+import converter.BoundaryIndex.Coverage;
+
+public class StopGridTest extends TestCase {
+
+	/**
+	 * @param coords
+	 *            x and y of each stop, its id is S and its index
+	 */
+	private static StopGeometry geometry(double... coords) {
+		List<Stop> stops = new ArrayList<Stop>();
+		for (int i = 0; i < coords.length; i += 2) {
+			Stop stop = new Stop();
+			stop.setId(new AgencyAndId("HSL", "S" + i / 2));
+			stop.setLon(coords[i]);
+			stop.setLat(coords[i + 1]);
+			stops.add(stop);
+		}
+		return new StopGeometry(stops);
+	}
+
+	/**
+	 * the grid selects exactly the stops isCoordInBound() accepts
+	 */
+	private static void assertSameAsScan(StopGrid grid, double[] boundaries) {
+		StopGeometry stops = grid.getStops();
+		BitSet expected = new BitSet();
+		for (int s = 0; s < stops.size(); s++) {
+			if (Converter.isCoordInBound(stops.getX(s), stops.getY(s),
+					boundaries)) {
+				expected.set(s);
+			}
+		}
+		assertEquals(Arrays.toString(boundaries), expected,
+				grid.selectInside(new RectangleRegion(boundaries)));
+		assertEquals(expected, grid.selectInside(boundaries));
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(11);
+		// half of the stops on a lattice of the borders tested
+		double[] coords = new double[2 * 2000];
+		for (int i = 0; i < coords.length; i += 2) {
+			if (i % 4 == 0) {
+				coords[i] = random.nextInt(101);
+				coords[i + 1] = random.nextInt(51);
+			} else {
+				coords[i] = random.nextDouble() * 100;
+				coords[i + 1] = random.nextDouble() * 50;
+			}
+		}
+		StopGrid grid = new StopGrid(geometry(coords));
+		for (int k = 0; k < 300; k++) {
+			int x1 = random.nextInt(120) - 10;
+			int x2 = x1 + random.nextInt(60);
+			int y1 = random.nextInt(70) - 10;
+			int y2 = y1 + random.nextInt(30);
+			assertSameAsScan(grid, new double[] { x1, y1, x2, y2 });
+		}
+		// all, none, and of no width
+		assertSameAsScan(grid, new double[] { -1, -1, 101, 51 });
+		assertSameAsScan(grid, new double[] { 0, 0, 100, 50 });
+		assertSameAsScan(grid, new double[] { 200, 0, 300, 50 });
+		assertSameAsScan(grid, new double[] { 10, 0, 10, 50 });
+	}
+
+	@Test
+	public void testBorders() {
+		// a row of stops on x = 2, 4 and 6, and a column on y = 2, 4 and 6
+		StopGrid grid = new StopGrid(geometry(2, 4, 4, 4, 6, 4, 4, 2, 4, 6));
+		assertSameAsScan(grid, new double[] { 2, 2, 6, 6 });
+		assertEquals(1, grid.selectInside(new double[] { 2, 2, 6, 6 })
+				.cardinality());
+		assertSameAsScan(grid, new double[] { 1, 3, 7, 5 });
+		assertEquals(3, grid.selectInside(new double[] { 1, 3, 7, 5 })
+				.cardinality());
+		assertSameAsScan(grid, new double[] { 4, 0, 8, 8 });
+		assertSameAsScan(grid, new double[] { 0, 4, 8, 8 });
+	}
+
+	@Test
+	public void testSameLocation() {
+		// every cell has a width and height of 0
+		double[] coords = new double[2 * 100];
+		Arrays.fill(coords, 3);
+		StopGrid grid = new StopGrid(geometry(coords));
+		assertSameAsScan(grid, new double[] { 2, 2, 4, 4 });
+		assertEquals(100, grid.selectInside(new double[] { 2, 2, 4, 4 })
+				.cardinality());
+		assertSameAsScan(grid, new double[] { 3, 2, 4, 4 });
+		assertSameAsScan(grid, new double[] { 2, 2, 4, 3 });
+		assertSameAsScan(grid, new double[] { 0, 0, 1, 1 });
+		assertTrue(grid.selectInside(new double[] { 3, 2, 4, 4 }).isEmpty());
+
+		// the same in one column, with different y
+		for (int i = 1; i < coords.length; i += 2) {
+			coords[i] = i;
+		}
+		grid = new StopGrid(geometry(coords));
+		assertSameAsScan(grid, new double[] { 2, 50, 4, 150 });
+		assertSameAsScan(grid, new double[] { 3, 0, 4, 200 });
+	}
+
+	@Test
+	public void testSingleStop() {
+		StopGrid grid = new StopGrid(geometry(5, 5));
+		assertSameAsScan(grid, new double[] { 0, 0, 10, 10 });
+		assertSameAsScan(grid, new double[] { 5, 0, 10, 10 });
+		assertSameAsScan(grid, new double[] { 6, 0, 10, 10 });
+		assertEquals(1, grid.selectInside(new double[] { 0, 0, 10, 10 })
+				.cardinality());
+
+		grid = new StopGrid(geometry());
+		assertTrue(grid.selectInside(new double[] { 0, 0, 10, 10 })
+				.isEmpty());
+	}
+
+	@Test
+	public void testPolygon() throws IOException {
+		Random random = new Random(5);
+		double[] coords = new double[2 * 500];
+		for (int i = 0; i < coords.length; i++) {
+			coords[i] = random.nextInt(13) - 1;
+		}
+		StopGeometry stops = geometry(coords);
+		StopGrid grid = new StopGrid(stops);
+		// a U opening upwards
+		PolygonRegion region = PolygonRegion
+				.parse("POLYGON ((0 0, 10 0, 10 10, 6 10, 6 2, 4 2, 4 10, 0 10))");
+		BitSet expected = new BitSet();
+		for (int s = 0; s < stops.size(); s++) {
+			if (region.contains(stops.getX(s), stops.getY(s))) {
+				expected.set(s);
+			}
+		}
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, grid.selectInside(region));
+	}
+
+	@Test
+	public void testCoverage() {
+		// S0 and S1 inside, S2 outside, S3 on the border
+		StopGeometry stops = geometry(1, 1, 2, 2, 20, 20, 0, 5);
+		BoundaryIndex index = new BoundaryIndex(stops, new double[] { 0, 0,
+				10, 10 });
+		assertEquals(2, index.getNumOfInside());
+		assertTrue(index.isInside("S0"));
+		assertTrue(index.isInside(1));
+		assertFalse(index.isInside("S2"));
+		assertFalse(index.isInside("S3"));
+
+		assertEquals(Coverage.INSIDE,
+				index.getCoverage(Arrays.asList("S0", "S1")));
+		assertEquals(Coverage.OUTSIDE,
+				index.getCoverage(Arrays.asList("S2", "S3")));
+		assertEquals(Coverage.MIXED,
+				index.getCoverage(Arrays.asList("S0", "S1", "S3")));
+		assertEquals(Coverage.MIXED,
+				index.getCoverage(Arrays.asList("S2", "S1")));
+		assertEquals(Coverage.INSIDE,
+				index.getCoverage(Collections.<String> emptyList()));
+	}
+}
@@ -1,6 +1,10 @@
 package converter;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -9,6 +13,7 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
 
+import util.Coord;
 
 import junit.framework.TestCase;
 
@@ -242,4 +247,163 @@ public class populateVehicleListTest extends TestCase{
 		assertTrue(routesWithTripList.get(0).getVehicleList().get(0).trips.get(0).get(0).stop_id.equals("0"));
 		assertTrue(routesWithTripList.get(0).getVehicleList().get(0).trips.get(1).get(0).stop_id.equals("4"));
 	}
+
+	@Test
+	public void testSameAsLinearScan() {
+		Random random = new Random(42);
+		Stop[] stops = new Stop[4];
+		double[][] locations = { { 1.0d, 1.0d }, { 1.0d, 4801.0d },
+				{ 301.0d, 1.0d }, { 1.0d, 2401.0d } };
+		for (int i = 0; i < stops.length; i++) {
+			stops[i] = new Stop();
+			stops[i].setId(new AgencyAndId("hsl", String.valueOf(i)));
+			stops[i].setLon(locations[i][0]);
+			stops[i].setLat(locations[i][1]);
+		}
+
+		for (int type : new int[] { Converter.BUS_TYPE, Converter.TRAM_TYPE }) {
+			ArrayList<TripWithStopTimeList> tripList = new ArrayList<TripWithStopTimeList>();
+			for (int i = 0; i < 500; i++) {
+				ArrayList<StopTime> stopTimeList = new ArrayList<StopTime>();
+				StopTime from = new StopTime();
+				from.setStop(stops[random.nextInt(stops.length)]);
+				StopTime to = new StopTime();
+				to.setStop(stops[random.nextInt(stops.length)]);
+				stopTimeList.add(from);
+				stopTimeList.add(to);
+				int startTime = random.nextInt(86400);
+				int endTime = startTime + 60 + random.nextInt(1800);
+				tripList.add(new TripWithStopTimeList(new Trip(), startTime,
+						endTime, stopTimeList));
+			}
+			Collections.sort(tripList);
+
+			List<List<TripWithStopTimeList>> expected = linearScan(
+					new ArrayList<TripWithStopTimeList>(tripList), type, 20, 500);
+			List<List<TripWithStopTimeList>> actual = GreedyBlockingEngine
+					.block(tripList, type, 20, 500);
+
+			// the same vehicles consuming the same trips in the same order
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void testOptimalBlocking() {
+		// tram stops P and Q are too far from each other to be linked, R is
+		// close enough to both
+		Stop p = new Stop();
+		p.setId(new AgencyAndId("hsl", "P"));
+		p.setLon(1.0d);
+		p.setLat(1.0d);
+		Stop q = new Stop();
+		q.setId(new AgencyAndId("hsl", "Q"));
+		q.setLon(1.0d);
+		q.setLat(801.0d);
+		Stop r = new Stop();
+		r.setId(new AgencyAndId("hsl", "R"));
+		r.setLon(1.0d);
+		r.setLat(401.0d);
+
+		ArrayList<TripWithStopTimeList> tripList = new ArrayList<TripWithStopTimeList>();
+		tripList.add(createTrip(p, p, 0, 100));
+		tripList.add(createTrip(q, q, 50, 110));
+		tripList.add(createTrip(r, r, 180, 250));
+		tripList.add(createTrip(p, p, 200, 300));
+
+		ArrayList<RouteWithTripList> routesWithTripList = new ArrayList<RouteWithTripList>();
+		Route route = new Route();
+		route.setId(new AgencyAndId("hsl", "0000"));
+		route.setType(Converter.TRAM_TYPE);
+		routesWithTripList.add(new RouteWithTripList(route, tripList, null));
+
+		// greedy links the first trip to the trip from R, which was the only
+		// possible next trip of the trip ending at Q
+		assertEquals(3, Converter.countVehicles(routesWithTripList, 20, 500,
+				Converter.BlockingMode.GREEDY));
+		assertEquals(2, Converter.populateVehicleList(routesWithTripList, 20,
+				500, Converter.BlockingMode.OPTIMAL));
+		assertEquals(2, routesWithTripList.get(0).getVehicleList().get(0).trips.size());
+		assertEquals("P", routesWithTripList.get(0).getVehicleList().get(0).trips.get(1).get(0).stop_id);
+
+		// on random trips, optimal never needs more vehicles than greedy and
+		// every link is accepted by isNextStrip
+		Random random = new Random(7);
+		Stop[] stops = { p, q, r };
+		for (int type : new int[] { Converter.BUS_TYPE, Converter.TRAM_TYPE }) {
+			ArrayList<TripWithStopTimeList> randomTrips = new ArrayList<TripWithStopTimeList>();
+			for (int i = 0; i < 400; i++) {
+				int startTime = random.nextInt(86400);
+				randomTrips.add(createTrip(stops[random.nextInt(3)],
+						stops[random.nextInt(3)], startTime, startTime + 60
+								+ random.nextInt(1800)));
+			}
+			Collections.sort(randomTrips);
+			List<List<TripWithStopTimeList>> greedy = GreedyBlockingEngine
+					.block(randomTrips, type, 20, 500);
+			List<List<TripWithStopTimeList>> optimal = OptimalBlockingEngine
+					.block(randomTrips, type, 20, 500);
+			assertTrue(optimal.size() <= greedy.size());
+			int numOfTrips = 0;
+			for (List<TripWithStopTimeList> vehicle : optimal) {
+				numOfTrips += vehicle.size();
+				for (int i = 1; i < vehicle.size(); i++) {
+					TripWithStopTimeList last = vehicle.get(i - 1);
+					TripWithStopTimeList next = vehicle.get(i);
+					Stop end = last.getStop(last.getNumOfStops() - 1);
+					Stop start = next.getStop(0);
+					assertTrue(Converter.isNextStrip(last.getEndTime(),
+							new Coord(end.getLon(), end.getLat()),
+							next.getStartTime(), new Coord(start.getLon(),
+									start.getLat()), 20, 500, type));
+				}
+			}
+			assertEquals(randomTrips.size(), numOfTrips);
+		}
+	}
+
+	private static TripWithStopTimeList createTrip(Stop from, Stop to,
+			int startTime, int endTime) {
+		ArrayList<StopTime> stopTimeList = new ArrayList<StopTime>();
+		StopTime first = new StopTime();
+		first.setStop(from);
+		StopTime last = new StopTime();
+		last.setStop(to);
+		stopTimeList.add(first);
+		stopTimeList.add(last);
+		return new TripWithStopTimeList(new Trip(), startTime, endTime,
+				stopTimeList);
+	}
+
+	/**
+	 * the original linking loop of populateVehicleList
+	 */
+	private static List<List<TripWithStopTimeList>> linearScan(
+			List<TripWithStopTimeList> tripList, int transportType,
+			double maxSpeed, double maxDistance) {
+		List<List<TripWithStopTimeList>> vehicles = new ArrayList<List<TripWithStopTimeList>>();
+		while (!tripList.isEmpty()) {
+			List<TripWithStopTimeList> vehicle = new ArrayList<TripWithStopTimeList>();
+			Iterator<TripWithStopTimeList> it = tripList.iterator();
+			int lastEndTime = 0;
+			Coord lastEndLocation = null;
+			while (it.hasNext()) {
+				TripWithStopTimeList trip = it.next();
+				Stop startStop = trip.getStop(0);
+				if (vehicle.isEmpty()
+						|| Converter.isNextStrip(lastEndTime, lastEndLocation,
+								trip.getStartTime(), new Coord(startStop.getLon(),
+										startStop.getLat()), maxSpeed,
+								maxDistance, transportType)) {
+					vehicle.add(trip);
+					lastEndTime = trip.getEndTime();
+					Stop endStop = trip.getStop(trip.getNumOfStops() - 1);
+					lastEndLocation = new Coord(endStop.getLon(), endStop.getLat());
+					it.remove();
+				}
+			}
+			vehicles.add(vehicle);
+		}
+		return vehicles;
+	}
 }
@@ -0,0 +1,136 @@
+package util;
+
+import static util.ScheduleFixture.assertSameRoute;
+import static util.ScheduleFixture.assertSameRoutes;
+import static util.ScheduleFixture.route;
+import static util.ScheduleFixture.trip;
+import static util.ScheduleFixture.vehicle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+import movement.schedule.RouteSchedule;
+
+import org.junit.Test;
+
+public class BinaryScheduleTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("schedules", ".bin");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * routes sharing stops, a stop id of several UTF-8 bytes, a vehicle
+	 * without trips and a route without vehicles
+	 */
+	private static ArrayList<RouteSchedule> createRoutes() {
+		ArrayList<RouteSchedule> routes = new ArrayList<RouteSchedule>();
+		routes.add(route(0, 1,
+				vehicle(0, trip(21600, 120, 20, "A", "B", "C"),
+						trip(23000, 90, 0, "C", "B", "A")),
+				vehicle(1, trip(22000, 120, 20, "A", "B", "C"))));
+		routes.add(route(1, 2,
+				vehicle(2, trip(30000, 60, 10, "C", "T\u00f6\u00f6l\u00f6", "D", "E")),
+				vehicle(3)));
+		routes.add(route(2, 1));
+		routes.add(route(7, 3,
+				vehicle(4, trip(86400 * 6 + 3600, 300, 30, "E", "A")),
+				vehicle(5, trip(0, 1, 0, "F"), trip(10, 1, 0, "G", "F"),
+						trip(20, 1, 0, "F", "G"))));
+		return routes;
+	}
+
+	private void write(ArrayList<RouteSchedule> routes) throws IOException {
+		BinaryScheduleWriter writer = new BinaryScheduleWriter(file);
+		try {
+			for (RouteSchedule route : routes) {
+				writer.writeRoute(route);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testReadAll() throws IOException {
+		ArrayList<RouteSchedule> routes = createRoutes();
+		write(routes);
+		BinaryScheduleReader reader = new BinaryScheduleReader(file);
+		try {
+			assertEquals(1, reader.getNumOfSegments());
+			assertSameRoutes(routes, reader.readAll());
+
+			// each stop id is stored once
+			HashSet<String> strings = new HashSet<String>();
+			for (int i = 0; i < reader.getNumOfStrings(); i++) {
+				strings.add(reader.getString(i));
+			}
+			assertEquals(reader.getNumOfStrings(), strings.size());
+			assertEquals(new HashSet<String>(Arrays.asList("A", "B",
+					"C", "T\u00f6\u00f6l\u00f6", "D", "E", "F", "G")), strings);
+
+			BinaryScheduleReader.RouteView route = reader.getRoute(1);
+			assertEquals(1, route.getRouteId());
+			assertEquals(2, route.getLayerId());
+			BinaryScheduleReader.VehicleView vehicle = route.getVehicle(0);
+			assertEquals(2, vehicle.getVehicleId());
+			assertEquals(1, vehicle.getNumOfTrips());
+			assertEquals(4, vehicle.getNumOfStops(0));
+			assertEquals("T\u00f6\u00f6l\u00f6", vehicle.getStopId(0, 1));
+			assertEquals(30000 + 10 + 60, vehicle.getArrivalTime(0, 1));
+			assertEquals(30000 + 10 + 60 + 10, vehicle.getDepartureTime(0, 1));
+			assertEquals(0, route.getVehicle(1).getNumOfTrips());
+			assertEquals(0, reader.getRoute(2).getNumOfVehicles());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void testSegments() throws IOException {
+		ArrayList<RouteSchedule> routes = createRoutes();
+		write(routes);
+		// one route a segment, then segments of a few routes
+		for (long maxSegmentSize : new long[] { 1, 200, 400 }) {
+			BinaryScheduleReader reader = new BinaryScheduleReader(file,
+					maxSegmentSize);
+			try {
+				assertTrue(reader.getNumOfSegments() > 1);
+				if (maxSegmentSize == 1) {
+					assertEquals(routes.size(), reader.getNumOfSegments());
+				}
+				assertSameRoutes(routes, reader.readAll());
+				// in any order
+				for (int r = routes.size() - 1; r >= 0; r--) {
+					assertSameRoute(routes.get(r), reader.getRoute(r)
+							.toRouteSchedule());
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	@Test
+	public void testNotBinary() throws IOException {
+		IOUtil.writeToJSONFile(createRoutes(), file.getPath());
+		try {
+			new BinaryScheduleReader(file);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package util;
+
+import static util.ScheduleFixture.assertSameRoutes;
+import static util.ScheduleFixture.route;
+import static util.ScheduleFixture.trip;
+import static util.ScheduleFixture.vehicle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+import movement.schedule.RouteSchedule;
+import movement.schedule.StopDataUnit;
+import movement.schedule.VehicleSchedule;
+
+import org.junit.Test;
+
+import util.PatternScheduleReader.FrequencyView;
+import util.PatternScheduleReader.RouteView;
+import util.PatternScheduleReader.VehicleView;
+
+public class PatternScheduleTest extends TestCase {
+
+	private File file;
+	private PatternScheduleWriter writer;
+
+	@Override
+	protected void setUp() throws IOException {
+		file = File.createTempFile("schedules", ".json");
+	}
+
+	@Override
+	protected void tearDown() {
+		file.delete();
+	}
+
+	private void write(ArrayList<RouteSchedule> routes,
+			boolean compressFrequencies) throws IOException {
+		writer = new PatternScheduleWriter(file, false, compressFrequencies);
+		try {
+			for (RouteSchedule route : routes) {
+				writer.writeRoute(route);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testPatterns() throws IOException {
+		// two trips of A, B, C on different vehicles and times, one of C, B, A
+		ArrayList<RouteSchedule> routes = new ArrayList<RouteSchedule>();
+		routes.add(route(3, 1,
+				vehicle(0, trip(21600, 120, 20, "A", "B", "C"),
+						trip(23000, 90, 0, "C", "B", "A")),
+				vehicle(1, trip(22000, 100, 30, "A", "B", "C"))));
+		write(routes, false);
+		assertEquals(3, writer.getNumOfTrips());
+		assertEquals(2, writer.getNumOfPatterns());
+
+		PatternScheduleReader reader = new PatternScheduleReader(file);
+		assertSameRoutes(routes, reader.readAll());
+		assertEquals(1, reader.getNumOfRoutes());
+		RouteView route = reader.getRoute(0);
+		assertEquals(3, route.getNumOfStops());
+		assertEquals(2, route.getNumOfPatterns());
+		int shared = route.getVehicle(0).getPattern(0);
+		assertEquals(shared, route.getVehicle(1).getPattern(0));
+		assertTrue(shared != route.getVehicle(0).getPattern(1));
+	}
+
+	/**
+	 * @return a vehicle of trips of the same run times at a constant headway
+	 */
+	private static VehicleSchedule regular(int vehicleId, int start,
+			int headway, int numOfTrips, String... stops) {
+		VehicleSchedule vehicle = vehicle(vehicleId);
+		for (int k = 0; k < numOfTrips; k++) {
+			vehicle.trips.add(trip(start + k * headway, 120, 20, stops));
+		}
+		return vehicle;
+	}
+
+	@Test
+	public void testMinTripsPerFrequency() throws IOException {
+		// two trips at a constant headway stay trips, three make a block
+		ArrayList<RouteSchedule> routes = new ArrayList<RouteSchedule>();
+		routes.add(route(0, 1, regular(0, 21600, 600, 2, "A", "B", "C"),
+				regular(1, 21600, 600, 3, "A", "B", "C")));
+		write(routes, true);
+		assertEquals(1, writer.getNumOfFrequencies());
+		assertEquals(3, writer.getNumOfTripsInFrequencies());
+
+		PatternScheduleReader reader = new PatternScheduleReader(file);
+		assertSameRoutes(routes, reader.readAll());
+		RouteView route = reader.getRoute(0);
+		assertEquals(0, route.getVehicle(0).getNumOfFrequencies());
+		assertEquals(1, route.getVehicle(1).getNumOfFrequencies());
+		assertEquals(3, route.getVehicle(1).getFrequency(0).getNumOfTrips());
+	}
+
+	@Test
+	public void testStrictOrder() throws IOException {
+		// a regular vehicle with a trip starting twice, one with its trips
+		// in the reverse order
+		VehicleSchedule twice = regular(0, 21600, 600, 5, "A", "B", "C");
+		twice.trips.add(3, trip(21600 + 2 * 600, 120, 20, "A", "B", "C"));
+		VehicleSchedule reverse = vehicle(1);
+		for (int k = 4; k >= 0; k--) {
+			reverse.trips.add(trip(21600 + k * 600, 120, 20, "C", "B", "A"));
+		}
+		ArrayList<RouteSchedule> routes = new ArrayList<RouteSchedule>();
+		routes.add(route(0, 1, twice, reverse));
+		write(routes, true);
+		assertEquals(0, writer.getNumOfFrequencies());
+		assertEquals(0, writer.getNumOfTripsInFrequencies());
+
+		PatternScheduleReader reader = new PatternScheduleReader(file);
+		assertSameRoutes(routes, reader.readAll());
+		assertEquals(6, reader.getRoute(0).getVehicle(0).getNumOfTrips());
+		assertEquals(0, reader.getRoute(0).getVehicle(0).getNumOfFrequencies());
+		assertEquals(0, reader.getRoute(0).getVehicle(1).getNumOfFrequencies());
+	}
+
+	@Test
+	public void testOffsets() throws IOException {
+		// run and dwell times that differ from stop to stop
+		VehicleSchedule vehicle = vehicle(0);
+		for (int k = 0; k < 4; k++) {
+			ArrayList<StopDataUnit> trip = trip(30000 + k * 900, 0, 0, "A",
+					"B", "C", "D");
+			for (int i = 0; i < trip.size(); i++) {
+				trip.get(i).arrT += i * i * 60;
+				trip.get(i).depT += i * i * 60 + i * 15;
+			}
+			vehicle.trips.add(trip);
+		}
+		ArrayList<RouteSchedule> routes = new ArrayList<RouteSchedule>();
+		routes.add(route(0, 1, vehicle));
+		write(routes, true);
+		assertEquals(1, writer.getNumOfFrequencies());
+
+		PatternScheduleReader reader = new PatternScheduleReader(file);
+		assertSameRoutes(routes, reader.readAll());
+		FrequencyView frequency = reader.getRoute(0).getVehicle(0)
+				.getFrequency(0);
+		assertEquals(4, frequency.getNumOfTrips());
+		assertEquals(900, frequency.getHeadway(), 0);
+		ArrayList<ArrayList<StopDataUnit>> trips = frequency.expand();
+		for (int k = 0; k < 4; k++) {
+			assertEquals(30000 + k * 900, frequency.getStartTime(k), 0);
+			for (int i = 0; i < 4; i++) {
+				StopDataUnit stop = vehicle.trips.get(k).get(i);
+				assertEquals(stop.arrT, frequency.getArrivalTime(k, i), 0);
+				assertEquals(stop.depT, frequency.getDepartureTime(k, i), 0);
+				assertEquals(stop.stop_id, trips.get(k).get(i).stop_id);
+				assertEquals(stop.arrT, trips.get(k).get(i).arrT, 0);
+				assertEquals(stop.depT, trips.get(k).get(i).depT, 0);
+			}
+		}
+	}
+
+	@Test
+	public void testMergeOrder() throws IOException {
+		// two blocks interleaved with each other and with single trips
+		VehicleSchedule vehicle = vehicle(0,
+				trip(1000, 120, 20, "A", "B", "C"),
+				trip(1500, 120, 20, "C", "B", "A"),
+				trip(2000, 120, 20, "A", "B", "C"),
+				trip(2200, 60, 0, "A", "B", "C"),
+				trip(2500, 120, 20, "C", "B", "A"),
+				trip(3000, 120, 20, "A", "B", "C"),
+				trip(3500, 120, 20, "C", "B", "A"),
+				trip(4000, 120, 20, "A", "B", "C"),
+				trip(5000, 120, 20, "A", "B"));
+		ArrayList<RouteSchedule> routes = new ArrayList<RouteSchedule>();
+		routes.add(route(0, 1, vehicle));
+		write(routes, true);
+		assertEquals(2, writer.getNumOfFrequencies());
+		assertEquals(7, writer.getNumOfTripsInFrequencies());
+
+		PatternScheduleReader reader = new PatternScheduleReader(file);
+		assertSameRoutes(routes, reader.readAll());
+		VehicleView view = reader.getRoute(0).getVehicle(0);
+		assertEquals(vehicle.trips.size(), view.getNumOfTrips());
+		for (int t = 1; t < view.getNumOfTrips(); t++) {
+			assertTrue(view.getArrivalTime(t - 1, 0) < view.getArrivalTime(t, 0));
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import movement.schedule.RouteSchedule;
+import movement.schedule.StopDataUnit;
+import movement.schedule.VehicleSchedule;
+
+import org.junit.Assert;
+
+/**
+ * builds RouteSchedule objects for the schedule writer and reader tests and
+ * compares them field by field, as the ONE classes have no equals()
+ *
+ * @author linzhiqi
+ *
+ */
+class ScheduleFixture {
+
+	static RouteSchedule route(int routeId, int layerId,
+			VehicleSchedule... vehicles) {
+		RouteSchedule route = new RouteSchedule();
+		route.route_id = routeId;
+		route.layer_id = layerId;
+		route.stops = new HashSet<String>();
+		route.vehicles = new ArrayList<VehicleSchedule>(Arrays.asList(vehicles));
+		for (VehicleSchedule vehicle : vehicles) {
+			for (ArrayList<StopDataUnit> trip : vehicle.trips) {
+				for (StopDataUnit stop : trip) {
+					route.stops.add(stop.stop_id);
+				}
+			}
+		}
+		return route;
+	}
+
+	@SafeVarargs
+	static VehicleSchedule vehicle(int vehicleId,
+			ArrayList<StopDataUnit>... trips) {
+		VehicleSchedule vehicle = new VehicleSchedule();
+		vehicle.vehicle_id = vehicleId;
+		vehicle.trips = new ArrayList<ArrayList<StopDataUnit>>(trips.length);
+		for (ArrayList<StopDataUnit> trip : trips) {
+			vehicle.trips.add(trip);
+		}
+		return vehicle;
+	}
+
+	/**
+	 * @param start
+	 *            arrival at the first stop
+	 * @param runTime
+	 *            seconds from the departure of a stop to the arrival at the
+	 *            next one
+	 * @param dwellTime
+	 *            seconds at each stop
+	 * @param stops
+	 */
+	static ArrayList<StopDataUnit> trip(int start, int runTime,
+			int dwellTime, String... stops) {
+		ArrayList<StopDataUnit> trip = new ArrayList<StopDataUnit>();
+		double time = start;
+		for (String stop : stops) {
+			StopDataUnit sdu = new StopDataUnit();
+			sdu.stop_id = stop;
+			sdu.arrT = time;
+			sdu.depT = time + dwellTime;
+			trip.add(sdu);
+			time = sdu.depT + runTime;
+		}
+		return trip;
+	}
+
+	static void assertSameRoutes(List<RouteSchedule> expected,
+			List<RouteSchedule> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int r = 0; r < expected.size(); r++) {
+			assertSameRoute(expected.get(r), actual.get(r));
+		}
+	}
+
+	static void assertSameRoute(RouteSchedule expected, RouteSchedule actual) {
+		Assert.assertEquals(expected.route_id, actual.route_id);
+		Assert.assertEquals(expected.layer_id, actual.layer_id);
+		Assert.assertEquals(expected.stops, actual.stops);
+		Assert.assertEquals(expected.vehicles.size(), actual.vehicles.size());
+		for (int v = 0; v < expected.vehicles.size(); v++) {
+			assertSameVehicle(expected.vehicles.get(v), actual.vehicles.get(v));
+		}
+	}
+
+	static void assertSameVehicle(VehicleSchedule expected,
+			VehicleSchedule actual) {
+		Assert.assertEquals(expected.vehicle_id, actual.vehicle_id);
+		Assert.assertEquals(expected.trips.size(), actual.trips.size());
+		for (int t = 0; t < expected.trips.size(); t++) {
+			ArrayList<StopDataUnit> expectedTrip = expected.trips.get(t);
+			ArrayList<StopDataUnit> actualTrip = actual.trips.get(t);
+			Assert.assertEquals(expectedTrip.size(), actualTrip.size());
+			for (int i = 0; i < expectedTrip.size(); i++) {
+				Assert.assertEquals(expectedTrip.get(i).stop_id,
+						actualTrip.get(i).stop_id);
+				Assert.assertEquals(expectedTrip.get(i).arrT,
+						actualTrip.get(i).arrT, 0);
+				Assert.assertEquals(expectedTrip.get(i).depT,
+						actualTrip.get(i).depT, 0);
+			}
+		}
+	}
+}